@@ -0,0 +1,97 @@
+package edu.stanford.warcutils.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import edu.stanford.warcutils.warcgen.WarcGenerator;
+import edu.stanford.warcutils.warcreader.LineAndChunkReader;
+import edu.stanford.warcutils.warcreader.WarcRecord;
+import edu.stanford.warcutils.warcreader.WarcRecordReader;
+
+/**
+ * @author paepcke
+ *
+ * The WARC data all benchmarks run on: one uncompressed WARC file,
+ * held in memory, parsed into records, and written out once more as a
+ * .warc.gz with one gzip member per record. The file is given by the
+ * system property warc.file. Without it, a synthetic file with the
+ * number of records given by warc.records (default 1000) is made by
+ * WarcGenerator, with its default record type and size mix.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkInput {
+
+	public static final String WARC_FILE_PROPERTY = "warc.file";
+	public static final String NUM_RECORDS_PROPERTY = "warc.records";
+	private static final String DEFAULT_NUM_RECORDS = "1000";
+
+	public File plainFile;
+	public File gzipFile;
+	private File generatedFile = null;
+	public byte[] warcBytes;
+	public List<WarcRecord> records;
+
+	@Setup
+	public void setUp() throws IOException {
+		String warcFileName = System.getProperty(WARC_FILE_PROPERTY);
+		if (warcFileName != null)
+			plainFile = new File(warcFileName);
+		else {
+			WarcGenerator generator = new WarcGenerator();
+			generator.setNumRecords(Long.parseLong(System.getProperty(NUM_RECORDS_PROPERTY, DEFAULT_NUM_RECORDS)));
+			generatedFile = File.createTempFile("benchmark", ".warc");
+			generator.generate(generatedFile);
+			plainFile = generatedFile;
+		}
+		warcBytes = FileUtils.readFileToByteArray(plainFile);
+		records = new ArrayList<WarcRecord>();
+		ArrayList<Long> keys = new ArrayList<Long>();
+		WarcRecordReader reader = new WarcRecordReader(plainFile);
+		while (reader.nextKeyValue()) {
+			records.add(reader.getCurrentValue());
+			keys.add(reader.getCurrentKey());
+		}
+		reader.close();
+		keys.add((long) warcBytes.length);
+
+		gzipFile = File.createTempFile("benchmark", ".warc.gz");
+		FileOutputStream gzOut = new FileOutputStream(gzipFile);
+		try {
+			for (int i=0; i<keys.size()-1; i++) {
+				ByteArrayOutputStream member = new ByteArrayOutputStream();
+				GZIPOutputStream gzMember = new GZIPOutputStream(member);
+				gzMember.write(warcBytes, (int) (long) keys.get(i), (int) (keys.get(i+1) - keys.get(i)));
+				gzMember.close();
+				gzOut.write(member.toByteArray());
+			}
+		} finally {
+			gzOut.close();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		gzipFile.delete();
+		if (generatedFile != null)
+			generatedFile.delete();
+	}
+
+	/**
+	 * @return a fresh line reader over the in-memory WARC bytes.
+	 */
+	public LineAndChunkReader newLineReader() {
+		return new LineAndChunkReader(new ByteArrayInputStream(warcBytes));
+	}
+}
@@ -0,0 +1,44 @@
+package edu.stanford.warcutils.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.stanford.warcutils.warcfilter.WarcFilter;
+import edu.stanford.warcutils.warcreader.WarcRecord;
+
+/**
+ * @author paepcke
+ *
+ * WarcFilter.matches() on a header field, and on the record
+ * content, over all records of the input.
+ */
+@State(Scope.Thread)
+public class FilterBenchmark {
+
+	@Param({"warc-type", "content"})
+	public String key;
+
+	private WarcFilter filter;
+
+	@Setup
+	public void setUp() {
+		if (key.equals(WarcRecord.CONTENT))
+			// matches() tests the whole value, so the pattern scans all of it:
+			filter = new WarcFilter("(?s).*<title>[^<]*news.*", key);
+		else
+			filter = new WarcFilter("resp.*", key);
+	}
+
+	@Benchmark
+	public int matchAllRecords(BenchmarkInput input) {
+		int numMatches = 0;
+		for (WarcRecord rec : input.records) {
+			if (filter.matches(rec))
+				numMatches++;
+		}
+		return numMatches;
+	}
+}
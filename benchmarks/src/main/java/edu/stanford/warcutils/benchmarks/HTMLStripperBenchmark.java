@@ -0,0 +1,41 @@
+package edu.stanford.warcutils.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.stanford.warcutils.warcfilter.HTMLStripper;
+import edu.stanford.warcutils.warcreader.WarcRecord;
+
+/**
+ * @author paepcke
+ *
+ * HTMLStripper.extractText() on the content of every response
+ * record of the input. The contents are taken out of the records
+ * beforehand, since extractText(WarcRecord) replaces them.
+ */
+@State(Scope.Thread)
+public class HTMLStripperBenchmark {
+
+	private List<String> pages;
+
+	@Setup
+	public void setUp(BenchmarkInput input) {
+		pages = new ArrayList<String>();
+		for (WarcRecord rec : input.records) {
+			if ("response".equals(rec.get(WarcRecord.WARC_TYPE)))
+				pages.add(rec.get(WarcRecord.CONTENT));
+		}
+	}
+
+	@Benchmark
+	public void extractText(Blackhole blackhole) {
+		for (String page : pages)
+			blackhole.consume(HTMLStripper.extractText(page));
+	}
+}
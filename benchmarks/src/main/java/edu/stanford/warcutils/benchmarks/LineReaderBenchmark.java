@@ -0,0 +1,32 @@
+package edu.stanford.warcutils.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import edu.stanford.warcutils.warcreader.LineAndChunkReader;
+import edu.stanford.warcutils.warcreader.Text;
+
+/**
+ * @author paepcke
+ *
+ * LineAndChunkReader.readLine() over every line of the input,
+ * record contents included.
+ */
+@State(Scope.Thread)
+public class LineReaderBenchmark {
+
+	private Text line = new Text();
+
+	@Benchmark
+	public long readAllLines(BenchmarkInput input) throws IOException {
+		LineAndChunkReader reader = input.newLineReader();
+		long numBytes = 0;
+		int n;
+		while ((n = reader.readLine(line)) > 0)
+			numBytes += n;
+		return numBytes;
+	}
+}
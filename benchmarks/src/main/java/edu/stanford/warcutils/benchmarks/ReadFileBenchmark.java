@@ -0,0 +1,40 @@
+package edu.stanford.warcutils.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.stanford.warcutils.warcreader.WarcRecordReader;
+
+/**
+ * @author paepcke
+ *
+ * WarcRecordReader end to end, from opening the file to the last
+ * record, for the plain input and its per-record gzipped copy.
+ */
+@State(Scope.Thread)
+public class ReadFileBenchmark {
+
+	@Param({"plain", "gzip"})
+	public String compression;
+
+	@Param({"true", "false"})
+	public boolean readContent;
+
+	@Benchmark
+	public void readFile(BenchmarkInput input, Blackhole blackhole) throws IOException {
+		File warcFile = compression.equals("gzip") ? input.gzipFile : input.plainFile;
+		WarcRecordReader reader = new WarcRecordReader(warcFile);
+		try {
+			while (reader.nextKeyValue(readContent))
+				blackhole.consume(reader.getCurrentValue());
+		} finally {
+			reader.close();
+		}
+	}
+}
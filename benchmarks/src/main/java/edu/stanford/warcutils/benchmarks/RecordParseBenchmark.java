@@ -0,0 +1,33 @@
+package edu.stanford.warcutils.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.stanford.warcutils.warcreader.LineAndChunkReader;
+import edu.stanford.warcutils.warcreader.WarcRecord;
+
+/**
+ * @author paepcke
+ *
+ * WarcRecord.readNextWarcRecord() over all records of the in-memory
+ * input, with and without reading the record contents.
+ */
+@State(Scope.Thread)
+public class RecordParseBenchmark {
+
+	@Param({"true", "false"})
+	public boolean readContent;
+
+	@Benchmark
+	public void readAllRecords(BenchmarkInput input, Blackhole blackhole) throws IOException {
+		LineAndChunkReader reader = input.newLineReader();
+		WarcRecord rec;
+		while ((rec = WarcRecord.readNextWarcRecord(reader, readContent)) != null)
+			blackhole.consume(rec);
+	}
+}
@@ -0,0 +1,117 @@
+package edu.stanford.warcutils.benchmarks;
+
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.stanford.warcutils.warcfilter.DfaPattern;
+import edu.stanford.warcutils.warcfilter.WarcFilter;
+import edu.stanford.warcutils.warcreader.WarcRecord;
+
+/**
+ * @author paepcke
+ *
+ * java.util.regex against DfaPattern: content filters over all
+ * records of the input (use -Dwarc.file for real pages), the same
+ * filters in find mode, which stop at the first occurrence, and a
+ * pattern on which java.util.regex backtracks in time that grows
+ * with the 12th power of the length of inputs it does not match.
+ */
+public class RegexEngineBenchmark {
+
+	private static final String BACKTRACKING_PATTERN = "(.*a){12}";
+
+	@State(Scope.Thread)
+	public static class Engine {
+		@Param({"java", "dfa"})
+		public String engine;
+
+		public boolean isDfa() {
+			return engine.equals("dfa");
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ContentFilter {
+		@Param({"(?s).*<title>[^<]*news.*",
+				"(?s).*stanford.*",
+				"(?s).*<a [^>]*href=\"[^\"]*\\.pdf\".*"})
+		public String pattern;
+
+		public WarcFilter filter;
+
+		@Setup
+		public void setUp(Engine engine) {
+			filter = new WarcFilter(pattern, WarcRecord.CONTENT, engine.isDfa());
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class FindFilter {
+		@Param({"<title>[^<]*news",
+				"stanford",
+				"<a [^>]*href=\"[^\"]*\\.pdf\""})
+		public String pattern;
+
+		public WarcFilter filter;
+
+		@Setup
+		public void setUp(Engine engine) {
+			filter = new WarcFilter(pattern, WarcRecord.CONTENT, engine.isDfa());
+			filter.setFind(true);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Backtracking {
+		@Param({"16", "24"})
+		public int numChars;
+
+		public String input;
+		public Pattern javaPattern;
+		public DfaPattern dfaPattern;
+
+		@Setup
+		public void setUp(Engine engine) {
+			StringBuilder str = new StringBuilder();
+			for (int i=0; i<numChars; i++)
+				str.append('a');
+			input = str.toString();
+			if (engine.isDfa())
+				dfaPattern = DfaPattern.compile(BACKTRACKING_PATTERN);
+			else
+				javaPattern = Pattern.compile(BACKTRACKING_PATTERN);
+		}
+	}
+
+	@Benchmark
+	public int matchAllRecords(BenchmarkInput input, ContentFilter content) {
+		int numMatches = 0;
+		for (WarcRecord rec : input.records) {
+			if (content.filter.matches(rec))
+				numMatches++;
+		}
+		return numMatches;
+	}
+
+	@Benchmark
+	public int findAllRecords(BenchmarkInput input, FindFilter find) {
+		int numMatches = 0;
+		for (WarcRecord rec : input.records) {
+			if (find.filter.matches(rec))
+				numMatches++;
+		}
+		return numMatches;
+	}
+
+	@Benchmark
+	public boolean matchBacktracking(Backtracking backtracking) {
+		if (backtracking.dfaPattern != null)
+			return backtracking.dfaPattern.matches(backtracking.input);
+		return backtracking.javaPattern.matcher(backtracking.input).matches();
+	}
+}
@@ -0,0 +1,36 @@
+package edu.stanford.warcutils.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * @author paepcke
+ *
+ * Runs the benchmarks with the GC profiler, so that next to the
+ * time per operation, the bytes allocated per operation are reported
+ * (gc.alloc.rate.norm). Benchmarks process all records of the input
+ * per operation; divide by the number of records for per-record figures.
+ */
+public class RunBenchmarks {
+
+	/**
+	 * @param args: optional regular expression selecting benchmarks, e.g. "ReadFile".
+	 */
+	public static void main(String[] args) throws RunnerException {
+		String include = (args.length > 0) ? args[0] : RunBenchmarks.class.getPackage().getName() + ".*";
+		Options opts = new OptionsBuilder()
+			.include(include)
+			.addProfiler(GCProfiler.class)
+			.warmupIterations(5)
+			.warmupTime(TimeValue.seconds(1))
+			.measurementIterations(5)
+			.measurementTime(TimeValue.seconds(1))
+			.forks(1)
+			.build();
+		new Runner(opts).run();
+	}
+}
@@ -0,0 +1,1195 @@
+package edu.stanford.warcutils.warcfilter;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * @author paepcke
+ *
+ * A regular expression that is matched in time linear in the length
+ * of the input, whatever the pattern and the input. java.util.regex
+ * backtracks, and some patterns, such as (.*,){12}x, take time that
+ * grows with a high power of the input length on inputs they do not
+ * match; on multi-megabyte contents a single such match can run for
+ * minutes.
+ *
+ * A DfaPattern is compiled into a nondeterministic automaton over the
+ * UTF-8 bytes of the input, which is turned into a deterministic one
+ * lazily, as inputs are matched: each DFA state and transition is
+ * built the first time an input needs it, and cached. Each input byte
+ * thus costs one table lookup, or, the first time, work bounded by
+ * the size of the pattern. Contents are matched as raw bytes, without
+ * being decoded first. Matching stops early once no continuation of
+ * the input could change the outcome, e.g. for (?s).*news.* once
+ * "news" has been seen.
+ *
+ * matches() decides the same as Matcher.matches() on the input decoded
+ * as UTF-8, for the subset of the java.util.regex syntax that has no
+ * backtracking semantics:
+ *
+ *   literals, escapes \t \n \r \f \a \e \0oct \xhh \x{h..h} \\uhhhh \cX,
+ *             and \Q...\E quoting,
+ *   .         any character but line terminators, or with (?s) any
+ *             character, or with (?d) any character but \n,
+ *   classes   [abc], [^a-z], with \d \D \s \S \w \W \h \H \v \V, also
+ *             outside classes,
+ *   groups    (X), (?:X), (?<name>X),
+ *   |, and the quantifiers * + ? {n} {n,} {n,m}, greedy or reluctant,
+ *   flags     (?i) (ASCII case insensitivity, as in java.util.regex),
+ *             (?s), (?d), (?m), as (?flags) and (?flags:X),
+ *   anchors   ^ \A at the start, and $ \z \Z at the end of the pattern,
+ *             where they are redundant for matching the whole input.
+ *
+ * Malformed UTF-8 in the input is matched as java.util.regex would see
+ * it after decoding: each malformed sequence as one U+FFFD.
+ *
+ * Patterns with other features, such as back references, lookaround,
+ * possessive quantifiers, \b, \p{...}, nested classes, or repetition
+ * counts above 1000, are rejected with an UnsupportedPatternException.
+ *
+ * A DfaPattern may be shared between threads; each thread builds its
+ * own DFA, of at most MAX_DFA_STATES states (about 1KB each). When a
+ * thread's DFA is full, it is discarded and built anew.
+ */
+public class DfaPattern {
+
+	/**
+	 * Thrown by compile() for valid patterns that use features
+	 * DfaPattern does not support.
+	 */
+	public static class UnsupportedPatternException extends IllegalArgumentException {
+		private static final long serialVersionUID = 1L;
+
+		public UnsupportedPatternException(String message) {
+			super(message);
+		}
+	}
+
+	public static final int MAX_DFA_STATES = 4096;
+	private static final int MAX_NFA_STATES = 100000;
+	private static final int MAX_REPEAT = 1000;
+	private static final int MAX_CODE_POINT = Character.MAX_CODE_POINT;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// NFA state kinds:
+	private static final int RANGE = 0;
+	private static final int SPLIT = 1;
+	private static final int MATCH = 2;
+
+	private String source;
+	// The NFA: a state either consumes one byte within [lo, hi] and goes
+	// to out, or splits to out and out2 without consuming anything, or accepts:
+	private int[] kind = new int[64];
+	private int[] lo = new int[64];
+	private int[] hi = new int[64];
+	private int[] out = new int[64];
+	private int[] out2 = new int[64];
+	// SPLIT states that loop on any character and then accept:
+	private boolean[] universal = new boolean[64];
+	private int numNfaStates = 0;
+	private int matchState;
+	private int nfaStart;
+
+	private final ThreadLocal<LazyDfa> dfas = new ThreadLocal<LazyDfa>() {
+		@Override
+		protected LazyDfa initialValue() {
+			return new LazyDfa();
+		}
+	};
+
+	private DfaPattern(String regex) {
+		source = regex;
+	}
+
+	/**
+	 * Compile a regular expression.
+	 * @param regex regular expression in java.util.regex syntax.
+	 * @return the compiled pattern.
+	 * @throws java.util.regex.PatternSyntaxException if the expression is malformed.
+	 * @throws UnsupportedPatternException if the expression uses features
+	 * 			outside the subset given in the class comment.
+	 */
+	public static DfaPattern compile(String regex) {
+		// Syntax errors are reported like java.util.regex does:
+		Pattern.compile(regex);
+		DfaPattern res = new DfaPattern(regex);
+		Node root = new Parser(regex).parse();
+		res.matchState = res.newState(MATCH, 0, 0, -1, -1);
+		res.nfaStart = res.compile(root, res.matchState);
+		return res;
+	}
+
+	/**
+	 * @return whether the bytes from the buffer's position to its limit,
+	 * 			decoded as UTF-8, match the pattern in their entirety.
+	 */
+	public boolean matches(ByteBuffer input) {
+		return dfas.get().matches(input);
+	}
+
+	/**
+	 * @return whether the given bytes, decoded as UTF-8, match the pattern in their entirety.
+	 */
+	public boolean matches(byte[] input, int offset, int len) {
+		return dfas.get().matches(input, offset, len);
+	}
+
+	/**
+	 * @return whether the given characters match the pattern in their entirety.
+	 */
+	public boolean matches(CharSequence input) {
+		return matches(UTF8.encode(CharBuffer.wrap(input)));
+	}
+
+	/**
+	 * @return the regular expression this pattern was compiled from.
+	 */
+	public String pattern() {
+		return source;
+	}
+
+	/**
+	 * @return number of states of the nondeterministic automaton.
+	 */
+	public int getNumNfaStates() {
+		return numNfaStates;
+	}
+
+	@Override
+	public String toString() {
+		return source;
+	}
+
+	/*--------------------------
+	 * Syntax tree
+	 *-------------------------*/
+
+	private static abstract class Node {
+	}
+
+	/**
+	 * One character out of a set, given as sorted, disjoint code point ranges.
+	 */
+	private static class CharSet extends Node {
+		int[] ranges;
+
+		CharSet(int[] ranges) {
+			this.ranges = ranges;
+		}
+
+		boolean isAll() {
+			return ranges.length == 2 && ranges[0] == 0 && ranges[1] == MAX_CODE_POINT;
+		}
+	}
+
+	private static class Concat extends Node {
+		List<Node> items;
+
+		Concat(List<Node> items) {
+			this.items = items;
+		}
+	}
+
+	private static class Alt extends Node {
+		List<Node> items;
+
+		Alt(List<Node> items) {
+			this.items = items;
+		}
+	}
+
+	private static class Repeat extends Node {
+		Node body;
+		int min;
+		// -1 for no upper bound:
+		int max;
+
+		Repeat(Node body, int min, int max) {
+			this.body = body;
+			this.min = min;
+			this.max = max;
+		}
+	}
+
+	private static class Anchor extends Node {
+		boolean atStart;
+
+		Anchor(boolean atStart) {
+			this.atStart = atStart;
+		}
+	}
+
+	/*--------------------------
+	 * Code point sets
+	 *-------------------------*/
+
+	/**
+	 * @param pairs lo, hi, lo, hi, ... in any order, possibly overlapping.
+	 * @return the same set as sorted, disjoint, non-adjacent ranges.
+	 */
+	private static int[] normalize(int[] pairs, int len) {
+		long[] sorted = new long[len / 2];
+		for (int i=0; i<sorted.length; i++)
+			sorted[i] = ((long) pairs[2*i] << 32) | pairs[2*i + 1];
+		Arrays.sort(sorted);
+		int[] res = new int[len];
+		int resLen = 0;
+		for (long range : sorted) {
+			int rangeLo = (int) (range >>> 32);
+			int rangeHi = (int) range;
+			if (resLen > 0 && rangeLo <= res[resLen - 1] + 1) {
+				res[resLen - 1] = Math.max(res[resLen - 1], rangeHi);
+			} else {
+				res[resLen++] = rangeLo;
+				res[resLen++] = rangeHi;
+			}
+		}
+		return Arrays.copyOf(res, resLen);
+	}
+
+	private static int[] complement(int[] ranges) {
+		int[] res = new int[ranges.length + 2];
+		int resLen = 0;
+		int next = 0;
+		for (int i=0; i<ranges.length; i+=2) {
+			if (ranges[i] > next) {
+				res[resLen++] = next;
+				res[resLen++] = ranges[i] - 1;
+			}
+			next = ranges[i + 1] + 1;
+		}
+		if (next <= MAX_CODE_POINT) {
+			res[resLen++] = next;
+			res[resLen++] = MAX_CODE_POINT;
+		}
+		return Arrays.copyOf(res, resLen);
+	}
+
+	/**
+	 * @return the set, with the other case of every ASCII letter in it added.
+	 */
+	private static int[] addAsciiCase(int[] ranges) {
+		int[] pairs = Arrays.copyOf(ranges, ranges.length * 3);
+		int len = ranges.length;
+		for (int i=0; i<ranges.length; i+=2) {
+			int upperLo = Math.max(ranges[i], 'A');
+			int upperHi = Math.min(ranges[i + 1], 'Z');
+			if (upperLo <= upperHi) {
+				pairs[len++] = upperLo + ('a' - 'A');
+				pairs[len++] = upperHi + ('a' - 'A');
+			}
+			int lowerLo = Math.max(ranges[i], 'a');
+			int lowerHi = Math.min(ranges[i + 1], 'z');
+			if (lowerLo <= lowerHi) {
+				pairs[len++] = lowerLo - ('a' - 'A');
+				pairs[len++] = lowerHi - ('a' - 'A');
+			}
+		}
+		return normalize(pairs, len);
+	}
+
+	/*--------------------------
+	 * Parser
+	 *-------------------------*/
+
+	private static class Parser {
+		private static final int CASE_INSENSITIVE = 1;
+		private static final int DOTALL = 2;
+		private static final int UNIX_LINES = 4;
+
+		private static final int[] DIGIT = {'0', '9'};
+		private static final int[] SPACE = {'\t', '\r', ' ', ' '};
+		private static final int[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+		private static final int[] HORIZONTAL_SPACE = {'\t', '\t', ' ', ' ', 0xA0, 0xA0, 0x1680, 0x1680, 0x180E, 0x180E,
+													   0x2000, 0x200A, 0x202F, 0x202F, 0x205F, 0x205F, 0x3000, 0x3000};
+		private static final int[] VERTICAL_SPACE = {'\n', '\r', 0x85, 0x85, 0x2028, 0x2029};
+		private static final int[] LINE_TERMINATORS = {'\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029};
+
+		private String regex;
+		private int pos = 0;
+		private int flags = 0;
+
+		Parser(String regex) {
+			this.regex = regex;
+		}
+
+		Node parse() {
+			Node res = parseAlternation();
+			if (pos < regex.length())
+				throw unsupported("unbalanced ')'");
+			// Anchors at the very start and end are redundant when the
+			// whole input is matched; any others are not supported:
+			List<Node> branches = (res instanceof Alt) ? ((Alt) res).items : Arrays.asList(res);
+			ArrayList<Node> stripped = new ArrayList<Node>();
+			for (Node branch : branches) {
+				List<Node> items = (branch instanceof Concat) ? ((Concat) branch).items : Arrays.asList(branch);
+				int first = 0;
+				int last = items.size();
+				while (first < last && items.get(first) instanceof Anchor && ((Anchor) items.get(first)).atStart)
+					first++;
+				while (last > first && items.get(last - 1) instanceof Anchor && !((Anchor) items.get(last - 1)).atStart)
+					last--;
+				stripped.add(new Concat(new ArrayList<Node>(items.subList(first, last))));
+			}
+			res = (stripped.size() == 1) ? stripped.get(0) : new Alt(stripped);
+			checkNoAnchors(res);
+			return res;
+		}
+
+		private void checkNoAnchors(Node node) {
+			if (node instanceof Anchor)
+				throw unsupported("anchors other than at the start or end of the pattern");
+			if (node instanceof Concat) {
+				for (Node item : ((Concat) node).items)
+					checkNoAnchors(item);
+			} else if (node instanceof Alt) {
+				for (Node item : ((Alt) node).items)
+					checkNoAnchors(item);
+			} else if (node instanceof Repeat)
+				checkNoAnchors(((Repeat) node).body);
+		}
+
+		private Node parseAlternation() {
+			ArrayList<Node> branches = new ArrayList<Node>();
+			branches.add(parseConcatenation());
+			while (pos < regex.length() && regex.charAt(pos) == '|') {
+				pos++;
+				branches.add(parseConcatenation());
+			}
+			return (branches.size() == 1) ? branches.get(0) : new Alt(branches);
+		}
+
+		private Node parseConcatenation() {
+			ArrayList<Node> items = new ArrayList<Node>();
+			while (pos < regex.length() && regex.charAt(pos) != '|' && regex.charAt(pos) != ')') {
+				Node atom = parseAtom();
+				// Inline flags are no atom:
+				if (atom != null)
+					items.add(parseQuantifier(atom));
+			}
+			return (items.size() == 1) ? items.get(0) : new Concat(items);
+		}
+
+		private Node parseQuantifier(Node atom) {
+			if (pos >= regex.length())
+				return atom;
+			int min;
+			int max;
+			switch (regex.charAt(pos)) {
+			case '*': min = 0; max = -1; pos++; break;
+			case '+': min = 1; max = -1; pos++; break;
+			case '?': min = 0; max = 1; pos++; break;
+			case '{':
+				pos++;
+				min = parseNumber();
+				max = min;
+				if (peek(',')) {
+					pos++;
+					max = peek('}') ? -1 : parseNumber();
+				}
+				if (!peek('}'))
+					throw unsupported("malformed repetition");
+				pos++;
+				break;
+			default:
+				return atom;
+			}
+			if (min > MAX_REPEAT || max > MAX_REPEAT)
+				throw unsupported("repetition counts above " + MAX_REPEAT);
+			if (peek('?'))
+				// Reluctant; the same as greedy for matching the whole input:
+				pos++;
+			else if (peek('+'))
+				throw unsupported("possessive quantifiers");
+			if (pos < regex.length() && "*+?{".indexOf(regex.charAt(pos)) >= 0)
+				throw unsupported("repeated quantifiers");
+			return new Repeat(atom, min, max);
+		}
+
+		private int parseNumber() {
+			int start = pos;
+			while (pos < regex.length() && Character.isDigit(regex.charAt(pos)) && pos - start < 9)
+				pos++;
+			if (pos == start)
+				throw unsupported("malformed repetition");
+			return Integer.parseInt(regex.substring(start, pos));
+		}
+
+		/**
+		 * @return the next atom, or null for an inline flag setting.
+		 */
+		private Node parseAtom() {
+			int c = regex.codePointAt(pos);
+			switch (c) {
+			case '(':
+				return parseGroup();
+			case '[':
+				return new CharSet(parseClass());
+			case '.':
+				pos++;
+				if ((flags & DOTALL) != 0)
+					return new CharSet(new int[] {0, MAX_CODE_POINT});
+				if ((flags & UNIX_LINES) != 0)
+					return new CharSet(complement(new int[] {'\n', '\n'}));
+				return new CharSet(complement(LINE_TERMINATORS));
+			case '^':
+				pos++;
+				return new Anchor(true);
+			case '$':
+				pos++;
+				return new Anchor(false);
+			case '\\':
+				return parseEscape();
+			case '*':
+			case '+':
+			case '?':
+			case '{':
+				throw unsupported("dangling '" + (char) c + "'");
+			default:
+				pos += Character.charCount(c);
+				return literal(c);
+			}
+		}
+
+		private Node literal(int c) {
+			int[] ranges = {c, c};
+			if ((flags & CASE_INSENSITIVE) != 0)
+				ranges = addAsciiCase(ranges);
+			return new CharSet(ranges);
+		}
+
+		private Node parseGroup() {
+			pos++;
+			int savedFlags = flags;
+			if (peek('?')) {
+				pos++;
+				if (peek(':')) {
+					pos++;
+				} else if (peek('<') && pos + 1 < regex.length() && Character.isLetter(regex.charAt(pos + 1))) {
+					// Named group; names do not matter here:
+					pos = regex.indexOf('>', pos) + 1;
+				} else {
+					int newFlags = flags;
+					boolean turnOn = true;
+					while (pos < regex.length() && regex.charAt(pos) != ':' && regex.charAt(pos) != ')') {
+						char flag = regex.charAt(pos++);
+						int bit;
+						switch (flag) {
+						case '-': turnOn = false; continue;
+						case 'i': bit = CASE_INSENSITIVE; break;
+						case 's': bit = DOTALL; break;
+						case 'd': bit = UNIX_LINES; break;
+						// Only affects anchors inside the pattern, which are not supported anyway:
+						case 'm': bit = 0; break;
+						default:
+							throw unsupported("group construct or flag '" + flag + "'");
+						}
+						newFlags = turnOn ? (newFlags | bit) : (newFlags & ~bit);
+					}
+					if (pos >= regex.length())
+						throw unsupported("unbalanced '('");
+					if (regex.charAt(pos++) == ')') {
+						// Applies to the rest of the enclosing group:
+						flags = newFlags;
+						return null;
+					}
+					flags = newFlags;
+				}
+			}
+			Node res = parseAlternation();
+			if (!peek(')'))
+				throw unsupported("unbalanced '('");
+			pos++;
+			flags = savedFlags;
+			return res;
+		}
+
+		private Node parseEscape() {
+			pos++;
+			if (pos >= regex.length())
+				throw unsupported("trailing backslash");
+			char c = regex.charAt(pos);
+			switch (c) {
+			case 'A':
+				pos++;
+				return new Anchor(true);
+			case 'z':
+			case 'Z':
+				pos++;
+				return new Anchor(false);
+			case 'Q':
+				pos++;
+				int end = regex.indexOf("\\E", pos);
+				if (end < 0)
+					end = regex.length();
+				ArrayList<Node> literals = new ArrayList<Node>();
+				while (pos < end) {
+					int quoted = regex.codePointAt(pos);
+					literals.add(literal(quoted));
+					pos += Character.charCount(quoted);
+				}
+				pos = Math.min(end + 2, regex.length());
+				return new Concat(literals);
+			default:
+				int[] predefined = predefinedClass(c);
+				if (predefined != null) {
+					pos++;
+					return new CharSet(predefined);
+				}
+				return literal(parseEscapedCodePoint());
+			}
+		}
+
+		/**
+		 * @return the set for \d, \D, \s and so on, or null for other escapes.
+		 */
+		private int[] predefinedClass(char c) {
+			switch (c) {
+			case 'd': return DIGIT;
+			case 'D': return complement(DIGIT);
+			case 's': return normalize(SPACE, SPACE.length);
+			case 'S': return complement(normalize(SPACE, SPACE.length));
+			case 'w': return WORD;
+			case 'W': return complement(WORD);
+			case 'h': return HORIZONTAL_SPACE;
+			case 'H': return complement(HORIZONTAL_SPACE);
+			case 'v': return VERTICAL_SPACE;
+			case 'V': return complement(VERTICAL_SPACE);
+			default: return null;
+			}
+		}
+
+		/**
+		 * Parse an escape that stands for one character; pos is just
+		 * after the backslash.
+		 */
+		private int parseEscapedCodePoint() {
+			char c = regex.charAt(pos++);
+			switch (c) {
+			case 't': return '\t';
+			case 'n': return '\n';
+			case 'r': return '\r';
+			case 'f': return '\f';
+			case 'a': return 0x07;
+			case 'e': return 0x1B;
+			case '0':
+				int value = 0;
+				int maxDigits = (pos < regex.length() && regex.charAt(pos) <= '3') ? 3 : 2;
+				int numDigits = 0;
+				while (numDigits < maxDigits && pos < regex.length() && regex.charAt(pos) >= '0' && regex.charAt(pos) <= '7') {
+					value = value * 8 + (regex.charAt(pos++) - '0');
+					numDigits++;
+				}
+				if (numDigits == 0)
+					throw unsupported("malformed octal escape");
+				return value;
+			case 'x':
+				if (peek('{')) {
+					int close = regex.indexOf('}', pos);
+					int cp = Integer.parseInt(regex.substring(pos + 1, close), 16);
+					pos = close + 1;
+					return cp;
+				}
+				return parseHex(2);
+			case 'u':
+				int unit = parseHex(4);
+				if (Character.isHighSurrogate((char) unit) && regex.startsWith("\\u", pos)) {
+					int savedPos = pos;
+					pos += 2;
+					int low = parseHex(4);
+					if (Character.isLowSurrogate((char) low))
+						return Character.toCodePoint((char) unit, (char) low);
+					pos = savedPos;
+				}
+				if (Character.isSurrogate((char) unit))
+					throw unsupported("unpaired surrogates");
+				return unit;
+			case 'c':
+				if (pos >= regex.length())
+					throw unsupported("malformed control escape");
+				return regex.charAt(pos++) ^ 64;
+			default:
+				if (Character.isLetterOrDigit(c))
+					throw unsupported("escape \\" + c);
+				pos--;
+				int cp = regex.codePointAt(pos);
+				pos += Character.charCount(cp);
+				return cp;
+			}
+		}
+
+		private int parseHex(int numDigits) {
+			if (pos + numDigits > regex.length())
+				throw unsupported("malformed hex escape");
+			int cp = Integer.parseInt(regex.substring(pos, pos + numDigits), 16);
+			pos += numDigits;
+			return cp;
+		}
+
+		private int[] parseClass() {
+			pos++;
+			boolean negated = false;
+			if (peek('^')) {
+				negated = true;
+				pos++;
+			}
+			if (peek(']'))
+				throw unsupported("']' at the start of a class");
+			int[] pairs = new int[16];
+			int len = 0;
+			boolean first = true;
+			while (true) {
+				if (pos >= regex.length())
+					throw unsupported("unclosed class");
+				int c = regex.codePointAt(pos);
+				if (c == ']') {
+					pos++;
+					break;
+				}
+				if (c == '[')
+					throw unsupported("nested classes");
+				if (c == '&' && regex.startsWith("&&", pos))
+					throw unsupported("class intersections");
+				if (c == '-' && !first && !regex.startsWith("-]", pos))
+					throw unsupported("'-' inside a class");
+				first = false;
+				if (len + 4 > pairs.length)
+					pairs = Arrays.copyOf(pairs, pairs.length * 2);
+				if (c == '\\') {
+					if (pos + 1 < regex.length()) {
+						int[] predefined = predefinedClass(regex.charAt(pos + 1));
+						if (predefined != null) {
+							pos += 2;
+							if (peek('-') && !regex.startsWith("-]", pos))
+								throw unsupported("ranges from predefined classes");
+							pairs = Arrays.copyOf(pairs, Math.max(pairs.length, len + predefined.length + 4));
+							System.arraycopy(predefined, 0, pairs, len, predefined.length);
+							len += predefined.length;
+							continue;
+						}
+					}
+				}
+				int rangeLo = parseClassChar();
+				int rangeHi = rangeLo;
+				if (peek('-') && !regex.startsWith("-]", pos)) {
+					pos++;
+					if (peek('[') || (peek('\\') && pos + 1 < regex.length() && predefinedClass(regex.charAt(pos + 1)) != null))
+						throw unsupported("ranges to classes");
+					rangeHi = parseClassChar();
+				}
+				pairs[len++] = rangeLo;
+				pairs[len++] = rangeHi;
+			}
+			int[] ranges = normalize(pairs, len);
+			if ((flags & CASE_INSENSITIVE) != 0)
+				ranges = addAsciiCase(ranges);
+			return negated ? complement(ranges) : ranges;
+		}
+
+		private int parseClassChar() {
+			int c = regex.codePointAt(pos);
+			if (c != '\\') {
+				pos += Character.charCount(c);
+				return c;
+			}
+			pos++;
+			if (pos >= regex.length())
+				throw unsupported("trailing backslash");
+			if (regex.charAt(pos) == 'Q' || regex.charAt(pos) == 'E')
+				throw unsupported("quoting inside classes");
+			return parseEscapedCodePoint();
+		}
+
+		private boolean peek(char c) {
+			return pos < regex.length() && regex.charAt(pos) == c;
+		}
+
+		private UnsupportedPatternException unsupported(String feature) {
+			return new UnsupportedPatternException("Not supported by DfaPattern: " + feature +
+												   " (at index " + pos + " of " + regex + ")");
+		}
+	}
+
+	/*--------------------------
+	 * Compiling to an NFA over bytes
+	 *-------------------------*/
+
+	private int newState(int stateKind, int byteLo, int byteHi, int next, int next2) {
+		if (numNfaStates == MAX_NFA_STATES)
+			throw new UnsupportedPatternException("Not supported by DfaPattern: patterns of more than " +
+												  MAX_NFA_STATES + " states (" + source + ")");
+		if (numNfaStates == kind.length) {
+			int capacity = kind.length * 2;
+			kind = Arrays.copyOf(kind, capacity);
+			lo = Arrays.copyOf(lo, capacity);
+			hi = Arrays.copyOf(hi, capacity);
+			out = Arrays.copyOf(out, capacity);
+			out2 = Arrays.copyOf(out2, capacity);
+			universal = Arrays.copyOf(universal, capacity);
+		}
+		kind[numNfaStates] = stateKind;
+		lo[numNfaStates] = byteLo;
+		hi[numNfaStates] = byteHi;
+		out[numNfaStates] = next;
+		out2[numNfaStates] = next2;
+		return numNfaStates++;
+	}
+
+	/**
+	 * Compile a node such that it continues to the given state.
+	 * @return the node's entry state.
+	 */
+	private int compile(Node node, int next) {
+		if (node instanceof CharSet)
+			return compileCharSet(((CharSet) node).ranges, next);
+		if (node instanceof Concat) {
+			List<Node> items = ((Concat) node).items;
+			for (int i=items.size()-1; i>=0; i--)
+				next = compile(items.get(i), next);
+			return next;
+		}
+		if (node instanceof Alt) {
+			List<Node> items = ((Alt) node).items;
+			int entry = compile(items.get(items.size() - 1), next);
+			for (int i=items.size()-2; i>=0; i--)
+				entry = newState(SPLIT, 0, 0, compile(items.get(i), next), entry);
+			return entry;
+		}
+		Repeat rep = (Repeat) node;
+		int entry;
+		if (rep.max < 0) {
+			int loop = newState(SPLIT, 0, 0, -1, next);
+			// Compiling may grow the arrays, so not out[loop] = compile(...):
+			int bodyEntry = compile(rep.body, loop);
+			out[loop] = bodyEntry;
+			if (next == matchState && rep.body instanceof CharSet && ((CharSet) rep.body).isAll())
+				universal[loop] = true;
+			entry = loop;
+		} else {
+			entry = next;
+			for (int i=rep.min; i<rep.max; i++)
+				entry = newState(SPLIT, 0, 0, compile(rep.body, entry), next);
+		}
+		for (int i=0; i<rep.min; i++)
+			entry = compile(rep.body, entry);
+		return entry;
+	}
+
+	/**
+	 * Compile a set of code points into the alternative of the UTF-8
+	 * byte sequences that encode them, with common suffixes shared.
+	 */
+	private int compileCharSet(int[] ranges, int next) {
+		ArrayList<int[]> sequences = new ArrayList<int[]>();
+		for (int i=0; i<ranges.length; i+=2) {
+			// Surrogates are no characters in UTF-8:
+			if (ranges[i] < Character.MIN_SURROGATE)
+				splitUtf8(ranges[i], Math.min(ranges[i + 1], Character.MIN_SURROGATE - 1), sequences);
+			if (ranges[i + 1] > Character.MAX_SURROGATE)
+				splitUtf8(Math.max(ranges[i], Character.MAX_SURROGATE + 1), ranges[i + 1], sequences);
+		}
+		if (sequences.isEmpty())
+			// Matches nothing:
+			return newState(RANGE, 1, 0, next, -1);
+		HashMap<Long, Integer> suffixes = new HashMap<Long, Integer>();
+		int entry = -1;
+		for (int i=sequences.size()-1; i>=0; i--) {
+			int[] seq = sequences.get(i);
+			int state = next;
+			for (int j=seq.length-2; j>=0; j-=2) {
+				Long key = ((long) seq[j] << 48) | ((long) seq[j + 1] << 32) | state;
+				Integer shared = suffixes.get(key);
+				if (shared == null) {
+					shared = newState(RANGE, seq[j], seq[j + 1], state, -1);
+					suffixes.put(key, shared);
+				}
+				state = shared;
+			}
+			entry = (entry < 0) ? state : newState(SPLIT, 0, 0, state, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Split a code point range, free of surrogates, into ranges whose
+	 * UTF-8 encodings are the same length, and differ in each byte
+	 * position only within one byte range.
+	 * @param res receives each such range as the byte ranges lo, hi, lo, hi, ... by position.
+	 */
+	private static void splitUtf8(int rangeLo, int rangeHi, List<int[]> res) {
+		int[] lengthLimits = {0x7F, 0x7FF, 0xFFFF};
+		for (int limit : lengthLimits) {
+			if (rangeLo <= limit && rangeHi > limit) {
+				splitUtf8(rangeLo, limit, res);
+				splitUtf8(limit + 1, rangeHi, res);
+				return;
+			}
+		}
+		int numBytes = utf8Length(rangeLo);
+		for (int i=1; i<numBytes; i++) {
+			int mask = (1 << (6 * i)) - 1;
+			if ((rangeLo & ~mask) != (rangeHi & ~mask)) {
+				if ((rangeLo & mask) != 0) {
+					splitUtf8(rangeLo, rangeLo | mask, res);
+					splitUtf8((rangeLo | mask) + 1, rangeHi, res);
+					return;
+				}
+				if ((rangeHi & mask) != mask) {
+					splitUtf8(rangeLo, (rangeHi & ~mask) - 1, res);
+					splitUtf8(rangeHi & ~mask, rangeHi, res);
+					return;
+				}
+			}
+		}
+		byte[] loBytes = new String(Character.toChars(rangeLo)).getBytes(UTF8);
+		byte[] hiBytes = new String(Character.toChars(rangeHi)).getBytes(UTF8);
+		int[] seq = new int[2 * numBytes];
+		for (int i=0; i<numBytes; i++) {
+			seq[2*i] = loBytes[i] & 0xff;
+			seq[2*i + 1] = hiBytes[i] & 0xff;
+		}
+		res.add(seq);
+	}
+
+	private static int utf8Length(int cp) {
+		return (cp <= 0x7F) ? 1 : (cp <= 0x7FF) ? 2 : (cp <= 0xFFFF) ? 3 : 4;
+	}
+
+	/*--------------------------
+	 * UTF-8 decoding
+	 *-------------------------*/
+
+	// Decoder states: between characters, or the bytes still expected:
+	private static final int AT_BOUNDARY = 0;
+	private static final int NEED_1 = 1;
+	private static final int NEED_2 = 2;
+	private static final int NEED_3 = 3;
+	private static final int AFTER_E0 = 4;
+	private static final int AFTER_ED = 5;
+	// After ED A0..BF, which begins an encoded surrogate:
+	private static final int IN_SURROGATE = 6;
+	private static final int AFTER_F0 = 7;
+	private static final int AFTER_F4 = 8;
+
+	// What a byte does, in the upper bits of decode()'s result:
+	private static final int CHAR_DONE = 0 << 4;
+	private static final int CHAR_CONTINUES = 1 << 4;
+	// The byte completes a malformed sequence:
+	private static final int BAD_CHAR_DONE = 2 << 4;
+	// The byte is malformed by itself:
+	private static final int BAD_BYTE = 3 << 4;
+	// The byte cannot continue the pending sequence, which is thus
+	// malformed; the byte begins the next character:
+	private static final int BAD_CHAR_BEFORE = 4 << 4;
+
+	/**
+	 * One step of a UTF-8 decoder that finds the same malformed
+	 * sequences as the JDK's, each of which decodes to one U+FFFD.
+	 * @return what the byte does, ORed with the next decoder state.
+	 */
+	private static int decode(int state, int b) {
+		boolean continuation = (b & 0xC0) == 0x80;
+		switch (state) {
+		case AT_BOUNDARY:
+			if (b < 0x80) return CHAR_DONE;
+			if (b < 0xC2) return BAD_BYTE;
+			if (b < 0xE0) return CHAR_CONTINUES | NEED_1;
+			if (b == 0xE0) return CHAR_CONTINUES | AFTER_E0;
+			if (b == 0xED) return CHAR_CONTINUES | AFTER_ED;
+			if (b < 0xF0) return CHAR_CONTINUES | NEED_2;
+			if (b == 0xF0) return CHAR_CONTINUES | AFTER_F0;
+			if (b < 0xF4) return CHAR_CONTINUES | NEED_3;
+			if (b == 0xF4) return CHAR_CONTINUES | AFTER_F4;
+			return BAD_BYTE;
+		case NEED_1:
+			return continuation ? CHAR_DONE : BAD_CHAR_BEFORE;
+		case NEED_2:
+			return continuation ? (CHAR_CONTINUES | NEED_1) : BAD_CHAR_BEFORE;
+		case NEED_3:
+			return continuation ? (CHAR_CONTINUES | NEED_2) : BAD_CHAR_BEFORE;
+		case AFTER_E0:
+			return (b >= 0xA0 && b <= 0xBF) ? (CHAR_CONTINUES | NEED_1) : BAD_CHAR_BEFORE;
+		case AFTER_ED:
+			if (b >= 0xA0 && b <= 0xBF)
+				return CHAR_CONTINUES | IN_SURROGATE;
+			return continuation ? (CHAR_CONTINUES | NEED_1) : BAD_CHAR_BEFORE;
+		case IN_SURROGATE:
+			return continuation ? BAD_CHAR_DONE : BAD_CHAR_BEFORE;
+		case AFTER_F0:
+			return (b >= 0x90 && b <= 0xBF) ? (CHAR_CONTINUES | NEED_2) : BAD_CHAR_BEFORE;
+		default:
+			// AFTER_F4:
+			return (b >= 0x80 && b <= 0x8F) ? (CHAR_CONTINUES | NEED_2) : BAD_CHAR_BEFORE;
+		}
+	}
+
+	/*--------------------------
+	 * Lazy DFA
+	 *-------------------------*/
+
+	/**
+	 * Identity of a DFA state: the NFA states it stands for, the
+	 * decoder state, and, within a character, the DFA state at the
+	 * character's start, from which a malformed sequence continues.
+	 */
+	private static final class StateKey {
+		final int[] nfaStates;
+		final int decoderState;
+		final int charStart;
+		final int hash;
+
+		StateKey(int[] nfaStates, int decoderState, int charStart) {
+			this.nfaStates = nfaStates;
+			this.decoderState = decoderState;
+			this.charStart = charStart;
+			hash = (Arrays.hashCode(nfaStates) * 31 + decoderState) * 31 + charStart;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof StateKey))
+				return false;
+			StateKey other = (StateKey) obj;
+			return hash == other.hash && decoderState == other.decoderState &&
+				   charStart == other.charStart && Arrays.equals(nfaStates, other.nfaStates);
+		}
+	}
+
+	private class LazyDfa {
+		// State flags; either one ends matching:
+		private static final byte FAILS = 1;
+		private static final byte SUCCEEDS = 2;
+
+		// Next state by state and byte, or -1 if not computed yet:
+		private int[] transitions;
+		private StateKey[] keys;
+		private byte[] stateFlags;
+		private HashMap<StateKey, Integer> stateIndex = new HashMap<StateKey, Integer>();
+		private int numStates;
+		private int start;
+
+		// Scratch space for stepping NFA state sets:
+		private int[] marks = new int[numNfaStates];
+		private int markGeneration = 0;
+		private int[] stack = new int[numNfaStates];
+		private int[] members = new int[numNfaStates];
+
+		LazyDfa() {
+			reset();
+		}
+
+		private void reset() {
+			int capacity = 64;
+			transitions = new int[capacity << 8];
+			Arrays.fill(transitions, -1);
+			keys = new StateKey[capacity];
+			stateFlags = new byte[capacity];
+			stateIndex.clear();
+			numStates = 0;
+			addState(new StateKey(new int[0], AT_BOUNDARY, -1));
+			start = addState(new StateKey(closure(new int[] {nfaStart}, 1), AT_BOUNDARY, -1));
+		}
+
+		boolean matches(ByteBuffer input) {
+			if (input.hasArray())
+				return matches(input.array(), input.arrayOffset() + input.position(), input.remaining());
+			int state = start;
+			if (stateFlags[state] != 0)
+				return stateFlags[state] == SUCCEEDS;
+			for (int i=input.position(); i<input.limit(); i++) {
+				int b = input.get(i) & 0xff;
+				int next = transitions[(state << 8) | b];
+				state = (next >= 0) ? next : computeTransition(state, b);
+				if (stateFlags[state] != 0)
+					return stateFlags[state] == SUCCEEDS;
+			}
+			return acceptsAtEnd(state);
+		}
+
+		boolean matches(byte[] input, int offset, int len) {
+			int state = start;
+			if (stateFlags[state] != 0)
+				return stateFlags[state] == SUCCEEDS;
+			int end = offset + len;
+			for (int i=offset; i<end; i++) {
+				int b = input[i] & 0xff;
+				int next = transitions[(state << 8) | b];
+				state = (next >= 0) ? next : computeTransition(state, b);
+				if (stateFlags[state] != 0)
+					return stateFlags[state] == SUCCEEDS;
+			}
+			return acceptsAtEnd(state);
+		}
+
+		private boolean acceptsAtEnd(int state) {
+			StateKey key = keys[state];
+			int[] finalStates = key.nfaStates;
+			if (key.decoderState != AT_BOUNDARY)
+				// The input ends within a character, which is malformed:
+				finalStates = replacementChar(keys[key.charStart].nfaStates);
+			return Arrays.binarySearch(finalStates, matchState) >= 0;
+		}
+
+		private int computeTransition(int state, int b) {
+			StateKey key = keys[state];
+			StateKey charStartKey = (key.decoderState == AT_BOUNDARY) ? key : keys[key.charStart];
+			int decoded = decode(key.decoderState, b);
+			int[] nfaStates = key.nfaStates;
+			if (decoded >> 4 == BAD_CHAR_BEFORE >> 4) {
+				// The pending sequence stands for one U+FFFD, and the byte starts anew:
+				nfaStates = replacementChar(charStartKey.nfaStates);
+				charStartKey = null;
+				decoded = decode(AT_BOUNDARY, b);
+			}
+			int[] nextStates;
+			int nextDecoderState = AT_BOUNDARY;
+			switch (decoded & ~0xF) {
+			case CHAR_DONE:
+				nextStates = step(nfaStates, b, true);
+				break;
+			case CHAR_CONTINUES:
+				nextStates = step(nfaStates, b, false);
+				nextDecoderState = decoded & 0xF;
+				if (charStartKey == null)
+					// Character starts at the byte; nfaStates are at the boundary:
+					charStartKey = new StateKey(nfaStates, AT_BOUNDARY, -1);
+				break;
+			case BAD_CHAR_DONE:
+				nextStates = replacementChar(charStartKey.nfaStates);
+				break;
+			default:
+				// BAD_BYTE:
+				nextStates = replacementChar(nfaStates);
+				break;
+			}
+
+			if (numStates + 2 > MAX_DFA_STATES) {
+				// Start over; the current state and its transitions are gone:
+				reset();
+				state = -1;
+			}
+			int charStart = -1;
+			if (nextDecoderState != AT_BOUNDARY)
+				charStart = intern(charStartKey);
+			int next = intern(new StateKey(nextStates, nextDecoderState, charStart));
+			if (state >= 0)
+				transitions[(state << 8) | b] = next;
+			return next;
+		}
+
+		private int intern(StateKey key) {
+			Integer index = stateIndex.get(key);
+			if (index != null)
+				return index;
+			return addState(key);
+		}
+
+		private int addState(StateKey key) {
+			if (numStates == keys.length) {
+				int capacity = keys.length * 2;
+				keys = Arrays.copyOf(keys, capacity);
+				stateFlags = Arrays.copyOf(stateFlags, capacity);
+				int oldSize = transitions.length;
+				transitions = Arrays.copyOf(transitions, capacity << 8);
+				Arrays.fill(transitions, oldSize, transitions.length, -1);
+			}
+			int index = numStates++;
+			keys[index] = key;
+			stateIndex.put(key, index);
+			if (key.decoderState == AT_BOUNDARY) {
+				if (key.nfaStates.length == 0)
+					stateFlags[index] = FAILS;
+				else if (containsUniversal(key.nfaStates))
+					stateFlags[index] = SUCCEEDS;
+			}
+			return index;
+		}
+
+		private boolean containsUniversal(int[] nfaStates) {
+			for (int nfaState : nfaStates) {
+				if (universal[nfaState])
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * @return the NFA states reached from the given ones by U+FFFD.
+		 */
+		private int[] replacementChar(int[] nfaStates) {
+			return step(step(step(nfaStates, 0xEF, false), 0xBF, false), 0xBD, true);
+		}
+
+		/**
+		 * @param close whether the byte ends a character, so that the
+		 * 			states reached are followed through their splits.
+		 * @return sorted NFA states reached by consuming the byte.
+		 */
+		private int[] step(int[] nfaStates, int b, boolean close) {
+			int numNext = 0;
+			int[] next = new int[nfaStates.length];
+			for (int nfaState : nfaStates) {
+				if (kind[nfaState] == RANGE && b >= lo[nfaState] && b <= hi[nfaState])
+					next[numNext++] = out[nfaState];
+			}
+			if (close)
+				return closure(next, numNext);
+			Arrays.sort(next, 0, numNext);
+			int numDistinct = 0;
+			for (int i=0; i<numNext; i++) {
+				if (numDistinct == 0 || next[numDistinct - 1] != next[i])
+					next[numDistinct++] = next[i];
+			}
+			return Arrays.copyOf(next, numDistinct);
+		}
+
+		/**
+		 * @return sorted states reachable from the given ones through
+		 * 			splits: the byte consuming and the accepting states,
+		 * 			and the universal splits.
+		 */
+		private int[] closure(int[] nfaStates, int numStates) {
+			if (++markGeneration == 0) {
+				Arrays.fill(marks, 0);
+				markGeneration = 1;
+			}
+			int stackSize = 0;
+			int numMembers = 0;
+			for (int i=0; i<numStates; i++) {
+				if (marks[nfaStates[i]] != markGeneration) {
+					marks[nfaStates[i]] = markGeneration;
+					stack[stackSize++] = nfaStates[i];
+				}
+			}
+			while (stackSize > 0) {
+				int nfaState = stack[--stackSize];
+				if (kind[nfaState] != SPLIT || universal[nfaState])
+					members[numMembers++] = nfaState;
+				if (kind[nfaState] == SPLIT) {
+					if (marks[out2[nfaState]] != markGeneration) {
+						marks[out2[nfaState]] = markGeneration;
+						stack[stackSize++] = out2[nfaState];
+					}
+					if (marks[out[nfaState]] != markGeneration) {
+						marks[out[nfaState]] = markGeneration;
+						stack[stackSize++] = out[nfaState];
+					}
+				}
+			}
+			int[] res = Arrays.copyOf(members, numMembers);
+			Arrays.sort(res);
+			return res;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package edu.stanford.warcutils.warcfilter;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * @author paepcke
+ *
+ * Flight Recorder event for stripping the HTML from one page;
+ * see edu.stanford.warcutils.warcreader.WarcEvents.
+ */
+@Name("edu.stanford.warcutils.HTMLStrip")
+@Label("HTML Strip")
+@Category("WARC")
+@Description("Extracting the text of one web page")
+@Threshold("100 ms")
+class HTMLStripEvent extends Event {
+
+	@Label("Record ID")
+	@Description("ID of the record whose content was stripped, if known")
+	String recordId;
+
+	@Label("Input Length")
+	@Description("Number of characters of the page")
+	@DataAmount
+	long inputLength;
+
+	@Label("Output Length")
+	@Description("Number of characters of the extracted text")
+	@DataAmount
+	long outputLength;
+
+	/**
+	 * End the event, and record it if it took long enough.
+	 * @param id ID of the page's record, or null.
+	 */
+	void finish(String id, String page, String text) {
+		end();
+		if (!shouldCommit())
+			return;
+		recordId = id;
+		inputLength = (page == null) ? 0L : page.length();
+		outputLength = (text == null) ? 0L : text.length();
+		commit();
+	}
+}
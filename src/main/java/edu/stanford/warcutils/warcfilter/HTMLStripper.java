@@ -3,6 +3,7 @@ package edu.stanford.warcutils.warcfilter;
 import org.jsoup.Jsoup;
 import org.jsoup.safety.Whitelist;
 
+import edu.stanford.warcutils.warcreader.WarcEvents;
 import edu.stanford.warcutils.warcreader.WarcRecord;
 
  /**
@@ -19,15 +20,29 @@ public class HTMLStripper {
 	}
 	
 	public static String extractText(String webPage)  {
-		String bodyHtml = webPage;
-		String cleanText = Jsoup.clean(bodyHtml, Whitelist.none());
-		return cleanText;
+		return extractText(webPage, null);
 	}
 	
 	public static WarcRecord extractText(WarcRecord warcRecord) {
-		String content = HTMLStripper.extractText(warcRecord.get("content"));
+		String content = HTMLStripper.extractText(warcRecord.get("content"), warcRecord.get(WarcRecord.WARC_RECORD_ID));
 		warcRecord.put("content", content);
 		warcRecord.put("content-length", Integer.toString(content.length()));
 		return warcRecord;
 	}
+
+	/**
+	 * @param recordId ID of the page's record, for the Flight Recorder event; may be null.
+	 */
+	private static String extractText(String webPage, String recordId) {
+		HTMLStripEvent event = null;
+		if (WarcEvents.isAvailable()) {
+			event = new HTMLStripEvent();
+			event.begin();
+		}
+		String bodyHtml = webPage;
+		String cleanText = Jsoup.clean(bodyHtml, Whitelist.none());
+		if (event != null)
+			event.finish(recordId, webPage, cleanText);
+		return cleanText;
+	}
 }
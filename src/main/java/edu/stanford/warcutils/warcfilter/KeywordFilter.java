@@ -0,0 +1,418 @@
+package edu.stanford.warcutils.warcfilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import edu.stanford.warcutils.warcreader.WarcEvents;
+import edu.stanford.warcutils.warcreader.WarcRecord;
+
+/**
+ * @author paepcke
+ *
+ * A WarcFilter that matches records whose content contains any of a
+ * list of literal keywords or phrases, such as a watch list of tens of
+ * thousands of terms. Building one alternation regular expression from
+ * such a list is slow to compile, and slow to match because of
+ * backtracking. Instead, the keywords are compiled into an
+ * Aho-Corasick automaton, which finds all of them in one pass over the
+ * raw content bytes, in time linear in the content length, however
+ * many keywords there are. The content is not decoded.
+ *
+ * Keywords are matched as their UTF-8 bytes. With ignoreCase, ASCII
+ * letters match regardless of case; other characters must match
+ * exactly. A record matches if at least one keyword occurs anywhere in
+ * its content; matches() stops at the first occurrence, while
+ * findKeywords() reports every keyword that occurs:
+ *
+ *     KeywordFilter watchList = new KeywordFilter(new File("watchlist.txt"), true);
+ *     while (reader.nextKeyValue()) {
+ *         List<String> hits = watchList.findKeywords(reader.getCurrentValue());
+ *         ...
+ *     }
+ *
+ * Records read in content streaming mode have their content only in
+ * their content stream; use findKeywords(InputStream) for them.
+ */
+public class KeywordFilter extends WarcFilter {
+
+	private static final int READ_BUF_SIZE = 8192;
+	// Above this many edges, a state's edges are binary searched:
+	private static final int LINEAR_SEARCH_MAX = 8;
+
+	private List<String> keywords;
+	private boolean ignoreCase;
+	// Byte translation applied to keywords and content:
+	private byte[] fold = new byte[256];
+
+	// The automaton. State 0 is the root, whose transitions are a full table:
+	private int[] rootNext = new int[256];
+	// Edges of state s are edgeLabels/edgeTargets[edgeStart[s]..edgeStart[s+1]), sorted by label:
+	private int[] edgeStart;
+	private byte[] edgeLabels;
+	private int[] edgeTargets;
+	private int[] fail;
+	// Index of the keyword ending in a state, or -1:
+	private int[] keywordAt;
+	// Nearest state on the failure chain in which a keyword ends, or -1:
+	private int[] outLink;
+
+	/**
+	 * Compile the given keywords.
+	 * @param theKeywords keywords or phrases; duplicates are ignored.
+	 * @param ignoreCase whether ASCII letters match regardless of case.
+	 * @throws IllegalArgumentException if a keyword is empty.
+	 */
+	public KeywordFilter(Collection<String> theKeywords, boolean ignoreCase) {
+		super();
+		this.ignoreCase = ignoreCase;
+		for (int b=0; b<256; b++)
+			fold[b] = (byte) ((ignoreCase && b >= 'A' && b <= 'Z') ? b + ('a' - 'A') : b);
+		keywords = Collections.unmodifiableList(new ArrayList<String>(theKeywords));
+		build();
+	}
+
+	/**
+	 * Compile the keywords in the given file; see readKeywords().
+	 * @param keywordFile UTF-8 file with one keyword or phrase per line.
+	 * @param ignoreCase whether ASCII letters match regardless of case.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public KeywordFilter(File keywordFile, boolean ignoreCase) throws IOException {
+		this(readKeywords(keywordFile), ignoreCase);
+	}
+
+	/**
+	 * Read a keyword file: UTF-8, one keyword or phrase per line.
+	 * White space around each line is removed, and empty lines are
+	 * skipped.
+	 * @param keywordFile file to read.
+	 * @return the keywords in file order.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public static List<String> readKeywords(File keywordFile) throws IOException {
+		ArrayList<String> res = new ArrayList<String>();
+		for (String line : FileUtils.readLines(keywordFile, "UTF-8")) {
+			line = line.trim();
+			if (line.length() > 0)
+				res.add(line);
+		}
+		return res;
+	}
+
+	/**
+	 * @return whether the record's content contains at least one of the keywords.
+	 */
+	@Override
+	public boolean matches(WarcRecord warcRec) {
+		WarcFilterEvent event = null;
+		if (WarcEvents.isAvailable()) {
+			event = new WarcFilterEvent();
+			event.begin();
+		}
+		boolean matches = matches(warcRec.getContentBuffer());
+		if (event != null)
+			event.finish(WarcRecord.CONTENT, toString(), warcRec, null, matches);
+		return matches;
+	}
+
+	/**
+	 * @return whether the given bytes, from their position to their limit,
+	 * 			contain at least one of the keywords.
+	 */
+	public boolean matches(ByteBuffer content) {
+		Scan scan = new Scan(null);
+		scan.feed(content);
+		return scan.hit;
+	}
+
+	/**
+	 * Find all keywords that occur in a record's content.
+	 * @param warcRec record whose content to search.
+	 * @return the distinct keywords found, in the order of the keyword list.
+	 */
+	public List<String> findKeywords(WarcRecord warcRec) {
+		return findKeywords(warcRec.getContentBuffer());
+	}
+
+	/**
+	 * Find all keywords that occur in the given bytes, from their
+	 * position to their limit.
+	 * @return the distinct keywords found, in the order of the keyword list.
+	 */
+	public List<String> findKeywords(ByteBuffer content) {
+		Scan scan = new Scan(new BitSet());
+		scan.feed(content);
+		return scan.keywordsFound();
+	}
+
+	/**
+	 * Find all keywords that occur in the given stream, e.g. a
+	 * streamed record's content stream. The stream is read to its end,
+	 * but not closed.
+	 * @return the distinct keywords found, in the order of the keyword list.
+	 * @throws IOException if the stream cannot be read.
+	 */
+	public List<String> findKeywords(InputStream content) throws IOException {
+		Scan scan = new Scan(new BitSet());
+		byte[] buf = new byte[READ_BUF_SIZE];
+		int numRead;
+		while ((numRead = content.read(buf)) >= 0)
+			scan.feed(buf, 0, numRead);
+		return scan.keywordsFound();
+	}
+
+	/**
+	 * @return the keywords, as given.
+	 */
+	public List<String> getKeywords() {
+		return keywords;
+	}
+
+	public boolean isIgnoreCase() {
+		return ignoreCase;
+	}
+
+	/**
+	 * @return number of automaton states, which is at most the total
+	 * 			number of keyword bytes plus one.
+	 */
+	public int getNumStates() {
+		return fail.length;
+	}
+
+	@Override
+	public String toString() {
+		return keywords.size() + " keywords" + (ignoreCase ? ", ignoring case" : "");
+	}
+
+	/*--------------------------
+	 * Matching
+	 *-------------------------*/
+
+	/**
+	 * State of one pass over some content, which may arrive in pieces.
+	 */
+	private class Scan {
+		int state = 0;
+		boolean hit = false;
+		// Indexes of keywords found, or null to stop at the first hit:
+		BitSet found;
+
+		Scan(BitSet found) {
+			this.found = found;
+		}
+
+		void feed(ByteBuffer content) {
+			if (hit && found == null)
+				return;
+			if (content.hasArray()) {
+				feed(content.array(), content.arrayOffset() + content.position(), content.remaining());
+				return;
+			}
+			int theState = state;
+			for (int i=content.position(); i<content.limit(); i++) {
+				theState = step(theState, fold[content.get(i) & 0xff] & 0xff);
+				if (keywordAt[theState] >= 0 || outLink[theState] >= 0) {
+					hit = true;
+					if (found == null)
+						return;
+					record(theState);
+				}
+			}
+			state = theState;
+		}
+
+		void feed(byte[] buf, int offset, int len) {
+			if (hit && found == null)
+				return;
+			int theState = state;
+			int end = offset + len;
+			for (int i=offset; i<end; i++) {
+				theState = step(theState, fold[buf[i] & 0xff] & 0xff);
+				if (keywordAt[theState] >= 0 || outLink[theState] >= 0) {
+					hit = true;
+					if (found == null)
+						return;
+					record(theState);
+				}
+			}
+			state = theState;
+		}
+
+		private void record(int theState) {
+			if (keywordAt[theState] < 0)
+				theState = outLink[theState];
+			while (theState >= 0) {
+				found.set(keywordAt[theState]);
+				theState = outLink[theState];
+			}
+		}
+
+		List<String> keywordsFound() {
+			ArrayList<String> res = new ArrayList<String>(found.cardinality());
+			for (int i=found.nextSetBit(0); i>=0; i=found.nextSetBit(i+1))
+				res.add(keywords.get(i));
+			return res;
+		}
+	}
+
+	private int step(int state, int b) {
+		while (state != 0) {
+			int next = child(state, b);
+			if (next > 0)
+				return next;
+			state = fail[state];
+		}
+		return rootNext[b];
+	}
+
+	/**
+	 * @return the state reached from the given non-root state by the
+	 * 			given byte along an edge of the trie, or 0 if there is none.
+	 */
+	private int child(int state, int b) {
+		int lo = edgeStart[state];
+		int hi = edgeStart[state + 1];
+		if (hi - lo <= LINEAR_SEARCH_MAX) {
+			for (int i=lo; i<hi; i++) {
+				if ((edgeLabels[i] & 0xff) == b)
+					return edgeTargets[i];
+			}
+			return 0;
+		}
+		hi--;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int label = edgeLabels[mid] & 0xff;
+			if (label < b)
+				lo = mid + 1;
+			else if (label > b)
+				hi = mid - 1;
+			else
+				return edgeTargets[mid];
+		}
+		return 0;
+	}
+
+	/*--------------------------
+	 * Construction
+	 *-------------------------*/
+
+	private void build() {
+		// Trie with children in linked lists while it grows:
+		int capacity = 1024;
+		int[] firstChild = new int[capacity];
+		int[] nextSibling = new int[capacity];
+		byte[] label = new byte[capacity];
+		int[] keywordIndex = new int[capacity];
+		keywordIndex[0] = -1;
+		int numStates = 1;
+		int numEdges = 0;
+
+		for (int kw=0; kw<keywords.size(); kw++) {
+			byte[] bytes = utf8(keywords.get(kw));
+			if (bytes.length == 0)
+				throw new IllegalArgumentException("Keyword number " + (kw + 1) + " is empty.");
+			int state = 0;
+			for (byte rawByte : bytes) {
+				byte b = fold[rawByte & 0xff];
+				int next;
+				if (state == 0) {
+					next = rootNext[b & 0xff];
+				} else {
+					next = firstChild[state];
+					while (next > 0 && label[next] != b)
+						next = nextSibling[next];
+				}
+				if (next <= 0) {
+					if (numStates == capacity) {
+						capacity *= 2;
+						firstChild = Arrays.copyOf(firstChild, capacity);
+						nextSibling = Arrays.copyOf(nextSibling, capacity);
+						label = Arrays.copyOf(label, capacity);
+						keywordIndex = Arrays.copyOf(keywordIndex, capacity);
+					}
+					next = numStates++;
+					label[next] = b;
+					keywordIndex[next] = -1;
+					if (state == 0) {
+						rootNext[b & 0xff] = next;
+					} else {
+						nextSibling[next] = firstChild[state];
+						firstChild[state] = next;
+						numEdges++;
+					}
+				}
+				state = next;
+			}
+			// Of duplicate keywords, the first one is reported:
+			if (keywordIndex[state] < 0)
+				keywordIndex[state] = kw;
+		}
+
+		// Flatten the non-root edges into arrays sorted by label:
+		edgeStart = new int[numStates + 1];
+		edgeLabels = new byte[numEdges];
+		edgeTargets = new int[numEdges];
+		long[] children = new long[256];
+		int edge = 0;
+		for (int state=1; state<numStates; state++) {
+			edgeStart[state] = edge;
+			int numChildren = 0;
+			for (int child=firstChild[state]; child>0; child=nextSibling[child])
+				children[numChildren++] = ((long) (label[child] & 0xff) << 32) | child;
+			Arrays.sort(children, 0, numChildren);
+			for (int i=0; i<numChildren; i++) {
+				edgeLabels[edge] = (byte) (children[i] >>> 32);
+				edgeTargets[edge] = (int) children[i];
+				edge++;
+			}
+		}
+		edgeStart[numStates] = edge;
+		keywordAt = Arrays.copyOf(keywordIndex, numStates);
+
+		// Failure and output links, breadth first:
+		fail = new int[numStates];
+		outLink = new int[numStates];
+		outLink[0] = -1;
+		int[] queue = new int[numStates];
+		int head = 0;
+		int tail = 0;
+		for (int b=0; b<256; b++) {
+			int child = rootNext[b];
+			if (child > 0) {
+				outLink[child] = -1;
+				queue[tail++] = child;
+			}
+		}
+		while (head < tail) {
+			int state = queue[head++];
+			for (int i=edgeStart[state]; i<edgeStart[state + 1]; i++) {
+				int child = edgeTargets[i];
+				int childFail = step(fail[state], edgeLabels[i] & 0xff);
+				fail[child] = childFail;
+				outLink[child] = (keywordAt[childFail] >= 0) ? childFail : outLink[childFail];
+				queue[tail++] = child;
+			}
+		}
+	}
+
+	private static byte[] utf8(String str) {
+		try {
+			return str.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return str.getBytes();
+		}
+	}
+}
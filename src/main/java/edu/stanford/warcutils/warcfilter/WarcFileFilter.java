@@ -25,6 +25,7 @@ import org.apache.commons.cli.PosixParser;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
+import edu.stanford.warcutils.warcreader.WarcInputPlanner;
 import edu.stanford.warcutils.warcreader.WarcRecord;
 import edu.stanford.warcutils.warcreader.WarcRecordReader;
 
@@ -85,6 +86,7 @@ public class WarcFileFilter {
 	 * Create file filter with choice of where output files are
 	 * placed, and any prefix that is prepended to the output file names.
 	 * Source of WARC files may be a directory or an individual WARC file.
+	 * Directories are searched recursively for WARC files; see WarcInputPlanner.
 	 * @param warcPath
 	 * @param warcKey
 	 * @param regexPattern
@@ -101,14 +103,7 @@ public class WarcFileFilter {
 						   String theOutDirPath,
 						   String theOutPrefix,
 						   WarcHeaderRetention headerRetention) throws IOException {
-		LinkedList<File> allFiles = new LinkedList<File>();
-		if (warcPath.isDirectory()) {
-			File[] dirFilePaths = warcPath.listFiles();
-			for (File filePath : dirFilePaths) {
-				allFiles.add(filePath);
-			}
-		} else
-			allFiles.add(warcPath);
+		List<File> allFiles = outputExcludingPlanner(theOutDirPath, theOutPrefix).plan(warcPath);
 
 		initAll(allFiles, warcKey, regexPattern, theFilterSense,
 				theOutDirPath, theOutPrefix, headerRetention);
@@ -141,18 +136,33 @@ public class WarcFileFilter {
 	}
 
 	
+	/**
+	 * Create file filter that keeps, or drops, the records that satisfy
+	 * the given filter, such as a WarcFilterExpression.
+	 * @param pathFiles
+	 * @param theFilter
+	 * @param theFilterSense DISCARD_IF_MATCHES or DISCARD_IF_NOT_MATCHES
+	 * @param theOutDirPath
+	 * @param theOutPrefix
+	 * @param headerRetention
+	 * @throws IOException
+	 */
+	public WarcFileFilter(Collection<File> pathFiles, 
+						   WarcFilter theFilter,
+						   FilterSense theFilterSense,
+						   String theOutDirPath,
+						   String theOutPrefix,
+						   WarcHeaderRetention headerRetention) throws IOException {
+		initAll(pathFiles, theFilter, theFilterSense,
+				theOutDirPath, theOutPrefix, headerRetention);
+		processFiles();
+	}
+
 	public WarcFileFilter(File warcPath,
 						   String theOutDirPath,
 						   String theOutPrefix,
 						   WarcHeaderRetention headerRetention) throws IOException {
-		LinkedList<File> allFiles = new LinkedList<File>();
-		if (warcPath.isDirectory()) {
-			File[] dirFilePaths = warcPath.listFiles();
-			for (File filePath : dirFilePaths) {
-				allFiles.add(filePath);
-			}
-		} else
-			allFiles.add(warcPath);
+		List<File> allFiles = outputExcludingPlanner(theOutDirPath, theOutPrefix).plan(warcPath);
 
 		initAll(allFiles, "", "", FilterSense.STRIP_HTML,
 				theOutDirPath, theOutPrefix, headerRetention);
@@ -177,6 +187,23 @@ public class WarcFileFilter {
 		processFiles();
 	}
 	
+	/**
+	 * Planner that keeps the output of earlier runs out of the input,
+	 * should it lie in the directory tree being filtered.
+	 * @param theOutDirPath output directory, or null for outputs next to their inputs.
+	 * @param theOutPrefix prefix of output file names.
+	 * @return planner for the input files.
+	 */
+	private static WarcInputPlanner outputExcludingPlanner(String theOutDirPath, String theOutPrefix) {
+		WarcInputPlanner planner = new WarcInputPlanner();
+		if (theOutDirPath != null)
+			planner.addExcludedPath(new File(theOutDirPath));
+		if (theOutPrefix != null && !theOutPrefix.isEmpty())
+			// Escape glob metacharacters in the prefix:
+			planner.addExclude(theOutPrefix.replaceAll("([\\\\*?\\[\\]{}])", "\\\\$1") + "*");
+		return planner;
+	}
+
 	private void initAll(Collection<File> pathFiles, 
 					     String warcKey,
 					     String regexPattern, 
@@ -184,6 +211,16 @@ public class WarcFileFilter {
 					     String theOutDirPath, 
 					     String theOutPrefix,
 					     WarcHeaderRetention headerRetention) {
+		initAll(pathFiles, new WarcFilter(regexPattern, warcKey), theFilterSense,
+				theOutDirPath, theOutPrefix, headerRetention);
+	}
+
+	private void initAll(Collection<File> pathFiles, 
+					     WarcFilter theFilter,
+					     FilterSense theFilterSense,
+					     String theOutDirPath, 
+					     String theOutPrefix,
+					     WarcHeaderRetention headerRetention) {
 		recReader = new WarcRecordReader(pathFiles);
 		// We need to close our output files, and start
 		// a new output files whenever the reader is done
@@ -191,7 +228,15 @@ public class WarcFileFilter {
 		// next. So install a callback:
 		recReader.setCallback(this, "oneInFileProcessed");
 		currInFileName = recReader.getCurrentFilePath();
-		filter = new WarcFilter(regexPattern, warcKey);
+		filter = theFilter;
+		// Let the reader skip the content of records the filter
+		// rejects on their header fields alone:
+		if (filter != null && theFilterSense != FilterSense.STRIP_HTML) {
+			if (theFilterSense == FilterSense.DISCARD_IF_MATCHES)
+				recReader.setHeaderFilter(filter.negate());
+			else
+				recReader.setHeaderFilter(filter);
+		}
 		outPrefix = theOutPrefix;
 		keepWarcHeaders = headerRetention;
 		filterSense = theFilterSense;
@@ -232,7 +277,7 @@ public class WarcFileFilter {
 			if (gzipWriter != null)
 				gzipWriter.write(content);
 			else
-				FileUtils.write(outFile, content, DO_APPEND); 
+				FileUtils.write(outFile, content, "UTF-8", DO_APPEND); 
 		}
 	}
 
@@ -338,12 +383,12 @@ public class WarcFileFilter {
 		//Construct the BufferedWriter object
 		gzipWriter = new BufferedWriter(
 				new OutputStreamWriter(
-						new GZIPOutputStream(new FileOutputStream(fileName))));
+						new GZIPOutputStream(new FileOutputStream(fileName)), "UTF-8"));
 	}
 	
 	
 	private static void printHelp(Options theOptionsObj, HelpFormatter formatter) {
-	    formatter.printHelp( "WarcFileFilter [options] warcRecordFldName regexPattern files", theOptionsObj );		
+	    formatter.printHelp( "WarcFileFilter [options] {warcRecordFldName regexPattern | -expr expression | -keywords keywordFile} files", theOptionsObj );		
 	}
 	
 	/**
@@ -382,6 +427,18 @@ requiredArgs,
 											   .hasArg()
 											   .withDescription("Prefix to use for target file names" )
 											   .create( "outPrefix" );
+		Option expr				= OptionBuilder.withArgName( "expression" )
+											   .hasArg()
+											   .withDescription("Filter expression over several fields, e.g. \"warc-type = response AND content ~ '(?s).*news.*'\"; " +
+													   			"replaces warcRecordFldName and regexPattern. See WarcFilterExpression" )
+											   .create( "expr" );
+		Option keywords			= OptionBuilder.withArgName( "keywordFile" )
+											   .hasArg()
+											   .withDescription("File with one keyword or phrase per line; matches records whose content " +
+													   			"contains any of them. Replaces warcRecordFldName and regexPattern. See KeywordFilter" )
+											   .create( "keywords" );
+		Option ignoreCase		= new Option( "ignoreCase", "With keywords: ASCII letters in keywords match either case" );
+		Option find				= new Option( "find", "Records match if regexPattern occurs anywhere in the value, rather than matching all of it" );
 		Option outDir			= OptionBuilder.withArgName( "outDir" )
 											   .hasArg()
 											   .withDescription("Destination directory for filtered WARC files" )
@@ -395,6 +452,10 @@ requiredArgs,
 		options.addOption( stripHTML );
 		options.addOption( outPrefix );
 		options.addOption( outDir );
+		options.addOption( expr );
+		options.addOption( keywords );
+		options.addOption( ignoreCase );
+		options.addOption( find );
 
 		helpFormatter = new HelpFormatter();
 		CommandLineParser parser = new PosixParser();
@@ -441,18 +502,52 @@ requiredArgs,
 	    
 	    @SuppressWarnings("unchecked")
 		List<String> requiredArgs = cmdLine.getArgList();
-	    if ((requiredArgs.size()< 3) && !cmdLine.hasOption("stripHTML")) {
+	    if (cmdLine.hasOption("stripHTML") && (cmdLine.hasOption("expr") || cmdLine.hasOption("keywords"))) {
+	    	System.err.println("If stripHTML, then no filter expression or keywords must be given.");
+	    	System.exit(-1);
+	    }
+	    if (cmdLine.hasOption("expr") && cmdLine.hasOption("keywords")) {
+	    	System.err.println("Can only have either expr, or keywords, but not both.");
+	    	System.exit(-1);
+	    }
+	    int minArgs = (cmdLine.hasOption("expr") || cmdLine.hasOption("keywords")) ? 1 : 3;
+	    if ((requiredArgs.size() < minArgs) && !cmdLine.hasOption("stripHTML")) {
 	    	printHelp(options, helpFormatter);
 	    	System.exit(-1);
 	    }
+	    WarcFilter givenFilter = null;
+	    if (cmdLine.hasOption("expr")) {
+	    	try {
+	    		givenFilter = new WarcFilterExpression(cmdLine.getOptionValue("expr"));
+	    	} catch (IllegalArgumentException e) {
+	    		System.err.println(e.getMessage());
+	    		System.exit(-1);
+	    	}
+	    	if (filterSenseArg == null)
+	    		filterSenseArg = FilterSense.DISCARD_IF_NOT_MATCHES;
+	    }
+	    if (cmdLine.hasOption("keywords")) {
+	    	try {
+	    		givenFilter = new KeywordFilter(new File(cmdLine.getOptionValue("keywords")), cmdLine.hasOption("ignoreCase"));
+	    	} catch (IllegalArgumentException e) {
+	    		System.err.println(e.getMessage());
+	    		System.exit(-1);
+	    	}
+	    	if (filterSenseArg == null)
+	    		filterSenseArg = FilterSense.DISCARD_IF_NOT_MATCHES;
+	    }
 	    String warcKeyArg = null;
 	    String patternArg = null;
-	    if (!cmdLine.hasOption("stripHTML")) {
+	    if (!cmdLine.hasOption("stripHTML") && givenFilter == null) {
 	    	// If doing regex, grab the WARC key and pattern:
 	    	warcKeyArg    = requiredArgs.get(0);
 	    	patternArg    = requiredArgs.get(1);
 	    	requiredArgs.remove(0);
 	    	requiredArgs.remove(0);
+	    	if (cmdLine.hasOption("find")) {
+	    		givenFilter = new WarcFilter(patternArg, warcKeyArg);
+	    		givenFilter.setFind(true);
+	    	}
 	    }
 	    LinkedList<File> fileList = new LinkedList<File>();
 	    for (String filePath : requiredArgs)
@@ -475,6 +570,13 @@ requiredArgs,
 		    				   outDirArg, 
 		    				   outPrefixArg, 
 		    				   headerRetentionArg);
+	    else if (givenFilter != null)
+	    	new WarcFileFilter(fileList, 
+	    			givenFilter, 
+	    			filterSenseArg, 
+	    			outDirArg, 
+	    			outPrefixArg, 
+	    			headerRetentionArg);
 	    else
 	    	new WarcFileFilter(fileList, 
 	    			warcKeyArg, 
@@ -6,6 +6,8 @@ package edu.stanford.warcutils.warcfilter;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import edu.stanford.warcutils.warcreader.WarcEvents;
+import edu.stanford.warcutils.warcreader.WarcHeaderFilter;
 import edu.stanford.warcutils.warcreader.WarcRecord;
 
 /**
@@ -47,15 +49,124 @@ import edu.stanford.warcutils.warcreader.WarcRecord;
  *     warc-segment-total-length
  * 
  * Only content-length, warc-date, and warc-type are mandatory for WARC records.
+ * 
+ * Patterns are matched by java.util.regex, unless the filter is
+ * created with linearTime true. Such filters match with a DfaPattern,
+ * in time linear in the length of the value, and test the content as
+ * raw bytes. A backtracking regex can take minutes on one large page;
+ * a DfaPattern cannot. Patterns that use features DfaPattern does not
+ * support are still matched by java.util.regex; isLinearTime() tells
+ * which. The DfaPattern is compiled when it is first needed, so that
+ * setFind() after construction does not compile one for nothing.
+ * 
+ * By default the whole value must match the pattern. After setFind(true),
+ * the pattern need only occur somewhere in the value, as with
+ * Matcher.find(). Content is then decoded only up to the first
+ * occurrence, so filters for something near the top of a page leave
+ * most of it undecoded.
+ * 
+ * For tests of several keys at once, see WarcFilterExpression.
+ * 
+ * Filters are also WarcHeaderFilters: given to a WarcRecordReader via
+ * setHeaderFilter(), a filter on a header key keeps the reader from
+ * reading the content of records that do not match. Use negate() to
+ * have the reader drop matching records instead.
  */
-public class WarcFilter {
+public class WarcFilter implements WarcHeaderFilter {
+
+	/**
+	 * Outcome of testing the header fields of a record.
+	 */
+	public enum Result {
+		MATCH,
+		NO_MATCH,
+		// Depends on the content:
+		NEEDS_CONTENT
+	}
 	
 	private Pattern regexPattern = null;
+	// Linear time matcher for regexPattern, or null; valid once dfaCompiled:
+	private DfaPattern dfaPattern = null;
+	private volatile boolean dfaCompiled = false;
 	private String warcFieldKey = null;
+	private boolean linearTime = false;
+	// Whether the pattern need only occur in the value:
+	private boolean find = false;
 
 	public WarcFilter(String warcValRegexPatternStr, String warcRecKey) {
+		this(warcValRegexPatternStr, warcRecKey, false);
+	}
+
+	/**
+	 * @param warcValRegexPatternStr regular expression the value must match in its entirety, unless setFind(true) is called.
+	 * @param warcRecKey WARC header key, or "content".
+	 * @param linearTime whether to match with a DfaPattern where the pattern allows.
+	 */
+	public WarcFilter(String warcValRegexPatternStr, String warcRecKey, boolean linearTime) {
 		regexPattern = Pattern.compile(warcValRegexPatternStr);
 		warcFieldKey = warcRecKey;
+		this.linearTime = linearTime;
+	}
+
+	/**
+	 * For subclasses that test records their own way, by overriding matches().
+	 */
+	protected WarcFilter() {
+	}
+
+	/**
+	 * @return linear time matcher for the pattern and the find setting,
+	 * 			or null if the filter matches with java.util.regex.
+	 */
+	private DfaPattern dfaPattern() {
+		if (!dfaCompiled) {
+			// Filters may be shared by the threads of a parallel stream:
+			synchronized (this) {
+				if (!dfaCompiled) {
+					dfaPattern = compileDfaPattern();
+					dfaCompiled = true;
+				}
+			}
+		}
+		return dfaPattern;
+	}
+
+	private DfaPattern compileDfaPattern() {
+		if (!linearTime)
+			return null;
+		String regex = regexPattern.pattern();
+		if (find)
+			// Any prefix and suffix; DfaPattern still stops at the first occurrence:
+			regex = "(?s:.*)(?:" + regex + ")(?s:.*)";
+		try {
+			return DfaPattern.compile(regex);
+		} catch (IllegalArgumentException e) {
+			// Unsupported by DfaPattern, or, e.g., a \Q without \E that
+			// swallowed the suffix; isLinearTime() tells callers:
+			return null;
+		}
+	}
+
+	/**
+	 * Choose whether the pattern must match the whole value (the
+	 * default), or need only occur somewhere in it.
+	 * @param findAnywhere true to test with Matcher.find() rather than Matcher.matches().
+	 */
+	public void setFind(boolean findAnywhere) {
+		if (findAnywhere == find)
+			return;
+		synchronized (this) {
+			find = findAnywhere;
+			dfaPattern = null;
+			dfaCompiled = false;
+		}
+	}
+
+	/**
+	 * @return true if the pattern need only occur somewhere in the value.
+	 */
+	public boolean isFind() {
+		return find;
 	}
 	
 	/**
@@ -66,14 +177,88 @@ public class WarcFilter {
 	 * @return whether the record's value for the this filter's key matches this filter's regular expression
 	 */
 	public boolean matches(WarcRecord warcRec) {
-		String val = warcRec.get(warcFieldKey);
-		if (val == null)
-			return false;
-		Matcher m = regexPattern.matcher(val);
-		//boolean matches = m.matches();
-		return m.matches();
+		WarcFilterEvent event = null;
+		if (WarcEvents.isAvailable()) {
+			event = new WarcFilterEvent();
+			event.begin();
+		}
+		boolean isContent = warcFieldKey.equalsIgnoreCase(WarcRecord.CONTENT);
+		DfaPattern dfa = dfaPattern();
+		CharSequence val = null;
+		boolean matches = false;
+		if (isContent && dfa != null)
+			// No need to decode the content:
+			matches = dfa.matches(warcRec.getContentBuffer());
+		else {
+			val = isContent ? warcRec.getContentChars() : warcRec.get(warcFieldKey);
+			if (val == null)
+				matches = false;
+			else if (dfa != null)
+				matches = dfa.matches(val);
+			else {
+				Matcher m = regexPattern.matcher(val);
+				matches = find ? m.find() : m.matches();
+			}
+		}
+		if (event != null)
+			event.finish(warcFieldKey, regexPattern.pattern(), warcRec, val, matches);
+		return matches;
 	}
 	
+	/**
+	 * @return true if the filter matches in linear time with a DfaPattern.
+	 */
+	public boolean isLinearTime() {
+		return dfaPattern() != null;
+	}
+
+	/**
+	 * Test a record on its header fields only. Records may be tested
+	 * this way before their content is read.
+	 * @param warcRec record whose header fields to test; its content is not touched.
+	 * @return MATCH or NO_MATCH if the header fields decide whether the record matches; else NEEDS_CONTENT.
+	 */
+	public Result evaluateHeader(WarcRecord warcRec) {
+		// Subclasses that only override matches() are not known to spare the content:
+		if (warcFieldKey == null || warcFieldKey.equalsIgnoreCase(WarcRecord.CONTENT))
+			return Result.NEEDS_CONTENT;
+		return matches(warcRec) ? Result.MATCH : Result.NO_MATCH;
+	}
+
+	/**
+	 * @return true if the record's header fields show that it does not match.
+	 */
+	public boolean rejectsHeader(WarcRecord header) {
+		return evaluateHeader(header) == Result.NO_MATCH;
+	}
+
+	/**
+	 * @return filter that matches exactly the records this filter does not match.
+	 */
+	public WarcFilter negate() {
+		final WarcFilter positive = this;
+		return new WarcFilter() {
+			@Override
+			public boolean matches(WarcRecord warcRec) {
+				return !positive.matches(warcRec);
+			}
+
+			@Override
+			public Result evaluateHeader(WarcRecord warcRec) {
+				switch (positive.evaluateHeader(warcRec)) {
+				case MATCH: return Result.NO_MATCH;
+				case NO_MATCH: return Result.MATCH;
+				default: return Result.NEEDS_CONTENT;
+				}
+			}
+
+			@Override
+			public WarcFilter negate() {
+				return positive;
+			}
+		};
+	}
+
 	/**
 	 * Returns the given WARC record's content without any metadata,
 	 * if the record matches the filter. Else returns null.
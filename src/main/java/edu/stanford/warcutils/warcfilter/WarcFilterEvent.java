@@ -0,0 +1,58 @@
+package edu.stanford.warcutils.warcfilter;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+import edu.stanford.warcutils.warcreader.WarcRecord;
+
+/**
+ * @author paepcke
+ *
+ * Flight Recorder event for testing one record against a
+ * WarcFilter; see edu.stanford.warcutils.warcreader.WarcEvents.
+ */
+@Name("edu.stanford.warcutils.Filter")
+@Label("WARC Filter")
+@Category("WARC")
+@Description("Testing one WARC record against a filter")
+@Threshold("20 ms")
+class WarcFilterEvent extends Event {
+
+	@Label("Key")
+	String key;
+
+	@Label("Pattern")
+	String pattern;
+
+	@Label("Record ID")
+	String recordId;
+
+	@Label("Value Length")
+	@Description("Number of characters of the value tested")
+	@DataAmount
+	long valueLength;
+
+	@Label("Matched")
+	boolean matched;
+
+	/**
+	 * End the event, and record it if it took long enough.
+	 * @param value the value tested, or null if the record lacks the key.
+	 */
+	void finish(String filterKey, String filterPattern, WarcRecord record, CharSequence value, boolean didMatch) {
+		end();
+		if (!shouldCommit())
+			return;
+		key = filterKey;
+		pattern = filterPattern;
+		recordId = record.get(WarcRecord.WARC_RECORD_ID);
+		valueLength = (value == null) ? 0L : value.length();
+		matched = didMatch;
+		commit();
+	}
+}
@@ -0,0 +1,531 @@
+package edu.stanford.warcutils.warcfilter;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import edu.stanford.warcutils.warcreader.WarcEvents;
+import edu.stanford.warcutils.warcreader.WarcRecord;
+
+/**
+ * @author paepcke
+ *
+ * A WarcFilter that tests a boolean expression over any number of
+ * WARC header fields and the content, rather than one key against one
+ * regular expression. The expression is compiled once, and then used
+ * for many records:
+ *
+ *     warc-type = response AND content-type ~ 'text/html.*'
+ *         AND NOT (warc-date < 2009-01-01 OR content-length > 1000000)
+ *         AND content ~ '(?s).*<title>[^<]*news.*'
+ *
+ * Grammar, with keywords in any case:
+ *
+ *     expr       := orExpr
+ *     orExpr     := andExpr ( (OR | '||') andExpr )*
+ *     andExpr    := notExpr ( (AND | '&&') notExpr )*
+ *     notExpr    := (NOT | '!') notExpr | '(' expr ')' | comparison
+ *     comparison := field op value
+ *     op         := '~' | '!~' | '=' | '==' | '!=' | '<' | '<=' | '>' | '>='
+ *
+ * Fields are WARC header keys such as warc-type, or "content" for the
+ * record's content. Values are single- or double-quoted strings, in
+ * which a backslash escapes the quote and itself and is kept before
+ * any other character, or bare words. How a comparison compares
+ * depends on its value:
+ *
+ *   ~ and !~    the field must (not) match the value as a regular
+ *               expression in its entirety, as in WarcFilter,
+ *   a bare number, e.g. 1000000 or 0.5: numerically,
+ *   a bare ISO 8601 date, e.g. 2009-01-01 or 2009-04-19T12:48:17-04:00:
+ *               as points in time; dates without an offset are UTC,
+ *   anything else: as strings, case-sensitively.
+ *
+ * A comparison with a field the record lacks, or whose value is no
+ * number or date where one is needed, is false; use NOT for the
+ * complement.
+ *
+ * Evaluation is header-first: the clauses of each AND and OR are
+ * reordered such that those on header fields come before those on
+ * the content, and evaluation stops as soon as the result is known.
+ * evaluateHeader() tells, from the header fields alone, whether a
+ * record matches, does not, or depends on the content. The content is
+ * thus only touched for records the header clauses cannot decide,
+ * also when the expression is a WarcRecordReader's header filter.
+ */
+public class WarcFilterExpression extends WarcFilter {
+
+	private String source;
+	private Node root;
+
+	/**
+	 * Compile the given expression.
+	 * @param expression filter expression; see the class comment for the syntax.
+	 * @throws IllegalArgumentException if the expression, or one of its regular expressions, is malformed.
+	 */
+	public WarcFilterExpression(String expression) {
+		super();
+		source = expression;
+		root = new Parser(expression).parse();
+	}
+
+	/**
+	 * @return whether the record satisfies the expression; header
+	 * 			clauses are evaluated first, the content only if needed.
+	 */
+	@Override
+	public boolean matches(WarcRecord warcRec) {
+		WarcFilterEvent event = null;
+		if (WarcEvents.isAvailable()) {
+			event = new WarcFilterEvent();
+			event.begin();
+		}
+		boolean matches = root.evaluate(warcRec);
+		if (event != null)
+			event.finish(null, source, warcRec, null, matches);
+		return matches;
+	}
+
+	/**
+	 * Evaluate the expression on the header fields of a record only.
+	 * Records may be tested this way before their content is read.
+	 * @param warcRec record whose header fields to test; its content is not touched.
+	 * @return MATCH or NO_MATCH if the header fields decide the expression; else NEEDS_CONTENT.
+	 */
+	@Override
+	public Result evaluateHeader(WarcRecord warcRec) {
+		return root.evaluateHeader(warcRec);
+	}
+
+	/**
+	 * @return true if any clause tests the record content.
+	 */
+	public boolean needsContent() {
+		return root.needsContent();
+	}
+
+	/**
+	 * @return the expression as compiled, fully parenthesized,
+	 * 			with header clauses first.
+	 */
+	@Override
+	public String toString() {
+		return root.toString();
+	}
+
+	/**
+	 * @return the expression as given to the constructor.
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/*--------------------------
+	 * Expression tree
+	 *-------------------------*/
+
+	private static abstract class Node {
+		abstract boolean evaluate(WarcRecord rec);
+		abstract Result evaluateHeader(WarcRecord rec);
+		abstract boolean needsContent();
+	}
+
+	/**
+	 * AND or OR of two or more clauses, header clauses first.
+	 */
+	private static class Junction extends Node {
+		private boolean isAnd;
+		private Node[] clauses;
+		private boolean needsContent = false;
+
+		Junction(boolean isAnd, List<Node> clauseList) {
+			this.isAnd = isAnd;
+			ArrayList<Node> ordered = new ArrayList<Node>(clauseList.size());
+			for (Node clause : clauseList) {
+				if (!clause.needsContent())
+					ordered.add(clause);
+			}
+			for (Node clause : clauseList) {
+				if (clause.needsContent()) {
+					ordered.add(clause);
+					needsContent = true;
+				}
+			}
+			clauses = ordered.toArray(new Node[ordered.size()]);
+		}
+
+		boolean evaluate(WarcRecord rec) {
+			for (Node clause : clauses) {
+				if (clause.evaluate(rec) != isAnd)
+					return !isAnd;
+			}
+			return isAnd;
+		}
+
+		Result evaluateHeader(WarcRecord rec) {
+			// The value that decides the junction by itself:
+			Result decisive = isAnd ? Result.NO_MATCH : Result.MATCH;
+			boolean undecided = false;
+			for (Node clause : clauses) {
+				Result res = clause.evaluateHeader(rec);
+				if (res == decisive)
+					return decisive;
+				if (res == Result.NEEDS_CONTENT)
+					undecided = true;
+			}
+			if (undecided)
+				return Result.NEEDS_CONTENT;
+			return isAnd ? Result.MATCH : Result.NO_MATCH;
+		}
+
+		boolean needsContent() {
+			return needsContent;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder res = new StringBuilder("(");
+			for (int i=0; i<clauses.length; i++) {
+				if (i > 0)
+					res.append(isAnd ? " AND " : " OR ");
+				res.append(clauses[i]);
+			}
+			return res.append(')').toString();
+		}
+	}
+
+	private static class Negation extends Node {
+		private Node clause;
+
+		Negation(Node clause) {
+			this.clause = clause;
+		}
+
+		boolean evaluate(WarcRecord rec) {
+			return !clause.evaluate(rec);
+		}
+
+		Result evaluateHeader(WarcRecord rec) {
+			Result res = clause.evaluateHeader(rec);
+			if (res == Result.MATCH)
+				return Result.NO_MATCH;
+			if (res == Result.NO_MATCH)
+				return Result.MATCH;
+			return res;
+		}
+
+		boolean needsContent() {
+			return clause.needsContent();
+		}
+
+		@Override
+		public String toString() {
+			return "NOT " + clause;
+		}
+	}
+
+	private enum Op {
+		MATCHES("~"), NOT_MATCHES("!~"), EQ("="), NE("!="), LT("<"), LE("<="), GT(">"), GE(">=");
+
+		private String symbol;
+
+		Op(String symbol) {
+			this.symbol = symbol;
+		}
+
+		boolean holds(int comparison) {
+			switch (this) {
+			case EQ: return comparison == 0;
+			case NE: return comparison != 0;
+			case LT: return comparison < 0;
+			case LE: return comparison <= 0;
+			case GT: return comparison > 0;
+			default: return comparison >= 0;
+			}
+		}
+	}
+
+	/**
+	 * Test of one field against one value.
+	 */
+	private static class Comparison extends Node {
+		private static final int STRING = 0;
+		private static final int NUMBER = 1;
+		private static final int DATE = 2;
+
+		private String field;
+		private boolean isContent;
+		private Op op;
+		private String literal;
+		private boolean quoted;
+		private int kind = STRING;
+		private Pattern pattern = null;
+		private double number = 0.0;
+		private long millis = 0L;
+
+		Comparison(String field, Op op, String literal, boolean quoted) {
+			this.field = field;
+			this.isContent = field.equals(WarcRecord.CONTENT);
+			this.op = op;
+			this.literal = literal;
+			this.quoted = quoted;
+			if (op == Op.MATCHES || op == Op.NOT_MATCHES)
+				pattern = Pattern.compile(literal);
+			else if (!quoted && NUMBER_PATTERN.matcher(literal).matches()) {
+				kind = NUMBER;
+				number = Double.parseDouble(literal);
+			} else if (!quoted && literal.length() >= 10 && DATE_START_PATTERN.matcher(literal).lookingAt()) {
+				Long parsed = parseDate(literal);
+				if (parsed == null)
+					throw new IllegalArgumentException("Not an ISO 8601 date: '" + literal + "'.");
+				kind = DATE;
+				millis = parsed;
+			}
+		}
+
+		boolean evaluate(WarcRecord rec) {
+			CharSequence val = isContent ? rec.getContentChars() : rec.get(field);
+			if (val == null)
+				return false;
+			if (pattern != null)
+				return pattern.matcher(val).matches() == (op == Op.MATCHES);
+			switch (kind) {
+			case NUMBER:
+				double num;
+				try {
+					num = Double.parseDouble(val.toString().trim());
+				} catch (NumberFormatException e) {
+					return false;
+				}
+				return op.holds(Double.compare(num, number));
+			case DATE:
+				Long valMillis = parseDate(val.toString().trim());
+				if (valMillis == null)
+					return false;
+				return op.holds(Long.compare(valMillis, millis));
+			default:
+				return op.holds(val.toString().compareTo(literal));
+			}
+		}
+
+		Result evaluateHeader(WarcRecord rec) {
+			if (isContent)
+				return Result.NEEDS_CONTENT;
+			return evaluate(rec) ? Result.MATCH : Result.NO_MATCH;
+		}
+
+		boolean needsContent() {
+			return isContent;
+		}
+
+		@Override
+		public String toString() {
+			if (!quoted)
+				return field + " " + op.symbol + " " + literal;
+			return field + " " + op.symbol + " '" + literal.replace("\\", "\\\\").replace("'", "\\'") + "'";
+		}
+	}
+
+	/*--------------------------
+	 * Dates
+	 *-------------------------*/
+
+	private static final Pattern NUMBER_PATTERN = Pattern.compile("-?(\\d+(\\.\\d*)?|\\.\\d+)");
+	private static final Pattern DATE_START_PATTERN = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+	// Offsets such as -0400, as well as -04:00 and Z:
+	private static final DateTimeFormatter COMPACT_OFFSET_DATE_TIME =
+			DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm[:ss][.SSS]XX", Locale.ROOT);
+
+	/**
+	 * @return milliseconds since the epoch, or null if the string is no ISO 8601 date or date-time.
+	 */
+	static Long parseDate(String date) {
+		try {
+			if (date.length() == 10)
+				return LocalDate.parse(date).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+			char last = date.charAt(date.length() - 1);
+			boolean hasOffset = last == 'Z' || date.lastIndexOf('+') > 10 || date.lastIndexOf('-') > 10;
+			if (!hasOffset)
+				return LocalDateTime.parse(date).toInstant(ZoneOffset.UTC).toEpochMilli();
+			try {
+				return OffsetDateTime.parse(date).toInstant().toEpochMilli();
+			} catch (DateTimeParseException e) {
+				return OffsetDateTime.parse(date, COMPACT_OFFSET_DATE_TIME).toInstant().toEpochMilli();
+			}
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	/*--------------------------
+	 * Parser
+	 *-------------------------*/
+
+	/**
+	 * Recursive-descent parser over a hand-written tokenizer.
+	 */
+	private static class Parser {
+		private static final String OPERATOR_CHARS = "~=!<>";
+		private static final String SPECIAL_CHARS = "()'\"&|" + OPERATOR_CHARS;
+
+		private String text;
+		private int pos = 0;
+		// Current token, and whether it was a quoted string:
+		private String token = null;
+		private boolean tokenQuoted = false;
+		private int tokenStart = 0;
+
+		Parser(String text) {
+			this.text = text;
+			advance();
+		}
+
+		Node parse() {
+			if (token == null)
+				throw error("Empty filter expression");
+			Node res = parseOr();
+			if (token != null)
+				throw error("Unexpected '" + token + "'");
+			return res;
+		}
+
+		private Node parseOr() {
+			List<Node> clauses = new ArrayList<Node>();
+			clauses.add(parseAnd());
+			while (isKeyword("OR") || isSymbol("||")) {
+				advance();
+				clauses.add(parseAnd());
+			}
+			return (clauses.size() == 1) ? clauses.get(0) : new Junction(false, clauses);
+		}
+
+		private Node parseAnd() {
+			List<Node> clauses = new ArrayList<Node>();
+			clauses.add(parseNot());
+			while (isKeyword("AND") || isSymbol("&&")) {
+				advance();
+				clauses.add(parseNot());
+			}
+			return (clauses.size() == 1) ? clauses.get(0) : new Junction(true, clauses);
+		}
+
+		private Node parseNot() {
+			if (isKeyword("NOT") || isSymbol("!")) {
+				advance();
+				return new Negation(parseNot());
+			}
+			if (isSymbol("(")) {
+				advance();
+				Node res = parseOr();
+				if (!isSymbol(")"))
+					throw error("Expected ')'");
+				advance();
+				return res;
+			}
+			return parseComparison();
+		}
+
+		private Node parseComparison() {
+			if (token == null || tokenQuoted || SPECIAL_CHARS.indexOf(token.charAt(0)) >= 0)
+				throw error("Expected a field name");
+			String field = token.toLowerCase(Locale.ROOT);
+			advance();
+			Op op = null;
+			if (token != null && !tokenQuoted) {
+				for (Op candidate : Op.values()) {
+					if (candidate.symbol.equals(token))
+						op = candidate;
+				}
+				if (token.equals("=="))
+					op = Op.EQ;
+			}
+			if (op == null)
+				throw error("Expected a comparison operator after '" + field + "'");
+			advance();
+			if (token == null || (!tokenQuoted && SPECIAL_CHARS.indexOf(token.charAt(0)) >= 0))
+				throw error("Expected a value after '" + field + " " + op.symbol + "'");
+			Comparison res = new Comparison(field, op, token, tokenQuoted);
+			advance();
+			return res;
+		}
+
+		private boolean isKeyword(String keyword) {
+			return token != null && !tokenQuoted && token.equalsIgnoreCase(keyword);
+		}
+
+		private boolean isSymbol(String symbol) {
+			return token != null && !tokenQuoted && token.equals(symbol);
+		}
+
+		/**
+		 * Move to the next token; token is null at the end.
+		 */
+		private void advance() {
+			while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+				pos++;
+			tokenStart = pos;
+			tokenQuoted = false;
+			if (pos >= text.length()) {
+				token = null;
+				return;
+			}
+			char c = text.charAt(pos);
+			if (c == '\'' || c == '"') {
+				token = readQuoted(c);
+				tokenQuoted = true;
+			} else if (c == '(' || c == ')') {
+				token = String.valueOf(c);
+				pos++;
+			} else if (c == '&' || c == '|') {
+				if (pos + 1 >= text.length() || text.charAt(pos + 1) != c)
+					throw error("Expected '" + c + c + "'");
+				token = text.substring(pos, pos + 2);
+				pos += 2;
+			} else if (OPERATOR_CHARS.indexOf(c) >= 0) {
+				int end = pos + 1;
+				if (end < text.length() && (text.charAt(end) == '=' || (c == '!' && text.charAt(end) == '~')))
+					end++;
+				token = text.substring(pos, end);
+				pos = end;
+			} else {
+				int end = pos;
+				while (end < text.length() && !Character.isWhitespace(text.charAt(end)) &&
+					   SPECIAL_CHARS.indexOf(text.charAt(end)) < 0)
+					end++;
+				token = text.substring(pos, end);
+				pos = end;
+			}
+		}
+
+		private String readQuoted(char quote) {
+			StringBuilder res = new StringBuilder();
+			pos++;
+			while (pos < text.length()) {
+				char c = text.charAt(pos++);
+				if (c == quote)
+					return res.toString();
+				if (c == '\\' && pos < text.length()) {
+					char next = text.charAt(pos);
+					if (next == quote || next == '\\') {
+						res.append(next);
+						pos++;
+						continue;
+					}
+				}
+				res.append(c);
+			}
+			throw error("Unterminated string");
+		}
+
+		private IllegalArgumentException error(String msg) {
+			return new IllegalArgumentException(msg + " at position " + tokenStart + " of filter expression: " + text);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package edu.stanford.warcutils.warcgen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author paepcke
+ *
+ * Distribution of record content sizes for WarcGenerator. A
+ * distribution is a weighted mix of components, given as a
+ * comma-separated list of [weight*]kind:arguments, e.g.
+ *
+ *     0.9*lognormal:16k:1.5,0.05*fixed:0,0.05*uniform:1M:8M
+ *
+ * for mostly page-sized contents, 5% empty contents, and 5%
+ * contents of one to eight megabytes. Kinds are:
+ *
+ *     fixed:size                 always the same size
+ *     uniform:min:max            evenly between min and max, inclusive
+ *     lognormal:median:sigma     log-normal with the given median; sigma is the
+ *                                standard deviation of the natural log of the size
+ *
+ * Sizes are bytes, optionally suffixed with k, M, or G (powers of 1024).
+ * Weights default to 1, and need not add up to 1.
+ */
+public class SizeDistribution {
+
+	private static final int FIXED = 0;
+	private static final int UNIFORM = 1;
+	private static final int LOGNORMAL = 2;
+
+	// Largest size a log-normal component returns:
+	private static final long MAX_LOGNORMAL_SIZE = 1024L * 1024L * 1024L;
+
+	private List<double[]> components = new ArrayList<double[]>();
+	private double totalWeight = 0.0;
+
+	/**
+	 * @param spec distribution as described for the class.
+	 * @throws IllegalArgumentException if spec is malformed.
+	 */
+	public SizeDistribution(String spec) {
+		for (String componentSpec : spec.split(",")) {
+			componentSpec = componentSpec.trim();
+			double weight = 1.0;
+			int star = componentSpec.indexOf('*');
+			if (star >= 0) {
+				weight = parseNumber(componentSpec.substring(0, star), spec);
+				componentSpec = componentSpec.substring(star + 1);
+			}
+			String[] parts = componentSpec.split(":");
+			double[] component;
+			if (parts[0].equals("fixed") && parts.length == 2)
+				component = new double[] {weight, FIXED, parseSize(parts[1]), 0};
+			else if (parts[0].equals("uniform") && parts.length == 3)
+				component = new double[] {weight, UNIFORM, parseSize(parts[1]), parseSize(parts[2])};
+			else if (parts[0].equals("lognormal") && parts.length == 3)
+				component = new double[] {weight, LOGNORMAL, parseSize(parts[1]), parseNumber(parts[2], spec)};
+			else
+				throw new IllegalArgumentException("Malformed size distribution component '" + componentSpec + "' in '" + spec + "'.");
+			if (weight < 0 || (component[1] == UNIFORM && component[3] < component[2]))
+				throw new IllegalArgumentException("Malformed size distribution component '" + componentSpec + "' in '" + spec + "'.");
+			components.add(component);
+			totalWeight += weight;
+		}
+		if (totalWeight <= 0)
+			throw new IllegalArgumentException("Size distribution '" + spec + "' has no positive weight.");
+	}
+
+	/**
+	 * @param random source of randomness.
+	 * @return a size in bytes, drawn from the distribution.
+	 */
+	public long next(Random random) {
+		double pick = random.nextDouble() * totalWeight;
+		double[] component = components.get(components.size() - 1);
+		for (double[] candidate : components) {
+			if (pick < candidate[0]) {
+				component = candidate;
+				break;
+			}
+			pick -= candidate[0];
+		}
+		long min = (long) component[2];
+		switch ((int) component[1]) {
+		case UNIFORM:
+			long range = (long) component[3] - min + 1;
+			return min + (long) (random.nextDouble() * range);
+		case LOGNORMAL:
+			double size = min * Math.exp(component[3] * random.nextGaussian());
+			return Math.min(MAX_LOGNORMAL_SIZE, Math.round(size));
+		default:
+			return min;
+		}
+	}
+
+	/**
+	 * @param size number of bytes, optionally suffixed by k, M, or G.
+	 * @return the number of bytes.
+	 * @throws IllegalArgumentException if size is malformed.
+	 */
+	public static long parseSize(String size) {
+		size = size.trim();
+		long unit = 1L;
+		if (size.endsWith("k") || size.endsWith("K"))
+			unit = 1024L;
+		else if (size.endsWith("M"))
+			unit = 1024L * 1024L;
+		else if (size.endsWith("G"))
+			unit = 1024L * 1024L * 1024L;
+		if (unit > 1L)
+			size = size.substring(0, size.length() - 1);
+		try {
+			long res = Long.parseLong(size) * unit;
+			if (res < 0)
+				throw new NumberFormatException();
+			return res;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Malformed size '" + size + "'.");
+		}
+	}
+
+	private static double parseNumber(String number, String spec) {
+		try {
+			return Double.parseDouble(number.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Malformed number '" + number + "' in size distribution '" + spec + "'.");
+		}
+	}
+}
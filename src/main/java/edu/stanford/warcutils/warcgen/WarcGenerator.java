@@ -0,0 +1,504 @@
+package edu.stanford.warcutils.warcgen;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+
+/**
+ * @author paepcke
+ *
+ * Writes synthetic WARC files of any size, for benchmarks and scale
+ * tests that should not depend on real crawl data. Each file starts
+ * with a warcinfo record, followed by records whose types are drawn
+ * from a weighted mix (see setTypeMix()), and whose content sizes are
+ * drawn from a SizeDistribution. Contents are HTML pages or random
+ * binary data (see setHtmlFraction()). Files are written as WARC/1.0
+ * or WARC/0.18, uncompressed, gzipped one member per record as
+ * customary for .warc.gz files, or gzipped as one single stream.
+ *
+ * Output is determined by the seed: the same settings and seed give
+ * the same records, regardless of compression.
+ *
+ *     WarcGenerator generator = new WarcGenerator();
+ *     generator.setSizeDistribution(new SizeDistribution("0.95*lognormal:16k:1.2,0.05*fixed:0"));
+ *     generator.setCompression(WarcGenerator.Compression.GZIP_PER_RECORD);
+ *     generator.setTargetSize(SizeDistribution.parseSize("10G"));
+ *     generator.generate(new File("synthetic.warc.gz"));
+ *
+ * From the command line, see printHelp().
+ */
+public class WarcGenerator {
+
+	public enum Compression {
+		NONE,
+		GZIP_PER_RECORD,
+		GZIP_STREAM
+	}
+
+	public static final String WARC_1_0 = "WARC/1.0";
+	public static final String WARC_0_18 = "WARC/0.18";
+
+	public static final String DEFAULT_TYPE_MIX = "response=60,request=30,metadata=8,resource=2";
+	public static final String DEFAULT_SIZE_DISTRIBUTION = "0.95*lognormal:16k:1.2,0.04*fixed:0,0.01*uniform:1M:8M";
+	private static final long DEFAULT_NUM_RECORDS = 1000L;
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+	private static final int HTML_POOL_SIZE = 256 * 1024;
+	private static final long START_DATE_MILLIS = 1363219200000L; // 2013-03-14T00:00:00Z
+	private static final String[] WORDS = {
+		"archive", "crawl", "record", "web", "page", "library", "digital", "stanford", "collection", "search",
+		"the", "of", "and", "a", "to", "in", "is", "for", "that", "with", "on", "as", "are", "by", "this",
+		"news", "science", "history", "data", "network", "university", "research", "student", "open", "access",
+		"information", "service", "people", "world", "time", "year", "new", "first", "home", "about", "contact"
+	};
+
+	private String warcVersion = WARC_1_0;
+	private String[] recordTypes;
+	private double[] typeWeights;
+	private SizeDistribution sizes = new SizeDistribution(DEFAULT_SIZE_DISTRIBUTION);
+	private double htmlFraction = 0.8;
+	private Compression compression = Compression.NONE;
+	private long numRecords = 0L;
+	private long targetSize = 0L;
+	private long seed = 42L;
+
+	// Per generated file:
+	private Random random;
+	private byte[] htmlPool;
+	private byte[] binaryBuf = new byte[64 * 1024];
+	private String lineEnd;
+	private long bytesWritten;
+
+	public WarcGenerator() {
+		setTypeMix(DEFAULT_TYPE_MIX);
+	}
+
+	/**
+	 * @param version WARC_1_0 (CRLF line ends) or WARC_0_18 (LF line ends).
+	 */
+	public void setWarcVersion(String version) {
+		if (!version.equals(WARC_1_0) && !version.equals(WARC_0_18))
+			throw new IllegalArgumentException("WARC version must be " + WARC_1_0 + " or " + WARC_0_18 + ", not '" + version + "'.");
+		warcVersion = version;
+	}
+
+	/**
+	 * @param mix comma-separated type=weight pairs. Types are response, request,
+	 * 			resource, metadata, and revisit. Example: DEFAULT_TYPE_MIX.
+	 * @throws IllegalArgumentException if mix is malformed.
+	 */
+	public void setTypeMix(String mix) {
+		String[] pairs = mix.split(",");
+		String[] types = new String[pairs.length];
+		double[] weights = new double[pairs.length];
+		for (int i=0; i<pairs.length; i++) {
+			String[] typeAndWeight = pairs[i].trim().split("=");
+			types[i] = typeAndWeight[0].trim();
+			if (!types[i].matches("response|request|resource|metadata|revisit"))
+				throw new IllegalArgumentException("Unknown record type '" + types[i] + "' in type mix '" + mix + "'.");
+			try {
+				weights[i] = (typeAndWeight.length > 1) ? Double.parseDouble(typeAndWeight[1]) : 1.0;
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Malformed weight in type mix '" + mix + "'.");
+			}
+		}
+		recordTypes = types;
+		typeWeights = weights;
+	}
+
+	/**
+	 * @param distribution sizes of record payloads. For response and resource records
+	 * 			this is the size of the page or binary object. Request and revisit
+	 * 			records carry HTTP headers only.
+	 */
+	public void setSizeDistribution(SizeDistribution distribution) {
+		sizes = distribution;
+	}
+
+	/**
+	 * @param fraction share of payloads that are HTML rather than random binary data.
+	 */
+	public void setHtmlFraction(double fraction) {
+		htmlFraction = Math.max(0.0, Math.min(1.0, fraction));
+	}
+
+	public void setCompression(Compression theCompression) {
+		compression = theCompression;
+	}
+
+	/**
+	 * @param num number of records to write after the warcinfo record; 0 for no limit.
+	 */
+	public void setNumRecords(long num) {
+		numRecords = Math.max(0L, num);
+	}
+
+	/**
+	 * @param bytes stop once this many uncompressed bytes are written; 0 for no limit.
+	 * 			Without either limit, DEFAULT_NUM_RECORDS records are written.
+	 */
+	public void setTargetSize(long bytes) {
+		targetSize = Math.max(0L, bytes);
+	}
+
+	public void setSeed(long theSeed) {
+		seed = theSeed;
+	}
+
+	/**
+	 * Write one WARC file.
+	 * @param outFile file to create or overwrite.
+	 * @return number of records written, including the warcinfo record.
+	 * @throws IOException
+	 */
+	public long generate(File outFile) throws IOException {
+		random = new Random(seed);
+		lineEnd = warcVersion.equals(WARC_1_0) ? "\r\n" : "\n";
+		bytesWritten = 0L;
+		buildHtmlPool();
+		long maxRecords = numRecords;
+		if (numRecords == 0 && targetSize == 0)
+			maxRecords = DEFAULT_NUM_RECORDS;
+
+		OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(outFile), WRITE_BUFFER_SIZE);
+		OutputStream out = (compression == Compression.GZIP_STREAM) ? new GZIPOutputStream(fileOut, WRITE_BUFFER_SIZE) : fileOut;
+		long recordCount = 0;
+		try {
+			String warcinfoId = newRecordId();
+			writeRecord(out, warcinfoRecord(outFile, warcinfoId));
+			recordCount++;
+			while ((maxRecords == 0 || recordCount <= maxRecords) && (targetSize == 0 || bytesWritten < targetSize)) {
+				writeRecord(out, nextRecord(recordCount, warcinfoId));
+				recordCount++;
+			}
+		} finally {
+			out.close();
+		}
+		return recordCount;
+	}
+
+	/**
+	 * Write a record, compressed as its own gzip member if requested.
+	 */
+	private void writeRecord(OutputStream out, GeneratedRecord rec) throws IOException {
+		OutputStream recOut = out;
+		if (compression == Compression.GZIP_PER_RECORD) {
+			// A member of its own; closing it must not close the file:
+			recOut = new GZIPOutputStream(new FilterOutputStream(out) {
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+				}
+
+				@Override
+				public void close() throws IOException {
+					flush();
+				}
+			}, 64 * 1024);
+		}
+		StringBuilder header = new StringBuilder(512);
+		header.append(warcVersion).append(lineEnd);
+		for (String[] field : rec.fields)
+			header.append(field[0]).append(": ").append(field[1]).append(lineEnd);
+		header.append("Content-Length: ").append(rec.blockPrefix.length + rec.payloadSize).append(lineEnd);
+		header.append(lineEnd);
+		writeBytes(recOut, header.toString().getBytes(ASCII));
+		writeBytes(recOut, rec.blockPrefix);
+		if (rec.html)
+			writeHtml(recOut, rec.payloadSize);
+		else
+			writeBinary(recOut, rec.payloadSize);
+		writeBytes(recOut, (lineEnd + lineEnd).getBytes(ASCII));
+		if (recOut != out)
+			recOut.close();
+	}
+
+	private GeneratedRecord warcinfoRecord(File outFile, String warcinfoId) {
+		GeneratedRecord rec = new GeneratedRecord();
+		rec.fields.add(new String[] {"WARC-Type", "warcinfo"});
+		rec.fields.add(new String[] {"WARC-Date", formatDate(0)});
+		rec.fields.add(new String[] {"WARC-Filename", outFile.getName()});
+		rec.fields.add(new String[] {"WARC-Record-ID", warcinfoId});
+		rec.fields.add(new String[] {"Content-Type", "application/warc-fields"});
+		rec.blockPrefix = ("software: WARCUtils WarcGenerator" + lineEnd +
+						   "format: WARC File Format " + warcVersion.substring(5) + lineEnd +
+						   "description: synthetic records, seed " + seed + lineEnd).getBytes(ASCII);
+		return rec;
+	}
+
+	private GeneratedRecord nextRecord(long recordNum, String warcinfoId) {
+		GeneratedRecord rec = new GeneratedRecord();
+		String type = pickType();
+		String uri = "http://www.site" + random.nextInt(1000) + ".example.com/page" + recordNum + ".html";
+		rec.fields.add(new String[] {"WARC-Type", type});
+		rec.fields.add(new String[] {"WARC-Target-URI", uri});
+		rec.fields.add(new String[] {"WARC-Date", formatDate(recordNum)});
+		rec.fields.add(new String[] {"WARC-Record-ID", newRecordId()});
+		rec.fields.add(new String[] {"WARC-Warcinfo-ID", warcinfoId});
+		if (type.equals("request")) {
+			rec.fields.add(new String[] {"Content-Type", "application/http; msgtype=request"});
+			rec.blockPrefix = ("GET /page" + recordNum + ".html HTTP/1.1" + lineEnd +
+							   "User-Agent: Mozilla/5.0 (compatible; WarcGenerator)" + lineEnd +
+							   "Host: " + uri.substring(7, uri.indexOf('/', 7)) + lineEnd + lineEnd).getBytes(ASCII);
+			return rec;
+		}
+		if (type.equals("revisit")) {
+			rec.fields.add(new String[] {"WARC-Profile", "http://netpreserve.org/warc/1.0/revisit/identical-payload-digest"});
+			rec.fields.add(new String[] {"Content-Type", "application/http; msgtype=response"});
+			rec.blockPrefix = ("HTTP/1.1 304 Not Modified" + lineEnd + lineEnd).getBytes(ASCII);
+			return rec;
+		}
+		rec.payloadSize = sizes.next(random);
+		rec.html = random.nextDouble() < htmlFraction;
+		String mimeType = rec.html ? "text/html" : "application/octet-stream";
+		if (type.equals("response")) {
+			rec.fields.add(new String[] {"Content-Type", "application/http; msgtype=response"});
+			rec.blockPrefix = ("HTTP/1.1 200 OK" + lineEnd +
+							   "Content-Type: " + mimeType + lineEnd +
+							   "Content-Length: " + rec.payloadSize + lineEnd + lineEnd).getBytes(ASCII);
+		} else if (type.equals("metadata")) {
+			rec.fields.add(new String[] {"WARC-Concurrent-To", newRecordId()});
+			rec.fields.add(new String[] {"Content-Type", "application/warc-fields"});
+			// Metadata records hold text:
+			rec.html = true;
+		} else
+			rec.fields.add(new String[] {"Content-Type", mimeType});
+		return rec;
+	}
+
+	private String pickType() {
+		double total = 0.0;
+		for (double weight : typeWeights)
+			total += weight;
+		double pick = random.nextDouble() * total;
+		for (int i=0; i<recordTypes.length; i++) {
+			if (pick < typeWeights[i])
+				return recordTypes[i];
+			pick -= typeWeights[i];
+		}
+		return recordTypes[recordTypes.length - 1];
+	}
+
+	/**
+	 * Write an HTML page of exactly numBytes bytes, made of
+	 * text from the pool. Pages shorter than the page frame
+	 * are cut off.
+	 */
+	private void writeHtml(OutputStream out, long numBytes) throws IOException {
+		byte[] head = ("<html><head><title>" + WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] +
+					   "</title></head><body>\n").getBytes(ASCII);
+		byte[] tail = "</body></html>\n".getBytes(ASCII);
+		if (numBytes < head.length + tail.length) {
+			byte[] frame = new byte[head.length + tail.length];
+			System.arraycopy(head, 0, frame, 0, head.length);
+			System.arraycopy(tail, 0, frame, head.length, tail.length);
+			writeBytes(out, frame, (int) numBytes);
+			return;
+		}
+		writeBytes(out, head);
+		long remaining = numBytes - head.length - tail.length;
+		int poolPos = random.nextInt(htmlPool.length);
+		while (remaining > 0) {
+			int n = (int) Math.min(remaining, htmlPool.length - poolPos);
+			out.write(htmlPool, poolPos, n);
+			bytesWritten += n;
+			remaining -= n;
+			poolPos = 0;
+		}
+		writeBytes(out, tail);
+	}
+
+	private void writeBinary(OutputStream out, long numBytes) throws IOException {
+		while (numBytes > 0) {
+			int n = (int) Math.min(numBytes, binaryBuf.length);
+			random.nextBytes(binaryBuf);
+			out.write(binaryBuf, 0, n);
+			bytesWritten += n;
+			numBytes -= n;
+		}
+	}
+
+	private void writeBytes(OutputStream out, byte[] bytes) throws IOException {
+		writeBytes(out, bytes, bytes.length);
+	}
+
+	private void writeBytes(OutputStream out, byte[] bytes, int len) throws IOException {
+		out.write(bytes, 0, len);
+		bytesWritten += len;
+	}
+
+	/**
+	 * Fill the pool from which HTML pages take their text:
+	 * paragraphs of random words.
+	 */
+	private void buildHtmlPool() {
+		StringBuilder pool = new StringBuilder(HTML_POOL_SIZE + 1024);
+		while (pool.length() < HTML_POOL_SIZE) {
+			pool.append("<p>");
+			int numWords = 20 + random.nextInt(80);
+			for (int i=0; i<numWords; i++) {
+				if (i > 0)
+					pool.append(' ');
+				if (random.nextInt(30) == 0)
+					pool.append("<a href=\"http://www.site").append(random.nextInt(1000)).append(".example.com/\">")
+						.append(WORDS[random.nextInt(WORDS.length)]).append("</a>");
+				else
+					pool.append(WORDS[random.nextInt(WORDS.length)]);
+			}
+			pool.append("</p>\n");
+		}
+		htmlPool = pool.toString().getBytes(ASCII);
+	}
+
+	private String newRecordId() {
+		// Version 4 (random) UUID from our seeded generator:
+		long msb = (random.nextLong() & ~0xf000L) | 0x4000L;
+		long lsb = (random.nextLong() & ~(0xc000000000000000L)) | 0x8000000000000000L;
+		return "<urn:uuid:" + new UUID(msb, lsb) + ">";
+	}
+
+	private String formatDate(long recordNum) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date(START_DATE_MILLIS + 1000L * recordNum));
+	}
+
+	private static class GeneratedRecord {
+		List<String[]> fields = new ArrayList<String[]>();
+		// Bytes of the block ahead of the payload, e.g. HTTP headers:
+		byte[] blockPrefix = new byte[0];
+		long payloadSize = 0L;
+		boolean html = true;
+	}
+
+	private static void printHelp(Options theOptionsObj, HelpFormatter formatter) {
+		formatter.printHelp("WarcGenerator [options] outFile", theOptionsObj);
+	}
+
+	/**
+	 * Name of the index'th of several output files: outFile with
+	 * the index inserted before its .warc extension.
+	 */
+	static File numberedFile(File outFile, int index) {
+		String name = outFile.getName();
+		int extStart = name.indexOf(".warc");
+		if (extStart < 0)
+			extStart = name.length();
+		String numbered = String.format("%s-%05d%s", name.substring(0, extStart), index, name.substring(extStart));
+		return new File(outFile.getAbsoluteFile().getParentFile(), numbered);
+	}
+
+	/**
+	 * @param args: options, outFile
+	 */
+	@SuppressWarnings("static-access")
+	public static void main(String[] args) {
+		Options options = new Options();
+		options.addOption(new Option("help", "Print help message"));
+		options.addOption(OptionBuilder.withArgName("version").hasArg()
+							.withDescription("WARC version: 1.0 (default) or 0.18").create("version"));
+		options.addOption(OptionBuilder.withArgName("numRecords").hasArg()
+							.withDescription("Number of records per file").create("records"));
+		options.addOption(OptionBuilder.withArgName("bytes").hasArg()
+							.withDescription("Uncompressed size per file, e.g. 10G; suffixes k, M, G").create("size"));
+		options.addOption(OptionBuilder.withArgName("mix").hasArg()
+							.withDescription("Record type mix, default " + DEFAULT_TYPE_MIX).create("types"));
+		options.addOption(OptionBuilder.withArgName("distribution").hasArg()
+							.withDescription("Payload size distribution, default " + DEFAULT_SIZE_DISTRIBUTION).create("sizes"));
+		options.addOption(OptionBuilder.withArgName("fraction").hasArg()
+							.withDescription("Share of HTML rather than binary payloads, default 0.8").create("htmlFraction"));
+		options.addOption(OptionBuilder.withArgName("compression").hasArg()
+							.withDescription("none (default), record (one gzip member per record), or stream (single gzip stream)").create("compression"));
+		options.addOption(OptionBuilder.withArgName("seed").hasArg()
+							.withDescription("Random seed, default 42").create("seed"));
+		options.addOption(OptionBuilder.withArgName("numFiles").hasArg()
+							.withDescription("Number of files to write; outFile names get a number inserted").create("files"));
+
+		HelpFormatter formatter = new HelpFormatter();
+		CommandLineParser parser = new PosixParser();
+		CommandLine cmdLine = null;
+		try {
+			cmdLine = parser.parse(options, args);
+		} catch (ParseException exp) {
+			System.err.println("Parsing failed.  Reason: " + exp.getMessage());
+			System.exit(-1);
+		}
+		if (cmdLine.hasOption("help") || cmdLine.getArgs().length != 1) {
+			printHelp(options, formatter);
+			System.exit(cmdLine.hasOption("help") ? 0 : -1);
+		}
+
+		WarcGenerator generator = new WarcGenerator();
+		int numFiles = 1;
+		try {
+			if (cmdLine.hasOption("version"))
+				generator.setWarcVersion("WARC/" + cmdLine.getOptionValue("version"));
+			if (cmdLine.hasOption("records"))
+				generator.setNumRecords(Long.parseLong(cmdLine.getOptionValue("records")));
+			if (cmdLine.hasOption("size"))
+				generator.setTargetSize(SizeDistribution.parseSize(cmdLine.getOptionValue("size")));
+			if (cmdLine.hasOption("types"))
+				generator.setTypeMix(cmdLine.getOptionValue("types"));
+			if (cmdLine.hasOption("sizes"))
+				generator.setSizeDistribution(new SizeDistribution(cmdLine.getOptionValue("sizes")));
+			if (cmdLine.hasOption("htmlFraction"))
+				generator.setHtmlFraction(Double.parseDouble(cmdLine.getOptionValue("htmlFraction")));
+			if (cmdLine.hasOption("compression")) {
+				String compressionArg = cmdLine.getOptionValue("compression");
+				if (compressionArg.equals("none"))
+					generator.setCompression(Compression.NONE);
+				else if (compressionArg.equals("record"))
+					generator.setCompression(Compression.GZIP_PER_RECORD);
+				else if (compressionArg.equals("stream"))
+					generator.setCompression(Compression.GZIP_STREAM);
+				else
+					throw new IllegalArgumentException("Compression must be none, record, or stream.");
+			}
+			if (cmdLine.hasOption("seed"))
+				generator.setSeed(Long.parseLong(cmdLine.getOptionValue("seed")));
+			if (cmdLine.hasOption("files"))
+				numFiles = Integer.parseInt(cmdLine.getOptionValue("files"));
+		} catch (IllegalArgumentException e) {
+			// Includes NumberFormatException:
+			System.err.println(e.getMessage());
+			System.exit(-1);
+		}
+
+		File outFile = new File(cmdLine.getArgs()[0]);
+		long seed = generator.seed;
+		try {
+			for (int i=0; i<numFiles; i++) {
+				File oneOutFile = (numFiles == 1) ? outFile : numberedFile(outFile, i);
+				// Different records in each file:
+				generator.setSeed(seed + i);
+				long numWritten = generator.generate(oneOutFile);
+				System.out.println(oneOutFile.getPath() + ": " + numWritten + " records");
+			}
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(-1);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package edu.stanford.warcutils.warcindex;
+
+import java.util.regex.Pattern;
+
+/**
+ * @author paepcke
+ *
+ * Sort-friendly URI Reordering Transform (SURT), as used for the keys
+ * of CDX indexes: scheme and leading 'www' are dropped, default ports
+ * are removed, host name parts are reversed and separated by commas,
+ * and a ')' separates the host from the path. Everything is lower-cased,
+ * and fragments are removed. Thus:
+ * 
+ *     http://www.Example.com:80/a/b?x=1#top   ==>   com,example)/a/b?x=1
+ * 
+ * IP addresses, including bracketed IPv6 ones, are not reversed. URIs
+ * that do not look like http(s) or ftp URLs are just lower-cased.
+ */
+public class Surt {
+
+	private static final Pattern IPV4_ADDRESS = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+
+	public static String canonicalize(String uri) {
+		if (uri == null)
+			return null;
+		String str = uri.trim();
+		int fragmentStart = str.indexOf('#');
+		if (fragmentStart >= 0)
+			str = str.substring(0, fragmentStart);
+		str = str.toLowerCase();
+		
+		String scheme = null;
+		int schemeEnd = str.indexOf("://");
+		if (schemeEnd > 0) {
+			scheme = str.substring(0, schemeEnd);
+			str = str.substring(schemeEnd + 3);
+		}
+		if (scheme == null || !(scheme.equals("http") || scheme.equals("https") || scheme.equals("ftp")))
+			return (scheme == null) ? str : scheme + "://" + str;
+		
+		int pathStart = indexOfAny(str, "/?");
+		String authority = (pathStart < 0) ? str : str.substring(0, pathStart);
+		String path = (pathStart < 0) ? "/" : str.substring(pathStart);
+		if (path.startsWith("?"))
+			path = "/" + path;
+		
+		// Drop user info:
+		int at = authority.lastIndexOf('@');
+		if (at >= 0)
+			authority = authority.substring(at + 1);
+		// Separate the port; IPv6 hosts are bracketed, and contain colons:
+		String host = authority;
+		String port = null;
+		int colon;
+		int bracketEnd = authority.startsWith("[") ? authority.indexOf(']') : -1;
+		if (bracketEnd > 0) {
+			host = authority.substring(0, bracketEnd + 1);
+			colon = authority.startsWith(":", bracketEnd + 1) ? bracketEnd + 1 : -1;
+		} else {
+			colon = authority.lastIndexOf(':');
+			if (colon >= 0)
+				host = authority.substring(0, colon);
+		}
+		// Drop default ports:
+		if (colon >= 0) {
+			port = authority.substring(colon + 1);
+			if (port.length() == 0 || 
+				(scheme.equals("http") && port.equals("80")) ||
+				(scheme.equals("https") && port.equals("443")) ||
+				(scheme.equals("ftp") && port.equals("21")))
+				port = null;
+		}
+		
+		StringBuilder surt = new StringBuilder();
+		if (host.startsWith("[") || IPV4_ADDRESS.matcher(host).matches())
+			// IP addresses keep their order:
+			surt.append(host);
+		else {
+			if (host.endsWith("."))
+				host = host.substring(0, host.length() - 1);
+			// Drop www, www1, www2...:
+			if (host.matches("www\\d*\\..*"))
+				host = host.substring(host.indexOf('.') + 1);
+			String[] hostParts = host.split("\\.");
+			for (int i=hostParts.length-1; i>=0; i--) {
+				surt.append(hostParts[i]);
+				if (i > 0)
+					surt.append(',');
+			}
+		}
+		if (port != null)
+			surt.append(':').append(port);
+		surt.append(')').append(path);
+		return surt.toString();
+	}
+
+	private static int indexOfAny(String str, String chars) {
+		for (int i=0; i<str.length(); i++) {
+			if (chars.indexOf(str.charAt(i)) >= 0)
+				return i;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,163 @@
+package edu.stanford.warcutils.warcindex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.stanford.warcutils.warcreader.WarcRecord;
+import edu.stanford.warcutils.warcreader.WarcRecordReader;
+
+/**
+ * @author paepcke
+ *
+ * Lookups over an index written by WarcIndexer. Both index files
+ * are binary-searched on disk, so lookups cost a few dozen seeks
+ * regardless of index size, and nothing is loaded into memory.
+ *
+ * Typical use:
+ *
+ *     WarcIndex index = new WarcIndex(new File("crawl.idx"));
+ *     for (WarcIndexEntry entry : index.lookupUri("http://www.example.com/"))
+ *         WarcRecord rec = index.fetch(entry);
+ *     index.close();
+ */
+public class WarcIndex {
+
+	private static final int READ_CHUNK_SIZE = 512;
+
+	private RandomAccessFile uriIndex;
+	private RandomAccessFile recordIdIndex;
+
+	/**
+	 * Open an index for lookups.
+	 * @param indexFile the URI-sorted index file given to WarcIndexer. The record ID index is expected next to it.
+	 * @throws IOException if either index file cannot be opened.
+	 */
+	public WarcIndex(File indexFile) throws IOException {
+		uriIndex = new RandomAccessFile(indexFile, "r");
+		recordIdIndex = new RandomAccessFile(new File(indexFile.getPath() + WarcIndexer.RECORD_ID_INDEX_SUFFIX), "r");
+	}
+
+	/**
+	 * Find all records whose target URI canonicalizes to the same
+	 * SURT as the given URI, e.g. all captures of one page.
+	 * @param uri target URI as given in WARC-Target-URI.
+	 * @return index entries in order of WARC-Date; empty list if none.
+	 * @throws IOException
+	 */
+	public List<WarcIndexEntry> lookupUri(String uri) throws IOException {
+		ArrayList<WarcIndexEntry> res = new ArrayList<WarcIndexEntry>();
+		for (String line : findLines(uriIndex, Surt.canonicalize(uri)))
+			res.add(WarcIndexEntry.fromUriLine(line));
+		return res;
+	}
+
+	/**
+	 * Find the record with the given WARC-Record-ID.
+	 * @param recordId record ID, including the enclosing angle brackets if the WARC file uses them.
+	 * @return the record's index entry, or null if there is none.
+	 * @throws IOException
+	 */
+	public WarcIndexEntry lookupRecordId(String recordId) throws IOException {
+		List<String> lines = findLines(recordIdIndex, recordId);
+		if (lines.isEmpty())
+			return null;
+		return WarcIndexEntry.fromRecordIdLine(lines.get(0));
+	}
+
+	/**
+	 * Read the record that an index entry points to.
+	 * @param entry result of a lookup.
+	 * @return the WARC record, including its content.
+	 * @throws IOException
+	 */
+	public WarcRecord fetch(WarcIndexEntry entry) throws IOException {
+		return WarcRecordReader.readRecordAt(new File(entry.getFilePath()), entry.getOffset());
+	}
+
+	public void close() throws IOException {
+		uriIndex.close();
+		recordIdIndex.close();
+	}
+
+	/**
+	 * Return all lines whose key equals the given key.
+	 */
+	private List<String> findLines(RandomAccessFile index, String key) throws IOException {
+		ArrayList<String> res = new ArrayList<String>();
+		long pos = firstLineNotBefore(index, key);
+		index.seek(pos);
+		String line;
+		while ((line = readLine(index)) != null) {
+			if (!WarcIndexEntry.keyOf(line).equals(key))
+				break;
+			res.add(line);
+		}
+		return res;
+	}
+
+	/**
+	 * Binary search for the start of the first line whose key is
+	 * greater than or equal to the given key. Invariant: lines starting
+	 * before lo have smaller keys; lines starting at or after hi don't.
+	 */
+	private long firstLineNotBefore(RandomAccessFile index, String key) throws IOException {
+		long lo = 0;
+		long hi = index.length();
+		while (lo < hi) {
+			long mid = (lo + hi) >>> 1;
+			long lineStart = nextLineStart(index, mid);
+			if (lineStart >= hi) {
+				hi = mid;
+				continue;
+			}
+			index.seek(lineStart);
+			String line = readLine(index);
+			if (WarcIndexEntry.keyOf(line).compareTo(key) < 0)
+				lo = index.getFilePointer();
+			else
+				hi = lineStart;
+		}
+		return lo;
+	}
+
+	/**
+	 * Offset of the first line that starts at or after pos.
+	 */
+	private long nextLineStart(RandomAccessFile index, long pos) throws IOException {
+		if (pos == 0)
+			return 0;
+		// Skip the remainder of the line that pos-1 is in:
+		index.seek(pos - 1);
+		readLine(index);
+		return index.getFilePointer();
+	}
+
+	/**
+	 * Read the line at the file pointer in chunks, and leave the
+	 * file pointer at the start of the following line.
+	 * @return the line without its newline, or null at end of file.
+	 */
+	private String readLine(RandomAccessFile index) throws IOException {
+		long lineStart = index.getFilePointer();
+		ByteArrayOutputStream lineBytes = new ByteArrayOutputStream(256);
+		byte[] chunk = new byte[READ_CHUNK_SIZE];
+		int n;
+		while ((n = index.read(chunk)) > 0) {
+			for (int i=0; i<n; i++) {
+				if (chunk[i] == '\n') {
+					lineBytes.write(chunk, 0, i);
+					index.seek(lineStart + lineBytes.size() + 1);
+					return lineBytes.toString("UTF-8");
+				}
+			}
+			lineBytes.write(chunk, 0, n);
+		}
+		if (lineBytes.size() == 0)
+			return null;
+		return lineBytes.toString("UTF-8");
+	}
+}
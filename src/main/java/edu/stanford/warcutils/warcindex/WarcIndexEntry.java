@@ -0,0 +1,140 @@
+package edu.stanford.warcutils.warcindex;
+
+import java.io.IOException;
+
+/**
+ * @author paepcke
+ *
+ * One line of a WARC index: where a single WARC record lives, plus
+ * the header fields by which it can be looked up. The same entry is
+ * written in two line layouts. URI index lines lead with the
+ * SURT-canonicalized target URI:
+ *
+ *     surt warc-date warc-record-id warc-type offset length file
+ *
+ * Record ID index lines lead with the record ID:
+ *
+ *     warc-record-id surt warc-date warc-type offset length file
+ *
+ * Fields are separated by single spaces. The file path comes last,
+ * so that it may itself contain spaces. Missing fields are given as "-".
+ * Offset and length are byte positions in the (possibly compressed)
+ * file, suitable for WarcRecordReader.readRecordAt().
+ */
+public class WarcIndexEntry {
+
+	public static final String MISSING = "-";
+
+	private String surt;
+	private String date;
+	private String recordId;
+	private String warcType;
+	private long offset;
+	private long length;
+	private String filePath;
+
+	public WarcIndexEntry(String surt,
+						  String date,
+						  String recordId,
+						  String warcType,
+						  long offset,
+						  long length,
+						  String filePath) {
+		this.surt = fieldOrMissing(surt);
+		this.date = fieldOrMissing(date);
+		this.recordId = fieldOrMissing(recordId);
+		this.warcType = fieldOrMissing(warcType);
+		this.offset = offset;
+		this.length = length;
+		this.filePath = filePath;
+	}
+
+	public String getSurt() {
+		return surt;
+	}
+
+	public String getDate() {
+		return date;
+	}
+
+	public String getRecordId() {
+		return recordId;
+	}
+
+	public String getWarcType() {
+		return warcType;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public String getFilePath() {
+		return filePath;
+	}
+
+	void setLength(long theLength) {
+		length = theLength;
+	}
+
+	public String toUriLine() {
+		return surt + " " + date + " " + recordId + " " + warcType + " " + offset + " " + length + " " + filePath;
+	}
+
+	public String toRecordIdLine() {
+		return recordId + " " + surt + " " + date + " " + warcType + " " + offset + " " + length + " " + filePath;
+	}
+
+	public static WarcIndexEntry fromUriLine(String line) throws IOException {
+		String[] fields = splitLine(line);
+		return new WarcIndexEntry(fields[0], fields[1], fields[2], fields[3],
+								  parseLong(fields[4], line), parseLong(fields[5], line), fields[6]);
+	}
+
+	public static WarcIndexEntry fromRecordIdLine(String line) throws IOException {
+		String[] fields = splitLine(line);
+		return new WarcIndexEntry(fields[1], fields[2], fields[0], fields[3],
+								  parseLong(fields[4], line), parseLong(fields[5], line), fields[6]);
+	}
+
+	/**
+	 * The key by which a line is sorted: everything up to the first space.
+	 * @param line an index line
+	 * @return the line's key
+	 */
+	public static String keyOf(String line) {
+		int firstSpace = line.indexOf(' ');
+		return (firstSpace < 0) ? line : line.substring(0, firstSpace);
+	}
+
+	@Override
+	public String toString() {
+		return toUriLine();
+	}
+
+	private static String[] splitLine(String line) throws IOException {
+		String[] fields = line.split(" ", 7);
+		if (fields.length != 7)
+			throw new IOException("Malformed WARC index line: '" + line + "'.");
+		return fields;
+	}
+
+	private static long parseLong(String field, String line) throws IOException {
+		try {
+			return Long.parseLong(field);
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed number in WARC index line: '" + line + "'.");
+		}
+	}
+
+	private static String fieldOrMissing(String field) {
+		if (field == null || field.length() == 0)
+			return MISSING;
+		// Keep fields from breaking the space-separated layout:
+		return field.replace(" ", "%20");
+	}
+}
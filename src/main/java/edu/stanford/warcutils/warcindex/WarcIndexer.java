@@ -0,0 +1,163 @@
+package edu.stanford.warcutils.warcindex;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+import edu.stanford.warcutils.warcreader.WarcInputPlanner;
+import edu.stanford.warcutils.warcreader.WarcRecord;
+import edu.stanford.warcutils.warcreader.WarcRecordReader;
+
+/**
+ * @author paepcke
+ *
+ * Builds an offset index over a set of WARC files in one pass of
+ * header-only reading. Two sorted text files are written:
+ *
+ *     indexFile       one line per record, sorted by SURT-canonicalized target URI
+ *     indexFile.ids   the same lines, re-arranged to lead with, and be sorted by the WARC-Record-ID
+ *
+ * See WarcIndexEntry for the line layouts, and WarcIndex for
+ * binary-search lookups over the result.
+ *
+ * Records are located by file offset and length. For gzipped files
+ * this only works if each record is compressed as a gzip member of its
+ * own, as is customary for .warc.gz files. Files that were gzipped as
+ * one single stream are reported on stderr, and left out of the index.
+ *
+ * The entries are sorted in memory, which takes roughly 200 bytes of
+ * heap per record.
+ */
+public class WarcIndexer {
+
+	public static final String RECORD_ID_INDEX_SUFFIX = ".ids";
+
+	/**
+	 * Index the given WARC files or directories of WARC files.
+	 * @param warcFiles files to index, gzipped or clear. Directories are searched as by WarcInputPlanner.
+	 * @param indexFile file to which the URI-sorted index is written. The record-ID-sorted
+	 * 			index is written next to it, with RECORD_ID_INDEX_SUFFIX appended.
+	 * @return number of records that were indexed.
+	 * @throws IOException
+	 */
+	public static long index(Collection<File> warcFiles, File indexFile) throws IOException {
+		if (warcFiles.size() == 0)
+			throw new IOException("WarcIndexer received an empty list of files/directories to index.");
+		File idIndexFile = new File(indexFile.getPath() + RECORD_ID_INDEX_SUFFIX);
+		WarcInputPlanner planner = new WarcInputPlanner();
+		// Indexes of earlier runs may lie in the directories being indexed:
+		planner.addExcludedPath(indexFile);
+		planner.addExcludedPath(idIndexFile);
+		List<File> allFiles = planner.plan(warcFiles);
+		List<WarcIndexEntry> entries = collectEntries(allFiles);
+		writeSorted(entries, indexFile, true);
+		writeSorted(entries, idIndexFile, false);
+		return entries.size();
+	}
+
+	private static List<WarcIndexEntry> collectEntries(Collection<File> warcFiles) throws IOException {
+		ArrayList<WarcIndexEntry> entries = new ArrayList<WarcIndexEntry>();
+		HashSet<String> unseekableFiles = new HashSet<String>();
+		WarcRecordReader recReader = new WarcRecordReader(warcFiles);
+		WarcIndexEntry prevEntry = null;
+		try {
+			while (recReader.nextKeyValue(false)) {
+				String filePath = recReader.getCurrentFilePath();
+				long offset = recReader.getCurrentFileOffset();
+				if (prevEntry != null) {
+					if (prevEntry.getFilePath().equals(filePath))
+						prevEntry.setLength(offset - prevEntry.getOffset());
+					else
+						prevEntry.setLength(new File(prevEntry.getFilePath()).length() - prevEntry.getOffset());
+				}
+				prevEntry = null;
+				if (unseekableFiles.contains(filePath))
+					continue;
+				if (offset < 0) {
+					System.err.println("WARC file " + filePath + " is not compressed one record per gzip member; cannot index it.");
+					unseekableFiles.add(filePath);
+					continue;
+				}
+				WarcRecord rec = recReader.getCurrentValue();
+				prevEntry = new WarcIndexEntry(Surt.canonicalize(rec.get(WarcRecord.WARC_TARGET_URI)),
+											   rec.get(WarcRecord.WARC_DATE),
+											   rec.get(WarcRecord.WARC_RECORD_ID),
+											   rec.get(WarcRecord.WARC_TYPE),
+											   offset,
+											   -1L,
+											   filePath);
+				entries.add(prevEntry);
+			}
+		} finally {
+			recReader.close();
+		}
+		if (prevEntry != null)
+			prevEntry.setLength(new File(prevEntry.getFilePath()).length() - prevEntry.getOffset());
+
+		if (!unseekableFiles.isEmpty()) {
+			ArrayList<WarcIndexEntry> seekableEntries = new ArrayList<WarcIndexEntry>(entries.size());
+			for (WarcIndexEntry entry : entries) {
+				if (!unseekableFiles.contains(entry.getFilePath()))
+					seekableEntries.add(entry);
+			}
+			entries = seekableEntries;
+		}
+		return entries;
+	}
+
+	private static void writeSorted(List<WarcIndexEntry> entries, File outFile, boolean byUri) throws IOException {
+		ArrayList<String> lines = new ArrayList<String>(entries.size());
+		for (WarcIndexEntry entry : entries)
+			lines.add(byUri ? entry.toUriLine() : entry.toRecordIdLine());
+		// Sorted by key, which is what WarcIndex searches on. Whole lines
+		// sort differently where a key holds characters below ' ', e.g. a tab:
+		Collections.sort(lines, new Comparator<String>() {
+			public int compare(String line1, String line2) {
+				int cmp = WarcIndexEntry.keyOf(line1).compareTo(WarcIndexEntry.keyOf(line2));
+				return (cmp != 0) ? cmp : line1.compareTo(line2);
+			}
+		});
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outFile), "UTF-8"));
+		try {
+			for (String line : lines) {
+				out.write(line);
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @param args: indexFile warcFileOrDir1 warcFileOrDir2 ...
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.out.println("Usage: WarcIndexer indexFile warcFileOrDir [warcFileOrDir ...]");
+			System.exit(1);
+		}
+		LinkedList<File> fileObjs = new LinkedList<File>();
+		for (int i=1; i<args.length; i++) {
+			File fileObj = new File(args[i]);
+			if (!fileObj.canRead()) {
+				System.out.println("File " + fileObj.getAbsolutePath() + " does not exist or is not readable. Fix and try again.");
+				System.exit(1);
+			}
+			fileObjs.add(fileObj);
+		}
+		try {
+			System.out.println(WarcIndexer.index(fileObjs, new File(args[0])));
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @author paepcke
+ *
+ * Gzipped WARC files, read through GzipMemberInputStream: an
+ * Inflater directly over a compressed-input buffer of the requested
+ * size, which keeps track of where each gzip member starts.
+ */
+public class GzipCodec implements WarcCodec {
+
+	public String getName() {
+		return "gzip";
+	}
+
+	public boolean recognizes(byte[] magic, int length) {
+		return (length >= 3) && (magic[0] == (byte) 0x1f) && (magic[1] == (byte) 0x8b) && (magic[2] == 8);
+	}
+
+	public InputStream open(File warcFile, InputStream in, long offset, int inputBufferSize) throws IOException {
+		return new GzipMemberInputStream(in, offset, inputBufferSize, true);
+	}
+}
@@ -0,0 +1,258 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * @author paepcke
+ *
+ * Decompresses a gzip stream that may consist of many gzip members,
+ * as is the case in .warc.gz files that hold one member per WARC
+ * record. Unlike GZIPInputStream, this stream keeps track of where
+ * in the compressed input each member starts, and at which position
+ * of the uncompressed output that member's bytes begin. Readers use
+ * memberOffsetAt() to find the compressed offset of a record, which
+ * is what random access via seek() needs.
+ *
+ * Member start positions are remembered until memberOffsetAt() is
+ * called with a later uncompressed position, so callers that never
+ * ask should set tracking off via the constructor. memberOffsetAt()
+ * may be called from another thread than the one that reads, as
+ * when a ReadAheadInputStream reads this stream.
+ */
+public class GzipMemberInputStream extends InputStream {
+
+	private static final int DEFAULT_INPUT_BUFFER_SIZE = 64 * 1024;
+
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int FHCRC      = 2;
+	private static final int FEXTRA     = 4;
+	private static final int FNAME      = 8;
+	private static final int FCOMMENT   = 16;
+
+	private InputStream in;
+	private Inflater inflater = new Inflater(true);
+	private CRC32 crc = new CRC32();
+	private byte[] inBuf;
+	private int inBufLen = 0;
+	private int inBufPos = 0;
+	// Offset of inBuf[0] in the compressed input:
+	private long inBufStartOffset;
+	private long uncompressedPos = 0L;
+	private boolean eof = false;
+	private boolean firstMember = true;
+	private boolean trackMembers = true;
+	private byte[] singleByte = new byte[1];
+
+	// Pairs {uncompressed start, compressed start}, in order:
+	private LinkedList<long[]> memberStarts = new LinkedList<long[]>();
+
+	/**
+	 * Create a stream that decompresses from the given input,
+	 * whose first byte lies at compressed offset 0.
+	 * @param in the compressed input.
+	 * @throws IOException if the input does not start with a gzip header.
+	 */
+	public GzipMemberInputStream(InputStream in) throws IOException {
+		this(in, 0L, DEFAULT_INPUT_BUFFER_SIZE, true);
+	}
+
+	/**
+	 * Create a stream that decompresses from the given input.
+	 * @param in the compressed input.
+	 * @param startOffset compressed offset of the input's first byte, e.g. after a seek in a file.
+	 * @param inputBufferSize size of the buffer that holds compressed bytes.
+	 * @param trackMembers whether to remember member start positions for memberOffsetAt().
+	 * @throws IOException if the input does not start with a gzip header.
+	 */
+	public GzipMemberInputStream(InputStream in, long startOffset, int inputBufferSize, boolean trackMembers) throws IOException {
+		this.in = in;
+		this.inBuf = new byte[inputBufferSize];
+		this.inBufStartOffset = startOffset;
+		this.trackMembers = trackMembers;
+		if (!readHeader())
+			throw new EOFException("Empty input where a gzip header was expected.");
+	}
+
+	/**
+	 * Return the compressed offset of the gzip member whose uncompressed
+	 * bytes start exactly at the given uncompressed position. Member
+	 * starts before that position are forgotten, so positions must be
+	 * asked for in increasing order.
+	 * @param uncompressedPosition position in the decompressed stream, counted from the start of this stream.
+	 * @return compressed offset of the member, or -1 if no member starts at that position.
+	 */
+	public long memberOffsetAt(long uncompressedPosition) {
+		synchronized (memberStarts) {
+			while (!memberStarts.isEmpty()) {
+				long[] start = memberStarts.getFirst();
+				if (start[0] > uncompressedPosition)
+					return -1L;
+				if (start[0] == uncompressedPosition)
+					return start[1];
+				memberStarts.removeFirst();
+			}
+		}
+		return -1L;
+	}
+
+	/**
+	 * @return number of compressed bytes consumed so far, plus the start offset.
+	 */
+	public long getCompressedPosition() {
+		return inBufStartOffset + inBufLen - inflater.getRemaining();
+	}
+
+	@Override
+	public int read() throws IOException {
+		int n = read(singleByte, 0, 1);
+		return (n <= 0) ? -1 : (singleByte[0] & 0xff);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		while (!eof) {
+			int n;
+			try {
+				n = inflater.inflate(b, off, len);
+			} catch (DataFormatException e) {
+				throw new ZipException(e.getMessage() == null ? "Invalid gzip data" : e.getMessage());
+			}
+			if (n > 0) {
+				crc.update(b, off, n);
+				uncompressedPos += n;
+				return n;
+			}
+			if (inflater.finished()) {
+				// Hand unconsumed input back to our own buffer:
+				inBufPos = inBufLen - inflater.getRemaining();
+				readTrailer();
+				if (!readHeader())
+					eof = true;
+			} else if (inflater.needsInput()) {
+				if (!fillInBuf())
+					throw new EOFException("Unexpected end of gzip input.");
+				inflater.setInput(inBuf, inBufPos, inBufLen - inBufPos);
+			} else if (inflater.needsDictionary()) {
+				throw new ZipException("Gzip member requires a preset dictionary.");
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return eof ? 0 : 1;
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		in.close();
+	}
+
+	/**
+	 * Read a member header at the current input position.
+	 * @return false if the input ended cleanly, or continues with bytes other than a gzip member.
+	 * @throws IOException if a header is started, but malformed.
+	 */
+	private boolean readHeader() throws IOException {
+		if ((inBufPos >= inBufLen) && !fillInBuf())
+			return false;
+		long memberStart = inBufStartOffset + inBufPos;
+		int id1 = readUByte();
+		if (id1 < 0)
+			return false;
+		int id2 = readUByte();
+		if ((id2 << 8 | id1) != GZIP_MAGIC) {
+			if (firstMember)
+				throw new ZipException("Not in GZIP format");
+			// Trailing garbage after the last member, as GZIPInputStream tolerates:
+			return false;
+		}
+		if (readUByte() != 8)
+			throw new ZipException("Unsupported compression method");
+		int flags = readUByte();
+		// MTIME (4), XFL, OS:
+		skipBytes(6);
+		if ((flags & FEXTRA) == FEXTRA) {
+			int xlen = readUByte() | (readUByte() << 8);
+			skipBytes(xlen);
+		}
+		if ((flags & FNAME) == FNAME)
+			while (readUByte() > 0) {}
+		if ((flags & FCOMMENT) == FCOMMENT)
+			while (readUByte() > 0) {}
+		if ((flags & FHCRC) == FHCRC)
+			skipBytes(2);
+		firstMember = false;
+		if (trackMembers) {
+			synchronized (memberStarts) {
+				memberStarts.add(new long[] {uncompressedPos, memberStart});
+			}
+		}
+		inflater.reset();
+		crc.reset();
+		inflater.setInput(inBuf, inBufPos, inBufLen - inBufPos);
+		return true;
+	}
+
+	private void readTrailer() throws IOException {
+		long expectedCrc = readUInt();
+		long expectedSize = readUInt();
+		if (expectedCrc != crc.getValue())
+			throw new ZipException("Corrupt gzip member: CRC mismatch");
+		if (expectedSize != (inflater.getBytesWritten() & 0xffffffffL))
+			throw new ZipException("Corrupt gzip member: size mismatch");
+	}
+
+	private long readUInt() throws IOException {
+		long b0 = readUByteOrFail();
+		long b1 = readUByteOrFail();
+		long b2 = readUByteOrFail();
+		long b3 = readUByteOrFail();
+		return b0 | (b1 << 8) | (b2 << 16) | (b3 << 24);
+	}
+
+	private int readUByteOrFail() throws IOException {
+		int b = readUByte();
+		if (b < 0)
+			throw new EOFException("Unexpected end of gzip input.");
+		return b;
+	}
+
+	private int readUByte() throws IOException {
+		if ((inBufPos >= inBufLen) && !fillInBuf())
+			return -1;
+		return inBuf[inBufPos++] & 0xff;
+	}
+
+	private void skipBytes(int n) throws IOException {
+		while (n-- > 0)
+			readUByteOrFail();
+	}
+
+	/**
+	 * Replace the (fully consumed) input buffer with fresh compressed bytes.
+	 * @return false at end of input.
+	 */
+	private boolean fillInBuf() throws IOException {
+		inBufStartOffset += inBufLen;
+		inBufPos = 0;
+		inBufLen = 0;
+		int n;
+		while ((n = in.read(inBuf, 0, inBuf.length)) == 0) {}
+		if (n < 0)
+			return false;
+		inBufLen = n;
+		return true;
+	}
+}
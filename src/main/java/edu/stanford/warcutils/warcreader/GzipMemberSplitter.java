@@ -0,0 +1,210 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author paepcke
+ *
+ * Cuts a gzipped WARC file into byte ranges that can be read
+ * independently, e.g. by one thread each. Standard .warc.gz files
+ * compress every record as a gzip member of its own, so the file
+ * can be cut wherever a member starts.
+ *
+ * Member starts are found by scanning forward from the desired cut
+ * point for the gzip magic bytes 1f 8b 08. Since those bytes may
+ * just as well occur inside compressed data, a candidate is only
+ * accepted if its header fields are plausible, and if its first
+ * few bytes inflate to a WARC version line.
+ *
+ * Uncompressed files, and gzipped files that were compressed as
+ * one single stream, come back as one range covering the whole file.
+ * So do files in which one of the stretches between cut points holds
+ * no member start, since that is what a single stream looks like.
+ *
+ * split() reads the file while planning. Readers that cut a file
+ * among threads can instead let each thread find its own start with
+ * findMemberStart(); see ParallelWarcRecordReader.
+ */
+public class GzipMemberSplitter {
+
+	private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+	private static final int TRIAL_INFLATE_BUFFER_SIZE = 8 * 1024;
+	private static final byte[] WARC_MAGIC = {'W', 'A', 'R', 'C', '/'};
+
+	/**
+	 * Cut a WARC file into at most numSplits ranges of roughly equal length.
+	 * @param warcFile the file to cut.
+	 * @param numSplits desired number of ranges.
+	 * @return the ranges, in file order. Together they cover the whole file.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public static List<WarcFileSplit> split(File warcFile, int numSplits) throws IOException {
+		ArrayList<WarcFileSplit> splits = new ArrayList<WarcFileSplit>();
+		long fileLength = warcFile.length();
+		if (numSplits <= 1 || !isMemberStart(warcFile, 0L)) {
+			splits.add(new WarcFileSplit(warcFile, 0L, fileLength));
+			return splits;
+		}
+		RandomAccessFile raf = new RandomAccessFile(warcFile, "r");
+		try {
+			long splitStart = 0L;
+			for (int i=1; i<numSplits; i++) {
+				long target = Math.max(splitStart + 1, fileLength / numSplits * i);
+				long nextTarget = (i == numSplits - 1) ? fileLength : fileLength / numSplits * (i + 1);
+				long cut = nextMemberStart(raf, warcFile, target, nextTarget);
+				if (cut < 0) {
+					// A whole stretch without a member start: most likely
+					// the file is one single gzip stream, which the
+					// remaining scans would read in full for nothing:
+					splits.clear();
+					splits.add(new WarcFileSplit(warcFile, 0L, fileLength));
+					return splits;
+				}
+				splits.add(new WarcFileSplit(warcFile, splitStart, cut - splitStart));
+				splitStart = cut;
+			}
+			splits.add(new WarcFileSplit(warcFile, splitStart, fileLength - splitStart));
+		} finally {
+			raf.close();
+		}
+		return splits;
+	}
+
+	/**
+	 * Cut a WARC file into ranges of about the given length.
+	 * @param warcFile the file to cut.
+	 * @param splitSize desired length of a range in bytes.
+	 * @return the ranges, in file order.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public static List<WarcFileSplit> splitBySize(File warcFile, long splitSize) throws IOException {
+		long numSplits = (warcFile.length() + splitSize - 1) / Math.max(1L, splitSize);
+		return split(warcFile, (int) Math.max(1L, Math.min(Integer.MAX_VALUE, numSplits)));
+	}
+
+	/**
+	 * Cut a range of a WARC file in two at the first member start
+	 * after its middle.
+	 * @param split the range to cut; must start at a gzip member, or at 0.
+	 * @return the two halves in file order, or just the given range if it cannot be cut.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public static List<WarcFileSplit> bisect(WarcFileSplit split) throws IOException {
+		ArrayList<WarcFileSplit> halves = new ArrayList<WarcFileSplit>();
+		File warcFile = split.getFile();
+		long cut = -1L;
+		if (split.getLength() > 1 && isMemberStart(warcFile, split.getStart())) {
+			RandomAccessFile raf = new RandomAccessFile(warcFile, "r");
+			try {
+				cut = nextMemberStart(raf, warcFile, split.getStart() + split.getLength() / 2, split.getEnd());
+			} finally {
+				raf.close();
+			}
+		}
+		if (cut <= split.getStart()) {
+			halves.add(split);
+			return halves;
+		}
+		halves.add(new WarcFileSplit(warcFile, split.getStart(), cut - split.getStart()));
+		halves.add(new WarcFileSplit(warcFile, cut, split.getEnd() - cut));
+		return halves;
+	}
+
+	/**
+	 * Find the first gzip member start at or after from, and before
+	 * limit, that holds the start of a WARC record. Records of a file
+	 * gzipped one member per record that start in [from, limit) are
+	 * thus those that start in [findMemberStart(), limit).
+	 * @param warcFile gzipped WARC file.
+	 * @param from offset at which to start looking.
+	 * @param limit offset before which the member must start.
+	 * @return offset of the member, or -1 if there is none.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public static long findMemberStart(File warcFile, long from, long limit) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(warcFile, "r");
+		try {
+			return nextMemberStart(raf, warcFile, from, limit);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Find the first validated gzip member start in [from, limit).
+	 * @return offset of the member, or -1 if there is none.
+	 */
+	private static long nextMemberStart(RandomAccessFile raf, File warcFile, long from, long limit) throws IOException {
+		byte[] buf = new byte[SCAN_BUFFER_SIZE];
+		long bufStart = from;
+		while (bufStart < limit) {
+			raf.seek(bufStart);
+			int n = raf.read(buf);
+			if (n < 3)
+				return -1L;
+			for (int i=0; i<n-2; i++) {
+				if (bufStart + i >= limit)
+					return -1L;
+				if (buf[i] == (byte) 0x1f && buf[i+1] == (byte) 0x8b && buf[i+2] == 8 && isMemberStart(warcFile, bufStart + i))
+					return bufStart + i;
+			}
+			// Overlap by two bytes, so that magic numbers spanning
+			// buffers are found:
+			bufStart += n - 2;
+		}
+		return -1L;
+	}
+
+	/**
+	 * Check whether a gzip member holding the start of a WARC
+	 * record begins at the given offset.
+	 */
+	static boolean isMemberStart(File warcFile, long offset) throws IOException {
+		FileInputStream fileIn = new FileInputStream(warcFile);
+		try {
+			fileIn.getChannel().position(offset);
+			byte[] header = new byte[10];
+			int n = 0;
+			int r;
+			while (n < header.length && (r = fileIn.read(header, n, header.length - n)) > 0)
+				n += r;
+			if (n < header.length)
+				return false;
+			int flags = header[3] & 0xff;
+			int extraFlags = header[8] & 0xff;
+			int os = header[9] & 0xff;
+			if ((header[0] != (byte) 0x1f) || (header[1] != (byte) 0x8b) || (header[2] != 8) ||
+				((flags & 0xe0) != 0) ||
+				(extraFlags != 0 && extraFlags != 2 && extraFlags != 4) ||
+				(os > 13 && os != 255))
+				return false;
+			// Trial inflate:
+			fileIn.getChannel().position(offset);
+			GzipMemberInputStream gzipIn = new GzipMemberInputStream(fileIn, offset, TRIAL_INFLATE_BUFFER_SIZE, false);
+			byte[] start = new byte[WARC_MAGIC.length];
+			n = 0;
+			try {
+				while (n < start.length && (r = gzipIn.read(start, n, start.length - n)) > 0)
+					n += r;
+			} finally {
+				gzipIn.close();
+			}
+			if (n < start.length)
+				return false;
+			for (int i=0; i<start.length; i++)
+				if (start[i] != WARC_MAGIC[i])
+					return false;
+			return true;
+		} catch (IOException e) {
+			// Header or deflate data malformed: not a member start.
+			return false;
+		} finally {
+			fileIn.close();
+		}
+	}
+}
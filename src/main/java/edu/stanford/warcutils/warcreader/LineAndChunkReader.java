@@ -1,8 +1,11 @@
 package edu.stanford.warcutils.warcreader;
 
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class LineAndChunkReader {
   private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
@@ -13,6 +16,9 @@ public class LineAndChunkReader {
   private int bufferLength = 0;
   // the current position wbRecordReader the buffer
   private int bufferPosn = 0;
+  // Whether, and how long, we waited for the stream; see ReaderStats:
+  private boolean timed = false;
+  private volatile long readNanos = 0L;
 
   private static final byte CR = '\r';
   private static final byte LF = '\n';
@@ -43,6 +49,45 @@ public class LineAndChunkReader {
     this.buffer = new byte[this.bufferSize];
   }
 
+  /**
+   * Create a line reader whose first bytes have already been read
+   * from the stream, e.g. by a prefetch. The bytes are served from
+   * the buffer, and the stream is read from its current position on.
+   * @param in The input stream, positioned after the given bytes
+   * @param head bytes that precede the stream's
+   * @param headLength number of valid bytes in head
+   */
+  LineAndChunkReader(InputStream in, byte[] head, int headLength) {
+    this(in, Math.max(DEFAULT_BUFFER_SIZE, headLength));
+    System.arraycopy(head, 0, buffer, 0, headLength);
+    bufferLength = headLength;
+  }
+
+  /**
+   * For subclasses that do not pull their bytes from an
+   * InputStream, and therefore need neither stream nor buffer.
+   */
+  protected LineAndChunkReader() {
+  }
+
+  /**
+   * Request that the time spent waiting for the underlying stream
+   * be measured; see getReadNanos().
+   * @param doTime true to measure.
+   */
+  public void setTimed(boolean doTime) {
+    timed = doTime;
+  }
+
+  /**
+   * @return nanoseconds spent in reads and seeks of the underlying
+   *  stream since setTimed(true), i.e. waiting for input rather than
+   *  working on bytes already buffered.
+   */
+  public long getReadNanos() {
+    return readNanos;
+  }
+
   /**
    * Close the underlying stream.
    * @throws IOException
@@ -99,7 +144,7 @@ public class LineAndChunkReader {
         startPosn = bufferPosn = 0;
         if (prevCharCR)
           ++bytesConsumed; //account for CR from previous read
-        bufferLength = in.read(buffer);
+        bufferLength = fill(buffer, 0, buffer.length);
         if (bufferLength <= 0)
           break; // EOF
       }
@@ -160,7 +205,7 @@ public class LineAndChunkReader {
 	  int bytesToCopy = 0;
 	  // Empty what remained wbRecordReader the buffer during the last call
 	  // to the target:
-	  if ((bufferPosn < bufferSize) && bufferPosn > 0) {
+	  if (bufferPosn < bufferLength) {
 		  int bytesLeft = bufferLength - bufferPosn;
 		  bytesToCopy = Math.min(lengthToRead, bytesLeft);
 		  System.arraycopy(buffer, bufferPosn, destBuf, offset, bytesToCopy);
@@ -171,8 +216,113 @@ public class LineAndChunkReader {
 	  }
 	  bytesToCopy = lengthToRead - bytesConsumed;
 	  // read(dest, offset, length):
-	  int bytesPulled = in.read(destBuf, offset + bytesConsumed, bytesToCopy);
+	  int bytesPulled = fill(destBuf, offset + bytesConsumed, bytesToCopy);
+	  if (bytesPulled < 0)
+		  // EOF; report what we got from the buffer, if anything:
+		  return (bytesConsumed > 0) ? bytesConsumed : -1;
 	  return bytesConsumed + bytesPulled;
   }
-}
 
+  /**
+   * Read the next length bytes, and return them in a ByteBuffer.
+   * This implementation copies the bytes into a freshly allocated
+   * array. Subclasses that have the bytes in memory already may
+   * return a view instead. If the stream ends early, the returned
+   * buffer's remaining() will be less than length.
+   * @param length number of bytes to read.
+   * @return buffer positioned at the first byte of the chunk.
+   * @throws IOException if the underlying stream throws
+   */
+  public ByteBuffer readChunk(int length) throws IOException {
+	  return readChunk(length, null);
+  }
+
+  /**
+   * Variant of readChunk() that reads into the array behind the
+   * given buffer, if it has one that is large enough, instead of
+   * allocating a new array.
+   * @param length number of bytes to read.
+   * @param reuse buffer whose array may be overwritten, or null.
+   * @return buffer positioned at the first byte of the chunk.
+   * @throws IOException if the underlying stream throws
+   */
+  public ByteBuffer readChunk(int length, ByteBuffer reuse) throws IOException {
+	  byte[] chunk;
+	  if ((reuse != null) && reuse.hasArray() && !reuse.isReadOnly() &&
+		  (reuse.arrayOffset() == 0) && (reuse.array().length >= length))
+		  chunk = reuse.array();
+	  else
+		  chunk = new byte[length];
+	  int totalRead = 0;
+	  while (totalRead < length) {
+		  int numRead = read(chunk, totalRead, length - totalRead);
+		  if (numRead < 0)
+			  break;
+		  totalRead += numRead;
+	  }
+	  return ByteBuffer.wrap(chunk, 0, totalRead);
+  }
+
+  /**
+   * Discard the next numBytes bytes. Bytes still in the buffer are
+   * dropped first. Beyond that, file streams are skipped via a seek,
+   * and all other streams (e.g. gzip) are read into the line buffer
+   * and discarded, which avoids the small scratch buffers of
+   * InputStream.skip() implementations.
+   * @param numBytes number of bytes to skip.
+   * @return number of bytes actually skipped; less than numBytes only if EOF was reached.
+   * @throws IOException if the underlying stream throws
+   */
+  public long skip(long numBytes) throws IOException {
+	  long skipped = 0;
+	  if (bufferPosn < bufferLength) {
+		  int fromBuffer = (int) Math.min(numBytes, bufferLength - bufferPosn);
+		  bufferPosn += fromBuffer;
+		  skipped += fromBuffer;
+	  }
+	  if (skipped == numBytes)
+		  return skipped;
+	  if (seeksOnSkip()) {
+		  // Seek, but not beyond the end of the file:
+		  long start = timed ? System.nanoTime() : 0L;
+		  FileChannel channel = ((FileInputStream) in).getChannel();
+		  long filePos = channel.position();
+		  long seekDist = Math.max(0L, Math.min(numBytes - skipped, channel.size() - filePos));
+		  channel.position(filePos + seekDist);
+		  if (timed)
+			  readNanos += System.nanoTime() - start;
+		  return skipped + seekDist;
+	  }
+	  while (skipped < numBytes) {
+		  int n = fill(buffer, 0, (int) Math.min(buffer.length, numBytes - skipped));
+		  if (n < 0)
+			  break;
+		  skipped += n;
+	  }
+	  // Nothing of the buffer is valid any more:
+	  bufferPosn = bufferLength = 0;
+	  return skipped;
+  }
+
+  /**
+   * @return true if skip() seeks the underlying stream, rather than
+   *  reading through the bytes.
+   */
+  boolean seeksOnSkip() {
+    return in instanceof FileInputStream;
+  }
+
+  /**
+   * Read from the underlying stream, timing the read if requested.
+   */
+  private int fill(byte[] destBuf, int offset, int length) throws IOException {
+	  if (!timed)
+		  return in.read(destBuf, offset, length);
+	  long start = System.nanoTime();
+	  try {
+		  return in.read(destBuf, offset, length);
+	  } finally {
+		  readNanos += System.nanoTime() - start;
+	  }
+  }
+}
@@ -0,0 +1,225 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author paepcke
+ *
+ * Line and chunk reader over an uncompressed file that is memory-mapped
+ * via FileChannel.map(), rather than read through an InputStream.
+ * Lines are still copied into the caller's Text, but chunks
+ * (i.e. WARC record contents) are returned as slices of the mapping,
+ * so no content bytes are copied at all.
+ *
+ * Since a single mapping cannot exceed 2GB, the file is mapped one window
+ * at a time. When a line or chunk runs past the current window, the
+ * window is re-mapped to start at the current read position.
+ *
+ * Slices handed out by readChunk() keep their part of the mapping
+ * alive, and therefore remain valid after the reader has moved on,
+ * or was closed.
+ */
+public class MappedLineAndChunkReader extends LineAndChunkReader {
+  private static final long DEFAULT_WINDOW_SIZE = 256L * 1024 * 1024;
+  private static final int SCRATCH_SIZE = 4 * 1024;
+
+  private static final byte CR = '\r';
+  private static final byte LF = '\n';
+
+  private FileChannel channel;
+  private long fileLength;
+  private long windowSize;
+  // File offset at which the current window begins:
+  private long windowStart = 0;
+  private MappedByteBuffer window = null;
+  // For moving line bytes from the mapping into a Text:
+  private byte[] scratch = new byte[SCRATCH_SIZE];
+
+  /**
+   * Create a reader that maps the given channel in windows of
+   * the default size (256MB).
+   * @param channel channel of an uncompressed file, opened for reading.
+   * @throws IOException
+   */
+  public MappedLineAndChunkReader(FileChannel channel) throws IOException {
+    this(channel, DEFAULT_WINDOW_SIZE);
+  }
+
+  /**
+   * Create a reader that maps the given channel in windows of
+   * the given size. Reading starts at the channel's current position.
+   * @param channel channel of an uncompressed file, opened for reading.
+   * @param windowSize number of bytes to map at a time. At most Integer.MAX_VALUE.
+   * @throws IOException
+   */
+  public MappedLineAndChunkReader(FileChannel channel, long windowSize) throws IOException {
+    super();
+    this.channel = channel;
+    this.fileLength = channel.size();
+    this.windowSize = Math.min(windowSize, Integer.MAX_VALUE);
+    mapWindow(channel.position(), this.windowSize);
+  }
+
+  /**
+   * Close the underlying channel. Slices previously returned
+   * by readChunk() remain readable.
+   * @throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Current read position, as an offset into the file.
+   * @return the file offset of the next byte to be read.
+   */
+  public long getPosition() {
+    return windowStart + window.position();
+  }
+
+  /**
+   * Same semantics as LineAndChunkReader.readLine(), but reading
+   * from the mapping.
+   */
+  @Override
+  public int readLine(Text str, int maxLineLength,
+                      int maxBytesToConsume) throws IOException {
+    str.clear();
+    int txtLength = 0;
+    int newlineLength = 0;
+    boolean prevCharCR = false;
+    long bytesConsumed = 0;
+    do {
+      if (!window.hasRemaining()) {
+        if (prevCharCR)
+          ++bytesConsumed; //account for CR at the end of the previous window
+        if (!mapWindow(getPosition(), windowSize))
+          break; // EOF
+      }
+      int startPosn = window.position();
+      int limit = window.limit();
+      int posn = startPosn;
+      for (; posn < limit; ++posn) { //search for newline
+        byte b = window.get(posn);
+        if (b == LF) {
+          newlineLength = (prevCharCR) ? 2 : 1;
+          ++posn;
+          break;
+        }
+        if (prevCharCR) { //CR + notLF, we are at notLF
+          newlineLength = 1;
+          break;
+        }
+        prevCharCR = (b == CR);
+      }
+      window.position(posn);
+      int readLength = posn - startPosn;
+      if (prevCharCR && newlineLength == 0)
+        --readLength; //CR at the end of the window
+      bytesConsumed += readLength;
+      int appendLength = readLength - newlineLength;
+      if (appendLength > maxLineLength - txtLength) {
+        appendLength = maxLineLength - txtLength;
+      }
+      if (appendLength > 0) {
+        appendToText(str, startPosn, appendLength);
+        txtLength += appendLength;
+      }
+    } while (newlineLength == 0 && bytesConsumed < maxBytesToConsume);
+
+    if (bytesConsumed > (long)Integer.MAX_VALUE)
+      throw new IOException("Too many bytes before newline: " + bytesConsumed);
+    return (int)bytesConsumed;
+  }
+
+  @Override
+  public int read(byte[] destBuf, int offset, int lengthToRead) throws IOException {
+    int bytesCopied = 0;
+    while (bytesCopied < lengthToRead) {
+      if (!window.hasRemaining() && !mapWindow(getPosition(), windowSize))
+        break;
+      int n = Math.min(lengthToRead - bytesCopied, window.remaining());
+      window.get(destBuf, offset + bytesCopied, n);
+      bytesCopied += n;
+    }
+    if (bytesCopied == 0 && lengthToRead > 0)
+      return -1;
+    return bytesCopied;
+  }
+
+  /**
+   * Return the next length bytes as a read-only slice of the
+   * mapping, without copying. If the chunk extends beyond the
+   * current window, a window starting at the chunk is mapped.
+   * If the file ends early, the slice's remaining() is less than
+   * length.
+   */
+  @Override
+  public ByteBuffer readChunk(int length) throws IOException {
+    if (window.remaining() < length) {
+      // Make the chunk fit into one window:
+      mapWindow(getPosition(), Math.max(windowSize, length));
+    }
+    int sliceLength = Math.min(length, window.remaining());
+    ByteBuffer chunk = window.slice();
+    chunk.limit(sliceLength);
+    window.position(window.position() + sliceLength);
+    return chunk;
+  }
+
+  /**
+   * Slices cost no copying, so there is nothing to reuse.
+   */
+  @Override
+  public ByteBuffer readChunk(int length, ByteBuffer reuse) throws IOException {
+    return readChunk(length);
+  }
+
+  /**
+   * Skipping within the current window only moves the read
+   * position; no bytes are touched.
+   */
+  @Override
+  public long skip(long numBytes) throws IOException {
+    long skipped = Math.max(0L, Math.min(numBytes, fileLength - getPosition()));
+    if (skipped <= window.remaining())
+      window.position(window.position() + (int) skipped);
+    else
+      mapWindow(getPosition() + skipped, windowSize);
+    return skipped;
+  }
+
+  /**
+   * Map size bytes starting at file offset start, or fewer if
+   * the file ends earlier.
+   * @return false if start is at or beyond the end of the file.
+   * @throws IOException
+   */
+  private boolean mapWindow(long start, long size) throws IOException {
+    long mapLength = Math.min(size, fileLength - start);
+    if (mapLength <= 0) {
+      // Empty window that places the read position at EOF:
+      window = channel.map(FileChannel.MapMode.READ_ONLY, fileLength, 0);
+      windowStart = fileLength;
+      return false;
+    }
+    window = channel.map(FileChannel.MapMode.READ_ONLY, start, mapLength);
+    windowStart = start;
+    return true;
+  }
+
+  private void appendToText(Text str, int windowPosn, int length) {
+    ByteBuffer src = window.duplicate();
+    src.position(windowPosn);
+    while (length > 0) {
+      int n = Math.min(length, scratch.length);
+      src.get(scratch, 0, n);
+      str.append(scratch, 0, n);
+      length -= n;
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @author paepcke
+ *
+ * Counts the bytes that are read or skipped through it, and
+ * optionally the time spent in the wrapped stream. WarcRecordReader
+ * puts one between a compressed file and its decoder, which measures
+ * file I/O, and one after a decoder that runs ahead on a thread of
+ * its own, which measures inflating. See ReaderStats.
+ *
+ * Only one thread reads through a stream, so the counters are updated
+ * without locking; they are volatile so that others may watch them.
+ */
+class MeteredInputStream extends FilterInputStream {
+
+	private boolean timed;
+	private volatile long bytes = 0L;
+	private volatile long nanos = 0L;
+
+	/**
+	 * @param in stream to read from.
+	 * @param timed true to also measure the time spent in in's methods.
+	 */
+	MeteredInputStream(InputStream in, boolean timed) {
+		super(in);
+		this.timed = timed;
+	}
+
+	/**
+	 * @return number of bytes read or skipped so far.
+	 */
+	long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return nanoseconds spent reading and skipping; 0 if not timed.
+	 */
+	long getNanos() {
+		return nanos;
+	}
+
+	@Override
+	public int read() throws IOException {
+		long start = timed ? System.nanoTime() : 0L;
+		int b = in.read();
+		if (timed)
+			nanos += System.nanoTime() - start;
+		if (b >= 0)
+			bytes++;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		long start = timed ? System.nanoTime() : 0L;
+		int n = in.read(b, off, len);
+		if (timed)
+			nanos += System.nanoTime() - start;
+		if (n > 0)
+			bytes += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long start = timed ? System.nanoTime() : 0L;
+		long skipped = in.skip(n);
+		if (timed)
+			nanos += System.nanoTime() - start;
+		if (skipped > 0)
+			bytes += skipped;
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
@@ -0,0 +1,429 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.stanford.javautils.CallBack;
+
+/**
+ * @author paepcke
+ *
+ * Reads many WARC files concurrently, one WarcRecordReader per file,
+ * on a pool of worker threads. Records are handed to the caller through
+ * bounded queues, so workers cannot run arbitrarily far ahead of the
+ * consumer. The API mirrors WarcRecordReader:
+ *
+ *     ParallelWarcRecordReader reader = new ParallelWarcRecordReader(files, 8);
+ *     while (reader.nextKeyValue()) {
+ *         WarcRecord rec = reader.getCurrentValue();
+ *         String fromFile = reader.getCurrentFilePath();
+ *         ...
+ *     }
+ *     reader.close();
+ *
+ * With Delivery.UNORDERED (the default), records arrive as soon as any
+ * worker has parsed them; records of one file still arrive in file order.
+ * With Delivery.ORDERED, records arrive exactly as a sequential pass over
+ * the files in the order given would produce them, while later files
+ * are already being parsed in the background.
+ *
+ * Files larger than the split size (see setSplitSize()) are cut into
+ * byte ranges, which are parsed by separate workers as well. Nothing
+ * is read to plan the ranges: each worker finds the first gzip member
+ * start in its range itself (see GzipMemberSplitter), and reads the
+ * records that start from there up to the end of its range. Files
+ * that turn out not to be gzipped one member per record are read
+ * whole by the worker of their first range. Records keep the
+ * path of their file, and ORDERED delivery still returns them in
+ * file order. Keys of records from later splits of gzipped files
+ * count from the split's start offset, as after WarcRecordReader.seek().
+ *
+ * Unlike WarcRecordReader, whether contents are read is fixed for the
+ * whole run via setReadContents(), since workers read ahead. Options
+ * must be set before the first call to nextKeyValue(), which starts
+ * the workers.
+ */
+public class ParallelWarcRecordReader {
+
+	public enum Delivery {
+		ORDERED,
+		UNORDERED
+	}
+
+	/**
+	 * Whether the ranges of a file that is cut are read by their own
+	 * workers. Decided once, by whichever worker learns first:
+	 * a worker that found a member start in its range, or the worker
+	 * of the first range, on finding the file is not gzipped one member
+	 * per record.
+	 */
+	private enum Cutting {
+		UNDECIDED,
+		BY_MEMBERS,
+		// The worker of the first range reads the whole file:
+		WHOLE
+	}
+
+	private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+	private static final long DEFAULT_SPLIT_SIZE = 1024L * 1024L * 1024L;
+	// Bytes scanned for a member start between checks whether to give up:
+	private static final long SCAN_PIECE_SIZE = 1024L * 1024L;
+
+	private List<File> allFiles;
+	private int numThreads;
+	private Delivery delivery = Delivery.UNORDERED;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private boolean readContents = true;
+	private boolean memoryMapped = false;
+	private long splitSize = DEFAULT_SPLIT_SIZE;
+	private CallBack callback = null;
+
+	private ExecutorService workers = null;
+	// Units of work; one or more per file:
+	private List<WarcFileSplit> splits = null;
+	// Index into allFiles of each split's file:
+	private List<Integer> splitFileIndexes = null;
+	// How each split's file is cut, shared by the splits of a file; null for files read whole:
+	private List<AtomicReference<Cutting>> splitCuttings = null;
+	// Number of unfinished splits per entry of allFiles:
+	private int[] splitsPending = null;
+	// One queue per split for ORDERED delivery; one shared queue otherwise:
+	private List<BlockingQueue<ParsedRecord>> queues = null;
+	private int currentQueue = 0;
+	private int splitsFinished = 0;
+	private boolean closed = false;
+
+	private ParsedRecord current = null;
+
+	/**
+	 * Read the given WARC files with the given number of threads.
+	 * @param warcFiles WARC files, gzipped or clear. For ORDERED delivery, records arrive in this order of files.
+	 * @param numThreads size of the worker pool.
+	 */
+	public ParallelWarcRecordReader(Collection<File> warcFiles, int numThreads) {
+		allFiles = new ArrayList<File>(warcFiles);
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Read a single WARC file, or all WARC files in a directory tree,
+	 * with the given number of threads. Directory files are planned by
+	 * a default WarcInputPlanner, so the largest files are started first.
+	 * @param warcPath WARC file or directory.
+	 * @param numThreads size of the worker pool.
+	 */
+	public ParallelWarcRecordReader(File warcPath, int numThreads) {
+		allFiles = new ArrayList<File>(new WarcInputPlanner().plan(warcPath));
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	public void setDelivery(Delivery theDelivery) {
+		delivery = theDelivery;
+	}
+
+	/**
+	 * @param capacity maximum number of parsed records that may wait for the consumer.
+	 * 			For ORDERED delivery, the capacity is divided among the files (or splits) being worked on.
+	 */
+	public void setQueueCapacity(int capacity) {
+		queueCapacity = Math.max(1, capacity);
+	}
+
+	public void setReadContents(boolean doReadContents) {
+		readContents = doReadContents;
+	}
+
+	/**
+	 * @param bytes files larger than this are cut into ranges of about this size, which
+	 * 			are read in parallel. Only gzipped files with one gzip member per record can be cut.
+	 */
+	public void setSplitSize(long bytes) {
+		splitSize = Math.max(1L, bytes);
+	}
+
+	/**
+	 * See WarcRecordReader.setMemoryMapped().
+	 */
+	public void setMemoryMapped(boolean doMap) {
+		memoryMapped = doMap;
+	}
+
+	/**
+	 * Use to install a callback that is called on the consumer's thread
+	 * whenever all records of one file have been delivered.
+	 * @param callbackObj the object that holds the method to be called.
+	 * @param callbackMethodStr the name of the method to call. We expect that method to take one argument: the
+	 * 			absolute path of the processed file.
+	 */
+	public void setCallback(Object callbackObj, String callbackMethodStr) {
+		callback = new CallBack(callbackObj, callbackMethodStr);
+	}
+
+	/**
+	 * Request the next record. The first call starts the workers.
+	 * @return true if a record is available, false once all files are exhausted.
+	 * @throws IOException when a worker hit a read error other than end of file,
+	 * 			or failed in any other way; the worker's exception is then the cause.
+	 */
+	public boolean nextKeyValue() throws IOException {
+		if (closed)
+			return false;
+		if (workers == null)
+			startWorkers();
+		try {
+			while (splitsFinished < splits.size()) {
+				ParsedRecord next = queues.get(currentQueue).take();
+				if (next.error != null) {
+					close();
+					if (next.error instanceof IOException)
+						throw (IOException) next.error;
+					throw new IOException("Failed to read WARC file " + next.filePath + ": " + next.error, next.error);
+				}
+				if (next.record == null) {
+					// End of one split:
+					splitsFinished++;
+					if (delivery == Delivery.ORDERED)
+						currentQueue++;
+					if (--splitsPending[next.fileIndex] == 0 && callback != null) {
+						try {
+							callback.invoke(next.filePath);
+						} catch (InvocationTargetException e) {
+							close();
+							throw new IOException("Requested file change callback to unknown method.");
+						}
+					}
+					continue;
+				}
+				current = next;
+				return true;
+			}
+		} catch (InterruptedException e) {
+			close();
+			throw new IOException("Interrupted while waiting for WARC records.");
+		}
+		current = null;
+		close();
+		return false;
+	}
+
+	public WarcRecord getCurrentRecord() {
+		return (current == null) ? null : current.record;
+	}
+
+	public WarcRecord getCurrentValue() {
+		return getCurrentRecord();
+	}
+
+	public long getCurrentKey() {
+		return (current == null) ? 0L : current.key;
+	}
+
+	/**
+	 * See WarcRecordReader.getCurrentFileOffset().
+	 */
+	public long getCurrentFileOffset() {
+		return (current == null) ? -1L : current.fileOffset;
+	}
+
+	/**
+	 * @return absolute path of the file from which the current record came.
+	 */
+	public String getCurrentFilePath() {
+		return (current == null) ? null : current.filePath;
+	}
+
+	/**
+	 * Stop all workers. Safe to call more than once.
+	 */
+	public synchronized void close() {
+		closed = true;
+		if (workers != null)
+			workers.shutdownNow();
+	}
+
+	private void startWorkers() {
+		splits = new ArrayList<WarcFileSplit>();
+		splitFileIndexes = new ArrayList<Integer>();
+		splitCuttings = new ArrayList<AtomicReference<Cutting>>();
+		splitsPending = new int[allFiles.size()];
+		for (int fileIndex=0; fileIndex<allFiles.size(); fileIndex++) {
+			File warcFile = allFiles.get(fileIndex);
+			long fileLength = warcFile.length();
+			int numSplits = 1;
+			AtomicReference<Cutting> cutting = null;
+			if (fileLength > splitSize) {
+				numSplits = (int) Math.min(Integer.MAX_VALUE, (fileLength + splitSize - 1) / splitSize);
+				cutting = new AtomicReference<Cutting>(Cutting.UNDECIDED);
+			}
+			// Where the records of each range start is left to its worker:
+			for (int i=0; i<numSplits; i++) {
+				long start = fileLength / numSplits * i;
+				long end = (i == numSplits - 1) ? fileLength : fileLength / numSplits * (i + 1);
+				splits.add(new WarcFileSplit(warcFile, start, end - start));
+				splitFileIndexes.add(fileIndex);
+				splitCuttings.add(cutting);
+			}
+			splitsPending[fileIndex] = numSplits;
+		}
+		workers = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ParallelWarcRecordReader worker");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		queues = new ArrayList<BlockingQueue<ParsedRecord>>();
+		if (delivery == Delivery.ORDERED) {
+			int perSplitCapacity = Math.max(1, queueCapacity / numThreads);
+			for (int i=0; i<splits.size(); i++)
+				queues.add(new ArrayBlockingQueue<ParsedRecord>(perSplitCapacity));
+		} else {
+			BlockingQueue<ParsedRecord> sharedQueue = new ArrayBlockingQueue<ParsedRecord>(queueCapacity);
+			queues.addAll(Collections.nCopies(splits.size(), sharedQueue));
+		}
+		// The pool starts tasks in submission order. So for ORDERED
+		// delivery the earliest unfinished split is always being worked
+		// on, and the consumer can always make progress:
+		for (int i=0; i<splits.size(); i++)
+			workers.execute(new SplitWorker(splits.get(i), splitFileIndexes.get(i), splitCuttings.get(i), queues.get(i)));
+	}
+
+	/**
+	 * Parses one split into a queue, and finishes with an
+	 * end-of-split marker, or an error marker. Whatever the worker
+	 * dies of is posted, so that the consumer never waits in vain.
+	 *
+	 * Splits of files that are cut start anywhere. The worker of a
+	 * later split looks for the first gzip member start in its split,
+	 * and reads the records from there to the split's end. The worker
+	 * of the first split reads up to the first record that starts at
+	 * or after the split's end, unless the file is not gzipped one
+	 * member per record; it then reads the whole file, and the
+	 * workers of the other splits post nothing.
+	 */
+	private class SplitWorker implements Runnable {
+		private WarcFileSplit split;
+		private int fileIndex;
+		// Shared by the workers of one file that is cut, else null:
+		private AtomicReference<Cutting> cutting;
+		private BlockingQueue<ParsedRecord> queue;
+
+		public SplitWorker(WarcFileSplit theSplit, int theFileIndex, AtomicReference<Cutting> theCutting, BlockingQueue<ParsedRecord> theQueue) {
+			split = theSplit;
+			fileIndex = theFileIndex;
+			cutting = theCutting;
+			queue = theQueue;
+		}
+
+		public void run() {
+			File warcFile = split.getFile();
+			String filePath = warcFile.getAbsolutePath();
+			try {
+				WarcRecordReader reader = null;
+				if (cutting == null || split.getStart() == 0)
+					reader = new WarcRecordReader(Collections.singletonList(warcFile));
+				else {
+					long start = findStart();
+					if (start >= 0 && claimSplit())
+						reader = new WarcRecordReader(new WarcFileSplit(warcFile, start, split.getEnd() - start));
+				}
+				if (reader == null) {
+					// No records start in this split:
+					queue.put(new ParsedRecord(filePath, fileIndex, 0L, -1L, null, null));
+					return;
+				}
+				reader.setMemoryMapped(memoryMapped);
+				// Only files that start with a member are cut; see findStart():
+				boolean stopAtEnd = (cutting != null && GzipMemberSplitter.isMemberStart(warcFile, 0L));
+				try {
+					while (reader.nextKeyValue(readContents)) {
+						long fileOffset = reader.getCurrentFileOffset();
+						if (stopAtEnd && fileOffset >= split.getEnd())
+							// Record belongs to a later split:
+							break;
+						if (stopAtEnd && fileOffset < 0 && cutting.compareAndSet(Cutting.UNDECIDED, Cutting.WHOLE))
+							// No member offsets, as in a single gzip stream,
+							// and no other worker found a member start:
+							stopAtEnd = false;
+						queue.put(new ParsedRecord(filePath,
+												   fileIndex,
+												   reader.getCurrentKey(),
+												   fileOffset,
+												   reader.getCurrentValue(),
+												   null));
+					}
+				} finally {
+					reader.close();
+				}
+				queue.put(new ParsedRecord(filePath, fileIndex, 0L, -1L, null, null));
+			} catch (InterruptedException e) {
+				// Reader is being closed.
+			} catch (Throwable e) {
+				// Read errors, but also, e.g., parser bugs on malformed input:
+				try {
+					queue.put(new ParsedRecord(filePath, fileIndex, 0L, -1L, null, e));
+				} catch (InterruptedException e1) {
+					// Reader is being closed.
+				}
+			}
+		}
+
+		/**
+		 * @return true if the file is read split by split, false if
+		 * 			the worker of the first split reads all of it.
+		 */
+		private boolean claimSplit() {
+			cutting.compareAndSet(Cutting.UNDECIDED, Cutting.BY_MEMBERS);
+			return cutting.get() == Cutting.BY_MEMBERS;
+		}
+
+		/**
+		 * Find the first gzip member start in the split, a piece at a
+		 * time, so as to stop early once the first split's worker reads
+		 * the whole file, or the reader is closed.
+		 * @return offset of the member start, or -1 if no records start in the split.
+		 */
+		private long findStart() throws IOException {
+			if (!GzipMemberSplitter.isMemberStart(split.getFile(), 0L))
+				// Not gzipped one member per record:
+				return -1L;
+			for (long from=split.getStart(); from<split.getEnd(); from+=SCAN_PIECE_SIZE) {
+				if (cutting.get() == Cutting.WHOLE || Thread.currentThread().isInterrupted())
+					return -1L;
+				long start = GzipMemberSplitter.findMemberStart(split.getFile(), from, Math.min(split.getEnd(), from + SCAN_PIECE_SIZE));
+				if (start >= 0)
+					return start;
+			}
+			return -1L;
+		}
+	}
+
+	private static class ParsedRecord {
+		String filePath;
+		int fileIndex;
+		long key;
+		long fileOffset;
+		WarcRecord record;
+		Throwable error;
+
+		ParsedRecord(String filePath, int fileIndex, long key, long fileOffset, WarcRecord record, Throwable error) {
+			this.filePath = filePath;
+			this.fileIndex = fileIndex;
+			this.key = key;
+			this.fileOffset = fileOffset;
+			this.record = record;
+			this.error = error;
+		}
+	}
+}
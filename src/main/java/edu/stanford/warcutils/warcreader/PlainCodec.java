@@ -0,0 +1,28 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * @author paepcke
+ *
+ * Uncompressed WARC files. The file stream is handed out as is,
+ * so that LineAndChunkReader can skip content by seeking the file.
+ */
+public class PlainCodec implements WarcCodec {
+
+	public String getName() {
+		return "plain";
+	}
+
+	/**
+	 * Accepts anything; WarcCodecs only falls back to this codec.
+	 */
+	public boolean recognizes(byte[] magic, int length) {
+		return true;
+	}
+
+	public InputStream open(File warcFile, InputStream in, long offset, int inputBufferSize) {
+		return in;
+	}
+}
@@ -0,0 +1,191 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @author paepcke
+ *
+ * A WARC file that is opened, and whose first bytes are read, on a
+ * background thread, while the reader is still busy with the file
+ * before. WarcRecordReader then takes over the open file stream, and
+ * picks the codec from the bytes already read, rather than opening
+ * and sniffing the file when it switches files.
+ */
+class PrefetchedFile implements Runnable {
+
+	private static final ExecutorService prefetchThreads = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "WARC file prefetch");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private File file;
+	private byte[] head;
+	private int headLength = 0;
+	private FileInputStream fileIn = null;
+	private IOException error = null;
+	private boolean done = false;
+	private boolean abandoned = false;
+
+	private PrefetchedFile(File file, int numBytes) {
+		this.file = file;
+		this.head = new byte[Math.max(WarcCodecs.MAGIC_LENGTH, numBytes)];
+	}
+
+	/**
+	 * Start opening the given file in the background.
+	 * @param file file to open.
+	 * @param numBytes number of leading bytes to read.
+	 * @return handle through which the reader takes over the file.
+	 */
+	static PrefetchedFile start(File file, int numBytes) {
+		PrefetchedFile prefetch = new PrefetchedFile(file, numBytes);
+		prefetchThreads.execute(prefetch);
+		return prefetch;
+	}
+
+	public void run() {
+		FileInputStream in = null;
+		IOException err = null;
+		int len = 0;
+		try {
+			in = new FileInputStream(file);
+			FileChannel channel = in.getChannel();
+			ByteBuffer buf = ByteBuffer.wrap(head);
+			while (buf.hasRemaining() && channel.read(buf) >= 0) {}
+			len = buf.position();
+		} catch (IOException e) {
+			err = e;
+			closeQuietly(in);
+			in = null;
+		}
+		synchronized (this) {
+			if (abandoned)
+				closeQuietly(in);
+			else {
+				fileIn = in;
+				headLength = len;
+				error = err;
+			}
+			done = true;
+			notifyAll();
+		}
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the file's leading bytes; valid up to getHeadLength().
+	 */
+	byte[] getHead() {
+		return head;
+	}
+
+	int getHeadLength() {
+		return headLength;
+	}
+
+	/**
+	 * Wait for the prefetch to finish, and take over the open file.
+	 * @return stream over the file, positioned after the head bytes.
+	 * @throws IOException if the file could not be opened or read.
+	 */
+	synchronized FileInputStream take() throws IOException {
+		while (!done) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for " + file.getAbsolutePath() + " to open.");
+			}
+		}
+		if (error != null)
+			throw error;
+		FileInputStream res = fileIn;
+		fileIn = null;
+		return res;
+	}
+
+	/**
+	 * Stream that delivers the head bytes, and then the rest of the
+	 * file from the given stream, for codecs to decode. Clear files
+	 * do not need it: their head bytes are given to the line reader
+	 * directly, which keeps the file stream, so that it can seek past
+	 * content.
+	 * @param rest the stream returned by take().
+	 */
+	InputStream withHead(final InputStream rest) {
+		return new InputStream() {
+			private int headPos = 0;
+
+			@Override
+			public int read() throws IOException {
+				if (headPos < headLength)
+					return head[headPos++] & 0xff;
+				return rest.read();
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (headPos >= headLength)
+					return rest.read(b, off, len);
+				int n = Math.min(len, headLength - headPos);
+				System.arraycopy(head, headPos, b, off, n);
+				headPos += n;
+				return n;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				if (headPos >= headLength)
+					return rest.skip(n);
+				int step = (int) Math.min(n, headLength - headPos);
+				headPos += step;
+				return step;
+			}
+
+			@Override
+			public int available() throws IOException {
+				return (headPos < headLength) ? headLength - headPos : rest.available();
+			}
+
+			@Override
+			public void close() throws IOException {
+				rest.close();
+			}
+		};
+	}
+
+	/**
+	 * The reader does not need the file after all; close it
+	 * once the prefetch is done.
+	 */
+	synchronized void abandon() {
+		abandoned = true;
+		closeQuietly(fileIn);
+		fileIn = null;
+	}
+
+	private static void closeQuietly(FileInputStream in) {
+		if (in == null)
+			return;
+		try {
+			in.close();
+		} catch (IOException e) {
+			// best effort
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * @author paepcke
+ *
+ * Reads a source stream on a thread of its own, ahead of the
+ * consumer. The thread fills a ring of reusable buffers, and the
+ * consumer's reads are served from the filled ones. Wrapped around a
+ * decompressing stream, inflation thus runs in parallel with record
+ * parsing on the consumer's thread. At most ringDepth buffers are
+ * filled ahead; the thread then waits for the consumer to hand one
+ * back.
+ *
+ * Read errors of the source are thrown by the consumer's read that
+ * reaches them. Unchecked exceptions of the source, such as those of
+ * a decoder on corrupt data, are thrown as IOExceptions with the
+ * exception as the cause. close() stops the thread before closing the source.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+	private InputStream source;
+	// Buffers ready to be filled, and buffers ready to be read:
+	private BlockingQueue<Chunk> emptyChunks;
+	private BlockingQueue<Chunk> filledChunks;
+	private Chunk current = null;
+	private boolean eof = false;
+	private volatile boolean closed = false;
+	private Thread filler;
+	private byte[] singleByte = new byte[1];
+
+	/**
+	 * Start reading ahead from the given stream.
+	 * @param source the stream to read; must not be used by anyone else from now on.
+	 * @param ringDepth number of buffers in the ring.
+	 * @param bufferSize size of each buffer in bytes.
+	 */
+	public ReadAheadInputStream(InputStream source, int ringDepth, int bufferSize) {
+		this.source = source;
+		ringDepth = Math.max(1, ringDepth);
+		bufferSize = Math.max(1, bufferSize);
+		emptyChunks = new ArrayBlockingQueue<Chunk>(ringDepth);
+		// Room for the end-of-stream marker on top of a full ring:
+		filledChunks = new ArrayBlockingQueue<Chunk>(ringDepth + 1);
+		for (int i=0; i<ringDepth; i++)
+			emptyChunks.add(new Chunk(new byte[bufferSize]));
+		filler = new Thread(new Filler(), "WARC read-ahead");
+		filler.setDaemon(true);
+		filler.start();
+	}
+
+	@Override
+	public int read() throws IOException {
+		int n = read(singleByte, 0, 1);
+		return (n <= 0) ? -1 : (singleByte[0] & 0xff);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!nextChunkIfNeeded())
+			return -1;
+		int n = Math.min(len, current.length - current.pos);
+		System.arraycopy(current.buf, current.pos, b, off, n);
+		current.pos += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0L;
+		while (skipped < n && nextChunkIfNeeded()) {
+			int step = (int) Math.min(n - skipped, current.length - current.pos);
+			current.pos += step;
+			skipped += step;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (current == null || eof) ? 0 : current.length - current.pos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		filler.interrupt();
+		boolean interrupted = false;
+		while (filler.isAlive()) {
+			try {
+				filler.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		source.close();
+	}
+
+	/**
+	 * Make sure that current has unread bytes, handing used
+	 * buffers back to the filler.
+	 * @return false at end of the source stream.
+	 */
+	private boolean nextChunkIfNeeded() throws IOException {
+		if (closed)
+			throw new IOException("Read from a closed stream.");
+		if (eof)
+			return false;
+		if (current != null && current.pos < current.length)
+			return true;
+		if (current != null)
+			emptyChunks.add(current);
+		try {
+			current = filledChunks.take();
+		} catch (InterruptedException e) {
+			current = null;
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for read-ahead data.");
+		}
+		if (current.error != null) {
+			IOException error = current.error;
+			current = null;
+			eof = true;
+			throw error;
+		}
+		if (current.length < 0) {
+			current = null;
+			eof = true;
+			return false;
+		}
+		return true;
+	}
+
+	private class Filler implements Runnable {
+		public void run() {
+			try {
+				while (!closed) {
+					Chunk chunk = emptyChunks.take();
+					// Fill the buffer as far as the source allows, so that
+					// the consumer changes buffers as rarely as possible:
+					int len = 0;
+					int n = 0;
+					while (len < chunk.buf.length && (n = source.read(chunk.buf, len, chunk.buf.length - len)) >= 0)
+						len += n;
+					if (len > 0) {
+						chunk.length = len;
+						chunk.pos = 0;
+						filledChunks.put(chunk);
+					}
+					if (n < 0) {
+						filledChunks.put(Chunk.endMarker(null));
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				// Stream is being closed.
+			} catch (Throwable e) {
+				// Whatever ends the thread must reach the consumer, who would otherwise wait forever:
+				if (!closed)
+					filledChunks.offer(Chunk.endMarker((e instanceof IOException) ? (IOException) e :
+														new IOException("Read-ahead failed: " + e, e)));
+			}
+		}
+	}
+
+	private static class Chunk {
+		byte[] buf;
+		// Number of valid bytes; -1 for the end marker:
+		int length = 0;
+		int pos = 0;
+		IOException error = null;
+
+		Chunk(byte[] buf) {
+			this.buf = buf;
+		}
+
+		static Chunk endMarker(IOException error) {
+			Chunk marker = new Chunk(null);
+			marker.length = -1;
+			marker.error = error;
+			return marker;
+		}
+	}
+}
@@ -0,0 +1,523 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * @author paepcke
+ *
+ * Counters of a WarcRecordReader: bytes read from the files
+ * (compressed) and handed to the parser (decompressed), records
+ * emitted, and bytes skipped while scanning for a record start; all
+ * in total, and per file for the file being read and a few recent
+ * ones. Obtain through WarcRecordReader.getStats().
+ *
+ * With setTimed(true), the reader also measures where its time goes:
+ *
+ *   read         waiting for the file system,
+ *   inflate      decompressing, exclusive of read,
+ *   input wait   the parser waiting for decompressed bytes; inflate plus
+ *                read, unless read-ahead decompresses on another thread,
+ *   header parse scanning for and parsing record headers,
+ *   content copy reading or skipping record contents,
+ *
+ * the last two exclusive of input wait. A job whose header parse and
+ * content copy times are small next to input wait is I/O- or
+ * inflate-bound; read and inflate tell which. The time of memory-mapped
+ * files is all parse and copy, page faults included. Timing costs a few
+ * System.nanoTime() calls per record and buffer, and starts with the
+ * next file that is opened.
+ *
+ * The counters may be watched from other threads while the reader
+ * runs, also as a JMX MBean (see registerMBean()). snapshot() returns
+ * a copy that does not change any more.
+ */
+public class ReaderStats implements ReaderStatsMBean {
+
+	public static final String MBEAN_DOMAIN = "edu.stanford.warcutils";
+	private static final int DEFAULT_FILE_HISTORY_SIZE = 16;
+	private static final double MEGABYTE = 1024.0 * 1024.0;
+
+	private volatile boolean timed = false;
+	// Sums over the files that are done:
+	private long filesOpened = 0L;
+	private long recordsEmitted = 0L;
+	private long recordsRejected = 0L;
+	private long compressedBytes = 0L;
+	private long decompressedBytes = 0L;
+	private long skippedBytes = 0L;
+	private long readNanos = 0L;
+	private long inflateNanos = 0L;
+	private long inputWaitNanos = 0L;
+	private long headerParseNanos = 0L;
+	private long contentCopyNanos = 0L;
+	private long elapsedNanos = 0L;
+	// The file being read, whose counts are not in the sums yet:
+	private FileStats openFile = null;
+	// The file being read, or else the last one read:
+	private FileStats lastFile = null;
+	private ArrayDeque<FileStats> recentFiles = new ArrayDeque<FileStats>();
+	private int fileHistorySize = DEFAULT_FILE_HISTORY_SIZE;
+	private ObjectName mbeanName = null;
+
+	/**
+	 * Request that the reader measure where its time goes. Takes
+	 * effect with the next file that is opened.
+	 * @param doTime true to time reading, inflating and parsing.
+	 */
+	public void setTimed(boolean doTime) {
+		timed = doTime;
+	}
+
+	public boolean isTimed() {
+		return timed;
+	}
+
+	/**
+	 * @param numFiles number of finished files whose statistics are kept; see getRecentFiles().
+	 */
+	public synchronized void setFileHistorySize(int numFiles) {
+		fileHistorySize = Math.max(0, numFiles);
+		while (recentFiles.size() > fileHistorySize)
+			recentFiles.removeFirst();
+	}
+
+	public synchronized long getFilesOpened() {
+		return filesOpened + ((openFile == null) ? 0L : 1L);
+	}
+
+	public synchronized long getRecordsEmitted() {
+		return recordsEmitted + ((openFile == null) ? 0L : openFile.getRecordsEmitted());
+	}
+
+	/**
+	 * @return number of records whose content was skipped, because the
+	 * 			reader's header filter rejected them; see WarcRecordReader.setHeaderFilter().
+	 */
+	public synchronized long getRecordsRejected() {
+		return recordsRejected + ((openFile == null) ? 0L : openFile.getRecordsRejected());
+	}
+
+	/**
+	 * @return bytes read from the files. For uncompressed files, these are the
+	 * 			bytes of the records parsed, rather than of the file reads.
+	 */
+	public synchronized long getCompressedBytesRead() {
+		return compressedBytes + ((openFile == null) ? 0L : openFile.getCompressedBytesRead());
+	}
+
+	/**
+	 * @return bytes of the records parsed, emitted or rejected, including the bytes skipped before them.
+	 */
+	public synchronized long getDecompressedBytesRead() {
+		return decompressedBytes + ((openFile == null) ? 0L : openFile.getDecompressedBytesRead());
+	}
+
+	/**
+	 * @return bytes that were skipped while scanning for the start of a record,
+	 * 			e.g. because a record's Content-Length was too small.
+	 */
+	public synchronized long getBytesSkippedScanning() {
+		return skippedBytes + ((openFile == null) ? 0L : openFile.getBytesSkippedScanning());
+	}
+
+	public synchronized long getReadNanos() {
+		return readNanos + ((openFile == null) ? 0L : openFile.getReadNanos());
+	}
+
+	public synchronized long getInflateNanos() {
+		return inflateNanos + ((openFile == null) ? 0L : openFile.getInflateNanos());
+	}
+
+	public synchronized long getInputWaitNanos() {
+		return inputWaitNanos + ((openFile == null) ? 0L : openFile.getInputWaitNanos());
+	}
+
+	public synchronized long getHeaderParseNanos() {
+		return headerParseNanos + ((openFile == null) ? 0L : openFile.getHeaderParseNanos());
+	}
+
+	public synchronized long getContentCopyNanos() {
+		return contentCopyNanos + ((openFile == null) ? 0L : openFile.getContentCopyNanos());
+	}
+
+	/**
+	 * @return nanoseconds during which files were open.
+	 */
+	public synchronized long getElapsedNanos() {
+		return elapsedNanos + ((openFile == null) ? 0L : openFile.getElapsedNanos());
+	}
+
+	/**
+	 * @return compressed megabytes read per second the files were open.
+	 */
+	public synchronized double getMBPerSecond() {
+		return megabytesPerSecond(getCompressedBytesRead(), getElapsedNanos());
+	}
+
+	/**
+	 * @return statistics of the file being read, or of the last file read; null before the first file is opened.
+	 */
+	public synchronized FileStats getCurrentFile() {
+		return lastFile;
+	}
+
+	public synchronized String getCurrentFilePath() {
+		return (lastFile == null) ? null : lastFile.getPath();
+	}
+
+	public synchronized float getCurrentFileProgress() {
+		return (lastFile == null) ? 0.0f : lastFile.getProgress();
+	}
+
+	public synchronized double getCurrentFileMBPerSecond() {
+		return (lastFile == null) ? 0.0 : lastFile.getMBPerSecond();
+	}
+
+	/**
+	 * @return one line per recently finished file, oldest first, with its
+	 * 			bytes, records and throughput; see setFileHistorySize().
+	 */
+	public synchronized String[] getRecentFiles() {
+		String[] res = new String[recentFiles.size()];
+		int i = 0;
+		for (FileStats fileStats : recentFiles)
+			res[i++] = fileStats.toString();
+		return res;
+	}
+
+	/**
+	 * @return statistics of recently finished files, oldest first.
+	 */
+	public synchronized FileStats[] getRecentFileStats() {
+		return recentFiles.toArray(new FileStats[recentFiles.size()]);
+	}
+
+	/**
+	 * @return a copy of these statistics as of now, which does not change
+	 * 			as reading goes on.
+	 */
+	public synchronized ReaderStats snapshot() {
+		ReaderStats copy = new ReaderStats();
+		copy.timed = timed;
+		copy.filesOpened = filesOpened;
+		copy.recordsEmitted = recordsEmitted;
+		copy.recordsRejected = recordsRejected;
+		copy.compressedBytes = compressedBytes;
+		copy.decompressedBytes = decompressedBytes;
+		copy.skippedBytes = skippedBytes;
+		copy.readNanos = readNanos;
+		copy.inflateNanos = inflateNanos;
+		copy.inputWaitNanos = inputWaitNanos;
+		copy.headerParseNanos = headerParseNanos;
+		copy.contentCopyNanos = contentCopyNanos;
+		copy.elapsedNanos = elapsedNanos;
+		copy.openFile = (openFile == null) ? null : openFile.copy();
+		copy.lastFile = (openFile == null) ? lastFile : copy.openFile;
+		copy.fileHistorySize = fileHistorySize;
+		// Finished files do not change any more:
+		copy.recentFiles.addAll(recentFiles);
+		return copy;
+	}
+
+	/**
+	 * Make these statistics visible through JMX, under the
+	 * name edu.stanford.warcutils:type=ReaderStats,name=<name>.
+	 * WarcRecordReader.close() unregisters them again.
+	 * @param name name that tells this reader from others in the same JVM.
+	 * @return the name under which the MBean was registered.
+	 * @throws JMException if the name is malformed or already taken.
+	 */
+	public synchronized ObjectName registerMBean(String name) throws JMException {
+		unregisterMBean();
+		ObjectName objName = new ObjectName(MBEAN_DOMAIN + ":type=ReaderStats,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objName);
+		mbeanName = objName;
+		return objName;
+	}
+
+	/**
+	 * Remove these statistics from JMX, if registered.
+	 */
+	public synchronized void unregisterMBean() {
+		if (mbeanName == null)
+			return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(mbeanName))
+				server.unregisterMBean(mbeanName);
+		} catch (JMException e) {
+			// best effort
+		}
+		mbeanName = null;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder res = new StringBuilder();
+		res.append(String.format("%d files, %d records (%d rejected), %d compressed bytes, %d decompressed bytes, %d bytes skipped, %.1f MB/s",
+								 getFilesOpened(), getRecordsEmitted(), getRecordsRejected(), getCompressedBytesRead(),
+								 getDecompressedBytesRead(), getBytesSkippedScanning(), getMBPerSecond()));
+		if (timed)
+			res.append(String.format("; ms read %d, inflate %d, input wait %d, header parse %d, content copy %d",
+									 getReadNanos() / 1000000L, getInflateNanos() / 1000000L, getInputWaitNanos() / 1000000L,
+									 getHeaderParseNanos() / 1000000L, getContentCopyNanos() / 1000000L));
+		return res.toString();
+	}
+
+	/**
+	 * A file was opened; it becomes the current file.
+	 */
+	synchronized void fileOpened(FileStats fileStats) {
+		fileClosed();
+		openFile = lastFile = fileStats;
+	}
+
+	/**
+	 * The current file is done; add its counts to the totals.
+	 */
+	synchronized void fileClosed() {
+		if (openFile == null)
+			return;
+		FileStats done = openFile;
+		openFile = null;
+		done.finish();
+		filesOpened++;
+		recordsEmitted += done.getRecordsEmitted();
+		recordsRejected += done.getRecordsRejected();
+		compressedBytes += done.getCompressedBytesRead();
+		decompressedBytes += done.getDecompressedBytesRead();
+		skippedBytes += done.getBytesSkippedScanning();
+		readNanos += done.getReadNanos();
+		inflateNanos += done.getInflateNanos();
+		inputWaitNanos += done.getInputWaitNanos();
+		headerParseNanos += done.getHeaderParseNanos();
+		contentCopyNanos += done.getContentCopyNanos();
+		elapsedNanos += done.getElapsedNanos();
+		if (fileHistorySize > 0) {
+			if (recentFiles.size() >= fileHistorySize)
+				recentFiles.removeFirst();
+			recentFiles.addLast(done);
+		}
+	}
+
+	private static double megabytesPerSecond(long bytes, long nanos) {
+		return (nanos <= 0L) ? 0.0 : (bytes / MEGABYTE) / (nanos / 1e9);
+	}
+
+	/**
+	 * Counters of a single file, or of the range of it that a
+	 * reader was asked to read.
+	 */
+	public static class FileStats {
+
+		private String path;
+		private String codec;
+		// Number of bytes from where the file was opened to the end of the range:
+		private long rangeLength;
+		private long startNanos;
+		private long endNanos = -1L;
+		// Updated by the reader's thread only:
+		private volatile long records = 0L;
+		private volatile long rejectedRecords = 0L;
+		private volatile long decompressedBytes = 0L;
+		private volatile long skippedBytes = 0L;
+		private volatile long headerParseNanos = 0L;
+		private volatile long contentCopyNanos = 0L;
+		// Streams that count the remaining values while the file is open:
+		private MeteredInputStream fileMeter;
+		private MeteredInputStream decodeMeter;
+		private LineAndChunkReader lineReader;
+		// Their values once the file is done:
+		private long compressedBytes = 0L;
+		private long readNanos = 0L;
+		private long inflateNanos = 0L;
+		private long inputWaitNanos = 0L;
+		private boolean finished = false;
+
+		/**
+		 * @param path absolute path of the file.
+		 * @param codec name of the file's codec.
+		 * @param rangeLength number of bytes to read from the file.
+		 * @param fileMeter meter between the file and a decoder; null for uncompressed files.
+		 * @param decodeMeter meter after a decoder that runs on a read-ahead thread, or null.
+		 * @param lineReader the reader the parser reads from.
+		 */
+		FileStats(String path, String codec, long rangeLength,
+				  MeteredInputStream fileMeter, MeteredInputStream decodeMeter, LineAndChunkReader lineReader) {
+			this.path = path;
+			this.codec = codec;
+			this.rangeLength = rangeLength;
+			this.fileMeter = fileMeter;
+			this.decodeMeter = decodeMeter;
+			this.lineReader = lineReader;
+			this.startNanos = System.nanoTime();
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return name of the file's codec, e.g. "gzip"; see WarcCodec.getName().
+		 */
+		public String getCodec() {
+			return codec;
+		}
+
+		public long getRecordsEmitted() {
+			return records;
+		}
+
+		public long getRecordsRejected() {
+			return rejectedRecords;
+		}
+
+		public long getDecompressedBytesRead() {
+			return decompressedBytes;
+		}
+
+		public long getBytesSkippedScanning() {
+			return skippedBytes;
+		}
+
+		public long getHeaderParseNanos() {
+			return headerParseNanos;
+		}
+
+		public long getContentCopyNanos() {
+			return contentCopyNanos;
+		}
+
+		public synchronized long getCompressedBytesRead() {
+			if (finished)
+				return compressedBytes;
+			return (fileMeter == null) ? decompressedBytes : fileMeter.getBytes();
+		}
+
+		public synchronized long getReadNanos() {
+			if (finished)
+				return readNanos;
+			// The parser reads uncompressed files directly:
+			return (fileMeter == null) ? getInputWaitNanos() : fileMeter.getNanos();
+		}
+
+		public synchronized long getInflateNanos() {
+			if (finished)
+				return inflateNanos;
+			if (fileMeter == null)
+				return 0L;
+			long decodeNanos = (decodeMeter == null) ? getInputWaitNanos() : decodeMeter.getNanos();
+			return Math.max(0L, decodeNanos - fileMeter.getNanos());
+		}
+
+		public synchronized long getInputWaitNanos() {
+			if (finished)
+				return inputWaitNanos;
+			return (lineReader == null) ? 0L : lineReader.getReadNanos();
+		}
+
+		/**
+		 * @return nanoseconds the file has been, or was, open.
+		 */
+		public synchronized long getElapsedNanos() {
+			return ((endNanos < 0L) ? System.nanoTime() : endNanos) - startNanos;
+		}
+
+		/**
+		 * @return compressed megabytes read per second.
+		 */
+		public double getMBPerSecond() {
+			return megabytesPerSecond(getCompressedBytesRead(), getElapsedNanos());
+		}
+
+		/**
+		 * @return fraction of the file, or of the file's range, that was read; between 0 and 1.
+		 */
+		public float getProgress() {
+			if (rangeLength <= 0L)
+				return 1.0f;
+			return Math.min(1.0f, getCompressedBytesRead() / (float) rangeLength);
+		}
+
+		public synchronized boolean isFinished() {
+			return finished;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s (%s): %d records, %d compressed bytes, %d decompressed bytes, %.1f MB/s",
+								 path, codec, getRecordsEmitted(), getCompressedBytesRead(),
+								 getDecompressedBytesRead(), getMBPerSecond());
+		}
+
+		/**
+		 * A record was emitted.
+		 * @param bytesBefore bytes skipped before the record.
+		 * @param totalLength length of the record, including bytesBefore.
+		 */
+		void recordEmitted(long bytesBefore, long totalLength) {
+			records++;
+			skippedBytes += bytesBefore;
+			decompressedBytes += totalLength;
+		}
+
+		/**
+		 * A record was rejected by the header filter.
+		 * @param totalLength length of the record, including the bytes before it.
+		 */
+		void recordRejected(long totalLength) {
+			rejectedRecords++;
+			decompressedBytes += totalLength;
+		}
+
+		void addHeaderParseNanos(long nanos) {
+			headerParseNanos += nanos;
+		}
+
+		void addContentCopyNanos(long nanos) {
+			contentCopyNanos += nanos;
+		}
+
+		/**
+		 * Take the values of the meters, and let go of them.
+		 */
+		synchronized void finish() {
+			if (finished)
+				return;
+			compressedBytes = getCompressedBytesRead();
+			readNanos = getReadNanos();
+			inflateNanos = getInflateNanos();
+			inputWaitNanos = getInputWaitNanos();
+			endNanos = System.nanoTime();
+			fileMeter = decodeMeter = null;
+			lineReader = null;
+			finished = true;
+		}
+
+		/**
+		 * @return a finished copy with the values as of now.
+		 */
+		synchronized FileStats copy() {
+			FileStats res = new FileStats(path, codec, rangeLength, null, null, null);
+			res.startNanos = startNanos;
+			res.endNanos = (endNanos < 0L) ? System.nanoTime() : endNanos;
+			res.records = records;
+			res.rejectedRecords = rejectedRecords;
+			res.decompressedBytes = decompressedBytes;
+			res.skippedBytes = skippedBytes;
+			res.headerParseNanos = headerParseNanos;
+			res.contentCopyNanos = contentCopyNanos;
+			res.compressedBytes = getCompressedBytesRead();
+			res.readNanos = getReadNanos();
+			res.inflateNanos = getInflateNanos();
+			res.inputWaitNanos = getInputWaitNanos();
+			res.finished = true;
+			return res;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package edu.stanford.warcutils.warcreader;
+
+/**
+ * @author paepcke
+ *
+ * JMX view of a ReaderStats; see ReaderStats.registerMBean().
+ * Times are in nanoseconds, and only collected while Timed is true.
+ */
+public interface ReaderStatsMBean {
+
+	public boolean isTimed();
+
+	public void setTimed(boolean doTime);
+
+	public long getFilesOpened();
+
+	public long getRecordsEmitted();
+
+	public long getRecordsRejected();
+
+	public long getCompressedBytesRead();
+
+	public long getDecompressedBytesRead();
+
+	public long getBytesSkippedScanning();
+
+	public long getReadNanos();
+
+	public long getInflateNanos();
+
+	public long getInputWaitNanos();
+
+	public long getHeaderParseNanos();
+
+	public long getContentCopyNanos();
+
+	public long getElapsedNanos();
+
+	public double getMBPerSecond();
+
+	public String getCurrentFilePath();
+
+	public float getCurrentFileProgress();
+
+	public double getCurrentFileMBPerSecond();
+
+	public String[] getRecentFiles();
+}
@@ -0,0 +1,105 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @author paepcke
+ *
+ * The content of one WARC record, read straight from the record's
+ * line reader, so that the content never needs to be held in memory
+ * as a whole. The stream ends after Content-Length bytes. It is only
+ * valid until the next record is read from the same reader; whatever
+ * the caller did not consume is then skipped.
+ */
+class RecordContentStream extends InputStream {
+
+	private LineAndChunkReader warcLineReader;
+	private long remaining;
+	private String recordId;
+	private boolean detached = false;
+	private byte[] singleByte = new byte[1];
+
+	/**
+	 * @param warcLineReader reader positioned at the first content byte.
+	 * @param contentLength the record's Content-Length.
+	 * @param recordId the record's WARC-Record-ID, for error messages.
+	 */
+	RecordContentStream(LineAndChunkReader warcLineReader, long contentLength, String recordId) {
+		this.warcLineReader = warcLineReader;
+		this.remaining = contentLength;
+		this.recordId = recordId;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int n = read(singleByte, 0, 1);
+		return (n <= 0) ? -1 : (singleByte[0] & 0xff);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		checkAttached();
+		if (remaining == 0)
+			return -1;
+		if (len == 0)
+			return 0;
+		int n = warcLineReader.read(b, off, (int) Math.min(len, remaining));
+		if (n < 0)
+			throw new EOFException("Hit end of file while reading content of WARC record ID: " + recordId + ".");
+		remaining -= n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		checkAttached();
+		long skipped = warcLineReader.skip(Math.min(Math.max(0L, n), remaining));
+		remaining -= skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (detached || remaining == 0) ? 0 : 1;
+	}
+
+	/**
+	 * Closing does not affect the underlying reader; unread content
+	 * is skipped when the next record is read.
+	 */
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * Skip what the caller did not read, and cut the stream off
+	 * from the line reader. Called before the next record is parsed.
+	 * @throws IOException if the reader ends before the content does.
+	 */
+	void discardRemaining() throws IOException {
+		if (detached)
+			return;
+		long toSkip = remaining;
+		long skipped = warcLineReader.skip(toSkip);
+		detached = true;
+		remaining = 0;
+		if (skipped < toSkip)
+			throw new IOException("Hit end of file while skipping content of WARC record ID: " + recordId + ".");
+	}
+
+	/**
+	 * Cut the stream off from the line reader without skipping
+	 * anything, e.g. because the line reader is being closed.
+	 */
+	void detach() {
+		detached = true;
+		remaining = 0;
+	}
+
+	private void checkAttached() throws IOException {
+		if (detached)
+			throw new IOException("Content of WARC record ID " + recordId + " is no longer available; the reader has moved on to the next record.");
+	}
+}
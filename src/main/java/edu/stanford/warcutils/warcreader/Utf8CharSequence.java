@@ -0,0 +1,275 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author paepcke
+ *
+ * The characters of UTF-8 encoded bytes, decoded only as far as
+ * someone looks at them. Regular expression matchers take a
+ * CharSequence, and Matcher.find() often succeeds near the start of
+ * a page; decoding the whole page into a String first would then be
+ * wasted. Characters up to the first non-ASCII byte are the bytes
+ * themselves, and are never copied. Characters beyond are decoded
+ * on demand into an array that grows with the largest index asked for.
+ *
+ * Malformed sequences decode to U+FFFD exactly as with
+ * new String(bytes, "UTF-8"), so that the sequence equals the
+ * string that decoding all of the bytes would give.
+ *
+ * length() must know the number of UTF-16 chars up front. It counts
+ * them in one pass over the bytes, which neither allocates nor
+ * decodes; the same pass tells isWellFormed(). Instances are not thread safe, and the bytes must not
+ * change while the sequence is in use.
+ */
+public class Utf8CharSequence implements CharSequence {
+
+	private static final char REPLACEMENT = '\uFFFD';
+	// Chars decoded beyond the one asked for; more, the more has been
+	// decoded already, so that scanning all chars rarely leaves charAt():
+	private static final int DECODE_AHEAD = 1024;
+
+	// Bytes are read from the array if the buffer has an accessible one:
+	private final byte[] array;
+	private final ByteBuffer buffer;
+	private final int base;
+	private final int numBytes;
+
+	// Number of leading ASCII bytes:
+	private final int asciiPrefix;
+	// Number of chars, or -1 until counted:
+	private int length = -1;
+	// Chars from asciiPrefix on, as far as decoded:
+	private char[] decoded = null;
+	private int numDecoded = 0;
+	// Byte offset of the first byte not yet decoded:
+	private int decodePos;
+	// Set by decodeChar(): byte offset after the character decoded:
+	private int charEnd;
+	// Set by decodeChar() once it replaced a malformed sequence:
+	private boolean malformed = false;
+
+	/**
+	 * @param bytes buffer whose remaining bytes to decode; its position is not changed.
+	 */
+	public Utf8CharSequence(ByteBuffer bytes) {
+		numBytes = bytes.remaining();
+		if (bytes.hasArray()) {
+			array = bytes.array();
+			base = bytes.arrayOffset() + bytes.position();
+			buffer = null;
+		} else {
+			array = null;
+			base = bytes.position();
+			buffer = bytes.duplicate();
+		}
+		asciiPrefix = countAscii(0);
+		decodePos = asciiPrefix;
+	}
+
+	/**
+	 * @param bytes array holding the UTF-8 bytes.
+	 * @param offset offset of the first byte.
+	 * @param len number of bytes.
+	 */
+	public Utf8CharSequence(byte[] bytes, int offset, int len) {
+		this(ByteBuffer.wrap(bytes, offset, len));
+	}
+
+	@Override
+	public int length() {
+		if (length < 0) {
+			int pos = asciiPrefix;
+			int count = pos;
+			while (pos < numBytes) {
+				count += (decodeChar(pos) >= Character.MIN_SUPPLEMENTARY_CODE_POINT) ? 2 : 1;
+				int asciiEnd = countAscii(charEnd);
+				count += asciiEnd - charEnd;
+				pos = asciiEnd;
+			}
+			length = count;
+		}
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		// Kept short, so that matchers get it inlined:
+		if (index >= asciiPrefix) {
+			int decodedIndex = index - asciiPrefix;
+			if (decodedIndex >= numDecoded)
+				decodeBeyond(decodedIndex);
+			return decoded[decodedIndex];
+		}
+		if (index < 0)
+			throw new IndexOutOfBoundsException("Index " + index + " is negative.");
+		return (char) ((array != null) ? array[base + index] : buffer.get(base + index));
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || start > end || end > length())
+			throw new IndexOutOfBoundsException("Bad subsequence [" + start + ", " + end + ") of length " + length() + ".");
+		char[] chars = new char[end - start];
+		for (int i=start; i<end; i++)
+			chars[i - start] = charAt(i);
+		return new String(chars);
+	}
+
+	/**
+	 * @return all of the characters; decodes the remaining bytes.
+	 */
+	@Override
+	public String toString() {
+		return subSequence(0, length()).toString();
+	}
+
+	/**
+	 * @return true if all bytes are ASCII, so that characters need never be decoded.
+	 */
+	public boolean isAscii() {
+		return asciiPrefix == numBytes;
+	}
+
+	/**
+	 * Check the bytes in the pass that length() makes anyway.
+	 * @return true if the bytes are well-formed UTF-8, so that encoding
+	 * 			the characters as UTF-8 gives back exactly the bytes.
+	 */
+	public boolean isWellFormed() {
+		length();
+		return !malformed;
+	}
+
+	private byte byteAt(int pos) {
+		return (array != null) ? array[base + pos] : buffer.get(base + pos);
+	}
+
+	/**
+	 * @return offset of the first non-ASCII byte at or after pos, or numBytes.
+	 */
+	private int countAscii(int pos) {
+		if (array != null) {
+			int i = base + pos;
+			int end = base + numBytes;
+			while (i < end && array[i] >= 0)
+				i++;
+			return i - base;
+		}
+		while (pos < numBytes && buffer.get(base + pos) >= 0)
+			pos++;
+		return pos;
+	}
+
+	/**
+	 * Decode characters past the ASCII prefix until the one at
+	 * decodedIndex is known, plus some more, or the bytes run out.
+	 * @throws IndexOutOfBoundsException if there is no such character.
+	 */
+	private void decodeBeyond(int decodedIndex) {
+		int target = Math.max(decodedIndex + 1, 2 * numDecoded + DECODE_AHEAD);
+		// Every byte gives at most one char, leaving room for a surrogate pair at the end:
+		int capacity = Math.min(target + 1, numBytes - asciiPrefix);
+		if (decoded == null || decoded.length < capacity)
+			growTo(capacity);
+		char[] out = decoded;
+		int n = numDecoded;
+		int pos = decodePos;
+		while (n < target && pos < numBytes) {
+			// Copy a run of ASCII bytes:
+			int runEnd = Math.min(numBytes, pos + (target - n));
+			if (array != null) {
+				int i = base + pos;
+				int end = base + runEnd;
+				while (i < end && array[i] >= 0)
+					out[n++] = (char) array[i++];
+				pos = i - base;
+			} else {
+				byte b;
+				while (pos < runEnd && (b = buffer.get(base + pos)) >= 0) {
+					out[n++] = (char) b;
+					pos++;
+				}
+			}
+			if (pos == runEnd)
+				continue;
+			int codePoint = decodeChar(pos);
+			pos = charEnd;
+			if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+				// Room was left for the second char:
+				out[n++] = Character.highSurrogate(codePoint);
+				out[n++] = Character.lowSurrogate(codePoint);
+			} else
+				out[n++] = (char) codePoint;
+		}
+		numDecoded = n;
+		decodePos = pos;
+		if (decodedIndex >= numDecoded)
+			throw new IndexOutOfBoundsException("Index " + (asciiPrefix + decodedIndex) + " is not less than length " + (asciiPrefix + numDecoded) + ".");
+	}
+
+	private void growTo(int minCapacity) {
+		int capacity = (decoded == null) ? minCapacity : Math.max(minCapacity, 2 * decoded.length);
+		capacity = Math.min(capacity, numBytes - asciiPrefix);
+		char[] grown = new char[capacity];
+		if (decoded != null)
+			System.arraycopy(decoded, 0, grown, 0, numDecoded);
+		decoded = grown;
+	}
+
+	/**
+	 * Decode the non-ASCII character that starts at the given byte
+	 * offset, and set charEnd to the offset after it. A malformed
+	 * sequence ends before the first byte that cannot continue it;
+	 * that byte begins the next character, as in the JDK's decoder.
+	 * @return the character's code point, or U+FFFD if malformed.
+	 */
+	private int decodeChar(int pos) {
+		int lead = byteAt(pos) & 0xff;
+		charEnd = pos + 1;
+		int numContinuations;
+		int codePoint;
+		// Range of the second byte, which rules out overlong and too large encodings:
+		int low = 0x80;
+		int high = 0xBF;
+		if (lead < 0xC2)
+			return malformedChar();
+		else if (lead < 0xE0) {
+			numContinuations = 1;
+			codePoint = lead & 0x1F;
+		} else if (lead < 0xF0) {
+			numContinuations = 2;
+			codePoint = lead & 0x0F;
+			if (lead == 0xE0)
+				low = 0xA0;
+		} else if (lead < 0xF5) {
+			numContinuations = 3;
+			codePoint = lead & 0x07;
+			if (lead == 0xF0)
+				low = 0x90;
+			else if (lead == 0xF4)
+				high = 0x8F;
+		} else
+			return malformedChar();
+		for (int i=0; i<numContinuations; i++) {
+			if (charEnd == numBytes)
+				return malformedChar();
+			int b = byteAt(charEnd) & 0xff;
+			if (b < low || b > high)
+				return malformedChar();
+			codePoint = (codePoint << 6) | (b & 0x3F);
+			charEnd++;
+			low = 0x80;
+			high = 0xBF;
+		}
+		// Encoded surrogates are malformed as a whole:
+		if (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)
+			return malformedChar();
+		return codePoint;
+	}
+
+	private int malformedChar() {
+		malformed = true;
+		return REPLACEMENT;
+	}
+}
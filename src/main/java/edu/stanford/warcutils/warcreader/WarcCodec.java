@@ -0,0 +1,45 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @author paepcke
+ *
+ * A compression format in which WARC files may be stored. WarcCodecs
+ * picks the codec for a file by showing each codec the first bytes
+ * at the position where reading starts.
+ *
+ * Additional codecs can be made available by listing their class
+ * names in a META-INF/services/edu.stanford.warcutils.warcreader.WarcCodec
+ * file on the class path, or by calling WarcCodecs.register().
+ */
+public interface WarcCodec {
+
+	/**
+	 * @return short name of the format, such as "gzip".
+	 */
+	public String getName();
+
+	/**
+	 * Decide from a file's leading bytes whether this codec reads the file.
+	 * @param magic bytes at the position where reading starts.
+	 * @param length number of valid bytes in magic; at most WarcCodecs.MAGIC_LENGTH,
+	 * 			and fewer near the end of the file.
+	 * @return true if the bytes start data in this codec's format.
+	 */
+	public boolean recognizes(byte[] magic, int length);
+
+	/**
+	 * Wrap the given stream so that it delivers uncompressed WARC bytes.
+	 * @param warcFile the file being read, for codecs that need more than the stream, such as a dictionary at the file's start.
+	 * @param in stream over warcFile, positioned at offset. Usually a FileInputStream,
+	 * 			but bytes read ahead of time may be put in front of it.
+	 * @param offset position in the file at which reading starts.
+	 * @param inputBufferSize suggested size of the buffer for compressed bytes.
+	 * @return the uncompressed stream.
+	 * @throws IOException if the data cannot be decoded.
+	 */
+	public InputStream open(File warcFile, InputStream in, long offset, int inputBufferSize) throws IOException;
+}
@@ -0,0 +1,113 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * @author paepcke
+ *
+ * Registry of the codecs in which WARC files can be stored. The
+ * codec for a file is chosen from the file's magic bytes: gzip
+ * (1f 8b), zstd (28 b5 2f fd, or a leading dictionary frame), and
+ * uncompressed WARC as the fallback. Codecs found through
+ * java.util.ServiceLoader, or added via register(), are asked first.
+ */
+public class WarcCodecs {
+
+	public static final int MAGIC_LENGTH = 8;
+
+	public static final WarcCodec PLAIN = new PlainCodec();
+	public static final WarcCodec GZIP = new GzipCodec();
+
+	private static final List<WarcCodec> codecs = new ArrayList<WarcCodec>();
+
+	static {
+		Iterator<WarcCodec> discovered = ServiceLoader.load(WarcCodec.class).iterator();
+		while (true) {
+			try {
+				if (!discovered.hasNext())
+					break;
+				codecs.add(discovered.next());
+			} catch (ServiceConfigurationError e) {
+				System.err.println("Could not load WARC codec: " + e.getMessage());
+			}
+		}
+		codecs.add(GZIP);
+		try {
+			codecs.add(new ZstdCodec());
+		} catch (LinkageError e) {
+			// zstd-jni is not on the class path, or has no native
+			// library for this platform:
+			System.err.println("Zstd-compressed WARC files cannot be read: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Make a codec available, ahead of the built-in ones.
+	 * @param codec the codec to add.
+	 */
+	public static synchronized void register(WarcCodec codec) {
+		codecs.add(0, codec);
+	}
+
+	/**
+	 * Take back a codec added by register(), e.g. at the end of a test.
+	 * @param codec the codec to remove.
+	 */
+	static synchronized void unregister(WarcCodec codec) {
+		codecs.remove(codec);
+	}
+
+	/**
+	 * Find the codec for the given leading bytes.
+	 * @param magic bytes at the position where reading starts.
+	 * @param length number of valid bytes in magic.
+	 * @return the first codec that recognizes the bytes, or PLAIN.
+	 */
+	public static synchronized WarcCodec forMagic(byte[] magic, int length) {
+		for (WarcCodec codec : codecs) {
+			if (codec.recognizes(magic, length))
+				return codec;
+		}
+		return PLAIN;
+	}
+
+	/**
+	 * Find the codec for a file, reading from the given offset on.
+	 * @param warcFile the file.
+	 * @param offset position in the file at which reading will start.
+	 * @return the codec.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public static WarcCodec forFile(File warcFile, long offset) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(warcFile, "r");
+		try {
+			return forChannel(raf.getChannel(), offset);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Find the codec for a file that is open already. The channel's
+	 * position is not changed.
+	 * @param channel channel of the file.
+	 * @param offset position in the file at which reading will start.
+	 * @return the codec.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public static WarcCodec forChannel(FileChannel channel, long offset) throws IOException {
+		ByteBuffer magic = ByteBuffer.allocate(MAGIC_LENGTH);
+		int n;
+		while (magic.hasRemaining() && (n = channel.read(magic, offset + magic.position())) > 0) {}
+		return forMagic(magic.array(), magic.position());
+	}
+}
@@ -0,0 +1,49 @@
+package edu.stanford.warcutils.warcreader;
+
+/**
+ * @author paepcke
+ *
+ * Java Flight Recorder events of the WARC utilities, all in
+ * the category "WARC":
+ *
+ *   edu.stanford.warcutils.FileOpen     opening a file and recognizing its codec
+ *   edu.stanford.warcutils.FileRead     a file, from being opened to being closed, with its byte and record counts
+ *   edu.stanford.warcutils.RecordParse  parsing one record, with its ID, type and length
+ *   edu.stanford.warcutils.Filter       one WarcFilter evaluation
+ *   edu.stanford.warcutils.HTMLStrip    one HTMLStripper.extractText() call
+ *
+ * The per-record events have thresholds, so that a continuous
+ * recording with the default settings only holds the slow records,
+ * such as pages that take seconds to strip. Thresholds and enablement
+ * can be changed in the recording's settings like for any JDK event,
+ * e.g. edu.stanford.warcutils.HTMLStrip#threshold=1 s.
+ *
+ * The events need jdk.jfr, which came with Java 8u262 and Java 11.
+ * On older runtimes no events are created.
+ */
+public final class WarcEvents {
+
+	private static final boolean AVAILABLE = isJfrPresent();
+
+	private WarcEvents() {
+	}
+
+	/**
+	 * @return true if this runtime has Flight Recorder events. Event
+	 * 			classes must not be touched unless it does.
+	 */
+	public static boolean isAvailable() {
+		return AVAILABLE;
+	}
+
+	private static boolean isJfrPresent() {
+		try {
+			Class.forName("jdk.jfr.Event", false, WarcEvents.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package edu.stanford.warcutils.warcreader;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * @author paepcke
+ *
+ * Flight Recorder event for opening a WARC file and recognizing
+ * its codec; see WarcEvents.
+ */
+@Name("edu.stanford.warcutils.FileOpen")
+@Label("WARC File Open")
+@Category("WARC")
+@Description("Opening a WARC file and recognizing its compression")
+@Threshold("10 ms")
+class WarcFileOpenEvent extends Event {
+
+	@Label("Path")
+	String path;
+
+	@Label("Codec")
+	String codec;
+
+	@Label("Offset")
+	long offset;
+
+	/**
+	 * End the event, and record it if it took long enough.
+	 * @param codecName name of the file's codec, or null if the file could not be opened.
+	 */
+	void finish(String filePath, String codecName, long fileOffset) {
+		end();
+		if (!shouldCommit())
+			return;
+		path = filePath;
+		codec = codecName;
+		offset = fileOffset;
+		commit();
+	}
+}
@@ -0,0 +1,54 @@
+package edu.stanford.warcutils.warcreader;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * @author paepcke
+ *
+ * Flight Recorder event that spans a WARC file from being opened
+ * to being closed, with what was read from it; see WarcEvents.
+ */
+@Name("edu.stanford.warcutils.FileRead")
+@Label("WARC File Read")
+@Category("WARC")
+@Description("A WARC file from being opened to being closed")
+class WarcFileReadEvent extends Event {
+
+	@Label("Path")
+	String path;
+
+	@Label("Codec")
+	String codec;
+
+	@Label("Compressed Bytes")
+	@DataAmount
+	long compressedBytes;
+
+	@Label("Decompressed Bytes")
+	@DataAmount
+	long decompressedBytes;
+
+	@Label("Records")
+	long records;
+
+	/**
+	 * End the event, and record it if it took long enough.
+	 * @param fileStats counts of the file.
+	 */
+	void finish(ReaderStats.FileStats fileStats) {
+		end();
+		if (!shouldCommit())
+			return;
+		path = fileStats.getPath();
+		codec = fileStats.getCodec();
+		compressedBytes = fileStats.getCompressedBytesRead();
+		decompressedBytes = fileStats.getDecompressedBytesRead();
+		records = fileStats.getRecordsEmitted();
+		commit();
+	}
+}
@@ -0,0 +1,48 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.File;
+
+/**
+ * @author paepcke
+ *
+ * A byte range of one WARC file. A WarcRecordReader constructed
+ * with a split returns exactly the records that start within the
+ * range; see GzipMemberSplitter for how gzipped files are cut into
+ * ranges that begin at gzip member starts.
+ */
+public class WarcFileSplit {
+
+	private File file;
+	private long start;
+	private long length;
+
+	public WarcFileSplit(File file, long start, long length) {
+		this.file = file;
+		this.start = start;
+		this.length = length;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return offset of the first byte after the split.
+	 */
+	public long getEnd() {
+		return start + length;
+	}
+
+	@Override
+	public String toString() {
+		return file.getAbsolutePath() + ":" + start + "+" + length;
+	}
+}
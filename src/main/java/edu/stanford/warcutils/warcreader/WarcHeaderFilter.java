@@ -0,0 +1,24 @@
+package edu.stanford.warcutils.warcreader;
+
+/**
+ * @author paepcke
+ *
+ * Test of a WARC record's header fields, which a reader applies
+ * before it reads the record's content; see
+ * WarcRecordReader.setHeaderFilter(). The content of rejected records
+ * is skipped, by seeking where the file allows it, without being
+ * copied or decoded into memory. WarcFilter and its subclasses are
+ * header filters, e.g.
+ *
+ *     reader.setHeaderFilter(new WarcFilterExpression("warc-type = response AND content-type ~ 'text/html.*'"));
+ */
+public interface WarcHeaderFilter {
+
+	/**
+	 * @param header record whose header fields are set, but whose content
+	 * 			is not read yet; it appears empty.
+	 * @return true if the record is not wanted, whatever its content;
+	 * 			false if it is wanted, or if that depends on the content.
+	 */
+	public boolean rejectsHeader(WarcRecord header);
+}
@@ -0,0 +1,273 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * @author paepcke
+ *
+ * Header fields of one WARC record, in the order in which they
+ * were read. Keys are the lower-case field names. WarcRecordParser
+ * hands in field values as raw UTF-8 bytes, and a value's String is
+ * only built when the value is first asked for; header-only scans
+ * that look at a few fields thus never decode the others.
+ *
+ * Records carry a dozen or so fields, so lookups are linear scans
+ * over the keys. The parser provides the known WARC field names as
+ * interned instances, so that lookups of those compare references.
+ */
+class WarcHeaderMap extends AbstractMap<String,String> {
+
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int INITIAL_RAW_CAPACITY = 1024;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private String[] keys = new String[INITIAL_CAPACITY];
+	private String[] values = new String[INITIAL_CAPACITY];
+	// Where in rawValues a not yet decoded value lies; start is -1 once
+	// values[] holds the value:
+	private int[] valueStarts = new int[INITIAL_CAPACITY];
+	private int[] valueLengths = new int[INITIAL_CAPACITY];
+	private int size = 0;
+
+	private byte[] rawValues = null;
+	private int rawLength = 0;
+
+	private Set<Map.Entry<String,String>> entrySet = null;
+
+	/**
+	 * Add a field whose value is given as UTF-8 bytes. The bytes
+	 * are copied. As with put(), a field that is already present
+	 * gets the new value, but keeps its position.
+	 * @param key lower-case field name.
+	 * @param buf buffer holding the value.
+	 * @param start offset of the value in buf.
+	 * @param len length of the value in bytes.
+	 */
+	void putRaw(String key, byte[] buf, int start, int len) {
+		if (rawValues == null)
+			rawValues = new byte[Math.max(INITIAL_RAW_CAPACITY, len)];
+		else if (rawLength + len > rawValues.length) {
+			byte[] newRaw = new byte[Math.max(2 * rawValues.length, rawLength + len)];
+			System.arraycopy(rawValues, 0, newRaw, 0, rawLength);
+			rawValues = newRaw;
+		}
+		System.arraycopy(buf, start, rawValues, rawLength, len);
+		int i = indexOf(key);
+		if (i < 0)
+			i = append(key);
+		values[i] = null;
+		valueStarts[i] = rawLength;
+		valueLengths[i] = len;
+		rawLength += len;
+	}
+
+	/**
+	 * @return an independent copy; values not yet decoded stay raw.
+	 */
+	WarcHeaderMap copy() {
+		WarcHeaderMap theCopy = new WarcHeaderMap();
+		theCopy.keys = keys.clone();
+		theCopy.values = values.clone();
+		theCopy.valueStarts = valueStarts.clone();
+		theCopy.valueLengths = valueLengths.clone();
+		theCopy.size = size;
+		if (rawValues != null) {
+			theCopy.rawValues = new byte[rawLength];
+			System.arraycopy(rawValues, 0, theCopy.rawValues, 0, rawLength);
+		}
+		theCopy.rawLength = rawLength;
+		return theCopy;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public String get(Object key) {
+		int i = indexOf(key);
+		return (i < 0) ? null : valueAt(i);
+	}
+
+	@Override
+	public String put(String key, String value) {
+		int i = indexOf(key);
+		if (i < 0) {
+			i = append(key);
+			values[i] = value;
+			valueStarts[i] = -1;
+			return null;
+		}
+		String prevValue = valueAt(i);
+		values[i] = value;
+		return prevValue;
+	}
+
+	@Override
+	public String remove(Object key) {
+		int i = indexOf(key);
+		if (i < 0)
+			return null;
+		String prevValue = valueAt(i);
+		removeAt(i);
+		return prevValue;
+	}
+
+	@Override
+	public void clear() {
+		for (int i=0; i<size; i++) {
+			keys[i] = null;
+			values[i] = null;
+		}
+		size = 0;
+		rawLength = 0;
+	}
+
+	@Override
+	public Set<Map.Entry<String,String>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Map.Entry<String,String>>() {
+				@Override
+				public Iterator<Map.Entry<String,String>> iterator() {
+					return new EntryIterator();
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+		return entrySet;
+	}
+
+	private int indexOf(Object key) {
+		// Known field names from the parser are interned, so
+		// identity usually hits before equals() is needed:
+		for (int i=0; i<size; i++)
+			if (keys[i] == key)
+				return i;
+		if (key == null)
+			return -1;
+		for (int i=0; i<size; i++)
+			if (key.equals(keys[i]))
+				return i;
+		return -1;
+	}
+
+	private String valueAt(int i) {
+		if (valueStarts[i] >= 0) {
+			values[i] = new String(rawValues, valueStarts[i], valueLengths[i], UTF8);
+			valueStarts[i] = -1;
+		}
+		return values[i];
+	}
+
+	private int append(String key) {
+		if (size == keys.length) {
+			int newCapacity = 2 * keys.length;
+			String[] newKeys = new String[newCapacity];
+			String[] newValues = new String[newCapacity];
+			int[] newStarts = new int[newCapacity];
+			int[] newLengths = new int[newCapacity];
+			System.arraycopy(keys, 0, newKeys, 0, size);
+			System.arraycopy(values, 0, newValues, 0, size);
+			System.arraycopy(valueStarts, 0, newStarts, 0, size);
+			System.arraycopy(valueLengths, 0, newLengths, 0, size);
+			keys = newKeys;
+			values = newValues;
+			valueStarts = newStarts;
+			valueLengths = newLengths;
+		}
+		keys[size] = key;
+		return size++;
+	}
+
+	private void removeAt(int i) {
+		int numToMove = size - i - 1;
+		System.arraycopy(keys, i + 1, keys, i, numToMove);
+		System.arraycopy(values, i + 1, values, i, numToMove);
+		System.arraycopy(valueStarts, i + 1, valueStarts, i, numToMove);
+		System.arraycopy(valueLengths, i + 1, valueLengths, i, numToMove);
+		size--;
+		keys[size] = null;
+		values[size] = null;
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<String,String>> {
+		private int next = 0;
+		private int last = -1;
+
+		public boolean hasNext() {
+			return next < size;
+		}
+
+		public Map.Entry<String,String> next() {
+			if (next >= size)
+				throw new NoSuchElementException();
+			last = next++;
+			return new HeaderEntry(last);
+		}
+
+		public void remove() {
+			if (last < 0)
+				throw new IllegalStateException();
+			removeAt(last);
+			next = last;
+			last = -1;
+		}
+	}
+
+	private class HeaderEntry implements Map.Entry<String,String> {
+		private String key;
+
+		HeaderEntry(int i) {
+			key = keys[i];
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public String getValue() {
+			return get(key);
+		}
+
+		public String setValue(String value) {
+			return put(key, value);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Map.Entry))
+				return false;
+			Map.Entry<?,?> other = (Map.Entry<?,?>) obj;
+			String value = getValue();
+			return key.equals(other.getKey()) &&
+				   ((value == null) ? other.getValue() == null : value.equals(other.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			String value = getValue();
+			return key.hashCode() ^ ((value == null) ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + getValue();
+		}
+	}
+}
@@ -0,0 +1,267 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * @author paepcke
+ *
+ * Turns the files and directories given to a reader into the list
+ * of WARC files to process. Directories are walked recursively (see
+ * setRecursive()), and only files whose names match one of the include
+ * globs, and none of the exclude globs, are taken. By default, the
+ * include globs accept WARC files by extension: *.warc, *.warc.gz and
+ * *.warc.zst. Files that are named explicitly are always taken.
+ * Paths given to addExcludedPath(), such as a job's output directory,
+ * are left out of directory walks altogether.
+ *
+ * The result is ordered largest file first (see setOrder()). Workers
+ * that take files from the front of the list then start on the big
+ * files early, and no single large file is left to run alone at the
+ * end. balance() instead deals files out to a fixed number of workers,
+ * such that the bytes per worker come out about even.
+ *
+ *     WarcInputPlanner planner = new WarcInputPlanner();
+ *     planner.addExclude("*-metadata-*");
+ *     List<File> files = planner.plan(new File("/crawls/2013"));
+ */
+public class WarcInputPlanner {
+
+	public enum Order {
+		// Largest file first; files of equal size by path:
+		LARGEST_FIRST,
+		// By path name:
+		BY_PATH
+	}
+
+	public static final String[] DEFAULT_INCLUDE_GLOBS = {"*.warc", "*.warc.gz", "*.warc.zst"};
+
+	private boolean recursive = true;
+	private Order order = Order.LARGEST_FIRST;
+	private List<PathMatcher> includes = new ArrayList<PathMatcher>();
+	private List<PathMatcher> excludes = new ArrayList<PathMatcher>();
+	private boolean defaultIncludes = true;
+	// Absolute files and directory trees that walks leave out:
+	private List<Path> excludedPaths = new ArrayList<Path>();
+
+	public WarcInputPlanner() {
+		for (String glob : DEFAULT_INCLUDE_GLOBS)
+			includes.add(globMatcher(glob));
+	}
+
+	/**
+	 * @param doRecurse true to walk subdirectories of given directories (the default);
+	 * 			false to take only the files immediately in them.
+	 */
+	public void setRecursive(boolean doRecurse) {
+		recursive = doRecurse;
+	}
+
+	public boolean isRecursive() {
+		return recursive;
+	}
+
+	public void setOrder(Order theOrder) {
+		order = theOrder;
+	}
+
+	public Order getOrder() {
+		return order;
+	}
+
+	/**
+	 * Take files whose names match the given glob, such as "*.warc.gz".
+	 * The first call replaces the default globs. Globs that contain a
+	 * '/' are matched against the path below the given directory instead.
+	 * @param glob pattern in java.nio.file.FileSystem.getPathMatcher() glob syntax.
+	 */
+	public void addInclude(String glob) {
+		if (defaultIncludes) {
+			includes.clear();
+			defaultIncludes = false;
+		}
+		includes.add(globMatcher(glob));
+	}
+
+	/**
+	 * Leave out files whose names match the given glob, even if
+	 * they match an include glob. See addInclude().
+	 * @param glob pattern in glob syntax.
+	 */
+	public void addExclude(String glob) {
+		excludes.add(globMatcher(glob));
+	}
+
+	/**
+	 * Leave the given file, or directory tree, out of directory walks,
+	 * e.g. where a job writes its output. Files and directories that
+	 * are given to plan() explicitly are still taken.
+	 * @param path file or directory to leave out; need not exist yet.
+	 */
+	public void addExcludedPath(File path) {
+		excludedPaths.add(path.getAbsoluteFile().toPath().normalize());
+	}
+
+	/**
+	 * @param warcPath a WARC file, or a directory of WARC files.
+	 * @return the files to process, ordered as set by setOrder().
+	 */
+	public List<File> plan(File warcPath) {
+		return plan(Collections.singletonList(warcPath));
+	}
+
+	/**
+	 * @param warcPaths WARC files and directories of WARC files.
+	 * @return the files to process, ordered as set by setOrder().
+	 */
+	public List<File> plan(Collection<File> warcPaths) {
+		final ArrayList<File> res = new ArrayList<File>();
+		for (File warcPath : warcPaths) {
+			if (!warcPath.isDirectory()) {
+				res.add(warcPath);
+				continue;
+			}
+			final Path root = warcPath.toPath();
+			try {
+				Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), recursive ? Integer.MAX_VALUE : 1,
+								   new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+						return (!dir.equals(root) && isExcluded(dir)) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+						if (attrs.isRegularFile() && isWanted(root.relativize(file)) && !isExcluded(file))
+							res.add(file.toFile());
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path file, IOException e) {
+						System.err.println(String.format("Could not list %s: %s", file, e.getMessage()));
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			} catch (IOException e) {
+				System.err.println(String.format("Could not list %s: %s", warcPath.getAbsolutePath(), e.getMessage()));
+			}
+		}
+		return order(res);
+	}
+
+	/**
+	 * Deal files out to the given number of workers, such that each
+	 * worker gets about the same number of bytes. Files are handed out
+	 * largest first, each to the worker with the fewest bytes so far.
+	 * @param warcFiles files to distribute, e.g. the result of plan().
+	 * @param numWorkers number of workers.
+	 * @return one list of files per worker, each ordered largest first.
+	 */
+	public static List<List<File>> balance(Collection<File> warcFiles, int numWorkers) {
+		numWorkers = Math.max(1, numWorkers);
+		List<List<File>> res = new ArrayList<List<File>>();
+		// Entries are {bytes assigned, worker index}:
+		PriorityQueue<long[]> loads = new PriorityQueue<long[]>(numWorkers, new Comparator<long[]>() {
+			public int compare(long[] load1, long[] load2) {
+				if (load1[0] != load2[0])
+					return (load1[0] < load2[0]) ? -1 : 1;
+				return (load1[1] < load2[1]) ? -1 : ((load1[1] == load2[1]) ? 0 : 1);
+			}
+		});
+		for (int i=0; i<numWorkers; i++) {
+			res.add(new ArrayList<File>());
+			loads.add(new long[] {0L, i});
+		}
+		for (SizedFile sizedFile : sortLargestFirst(warcFiles)) {
+			long[] lightest = loads.poll();
+			res.get((int) lightest[1]).add(sizedFile.file);
+			lightest[0] += sizedFile.length;
+			loads.add(lightest);
+		}
+		return res;
+	}
+
+	private boolean isWanted(Path relativePath) {
+		Path fileName = relativePath.getFileName();
+		return matchesAny(includes, fileName, relativePath) && !matchesAny(excludes, fileName, relativePath);
+	}
+
+	private boolean isExcluded(Path path) {
+		if (excludedPaths.isEmpty())
+			return false;
+		Path absPath = path.toAbsolutePath().normalize();
+		for (Path excluded : excludedPaths) {
+			if (absPath.equals(excluded))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean matchesAny(List<PathMatcher> matchers, Path fileName, Path relativePath) {
+		for (PathMatcher matcher : matchers) {
+			if (matcher.matches(fileName) || matcher.matches(relativePath))
+				return true;
+		}
+		return false;
+	}
+
+	private List<File> order(ArrayList<File> files) {
+		if (order == Order.BY_PATH) {
+			Collections.sort(files);
+			return files;
+		}
+		ArrayList<File> res = new ArrayList<File>(files.size());
+		for (SizedFile sizedFile : sortLargestFirst(files))
+			res.add(sizedFile.file);
+		return res;
+	}
+
+	private static List<SizedFile> sortLargestFirst(Collection<File> files) {
+		ArrayList<SizedFile> sized = new ArrayList<SizedFile>(files.size());
+		for (File file : files)
+			sized.add(new SizedFile(file));
+		Collections.sort(sized);
+		return sized;
+	}
+
+	/**
+	 * A file with its length, which is looked up only once, since
+	 * stat calls are not cheap on network file systems. Sorts
+	 * largest first, and by path among equal lengths.
+	 */
+	private static class SizedFile implements Comparable<SizedFile> {
+		File file;
+		long length;
+
+		SizedFile(File file) {
+			this.file = file;
+			this.length = file.length();
+		}
+
+		public int compareTo(SizedFile other) {
+			if (length != other.length)
+				return (length > other.length) ? -1 : 1;
+			return file.compareTo(other.file);
+		}
+	}
+
+	private static PathMatcher globMatcher(String glob) {
+		return FileSystems.getDefault().getPathMatcher("glob:" + glob);
+	}
+}
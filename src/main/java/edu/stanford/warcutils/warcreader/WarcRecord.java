@@ -41,14 +41,17 @@ package edu.stanford.warcutils.warcreader;
  * Mar 5,  2013; Andreas Paepcke: added saving of WARC version line
  */
 
-import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -61,7 +64,7 @@ public class WarcRecord extends Text implements WarcRecordMap {
 	// Lookup table for properly capitalized ISO Warc header field
 	// names. Used wbRecordReader toString();
 	@SuppressWarnings("serial")
-	private static final Map<String, String> ISO_WARC_HEADER_FIELD_NAMES = new HashMap<String, String>(){
+	static final Map<String, String> ISO_WARC_HEADER_FIELD_NAMES = new HashMap<String, String>(){
 		{
 			put(WARC_TYPE, "WARC-Type");
 			put(WARC_RECORD_ID, "WARC-Record-ID");
@@ -91,7 +94,7 @@ public class WarcRecord extends Text implements WarcRecordMap {
 	public static final String WARC_DATE = "warc-date";
 	public static final String CONTENT_LENGTH = "content-length";
 	public static final String CONTENT_TYPE = "content-type";
-	public static final String WARC_CONCURRENT_TO = "warc-concurrent-To";
+	public static final String WARC_CONCURRENT_TO = "warc-concurrent-to";
 	public static final String WARC_BLOCK_DIGEST = "warc-block-digest";
 	public static final String WARC_PAYLOAD_DIGEST = "warc-payload-digest";
 	public static final String WARC_IP_ADDRESS = "warc-ip-address";
@@ -112,13 +115,11 @@ public class WarcRecord extends Text implements WarcRecordMap {
 		WARC_TYPE
 	};
 	
-	private static String tmpVersionLine = null;
-
 	// Provide a constructor for each of the header datatypes:
 	private static Constructor<String> strConstructor = null;
 	private static Constructor<Integer> intConstructor = null;
 
-	{
+	static {
 		try {
 			strConstructor = String.class.getConstructor(String.class);
 			intConstructor = Integer.class.getConstructor(String.class);
@@ -130,7 +131,7 @@ public class WarcRecord extends Text implements WarcRecordMap {
 	}
 
 	@SuppressWarnings({ "rawtypes", "serial" })
-	public HashMap<String,Constructor> mandatoryWarcHeaderFldTypes = new HashMap<String, Constructor>() {
+	public static final HashMap<String,Constructor> mandatoryWarcHeaderFldTypes = new HashMap<String, Constructor>() {
 		{
 			put(WARC_RECORD_ID, strConstructor);
 			put(CONTENT_LENGTH, intConstructor);
@@ -156,215 +157,102 @@ public class WarcRecord extends Text implements WarcRecordMap {
 	public static String[] WARC_VERSION = {"WARC/0.18", "WARC/1.0"};
 	public static String[] WARC_VERSION_LINE = {"WARC/0.18\n", "WARC/1.0\n"};
 	private static String NEWLINE="\n";
-
-	private static LinkedHashMap<String,String> tmpHeaderMap = new LinkedHashMap<String, String>();
-	private static Long tmpGrandTotalBytesRead = 0L;
-	private static HashSet<String> tmpOptionalHeaderKeys = new HashSet<String>();
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final ByteBuffer NO_CONTENT = ByteBuffer.allocate(0);
 
 	// Instance variables:
-	private LinkedHashMap<String,String> headerMap = null;
+	private WarcHeaderMap headerMap = null;
 	private Long grandTotalBytesRead;
-	private byte[] warcContent=null;
-	private HashSet<String> optionalHeaderKeysThisRecord;
+	private long bytesBeforeRecord = 0L;
+	private ByteBuffer warcContent=null;
+	// Content decoded as UTF-8, once someone asked for it:
+	private String contentString = null;
+	// Content decoded lazily, for scanning, if contentString is not there:
+	private Utf8CharSequence contentChars = null;
+	// Set instead of warcContent when the content is streamed:
+	private RecordContentStream contentStream = null;
+	// Whether warcContent's array was allocated by the parser, and
+	// may thus be overwritten when the record is refilled:
+	private boolean contentFromParser = false;
+	private HashSet<String> optionalHeaderKeysThisRecord = null;
 	private String versionLine = null;
 
 	/**
-	 * The actual heavy lifting of reading wbRecordReader the next WARC record. The
-	 * readContent parameter is used to support cases when the original
-	 * Pig query project out the content. We save time if we don't need
-	 * that content.
-	 * 
-	 * @param warcLineReader a line reader
-	 * @param readContent indicate whether the content of the record is needed, as opposed to just the WARC header info.
-	 * @return the content bytes (w/ the headerBuffer populated)
+	 * Reads wbRecordReader a WARC record from a data input stream.
+	 * Each call uses a fresh WarcRecordParser; readers that pull
+	 * many records should keep a parser of their own.
+	 * @param Warc line reader for the stream.
+	 * @return a WARC record (or null if eof)
 	 * @throws java.io.IOException
 	 */
-	private static byte[] readNextRecord(LineAndChunkReader warcLineReader, boolean readContent) throws IOException {
-		if (warcLineReader==null) { 
-			return null;
-		}
-
-		Text txtBuf = new Text();
-		byte[] retContent=null;
-
-		tmpOptionalHeaderKeys.clear();
-		tmpGrandTotalBytesRead = 0L;
-		tmpVersionLine = null;
-		tmpHeaderMap.clear();
-		// Find our WARC header, getting the WARC version line in
-		// return, or null, if failure:
-		tmpVersionLine = scanToRecordStart(warcLineReader, txtBuf);
-		txtBuf.clear();
-
-		// No WARC header found?
-		if (tmpVersionLine == null) { return null; }
-
-		// Read the header (up to the first empty line).
-		// Make sure we get the (mandatory) content length 
-		// is wbRecordReader the header, because we rely on it below. 
-		// We do not check for the other mandatory header fields:
-		int contentLength = pullHeaderFromStream(warcLineReader, 
-				txtBuf);
-		txtBuf.clear();
-
-		if (contentLength < 0) {
-			return null;
-		}
-
-		if (readContent) {
-			// Pull the bytes of the content from the stream:
-			retContent=new byte[contentLength];
-			Integer totalRead = pullContent(warcLineReader, retContent, contentLength);
-			if (totalRead == null)
-				throw new IOException("Could not read content from WARC record ID: " +
-						tmpHeaderMap.get(WARC_RECORD_ID) + 
-						" of supposed content length " +
-						tmpHeaderMap.get(CONTENT_LENGTH) +
-						". Maybe incorrect length spec in WARC header?");
-
-			if (totalRead < contentLength) {
-				// Did we hit EOF wbRecordReader the middle of the WARC record's content?
-				throw new IOException("Hit end of file while reading content of WARC record ID: " +
-						tmpHeaderMap.get(WARC_RECORD_ID) + 
-						" of supposed content length " +
-						tmpHeaderMap.get(CONTENT_LENGTH) +
-						".");
-			}
-			tmpGrandTotalBytesRead += totalRead;
-			return retContent;
-		} else {
-			return new byte[0];
-		}
+	public static WarcRecord readNextWarcRecord(LineAndChunkReader warcInLineReader, boolean readContent) throws IOException {
+		return new WarcRecordParser().readNextWarcRecord(warcInLineReader, readContent);
 	}
 
 	/**
-	 * @param warcLineReader
-	 * @param retContent
-	 * @param contentLength
-	 * @return
-	 * @throws IOException
+	 * Install the results of parsing a record; called by WarcRecordParser.
 	 */
-	private static Integer pullContent(LineAndChunkReader warcLineReader,
-			byte[] retContent, int contentLength) throws IOException {
-		int totalWant=contentLength;
-		int totalRead=0;
-		while (totalRead < contentLength) {
-			try {
-				int numRead=warcLineReader.read(retContent, totalRead, totalWant);
-				if (numRead < 0) {
-					return null;
-				} else {
-					totalRead += numRead;
-					totalWant = contentLength-totalRead;
-				} // end if (numRead < 0) / else
-			} catch (EOFException eofEx) {
-				// resize to what we have
-				if (totalRead > 0) {
-					return totalRead;
-				} else {
-					return null;
-				}
-			} // end try/catch (EOFException)
-		} // end while (totalRead < contentLength)
-		return totalRead;
+	void setParseResults(String theVersionLine,
+						 WarcHeaderMap theHeaderMap,
+						 long theGrandTotalBytesRead,
+						 long theBytesBeforeRecord,
+						 ByteBuffer content) {
+		versionLine = theVersionLine;
+		headerMap = theHeaderMap;
+		grandTotalBytesRead = theGrandTotalBytesRead;
+		bytesBeforeRecord = theBytesBeforeRecord;
+		optionalHeaderKeysThisRecord = null;
+		setRecordContent(content);
+		contentFromParser = true;
 	}
 
 	/**
-	 * @param warcLineReader
-	 * @param txtBuf
-	 * @param inHeader
-	 * @return
-	 * @throws IOException
+	 * @return this record's header map, emptied for refilling, or null if there is none yet.
 	 */
-	private static int pullHeaderFromStream(LineAndChunkReader warcLineReader,
-			Text txtBuf) throws IOException {
-		boolean inHeader = true;
-		String line;
-		int bytesRead;
-		int contentLength=-1;
-		String headerAttrName;
-		String headerAttrValue;
-		txtBuf.clear();
-		while (inHeader && ((bytesRead = warcLineReader.readLine(txtBuf))!=0)) {
-			line = txtBuf.toString();
-			tmpGrandTotalBytesRead += bytesRead;
-			if (line.trim().length()==0) {
-				inHeader=false;
-			} else {
-				String[] thisHeaderPieceParts=line.split(":", 2);
-				if (thisHeaderPieceParts.length==2) {
-					headerAttrName  = (thisHeaderPieceParts[0]).trim().toLowerCase();
-					headerAttrValue =  thisHeaderPieceParts[1].trim();
-					tmpHeaderMap.put(headerAttrName, headerAttrValue);
-
-					// Accumulate a list of optional header keys:
-					if (mandatoryHeaderFieldsLookup.get(headerAttrName) == null)
-						tmpOptionalHeaderKeys.add(headerAttrName);
-
-					if (headerAttrName.startsWith(CONTENT_LENGTH)) {
-						try {
-							contentLength=Integer.parseInt(headerAttrValue.trim());
-						} catch (NumberFormatException nfEx) {
-							contentLength=-1;
-						}
-					}
-				}
-			}
-			txtBuf.clear();
-		}
-		return contentLength;
+	WarcHeaderMap reusableHeaderMap() {
+		if (headerMap == null)
+			return null;
+		headerMap.clear();
+		return headerMap;
 	}
 
 	/**
-	 * @param warcLineReader
-	 * @param txtBuf
-	 * @return success true/false
-	 * @throws IOException
+	 * @return this record's content buffer if the parser may overwrite it, else null.
 	 */
-	private static String scanToRecordStart(LineAndChunkReader warcLineReader,
-			Text txtBuf) throws IOException {
-		String line = null;
-		boolean foundMark = false;
-		int bytesRead;
-		while ((!foundMark) && ((bytesRead = warcLineReader.readLine(txtBuf))!=0)) {
-			line = txtBuf.toString();
-			tmpGrandTotalBytesRead += bytesRead;
-			for (String warcVersion : WARC_VERSION) {
-				if (line.startsWith(warcVersion)) {
-					foundMark=true;
-					break;
-				}
-			}
-			txtBuf.clear();
-		}
-		// Return the WARC version line:
-		return line;
+	ByteBuffer reusableContentBuffer() {
+		return contentFromParser ? warcContent : null;
 	}
 
 	/**
-	 * Reads wbRecordReader a WARC record from a data input stream
-	 * @param Warc line reader for the stream.
-	 * @return a WARC record (or null if eof)
-	 * @throws java.io.IOException
+	 * Make an independent copy of this record, e.g. to keep a
+	 * record that a reader in record reuse mode is going to refill
+	 * (see WarcRecordReader.setReuseRecords()). The content bytes are
+	 * copied; content that is only available as a stream is not.
+	 * @return a copy that shares no mutable state with this record.
 	 */
-	@SuppressWarnings("unchecked")
-	public static WarcRecord readNextWarcRecord(LineAndChunkReader warcInLineReader, boolean readContent) throws IOException {
-
-		// The following call also sets the static tmpVersionLine to 
-		// the warc record's version line (e.g. "WARC/1.0"):
-		byte[] recordContent=readNextRecord(warcInLineReader, readContent);
-		if (recordContent==null) { 
-			return null; 
+	public WarcRecord copy() {
+		WarcRecord theCopy = new WarcRecord();
+		ByteBuffer contentCopy = NO_CONTENT;
+		if (warcContent != null && warcContent.remaining() > 0) {
+			contentCopy = ByteBuffer.allocate(warcContent.remaining());
+			contentCopy.put(warcContent.duplicate());
+			contentCopy.flip();
 		}
+		theCopy.setParseResults(versionLine,
+								(headerMap == null) ? new WarcHeaderMap() : headerMap.copy(),
+								(grandTotalBytesRead == null) ? 0L : grandTotalBytesRead,
+								bytesBeforeRecord,
+								contentCopy);
+		theCopy.contentString = contentString;
+		return theCopy;
+	}
 
-		WarcRecord retRecord=new WarcRecord();
-		retRecord.versionLine = tmpVersionLine;
-		retRecord.headerMap = (LinkedHashMap<String, String>) tmpHeaderMap.clone();
-		retRecord.grandTotalBytesRead = tmpGrandTotalBytesRead;
-		retRecord.optionalHeaderKeysThisRecord = (HashSet<String>) tmpOptionalHeaderKeys.clone();
-		retRecord.setRecordContent(recordContent);
-
-		return retRecord;
+	/**
+	 * @param key lower-case header field name.
+	 * @return true if the WARC spec requires the field in every record.
+	 */
+	static boolean isMandatoryHeaderField(String key) {
+		return mandatoryHeaderFieldsLookup.get(key) != null;
 	}
 
 	/**
@@ -381,22 +269,111 @@ public class WarcRecord extends Text implements WarcRecordMap {
 		return grandTotalBytesRead;
 	}
 
+	/**
+	 * Retrieves the number of bytes that were passed over before
+	 * this record's WARC version line was found, such as the
+	 * separator lines after the previous record. These bytes are
+	 * included in getTotalRecordLength().
+	 * @return number of bytes preceding the record proper.
+	 */
+	public long getBytesBeforeRecord() {
+		return bytesBeforeRecord;
+	}
+
 
 	protected void setRecordContent(byte[] content) {
+		setRecordContent(ByteBuffer.wrap(content));
+	}
+
+	protected void setRecordContent(ByteBuffer content) {
 		warcContent = content;
+		contentString = null;
+		contentChars = null;
+		contentStream = null;
+		contentFromParser = false;
+	}
+
+	void setContentStream(RecordContentStream stream) {
+		contentStream = stream;
 	}
+
 	/**
-	 * Retrieves the bytes content as a UTF-8 string
+	 * @return true if the record was read in content streaming mode,
+	 * 			and its content is only available through getContentStream().
+	 */
+	public boolean isContentStreamed() {
+		return contentStream != null;
+	}
+
+	/**
+	 * Retrieves the content as a stream. For records read in content
+	 * streaming mode (see WarcRecordReader.setContentStreaming()), the
+	 * bytes come straight from the underlying file, and can be read
+	 * only once, and only until the reader moves on to the next record.
+	 * Content that is not consumed is skipped without being held in
+	 * memory. Other records return a stream over their in-memory content.
+	 * @return stream of the content bytes.
+	 */
+	public InputStream getContentStream() {
+		if (contentStream != null)
+			return contentStream;
+		return new ByteBufferInputStream(warcContent.duplicate());
+	}
+
+	/**
+	 * Retrieves the content bytes without copying or decoding them.
+	 * For records read through a memory-mapped reader, the buffer
+	 * is a slice of the mapped file.
+	 * @return read-only buffer positioned at the first content byte.
+	 */
+	public ByteBuffer getContentBuffer() {
+		return warcContent.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Retrieves the content as characters, for callers that only
+	 * scan it, such as regular expression matchers. Unless the content
+	 * was already decoded by getContentUTF8(), the characters are
+	 * decoded from the content bytes only as far as they are read
+	 * (see Utf8CharSequence), and ASCII content is not copied at all.
+	 * Like getContentBuffer(), the result is only valid until the
+	 * content is replaced.
+	 * @return the content decoded as UTF-8.
+	 */
+	public CharSequence getContentChars() {
+		if (contentString != null)
+			return contentString;
+		if (contentChars == null)
+			contentChars = new Utf8CharSequence(warcContent);
+		return contentChars;
+	}
+
+	/**
+	 * Retrieves the bytes content as a UTF-8 string. The content
+	 * is decoded only once; later calls return the same string
+	 * until the content is replaced.
 	 * @return
 	 */
 	public String getContentUTF8() {
-		String retString=null;
-		try {
-			retString = new String(warcContent, "UTF-8");
-		} catch (UnsupportedEncodingException ex) {
-			retString=new String(warcContent);
+		if (contentString == null)
+			contentString = decodeContent();
+		return contentString;
+	}
+
+	private String decodeContent() {
+		if (warcContent.hasArray()) {
+			try {
+				return new String(warcContent.array(),
+								  warcContent.arrayOffset() + warcContent.position(),
+								  warcContent.remaining(),
+								  "UTF-8");
+			} catch (UnsupportedEncodingException ex) {
+				return new String(warcContent.array(),
+								  warcContent.arrayOffset() + warcContent.position(),
+								  warcContent.remaining());
+			}
 		}
-		return retString;
+		return UTF8.decode(warcContent.duplicate()).toString();
 	}
 
 	@Override
@@ -404,23 +381,49 @@ public class WarcRecord extends Text implements WarcRecordMap {
 		return toString(DONT_INCLUDE_CONTENT);
 	}
 
+	/**
+	 * Render the record as text. When the content is included, the
+	 * Content-Length field is given as the length of the content's
+	 * UTF-8 encoding, so that the result remains a well-formed
+	 * WARC record when written out as UTF-8, even if decoding the
+	 * original content bytes replaced malformed sequences. Only then
+	 * is the content encoded again to count its bytes.
+	 * @param shouldIncludeContent whether to append the content.
+	 * @return the record as a string.
+	 */
 	public String toString(boolean shouldIncludeContent) {
 		StringBuffer retBuffer=new StringBuffer();
 		retBuffer.append(versionLine + "\n");
+		String content = shouldIncludeContent ? getContentUTF8() : null;
 		String headerVal;
 		for (String headerFldNm : headerMap.keySet()) {
-			retBuffer.append(ISO_WARC_HEADER_FIELD_NAMES.get(headerFldNm) + ": " + 
-					((headerVal = headerMap.get(headerFldNm)) == null ? "" : headerVal) + "\n");
+			headerVal = headerMap.get(headerFldNm);
+			if (shouldIncludeContent && headerFldNm.equals(CONTENT_LENGTH))
+				headerVal = Integer.toString(encodedContentLength());
+			String isoFldNm = ISO_WARC_HEADER_FIELD_NAMES.get(headerFldNm);
+			retBuffer.append((isoFldNm == null ? headerFldNm : isoFldNm) + ": " + 
+					(headerVal == null ? "" : headerVal) + "\n");
 		}
 		if (shouldIncludeContent) {
 			retBuffer.append(NEWLINE);
-			retBuffer.append(getContentUTF8());
+			retBuffer.append(content);
 		}
 		else
 			retBuffer.append("[Record content suppressed. Use toString(INCLUDE_CONTENT) to see the content string.]\n");
 		return retBuffer.toString();
 	}
 
+	/**
+	 * @return length of the UTF-8 encoding of getContentUTF8(): the number of
+	 * 			content bytes, unless decoding them replaced malformed sequences.
+	 */
+	private int encodedContentLength() {
+		Utf8CharSequence chars = (contentChars != null) ? contentChars : new Utf8CharSequence(warcContent);
+		if (chars.isWellFormed())
+			return warcContent.remaining();
+		return getContentUTF8().getBytes(UTF8).length;
+	}
+
 	//  -----------------------------------  MAP<String,String> Methods -----------------------
 
 	public int size() {
@@ -430,7 +433,7 @@ public class WarcRecord extends Text implements WarcRecordMap {
 	}
 
 	public boolean isEmpty() {
-		return headerMap.isEmpty() && (warcContent.length == 0); 
+		return headerMap.isEmpty() && (warcContent.remaining() == 0); 
 	}
 
 	public boolean containsKey(Object key) {
@@ -457,7 +460,7 @@ public class WarcRecord extends Text implements WarcRecordMap {
 		String lowerCaseKey = key.toLowerCase();
 		if (lowerCaseKey.equals(CONTENT)) {
 			prevValue = getContentUTF8();
-			warcContent = value.getBytes();
+			setRecordContent(value.getBytes(UTF8));
 			return prevValue;
 		}
 		prevValue = headerMap.get(lowerCaseKey);
@@ -470,7 +473,7 @@ public class WarcRecord extends Text implements WarcRecordMap {
 		String lowerCaseKey = ((String)key).toLowerCase();
 		if (lowerCaseKey.equalsIgnoreCase(CONTENT)) {
 			prevValue = getContentUTF8();
-			warcContent = new byte[0];
+			setRecordContent(NO_CONTENT);
 			return prevValue;
 		}
 		return headerMap.remove(lowerCaseKey);
@@ -483,7 +486,7 @@ public class WarcRecord extends Text implements WarcRecordMap {
 	}
 
 	public Set<String> keySet() {
-		Set<String> res = headerMap.keySet();
+		Set<String> res = new LinkedHashSet<String>(headerMap.keySet());
 		res.add(CONTENT);
 		return res;
 	}
@@ -497,6 +500,13 @@ public class WarcRecord extends Text implements WarcRecordMap {
 	}
 
 	public Set<String> optionalKeysHeader() {
+		// Collected on demand, so that header-only scans don't pay for it:
+		if (optionalHeaderKeysThisRecord == null) {
+			optionalHeaderKeysThisRecord = new HashSet<String>();
+			for (String key : headerMap.keySet())
+				if (!isMandatoryHeaderField(key))
+					optionalHeaderKeysThisRecord.add(key);
+		}
 		return optionalHeaderKeysThisRecord;
 	}
 
@@ -509,7 +519,7 @@ public class WarcRecord extends Text implements WarcRecordMap {
 	}
 
 	public Collection<String> values() {
-		Collection<String> res = headerMap.values();
+		Collection<String> res = new ArrayList<String>(headerMap.values());
 		res.add(getContentUTF8());
 		return res;
 	}
@@ -575,5 +585,40 @@ public class WarcRecord extends Text implements WarcRecordMap {
 			return new String(key + "=" + value);
 		}
 	}
-}
 
+	private static class ByteBufferInputStream extends InputStream {
+		private ByteBuffer buf;
+
+		ByteBufferInputStream(ByteBuffer theBuf) {
+			buf = theBuf;
+		}
+
+		@Override
+		public int read() {
+			return buf.hasRemaining() ? (buf.get() & 0xff) : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0)
+				return 0;
+			if (!buf.hasRemaining())
+				return -1;
+			int n = Math.min(len, buf.remaining());
+			buf.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) {
+			int toSkip = (int) Math.max(0L, Math.min(n, buf.remaining()));
+			buf.position(buf.position() + toSkip);
+			return toSkip;
+		}
+
+		@Override
+		public int available() {
+			return buf.remaining();
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package edu.stanford.warcutils.warcreader;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * @author paepcke
+ *
+ * Flight Recorder event for reading and parsing one WARC
+ * record; see WarcEvents.
+ */
+@Name("edu.stanford.warcutils.RecordParse")
+@Label("WARC Record Parse")
+@Category("WARC")
+@Description("Reading and parsing one WARC record")
+@Threshold("20 ms")
+class WarcRecordParseEvent extends Event {
+
+	@Label("Path")
+	String path;
+
+	@Label("Key")
+	@Description("Offset of the record's version line into the uncompressed file")
+	long key;
+
+	@Label("Record ID")
+	String recordId;
+
+	@Label("Record Type")
+	String recordType;
+
+	@Label("Record Length")
+	@Description("Bytes of the record's header and content")
+	@DataAmount
+	long recordLength;
+
+	/**
+	 * End the event, and record it if it took long enough.
+	 * @param record the record parsed.
+	 */
+	void finish(String filePath, long recordKey, WarcRecord record) {
+		end();
+		if (!shouldCommit())
+			return;
+		path = filePath;
+		key = recordKey;
+		recordId = record.get(WarcRecord.WARC_RECORD_ID);
+		recordType = record.get(WarcRecord.WARC_TYPE);
+		recordLength = record.getTotalRecordLength() - record.getBytesBeforeRecord();
+		commit();
+	}
+}
@@ -0,0 +1,530 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * @author paepcke
+ *
+ * Parses WARC records from a line reader. All state of a parse
+ * in progress lives in the parser instance, so that any number
+ * of parsers can work concurrently, e.g. one per WarcRecordReader.
+ * A single parser must not be shared among threads.
+ *
+ * Header lines are taken apart in the line buffer's bytes: the colon
+ * is found and whitespace trimmed without building Strings. Field
+ * names are matched case-insensitively against the WARC field names
+ * known to WarcRecord, and come back as the same interned constants
+ * each time; other names are lower-cased, but not interned. Values
+ * are kept as bytes until asked for; see WarcHeaderMap.
+ *
+ * Content can be read in three ways: into memory, skipped, or
+ * streamed (see readNextWarcRecordStreaming()). Content-Length is
+ * parsed as a long; only the in-memory mode is limited to 2GB.
+ *
+ * Records may be refilled in place rather than allocated anew; see
+ * the variants of readNextWarcRecord() that take a record to reuse.
+ *
+ * Typical use:
+ *
+ *     WarcRecordParser parser = new WarcRecordParser();
+ *     WarcRecord rec;
+ *     while ((rec = parser.readNextWarcRecord(lineReader, true)) != null)
+ *         ...
+ */
+public class WarcRecordParser {
+
+	private static final ByteBuffer NO_CONTENT = ByteBuffer.allocate(0);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int SKIP_CONTENT = 0;
+	private static final int READ_CONTENT = 1;
+	private static final int STREAM_CONTENT = 2;
+
+	// Lower-case names of the known header fields, by name length:
+	private static final String[][] KNOWN_FIELD_NAMES_BY_LENGTH;
+
+	static {
+		int maxLength = 0;
+		for (String fieldName : WarcRecord.ISO_WARC_HEADER_FIELD_NAMES.keySet())
+			maxLength = Math.max(maxLength, fieldName.length());
+		ArrayList<ArrayList<String>> byLength = new ArrayList<ArrayList<String>>();
+		for (int i=0; i<=maxLength; i++)
+			byLength.add(new ArrayList<String>());
+		for (String fieldName : WarcRecord.ISO_WARC_HEADER_FIELD_NAMES.keySet())
+			byLength.get(fieldName.length()).add(fieldName.intern());
+		KNOWN_FIELD_NAMES_BY_LENGTH = new String[maxLength + 1][];
+		for (int i=0; i<=maxLength; i++)
+			KNOWN_FIELD_NAMES_BY_LENGTH[i] = byLength.get(i).toArray(new String[0]);
+	}
+
+	// WarcRecord.WARC_VERSION as bytes:
+	private static final byte[][] WARC_VERSION_BYTES = new byte[WarcRecord.WARC_VERSION.length][];
+
+	static {
+		for (int i=0; i<WarcRecord.WARC_VERSION.length; i++)
+			WARC_VERSION_BYTES[i] = WarcRecord.WARC_VERSION[i].getBytes(UTF8);
+	}
+
+	// State of the record being parsed:
+	private WarcHeaderMap headerMap = null;
+	private long grandTotalBytesRead = 0L;
+	private long bytesBeforeRecord = 0L;
+	private String versionLine = null;
+	private RecordContentStream contentStream = null;
+	// Content stream of the previous record, which must be
+	// consumed before the next record can be parsed:
+	private RecordContentStream pendingContent = null;
+	// Content buffer of a record being refilled:
+	private ByteBuffer reusableContent = null;
+
+	private Text txtBuf = new Text();
+	// Test of each record's header before its content is read, or null:
+	private WarcHeaderFilter headerFilter = null;
+	private boolean rejected = false;
+	// Whether rejected records are dropped by the caller, and may be refilled:
+	private boolean recycleRejected = false;
+	// Most recent rejected record, which nobody holds, and which is refilled:
+	private WarcRecord rejectedRecord = null;
+	// File whose parse times to accumulate, or null for no timing:
+	private ReaderStats.FileStats timedFile = null;
+	private long phaseStartNanos = 0L;
+	private long phaseStartWait = 0L;
+
+	/**
+	 * Reads the next WARC record from a line reader
+	 * @param warcInLineReader line reader for the stream.
+	 * @param readContent whether the record's content is needed, as opposed to just the WARC header info.
+	 * @return a WARC record (or null if eof)
+	 * @throws java.io.IOException
+	 */
+	public WarcRecord readNextWarcRecord(LineAndChunkReader warcInLineReader, boolean readContent) throws IOException {
+		return readNextWarcRecord(warcInLineReader, readContent ? READ_CONTENT : SKIP_CONTENT, null);
+	}
+
+	/**
+	 * Reads the next WARC record into an existing record, reusing its
+	 * header storage, and its content buffer where large enough. The
+	 * record's previous headers and content are lost, including any
+	 * buffers or strings handed out for them; use WarcRecord.copy() to
+	 * keep a record.
+	 * @param warcInLineReader line reader for the stream.
+	 * @param readContent whether the record's content is needed, as opposed to just the WARC header info.
+	 * @param reuse record to refill, or null for a fresh record.
+	 * @return the refilled record (or null if eof)
+	 * @throws java.io.IOException
+	 */
+	public WarcRecord readNextWarcRecord(LineAndChunkReader warcInLineReader, boolean readContent, WarcRecord reuse) throws IOException {
+		return readNextWarcRecord(warcInLineReader, readContent ? READ_CONTENT : SKIP_CONTENT, reuse);
+	}
+
+	/**
+	 * Reads the next WARC record from a line reader, leaving the
+	 * content in the stream. The content is available through the
+	 * record's getContentStream() until the next call to this parser,
+	 * which skips whatever content was not consumed. Records of any
+	 * size can thus be read with a bounded amount of memory.
+	 * @param warcInLineReader line reader for the stream.
+	 * @return a WARC record (or null if eof)
+	 * @throws IOException
+	 */
+	public WarcRecord readNextWarcRecordStreaming(LineAndChunkReader warcInLineReader) throws IOException {
+		return readNextWarcRecord(warcInLineReader, STREAM_CONTENT, null);
+	}
+
+	/**
+	 * Streaming variant of readNextWarcRecord() that refills the given record.
+	 * @param warcInLineReader line reader for the stream.
+	 * @param reuse record to refill, or null for a fresh record.
+	 * @return the refilled record (or null if eof)
+	 * @throws IOException
+	 */
+	public WarcRecord readNextWarcRecordStreaming(LineAndChunkReader warcInLineReader, WarcRecord reuse) throws IOException {
+		return readNextWarcRecord(warcInLineReader, STREAM_CONTENT, reuse);
+	}
+
+	/**
+	 * Request that each record's header be tested by the given filter
+	 * before the record's content is read. The content of a rejected
+	 * record is skipped, and the record is returned without content,
+	 * with isRejected() true.
+	 * @param filter header test, or null to read all records in full.
+	 */
+	public void setHeaderFilter(WarcHeaderFilter filter) {
+		headerFilter = filter;
+	}
+
+	public WarcHeaderFilter getHeaderFilter() {
+		return headerFilter;
+	}
+
+	/**
+	 * Promise that records rejected by the header filter are dropped,
+	 * so that the next record read without a record to reuse may be
+	 * read into the most recent rejected one. Callers of the public
+	 * methods may keep rejected records, which are then never refilled.
+	 * @param recycle true if rejected records are never kept.
+	 */
+	void setRecycleRejected(boolean recycle) {
+		recycleRejected = recycle;
+		if (!recycle)
+			rejectedRecord = null;
+	}
+
+	/**
+	 * @return true if the most recent record was rejected by the header
+	 * 			filter, and its content skipped; see setHeaderFilter().
+	 */
+	public boolean isRejected() {
+		return rejected;
+	}
+
+	/**
+	 * Request that the time spent on header parsing and on content
+	 * copying be added to the given file's statistics, exclusive of
+	 * the time spent waiting for the line reader's stream.
+	 * @param fileStats statistics of the file being parsed, or null to stop timing.
+	 */
+	void setTimedFile(ReaderStats.FileStats fileStats) {
+		timedFile = fileStats;
+	}
+
+	/**
+	 * Forget the content stream of the most recent record without
+	 * skipping it, e.g. because its line reader is being closed.
+	 */
+	public void abandonContentStream() {
+		if (pendingContent != null) {
+			pendingContent.detach();
+			pendingContent = null;
+		}
+	}
+
+	private WarcRecord readNextWarcRecord(LineAndChunkReader warcInLineReader, int contentMode, WarcRecord reuse) throws IOException {
+
+		boolean callerRecord = (reuse != null);
+		if (reuse == null && rejectedRecord != null) {
+			reuse = rejectedRecord;
+			rejectedRecord = null;
+		}
+		if (reuse != null) {
+			headerMap = reuse.reusableHeaderMap();
+			reusableContent = reuse.reusableContentBuffer();
+		}
+		// The following call also sets versionLine to 
+		// the warc record's version line (e.g. "WARC/1.0"):
+		ByteBuffer recordContent;
+		WarcRecord retRecord = (reuse != null) ? reuse : new WarcRecord();
+		rejected = false;
+		try {
+			recordContent=readNextRecord(warcInLineReader, contentMode, retRecord);
+		} finally {
+			reusableContent = null;
+		}
+		if (recordContent==null) { 
+			headerMap = null;
+			return null; 
+		}
+
+		retRecord.setParseResults(versionLine,
+								  headerMap,
+								  grandTotalBytesRead,
+								  bytesBeforeRecord,
+								  recordContent);
+		if (contentStream != null) {
+			retRecord.setContentStream(contentStream);
+			pendingContent = contentStream;
+			contentStream = null;
+		}
+		// The record now owns the map:
+		headerMap = null;
+		if (rejected && !callerRecord && recycleRejected)
+			rejectedRecord = retRecord;
+		return retRecord;
+	}
+
+	/**
+	 * The actual heavy lifting of reading the next WARC record. The
+	 * readContent parameter is used to support cases when the original
+	 * Pig query project out the content. We save time if we don't need
+	 * that content: the content bytes are then skipped, using a seek
+	 * where the underlying stream allows it.
+	 * 
+	 * @param warcLineReader a line reader
+	 * @param contentMode whether the content of the record is read, skipped, or left for streaming.
+	 * @param record record that the header filter, if any, is handed.
+	 * @return the content bytes (w/ the header map populated)
+	 * @throws java.io.IOException
+	 */
+	private ByteBuffer readNextRecord(LineAndChunkReader warcLineReader, int contentMode, WarcRecord record) throws IOException {
+		if (warcLineReader==null) { 
+			return null;
+		}
+		if (timedFile != null)
+			startPhase(warcLineReader);
+		if (pendingContent != null) {
+			pendingContent.discardRemaining();
+			pendingContent = null;
+		}
+
+		ByteBuffer retContent=null;
+
+		if (headerMap == null)
+			headerMap = new WarcHeaderMap();
+		grandTotalBytesRead = 0L;
+		bytesBeforeRecord = 0L;
+		versionLine = null;
+		txtBuf.clear();
+		// Find our WARC header, getting the WARC version line in
+		// return, or null, if failure:
+		versionLine = scanToRecordStart(warcLineReader);
+		txtBuf.clear();
+
+		// No WARC header found?
+		if (versionLine == null) { return null; }
+
+		// Read the header (up to the first empty line).
+		// Make sure we get the (mandatory) content length 
+		// is in the header, because we rely on it below. 
+		// We do not check for the other mandatory header fields:
+		long contentLength = pullHeaderFromStream(warcLineReader);
+		txtBuf.clear();
+
+		if (contentLength < 0) {
+			return null;
+		}
+		if (headerFilter != null) {
+			record.setParseResults(versionLine, headerMap, grandTotalBytesRead, bytesBeforeRecord, NO_CONTENT);
+			if (headerFilter.rejectsHeader(record)) {
+				rejected = true;
+				contentMode = SKIP_CONTENT;
+			}
+		}
+		if (timedFile != null)
+			timedFile.addHeaderParseNanos(endPhase(warcLineReader));
+
+		if (contentMode == STREAM_CONTENT) {
+			contentStream = new RecordContentStream(warcLineReader,
+													contentLength,
+													headerMap.get(WarcRecord.WARC_RECORD_ID));
+			// The content will have been consumed or skipped by the
+			// time the next record is read:
+			grandTotalBytesRead += contentLength;
+			return NO_CONTENT;
+		}
+
+		if (contentMode == READ_CONTENT) {
+			if (contentLength > Integer.MAX_VALUE)
+				throw new IOException("Content of WARC record ID: " +
+						headerMap.get(WarcRecord.WARC_RECORD_ID) +
+						" is too large to hold in memory (" + contentLength + " bytes). Use content streaming instead.");
+			// Pull the bytes of the content from the stream. Depending
+			// on the reader, these are a copy, or a view into a mapped file:
+			retContent = warcLineReader.readChunk((int) contentLength, reusableContent);
+			int totalRead = retContent.remaining();
+			if ((totalRead == 0) && (contentLength > 0))
+				throw new IOException("Could not read content from WARC record ID: " +
+						headerMap.get(WarcRecord.WARC_RECORD_ID) + 
+						" of supposed content length " +
+						headerMap.get(WarcRecord.CONTENT_LENGTH) +
+						". Maybe incorrect length spec in WARC header?");
+
+			if (totalRead < contentLength) {
+				// Did we hit EOF in the middle of the WARC record's content?
+				throw new IOException("Hit end of file while reading content of WARC record ID: " +
+						headerMap.get(WarcRecord.WARC_RECORD_ID) + 
+						" of supposed content length " +
+						headerMap.get(WarcRecord.CONTENT_LENGTH) +
+						".");
+			}
+			grandTotalBytesRead += totalRead;
+			if (timedFile != null)
+				timedFile.addContentCopyNanos(endPhase(warcLineReader));
+			return retContent;
+		} else {
+			// Move past the content without materializing it. This
+			// also keeps payload lines that happen to look like
+			// WARC version lines from being taken for record starts:
+			long totalSkipped = warcLineReader.skip(contentLength);
+			if (totalSkipped < contentLength) {
+				throw new IOException("Hit end of file while skipping content of WARC record ID: " +
+						headerMap.get(WarcRecord.WARC_RECORD_ID) + 
+						" of supposed content length " +
+						headerMap.get(WarcRecord.CONTENT_LENGTH) +
+						".");
+			}
+			grandTotalBytesRead += totalSkipped;
+			if (timedFile != null)
+				timedFile.addContentCopyNanos(endPhase(warcLineReader));
+			return NO_CONTENT;
+		}
+	}
+
+	private void startPhase(LineAndChunkReader warcLineReader) {
+		phaseStartNanos = System.nanoTime();
+		phaseStartWait = warcLineReader.getReadNanos();
+	}
+
+	/**
+	 * End a parse phase, and start the next one.
+	 * @return nanoseconds spent in the phase, less the time spent waiting for input.
+	 */
+	private long endPhase(LineAndChunkReader warcLineReader) {
+		long now = System.nanoTime();
+		long wait = warcLineReader.getReadNanos();
+		long res = (now - phaseStartNanos) - (wait - phaseStartWait);
+		phaseStartNanos = now;
+		phaseStartWait = wait;
+		return Math.max(0L, res);
+	}
+
+	/**
+	 * Read header lines up to the first empty line into headerMap.
+	 * Lines without a colon are ignored.
+	 * @param warcLineReader
+	 * @return the value of Content-Length, or -1 if absent or malformed.
+	 * @throws IOException
+	 */
+	private long pullHeaderFromStream(LineAndChunkReader warcLineReader) throws IOException {
+		int bytesRead;
+		long contentLength=-1;
+		txtBuf.clear();
+		while ((bytesRead = warcLineReader.readLine(txtBuf))!=0) {
+			grandTotalBytesRead += bytesRead;
+			byte[] line = txtBuf.getBytes();
+			int lineEnd = txtBuf.getLength();
+			int nameStart = skipWhitespace(line, 0, lineEnd);
+			if (nameStart == lineEnd)
+				// Empty line ends the header:
+				break;
+			int colonPos = indexOf(line, (byte) ':', nameStart, lineEnd);
+			if (colonPos >= 0) {
+				int nameEnd = trimWhitespace(line, nameStart, colonPos);
+				int valueStart = skipWhitespace(line, colonPos + 1, lineEnd);
+				int valueEnd = trimWhitespace(line, valueStart, lineEnd);
+				String headerAttrName = fieldName(line, nameStart, nameEnd - nameStart);
+				headerMap.putRaw(headerAttrName, line, valueStart, valueEnd - valueStart);
+				if (headerAttrName == WarcRecord.CONTENT_LENGTH)
+					contentLength = parseContentLength(line, valueStart, valueEnd);
+			}
+			txtBuf.clear();
+		}
+		txtBuf.clear();
+		return contentLength;
+	}
+
+	/**
+	 * Return the lower-case name of a header field. Known WARC
+	 * field names are matched without building a String, and
+	 * returned as WarcRecord's constants. Other names are new Strings;
+	 * interning them would let arbitrary header names pile up in the
+	 * JVM's string table.
+	 */
+	static String fieldName(byte[] buf, int start, int len) {
+		if (len < KNOWN_FIELD_NAMES_BY_LENGTH.length) {
+			for (String candidate : KNOWN_FIELD_NAMES_BY_LENGTH[len]) {
+				if (equalsIgnoreCaseAscii(candidate, buf, start))
+					return candidate;
+			}
+		}
+		return new String(buf, start, len, UTF8).toLowerCase();
+	}
+
+	private static boolean equalsIgnoreCaseAscii(String lowerCaseName, byte[] buf, int start) {
+		for (int i=0; i<lowerCaseName.length(); i++) {
+			int b = buf[start + i];
+			if (b >= 'A' && b <= 'Z')
+				b += 'a' - 'A';
+			if (b != lowerCaseName.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the decimal number in buf[start..end), or -1 if there is none, or it exceeds a long.
+	 */
+	private static long parseContentLength(byte[] buf, int start, int end) {
+		if (start == end)
+			return -1;
+		long res = 0;
+		for (int i=start; i<end; i++) {
+			int digit = buf[i] - '0';
+			if (digit < 0 || digit > 9)
+				return -1;
+			if (res > (Long.MAX_VALUE - digit) / 10)
+				return -1;
+			res = 10 * res + digit;
+		}
+		return res;
+	}
+
+	/**
+	 * Same notion of whitespace as String.trim(): any byte up to
+	 * and including the space character.
+	 */
+	private static boolean isWhitespace(byte b) {
+		return b >= 0 && b <= ' ';
+	}
+
+	private static int skipWhitespace(byte[] buf, int start, int end) {
+		while (start < end && isWhitespace(buf[start]))
+			start++;
+		return start;
+	}
+
+	/**
+	 * @return end of buf[start..end) after dropping trailing whitespace.
+	 */
+	private static int trimWhitespace(byte[] buf, int start, int end) {
+		while (end > start && isWhitespace(buf[end - 1]))
+			end--;
+		return end;
+	}
+
+	private static int indexOf(byte[] buf, byte b, int start, int end) {
+		for (int i=start; i<end; i++)
+			if (buf[i] == b)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Skip lines up to and including the next WARC version line.
+	 * @param warcLineReader
+	 * @return the version line, or null at end of input.
+	 * @throws IOException
+	 */
+	private String scanToRecordStart(LineAndChunkReader warcLineReader) throws IOException {
+		int bytesRead;
+		while ((bytesRead = warcLineReader.readLine(txtBuf))!=0) {
+			grandTotalBytesRead += bytesRead;
+			byte[] line = txtBuf.getBytes();
+			int lineLength = txtBuf.getLength();
+			for (int i=0; i<WARC_VERSION_BYTES.length; i++) {
+				byte[] warcVersion = WARC_VERSION_BYTES[i];
+				if (startsWith(line, lineLength, warcVersion)) {
+					// Return the WARC version line, as a constant in
+					// the usual case of a line without trailing text:
+					String versionLine = (lineLength == warcVersion.length) ? WarcRecord.WARC_VERSION[i] : txtBuf.toString();
+					txtBuf.clear();
+					return versionLine;
+				}
+			}
+			bytesBeforeRecord += bytesRead;
+			txtBuf.clear();
+		}
+		return null;
+	}
+
+	private static boolean startsWith(byte[] buf, int length, byte[] prefix) {
+		if (length < prefix.length)
+			return false;
+		for (int i=0; i<prefix.length; i++)
+			if (buf[i] != prefix[i])
+				return false;
+		return true;
+	}
+}
@@ -1,15 +1,22 @@
 package edu.stanford.warcutils.warcreader;
 
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Formatter;
 import java.util.LinkedList;
 import java.util.NoSuchElementException;
-import java.util.zip.GZIPInputStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import edu.stanford.javautils.CallBack;
 
@@ -24,17 +31,35 @@ import edu.stanford.javautils.CallBack;
  * file paths, or a directory containing WARC files (gzipped, 
  * clear, or mixed), return attribute/value pairs,
  * going through the files and extracting one WARC record at a time
- * Keys are offset into the file and values are Warc records, i.e.
- * WarcRecord instances. In case of a directory being processed,
- * the offsets continue across file limits, as if all files were
- * one single stream of WARC records.
+ * Keys are offsets of the records' WARC version lines into the
+ * (uncompressed) file, and values are Warc records, i.e.
+ * WarcRecord instances. Offsets start over at zero with each file.
  * 
- * Note that the sequence of files when processing a directory
- * is not defined. However, the constructor taking an array of
- * paths to WARC files is guaranteed to be processed in the given
- * order.
+ * Directories are walked recursively for WARC files, which are
+ * processed largest first; see WarcInputPlanner. Files given as a
+ * collection or array are processed from the last one to the first.
  * 
- * There is currently no ability for random access.
+ * The compression of each file (gzip, zstd, or none) is recognized
+ * from its magic bytes; see WarcCodecs.
+ * 
+ * Uncompressed files may optionally be memory-mapped (see
+ * setMemoryMapped()). Record contents are then slices of the
+ * mapped file, rather than copies.
+ * 
+ * For random access, seek() positions the reader at a given offset
+ * of a given file, and readRecordAt() fetches a single record from
+ * such a position. For clear files the offset is a record's key.
+ * For gzipped files the offset must be the start of a gzip member,
+ * which is where each record begins in the usual one-member-per-record
+ * .warc.gz files.
+ * 
+ * Instead of calling nextKeyValue() in a loop, the remaining records
+ * may be processed as a java.util.stream.Stream via stream(); see also
+ * WarcRecords.stream().
+ * 
+ * getStats() tells how many bytes and records were read, how fast,
+ * and optionally where the time went; see ReaderStats. Files and
+ * slow records are also reported to Java Flight Recorder; see WarcEvents.
  */
 
 public class WarcRecordReader {
@@ -43,29 +68,65 @@ public class WarcRecordReader {
 	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
 	private long pos;
 	private LineAndChunkReader warcLineReader;
-	private DataInputStream warcInStream; 
+	private InputStream warcInStream; 
 	private long keyWarcStreamPos = (long) 0;
+	private long fileOffset = -1L;
+	// Stream position at which the current file was opened:
+	private long openPos = 0L;
+	private GzipMemberInputStream gzipIn = null;
 	private WarcRecord valueWarcRecord = null;
+	private WarcRecordParser recordParser = newRecordParser();
 	private FileInputStream fileIn = null;
+	private File currentWarcFile = null;
 	private String currentWarcFilePathName = null;
 	private StringBuilder errMsgs = null;
 	private Formatter strFormatter = new Formatter(errMsgs);
 	private LinkedList<File> allFiles = null;
+	private boolean memoryMapped = false;
+	private boolean contentStreaming = false;
+	private int inputBufferSize = DEFAULT_BUFFER_SIZE;
+	private WarcCodec currentCodec = null;
+	// Number of read-ahead buffers for compressed files; 0 for none:
+	private int readAheadDepth = 0;
+	private int readAheadBufferSize = DEFAULT_BUFFER_SIZE;
+	private boolean prefetchNextFile = false;
+	// Next file in allFiles, being opened in the background:
+	private PrefetchedFile prefetched = null;
+	private boolean reuseRecords = false;
+	// The record that is refilled in record reuse mode:
+	private WarcRecord recycledRecord = null;
+	// Byte range of the current file to read; see WarcFileSplit:
+	private long splitStart = 0L;
+	private long splitEnd = Long.MAX_VALUE;
+	// The range given to the constructor, which seek() must stay in; null for whole files:
+	private WarcFileSplit split = null;
+	private ReaderStats stats = new ReaderStats();
+	// Statistics of the open file; null while none is open:
+	private ReaderStats.FileStats fileStats = null;
+	// Flight Recorder event of the open file; see WarcEvents:
+	private WarcFileReadEvent fileEvent = null;
 	
 	private CallBack callback = null;
 
+	private static WarcRecordParser newRecordParser() {
+		WarcRecordParser parser = new WarcRecordParser();
+		// nextKeyValue() drops rejected records, so the parser may refill them:
+		parser.setRecycleRejected(true);
+		return parser;
+	}
+
 	/**
 	 * Provide a single WARC file or directory.
-	 * @param warcPath: WARC file, gzipped or clear.
+	 * @param warcPath: WARC file, gzipped or clear, or a directory, which is planned by a default WarcInputPlanner.
 	 */
 	public WarcRecordReader(File warcPath) {
 
 		allFiles = new LinkedList<File>();
 		if (warcPath.isDirectory()) {
-			File[] dirFilePaths = warcPath.listFiles();
-			for (File filePath : dirFilePaths) {
-				allFiles.add(filePath);
-			}
+			// Files are taken from the end of the queue, so
+			// queue the largest file last:
+			for (File filePath : new WarcInputPlanner().plan(warcPath))
+				allFiles.addFirst(filePath);
 			// Init for the first file in the queue:
 			initForOneFile(allFiles.removeLast());
 		} else {
@@ -73,6 +134,21 @@ public class WarcRecordReader {
 		}
 	}
 
+	/**
+	 * Read only the records that start within the given byte range
+	 * of a file. Several readers can thus work on the splits of one
+	 * file concurrently; see GzipMemberSplitter. As with seek(), keys
+	 * of gzipped files count uncompressed bytes from the split's start.
+	 * @param split range of a WARC file. For gzipped files it must start at a gzip member.
+	 */
+	public WarcRecordReader(WarcFileSplit split) {
+		allFiles = new LinkedList<File>();
+		initForOneFile(split.getFile());
+		this.split = split;
+		splitStart = split.getStart();
+		splitEnd = split.getEnd();
+	}
+
 	/**
 	 * Array of paths to WARC files 
 	 * @param warcPaths: Array of WARC file paths, clear of gzipped.
@@ -126,11 +202,43 @@ public class WarcRecordReader {
 	 * @throws IOException when read error other than end of file(s) occurs.
 	 */
 	public boolean nextKeyValue(boolean readContents) throws IOException {
-		keyWarcStreamPos = pos;
 		valueWarcRecord = null;
 		while (valueWarcRecord == null) {
+			if (warcLineReader == null) {
+				openCurrentFile(splitStart);
+				pos = openPos = splitStart;
+			}
 			// Grab next record in current WARC file:
-			valueWarcRecord = WarcRecord.readNextWarcRecord(warcLineReader, readContents);
+			WarcRecordParseEvent parseEvent = null;
+			if (WarcEvents.isAvailable()) {
+				parseEvent = new WarcRecordParseEvent();
+				parseEvent.begin();
+			}
+			WarcRecord reuse = reuseRecords ? recycledRecord : null;
+			if (readContents && contentStreaming)
+				valueWarcRecord = recordParser.readNextWarcRecordStreaming(warcLineReader, reuse);
+			else
+				valueWarcRecord = recordParser.readNextWarcRecord(warcLineReader, readContents, reuse);
+			if (reuseRecords && valueWarcRecord != null)
+				recycledRecord = valueWarcRecord;
+			if (valueWarcRecord != null) {
+				locateCurrentRecord();
+				if (fileOffset >= splitEnd)
+					// Record belongs to the next split:
+					valueWarcRecord = null;
+				else if (recordParser.isRejected()) {
+					// Header filter does not want the record:
+					if (fileStats != null)
+						fileStats.recordRejected(valueWarcRecord.getTotalRecordLength());
+					valueWarcRecord = null;
+					continue;
+				} else {
+					if (fileStats != null)
+						fileStats.recordEmitted(valueWarcRecord.getBytesBeforeRecord(), valueWarcRecord.getTotalRecordLength());
+					if (parseEvent != null)
+						parseEvent.finish(currentWarcFilePathName, keyWarcStreamPos, valueWarcRecord);
+				}
+			}
 			if (valueWarcRecord == null) {
 				// File is done:
 				String inFileJustFinished = currentWarcFilePathName;
@@ -157,10 +265,172 @@ public class WarcRecordReader {
 		}
 
 		//System.out.println("Pulled another WARC record.");
+		return true;
+	}
 
-		// Update position wbRecordReader the Data stream
+	/**
+	 * Compute key and file offset of the record just read.
+	 */
+	private void locateCurrentRecord() {
+		// Key is where the record's version line starts; then
+		// update position wbRecordReader the Data stream
+		keyWarcStreamPos = pos + valueWarcRecord.getBytesBeforeRecord();
 		pos += valueWarcRecord.getTotalRecordLength();
-		return true;
+		if (gzipIn != null)
+			fileOffset = gzipIn.memberOffsetAt(keyWarcStreamPos - openPos);
+		else if (currentCodec == WarcCodecs.PLAIN)
+			fileOffset = keyWarcStreamPos;
+		else
+			// Other codecs don't track where their frames start:
+			fileOffset = -1L;
+	}
+
+	/**
+	 * Position the reader at the given offset of the given file,
+	 * without reading anything that precedes the offset. The
+	 * next nextKeyValue() returns the first record at or after the
+	 * offset.
+	 * 
+	 * The given file replaces the one being read: records of the
+	 * current file that were not delivered yet are given up, even if
+	 * warcFile is a different file. Once warcFile is exhausted, reading
+	 * continues with the files that are still queued from the
+	 * constructor. A reader constructed with a WarcFileSplit can only
+	 * seek within its split, and still stops at the split's end.
+	 * 
+	 * For clear files, offset is usually a key returned by
+	 * getCurrentKey() in an earlier pass. For gzipped files it
+	 * must be the offset of a gzip member start; keys then count
+	 * uncompressed bytes from that offset.
+	 * 
+	 * @param warcFile the file to read from.
+	 * @param offset byte offset into the file.
+	 * @throws IOException if the file cannot be opened, or offset is beyond its end or outside of the reader's split.
+	 */
+	public void seek(File warcFile, long offset) throws IOException {
+		checkOffset(warcFile, offset);
+		if (split != null && (!warcFile.getAbsoluteFile().equals(split.getFile().getAbsoluteFile()) ||
+							  offset < split.getStart() || offset > split.getEnd()))
+			throw new IOException("Offset " + offset + " of WARC file " + warcFile.getAbsolutePath() +
+								  " is outside of this reader's split " + split + ".");
+		initForOneFile(warcFile);
+		if (split != null) {
+			splitStart = offset;
+			splitEnd = split.getEnd();
+		}
+		openAt(offset);
+	}
+
+	/**
+	 * Read the single WARC record that starts at the given offset
+	 * of the given file, without reading anything before it. See 
+	 * seek() for the meaning of offset.
+	 * @param warcFile the file to read from.
+	 * @param offset byte offset of the record (clear files), or of its gzip member (gzipped files).
+	 * @return the record, or null if no record follows the offset.
+	 * @throws IOException
+	 */
+	public static WarcRecord readRecordAt(File warcFile, long offset) throws IOException {
+		checkOffset(warcFile, offset);
+		// The file is opened once, right at the offset:
+		WarcRecordReader reader = new WarcRecordReader(new WarcFileSplit(warcFile, offset, warcFile.length() - offset));
+		try {
+			reader.openAt(offset);
+			if (!reader.nextKeyValue(DO_READ_CONTENT))
+				return null;
+			return reader.getCurrentValue();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static void checkOffset(File warcFile, long offset) throws IOException {
+		if (offset < 0 || offset > warcFile.length())
+			throw new IOException("Offset " + offset + " is outside of WARC file " + warcFile.getAbsolutePath() + ".");
+	}
+
+	/**
+	 * Open the current file at the given offset.
+	 */
+	private void openAt(long offset) throws IOException {
+		openCurrentFile(offset);
+		if (warcLineReader == null)
+			throw new IOException("Could not open WARC file " + currentWarcFilePathName + ".");
+		pos = openPos = offset;
+	}
+
+	/**
+	 * Return the records that this reader has not yet delivered as a
+	 * stream. The stream can be made parallel: it splits across the
+	 * queued files, and within gzipped files at member boundaries (see
+	 * WarcRecordSpliterator). Reading options such as setMemoryMapped()
+	 * carry over; records are neither reused nor content-streamed, since
+	 * stream operations may hold on to them, and the file change callback
+	 * is not called. Once stream() was called, the stream consumes the
+	 * records; do not call nextKeyValue() any more. Close the stream if
+	 * it may not be read to its end.
+	 * @return stream of the remaining records, in reading order when sequential.
+	 */
+	public Stream<WarcRecord> stream() {
+		reuseRecords = false;
+		contentStreaming = false;
+		callback = null;
+		ArrayList<WarcFileSplit> units = new ArrayList<WarcFileSplit>();
+		WarcRecordReader startedReader = null;
+		if (warcLineReader == null) {
+			long end = Math.min(splitEnd, currentWarcFile.length());
+			units.add(new WarcFileSplit(currentWarcFile, splitStart, Math.max(0L, end - splitStart)));
+		} else
+			// Finish the current file here; queued files become units:
+			startedReader = this;
+		// Files are taken from the end of the queue:
+		Iterator<File> queued = allFiles.descendingIterator();
+		while (queued.hasNext()) {
+			File warcFile = queued.next();
+			units.add(new WarcFileSplit(warcFile, 0L, warcFile.length()));
+		}
+		allFiles.clear();
+		final WarcRecordSpliterator spliterator = new WarcRecordSpliterator(units, startedReader, this);
+		return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+			public void run() {
+				spliterator.close();
+			}
+		});
+	}
+
+	/**
+	 * Create a reader for the given range, with the reading options of
+	 * the given reader.
+	 * @param split the range; a whole file if it covers the file completely.
+	 * @param template reader whose options to copy, or null for defaults.
+	 */
+	static WarcRecordReader forSplit(WarcFileSplit split, WarcRecordReader template) {
+		File warcFile = split.getFile();
+		WarcRecordReader reader;
+		if (split.getStart() == 0 && split.getEnd() >= warcFile.length())
+			reader = new WarcRecordReader(Collections.singletonList(warcFile));
+		else
+			reader = new WarcRecordReader(split);
+		if (template != null) {
+			reader.memoryMapped = template.memoryMapped;
+			reader.inputBufferSize = template.inputBufferSize;
+			reader.readAheadDepth = template.readAheadDepth;
+			reader.readAheadBufferSize = template.readAheadBufferSize;
+			reader.stats.setTimed(template.stats.isTimed());
+			reader.recordParser.setHeaderFilter(template.recordParser.getHeaderFilter());
+		}
+		return reader;
+	}
+
+	File getCurrentFile() {
+		return currentWarcFile;
+	}
+
+	/**
+	 * @return the line reader of the open file, or null.
+	 */
+	LineAndChunkReader getLineReader() {
+		return warcLineReader;
 	}
 
 	public WarcRecord getCurrentRecord() {
@@ -171,6 +441,18 @@ public class WarcRecordReader {
 		return keyWarcStreamPos;
 	}
 
+	/**
+	 * Offset into the current file at which the current record
+	 * can be found again via seek() or readRecordAt(). For clear files
+	 * this is the key. For gzipped files it is the compressed offset
+	 * of the gzip member in which the record starts.
+	 * @return the record's file offset, or -1 if the record does not start at the beginning of a gzip member, as in files that
+	 * 			were compressed as one single stream, and for zstd files.
+	 */
+	public long getCurrentFileOffset() {
+		return fileOffset;
+	}
+
 	public WarcRecord getCurrentValue() {
 		return valueWarcRecord;
 	}
@@ -191,43 +473,309 @@ public class WarcRecordReader {
 	}
 
 	/**
-	 * Get the progress within the file:
+	 * Request that uncompressed WARC files be memory-mapped, rather
+	 * than read through a stream. Record contents are then handed out
+	 * as slices of the mapping, without copying. Gzipped files are
+	 * read as usual. Takes effect with the next file that is opened;
+	 * call before the first nextKeyValue() to cover all files.
+	 * @param doMap true to map uncompressed files.
+	 */
+	public void setMemoryMapped(boolean doMap) {
+		memoryMapped = doMap;
+	}
+
+	public boolean isMemoryMapped() {
+		return memoryMapped;
+	}
+
+	/**
+	 * Request that record contents be left in the file, rather than
+	 * read into memory. Each record's content is then read through
+	 * WarcRecord.getContentStream() while the record is current, and
+	 * whatever the caller does not read is skipped when nextKeyValue()
+	 * moves on. Records of any size, including ones beyond 2GB, can
+	 * thus be read with a small heap. get("content") of such records
+	 * returns an empty string. Has no effect on nextKeyValue(false).
+	 * @param doStream true to stream contents.
+	 */
+	public void setContentStreaming(boolean doStream) {
+		contentStreaming = doStream;
+	}
+
+	public boolean isContentStreaming() {
+		return contentStreaming;
+	}
+
+	/**
+	 * Set the size of the buffer that holds compressed bytes. Larger
+	 * buffers mean fewer reads from the file. Takes effect with the
+	 * next file that is opened.
+	 * @param numBytes buffer size in bytes.
 	 */
-	/*  public float getProgress() {
-    if (start == end) {
-      return 0.0f;
-    } else {
-      return Math.min(1.0f, (pos - start) / (float)(end - start));
-    }
-  }
-	 */ 
+	public void setInputBufferSize(int numBytes) {
+		inputBufferSize = Math.max(1, numBytes);
+	}
+
+	public int getInputBufferSize() {
+		return inputBufferSize;
+	}
+
+	/**
+	 * Request that compressed files be decompressed on a thread of
+	 * their own, ahead of the parsing done by nextKeyValue(). The
+	 * decompressing thread fills a ring of the given number of buffers
+	 * (see setReadAheadBufferSize()), and stops when all are waiting to
+	 * be parsed. Inflating and parsing then overlap, which speeds up
+	 * reading by up to a factor of two on an otherwise idle core.
+	 * Clear files are not affected. Takes effect with the next file
+	 * that is opened. Readers that use read-ahead should be closed,
+	 * so that the thread ends.
+	 * @param numBuffers number of buffers in the ring; 0 to decompress on the caller's thread.
+	 */
+	public void setReadAheadDepth(int numBuffers) {
+		readAheadDepth = Math.max(0, numBuffers);
+	}
+
+	public int getReadAheadDepth() {
+		return readAheadDepth;
+	}
+
+	/**
+	 * @param numBytes size of each read-ahead buffer in bytes. See setReadAheadDepth().
+	 */
+	public void setReadAheadBufferSize(int numBytes) {
+		readAheadBufferSize = Math.max(1, numBytes);
+	}
+
+	public int getReadAheadBufferSize() {
+		return readAheadBufferSize;
+	}
+
+	/**
+	 * Request that, whenever a file is opened, the next queued file
+	 * be opened and its first buffer be read on a background thread.
+	 * Switching files then does not wait for the file system, which
+	 * helps with many small files on network storage. Takes effect
+	 * with the next file that is opened.
+	 * @param doPrefetch true to prefetch the next file.
+	 */
+	public void setPrefetchNextFile(boolean doPrefetch) {
+		prefetchNextFile = doPrefetch;
+	}
+
+	public boolean isPrefetchNextFile() {
+		return prefetchNextFile;
+	}
+
+	/**
+	 * @return the codec of the file being read, e.g. WarcCodecs.GZIP, or null before the file is opened.
+	 */
+	public WarcCodec getCurrentCodec() {
+		return currentCodec;
+	}
+
+	/**
+	 * Request that each record's header be tested before its content
+	 * is read. Records that the filter rejects are not returned by
+	 * nextKeyValue(); their content is skipped, by seeking where the
+	 * file allows it, without being copied into memory or decoded into
+	 * strings. Records the filter cannot decide from the header alone
+	 * are read in full as usual. A WarcFilter, or WarcFilterExpression,
+	 * may serve as the filter; see WarcHeaderFilter.
+	 * @param filter header test, or null to return all records.
+	 */
+	public void setHeaderFilter(WarcHeaderFilter filter) {
+		recordParser.setHeaderFilter(filter);
+	}
+
+	public WarcHeaderFilter getHeaderFilter() {
+		return recordParser.getHeaderFilter();
+	}
+
+	/**
+	 * Request that one WarcRecord instance be refilled in place
+	 * by every call to nextKeyValue(), rather than a new record
+	 * being allocated each time. Header storage, and content buffers
+	 * where large enough, are reused as well, so that header-only
+	 * scans allocate next to nothing per record. Each record, and
+	 * any strings or buffers obtained from it, are only valid until
+	 * the next call to nextKeyValue(); use WarcRecord.copy() to keep
+	 * a record.
+	 * @param doReuse true to refill one record.
+	 */
+	public void setReuseRecords(boolean doReuse) {
+		reuseRecords = doReuse;
+	}
+
+	public boolean isReuseRecords() {
+		return reuseRecords;
+	}
+
+	/**
+	 * @return counters of what this reader read so far, which may be
+	 * 			watched while it reads; see ReaderStats.
+	 */
+	public ReaderStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Get the progress within the file, or within the range of it
+	 * that this reader reads, by compressed bytes.
+	 * @return fraction read, between 0 and 1; 0 before the file is opened.
+	 */
+	public float getProgress() {
+		ReaderStats.FileStats currentStats = stats.getCurrentFile();
+		if (currentStats == null || !currentStats.getPath().equals(currentWarcFilePathName))
+			return 0.0f;
+		return currentStats.getProgress();
+	}
+
 	public synchronized void close() throws IOException {
+		recordParser.abandonContentStream();
+		if (prefetched != null) {
+			prefetched.abandon();
+			prefetched = null;
+		}
 		if (warcLineReader	 != null) {
 			warcLineReader.close(); 
 		}
+		closeFileStats();
+		stats.unregisterMBean();
 	}
 
+	/**
+	 * Make the given file the current one. The file is opened
+	 * lazily by the next call to nextKeyValue(), so that
+	 * reading options set after construction still apply.
+	 * @param warcFilePath file to process next.
+	 */
 	private void initForOneFile(File warcFilePath) {
-		try {
-			fileIn = new FileInputStream(warcFilePath);
-			GZIPInputStream gzWarcInStream = new GZIPInputStream(fileIn,DEFAULT_BUFFER_SIZE);
-			warcInStream = new DataInputStream(gzWarcInStream);
-		} catch (IOException e) {
-			// Not a gzipped file?
+		recordParser.abandonContentStream();
+		if (warcLineReader != null) {
 			try {
-				// The attempt to read using the gzip stream above consumed
-				// the first two bytes. Reset:
-				fileIn = new FileInputStream(warcFilePath);
-				warcInStream = new DataInputStream (fileIn);
-			} catch (Exception e1) {
-				System.err.println(strFormatter.format("Could not open WARC file %s.", warcFilePath.getAbsolutePath()).toString());
-				return;
+				warcLineReader.close();
+			} catch (IOException e) {
+				// best effort
 			}
+			warcLineReader = null;
 		}
+		closeFileStats();
+		currentWarcFile = warcFilePath;
 		currentWarcFilePathName = warcFilePath.getAbsolutePath();
-		warcLineReader = new LineAndChunkReader(warcInStream);
+		gzipIn = null;
+		currentCodec = null;
+		splitStart = 0L;
+		splitEnd = Long.MAX_VALUE;
 		//start = 0;
-		pos = 0;
+		pos = openPos = 0;
+	}
+
+	private void closeFileStats() {
+		if (fileEvent != null) {
+			fileEvent.finish(fileStats);
+			fileEvent = null;
+		}
+		recordParser.setTimedFile(null);
+		fileStats = null;
+		stats.fileClosed();
+	}
+
+	private void openCurrentFile(long offset) {
+		File warcFilePath = currentWarcFile;
+		boolean timed = stats.isTimed();
+		MeteredInputStream fileMeter = null;
+		MeteredInputStream decodeMeter = null;
+		WarcFileOpenEvent openEvent = null;
+		if (WarcEvents.isAvailable()) {
+			openEvent = new WarcFileOpenEvent();
+			openEvent.begin();
+		}
+		fileIn = null;
+		gzipIn = null;
+		PrefetchedFile prefetch = prefetched;
+		prefetched = null;
+		if (prefetchNextFile && !allFiles.isEmpty())
+			prefetched = PrefetchedFile.start(allFiles.getLast(), inputBufferSize);
+		// Bytes of a clear file that the prefetch has read already:
+		PrefetchedFile prefetchedHead = null;
+		try {
+			InputStream in;
+			if (prefetch != null && offset == 0 && prefetch.getFile().equals(warcFilePath)) {
+				fileIn = prefetch.take();
+				currentCodec = WarcCodecs.forMagic(prefetch.getHead(), Math.min(prefetch.getHeadLength(), WarcCodecs.MAGIC_LENGTH));
+				if (currentCodec == WarcCodecs.PLAIN) {
+					// The line reader starts out with the head bytes, and
+					// reads the rest from the file stream, which it can seek:
+					prefetchedHead = prefetch;
+					in = fileIn;
+				} else
+					in = prefetch.withHead(fileIn);
+			} else {
+				if (prefetch != null)
+					prefetch.abandon();
+				fileIn = new FileInputStream(warcFilePath);
+				fileIn.getChannel().position(offset);
+				// Pick the codec from the magic bytes at the offset:
+				currentCodec = WarcCodecs.forChannel(fileIn.getChannel(), offset);
+				in = fileIn;
+			}
+			if (currentCodec == WarcCodecs.PLAIN && memoryMapped) {
+				FileChannel channel = fileIn.getChannel();
+				channel.position(offset);
+				warcLineReader = new MappedLineAndChunkReader(channel);
+				if (openEvent != null)
+					openEvent.finish(currentWarcFilePathName, currentCodec.getName(), offset);
+				openFileStats(offset, null, null, timed);
+				return;
+			}
+			// Clear files are handed to the line reader as they are,
+			// so that it can seek them:
+			if (currentCodec != WarcCodecs.PLAIN)
+				in = fileMeter = new MeteredInputStream(in, timed);
+			warcInStream = currentCodec.open(warcFilePath, in, offset, inputBufferSize);
+			if (warcInStream instanceof GzipMemberInputStream)
+				gzipIn = (GzipMemberInputStream) warcInStream;
+			if (readAheadDepth > 0 && currentCodec != WarcCodecs.PLAIN) {
+				if (timed)
+					warcInStream = decodeMeter = new MeteredInputStream(warcInStream, true);
+				warcInStream = new ReadAheadInputStream(warcInStream, readAheadDepth, readAheadBufferSize);
+			}
+		} catch (IOException e) {
+			try {
+				if (fileIn != null)
+					fileIn.close();
+			} catch (IOException e1) {
+				// best effort
+			}
+			// An open cut short by an interrupt means the reader is being
+			// closed; nothing to report then:
+			if (!(e instanceof ClosedByInterruptException) && !Thread.currentThread().isInterrupted())
+				System.err.println(String.format("Could not open WARC file %s: %s", warcFilePath.getAbsolutePath(), e.getMessage()));
+			if (openEvent != null)
+				openEvent.finish(currentWarcFilePathName, null, offset);
+			return;
+		}
+		if (prefetchedHead != null)
+			warcLineReader = new LineAndChunkReader(warcInStream, prefetchedHead.getHead(), prefetchedHead.getHeadLength());
+		else
+			warcLineReader = new LineAndChunkReader(warcInStream);
+		warcLineReader.setTimed(timed);
+		if (openEvent != null)
+			openEvent.finish(currentWarcFilePathName, currentCodec.getName(), offset);
+		openFileStats(offset, fileMeter, decodeMeter, timed);
+	}
+
+	private void openFileStats(long offset, MeteredInputStream fileMeter, MeteredInputStream decodeMeter, boolean timed) {
+		long rangeLength = Math.min(splitEnd, currentWarcFile.length()) - offset;
+		fileStats = new ReaderStats.FileStats(currentWarcFilePathName, currentCodec.getName(), rangeLength,
+											  fileMeter, decodeMeter, warcLineReader);
+		stats.fileOpened(fileStats);
+		if (WarcEvents.isAvailable()) {
+			fileEvent = new WarcFileReadEvent();
+			fileEvent.begin();
+		}
+		recordParser.setTimedFile(timed ? fileStats : null);
 	}
 }
 
@@ -0,0 +1,189 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * @author paepcke
+ *
+ * Spliterator over the records of a list of WARC files, which
+ * backs the streams of WarcRecords.stream() and WarcRecordReader.stream().
+ * The remaining files are the units of work. trySplit() hands off the
+ * first half of them, by bytes, and once a single file is left, cuts
+ * it in two at a gzip member start (see GzipMemberSplitter). Parallel
+ * streams thus spread both many files and single large .warc.gz files
+ * over the common ForkJoin pool. Records keep their file order, so
+ * forEachOrdered() and collect() see them as a sequential read would.
+ *
+ * Read errors surface as UncheckedIOException. Closing the stream
+ * closes all files still open by the spliterator and its splits.
+ */
+public class WarcRecordSpliterator implements Spliterator<WarcRecord> {
+
+	private static final long DEFAULT_MIN_SPLIT_SIZE = 1024L * 1024L;
+
+	// Not yet started ranges, in file order, from index nextUnit on:
+	private List<WarcFileSplit> units;
+	private int nextUnit = 0;
+	// Reader of the range being worked on, or null:
+	private WarcRecordReader reader;
+	// Length of that range, for size estimates:
+	private long readerBytes = 0L;
+	// Reader whose options the readers of all ranges copy; may be null:
+	private WarcRecordReader template;
+	private long minSplitSize = DEFAULT_MIN_SPLIT_SIZE;
+	// Readers opened by this spliterator or any of its splits:
+	private Queue<WarcRecordReader> openReaders;
+
+	/**
+	 * Spliterator over the records of the given files, read with default options.
+	 * @param warcFiles WARC files, in the order in which their records are encountered.
+	 */
+	public WarcRecordSpliterator(Collection<File> warcFiles) {
+		this(wholeFiles(warcFiles), null, null);
+	}
+
+	/**
+	 * @param units ranges to read, in order.
+	 * @param startedReader reader whose remaining records come before the units; may be null.
+	 * @param template reader whose options are copied to the readers of the units; may be null.
+	 */
+	WarcRecordSpliterator(List<WarcFileSplit> units, WarcRecordReader startedReader, WarcRecordReader template) {
+		this.units = units;
+		this.template = template;
+		this.openReaders = new ConcurrentLinkedQueue<WarcRecordReader>();
+		if (startedReader != null) {
+			reader = startedReader;
+			readerBytes = startedReader.getCurrentFile().length();
+			openReaders.add(startedReader);
+		}
+	}
+
+	/**
+	 * @param bytes files, and ranges of files, are only cut in two if they are at least this long.
+	 * 			Splits made afterwards inherit the setting.
+	 */
+	public void setMinSplitSize(long bytes) {
+		minSplitSize = Math.max(2L, bytes);
+	}
+
+	public boolean tryAdvance(Consumer<? super WarcRecord> action) {
+		try {
+			while (true) {
+				if (reader == null) {
+					if (nextUnit >= units.size())
+						return false;
+					WarcFileSplit unit = units.get(nextUnit++);
+					reader = WarcRecordReader.forSplit(unit, template);
+					readerBytes = unit.getLength();
+					openReaders.add(reader);
+				}
+				if (reader.nextKeyValue()) {
+					action.accept(reader.getCurrentValue());
+					return true;
+				}
+				closeReader();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public Spliterator<WarcRecord> trySplit() {
+		int numUnits = units.size() - nextUnit;
+		if (numUnits == 0)
+			return null;
+		if (reader == null && numUnits == 1) {
+			WarcFileSplit unit = units.get(nextUnit);
+			if (unit.getLength() < minSplitSize)
+				return null;
+			List<WarcFileSplit> halves;
+			try {
+				halves = GzipMemberSplitter.bisect(unit);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			if (halves.size() < 2)
+				return null;
+			units = new ArrayList<WarcFileSplit>(halves.subList(1, 2));
+			nextUnit = 0;
+			return newSplit(new ArrayList<WarcFileSplit>(halves.subList(0, 1)), null, 0L);
+		}
+		// Hand off the first half by bytes. The prefix includes the range
+		// being read, if any, and must leave at least one unit to us:
+		long half = estimateSize() / 2;
+		long prefixBytes = (reader == null) ? 0L : readerBytes;
+		int mid = nextUnit;
+		while (mid < units.size() - 1 && prefixBytes + units.get(mid).getLength() <= half)
+			prefixBytes += units.get(mid++).getLength();
+		if (reader == null && mid == nextUnit)
+			mid++;
+		Spliterator<WarcRecord> prefix = newSplit(new ArrayList<WarcFileSplit>(units.subList(nextUnit, mid)), reader, readerBytes);
+		units = new ArrayList<WarcFileSplit>(units.subList(mid, units.size()));
+		nextUnit = 0;
+		reader = null;
+		readerBytes = 0L;
+		return prefix;
+	}
+
+	/**
+	 * @return number of bytes left to read, as a relative measure
+	 * 			of the work that remains; the number of records is not known.
+	 */
+	public long estimateSize() {
+		long bytes = (reader == null) ? 0L : readerBytes;
+		for (int i=nextUnit; i<units.size(); i++)
+			bytes += units.get(i).getLength();
+		return bytes;
+	}
+
+	public int characteristics() {
+		return ORDERED | NONNULL;
+	}
+
+	/**
+	 * Close all files that are still open by this spliterator
+	 * or any spliterator split off from it.
+	 */
+	public void close() {
+		WarcRecordReader openReader;
+		while ((openReader = openReaders.poll()) != null) {
+			try {
+				openReader.close();
+			} catch (IOException e) {
+				// best effort
+			}
+		}
+	}
+
+	private WarcRecordSpliterator newSplit(List<WarcFileSplit> splitUnits, WarcRecordReader splitReader, long splitReaderBytes) {
+		WarcRecordSpliterator split = new WarcRecordSpliterator(splitUnits, null, template);
+		split.reader = splitReader;
+		split.readerBytes = splitReaderBytes;
+		split.minSplitSize = minSplitSize;
+		split.openReaders = openReaders;
+		return split;
+	}
+
+	private void closeReader() throws IOException {
+		openReaders.remove(reader);
+		reader.close();
+		reader = null;
+		readerBytes = 0L;
+	}
+
+	private static List<WarcFileSplit> wholeFiles(Collection<File> warcFiles) {
+		ArrayList<WarcFileSplit> res = new ArrayList<WarcFileSplit>();
+		for (File warcFile : warcFiles)
+			res.add(new WarcFileSplit(warcFile, 0L, warcFile.length()));
+		return res;
+	}
+}
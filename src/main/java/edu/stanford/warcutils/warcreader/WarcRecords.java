@@ -0,0 +1,58 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * @author paepcke
+ *
+ * Streams of WARC records, for filter and extraction jobs written
+ * as stream pipelines rather than nextKeyValue() loops:
+ *
+ *     try (Stream<WarcRecord> records = WarcRecords.stream(Paths.get("crawl")).parallel()) {
+ *         long numResponses = records.filter(rec -> "response".equals(rec.get(WarcRecord.WARC_TYPE))).count();
+ *     }
+ *
+ * Parallel streams split the work across files, and within gzipped
+ * files at gzip member boundaries; see WarcRecordSpliterator.
+ */
+public class WarcRecords {
+
+	/**
+	 * Stream the records of the given WARC files, or of all WARC files
+	 * in the given directory trees. Each directory's files are taken
+	 * as planned by a default WarcInputPlanner, largest file first.
+	 * @param warcPaths WARC files (gzipped, zstd-compressed, or clear) and directories.
+	 * @return sequential stream of all records, file by file in the order given.
+	 */
+	public static Stream<WarcRecord> stream(Path... warcPaths) {
+		WarcInputPlanner planner = new WarcInputPlanner();
+		ArrayList<File> allFiles = new ArrayList<File>();
+		for (Path warcPath : warcPaths) {
+			File warcFile = warcPath.toFile();
+			if (warcFile.isDirectory())
+				allFiles.addAll(planner.plan(warcFile));
+			else
+				allFiles.add(warcFile);
+		}
+		return stream(allFiles);
+	}
+
+	/**
+	 * Stream the records of the given WARC files.
+	 * @param warcFiles WARC files, in the order in which their records are to be encountered.
+	 * @return sequential stream of all records.
+	 */
+	public static Stream<WarcRecord> stream(Collection<File> warcFiles) {
+		final WarcRecordSpliterator spliterator = new WarcRecordSpliterator(warcFiles);
+		return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+			public void run() {
+				spliterator.close();
+			}
+		});
+	}
+}
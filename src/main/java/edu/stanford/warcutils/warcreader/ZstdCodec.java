@@ -0,0 +1,111 @@
+package edu.stanford.warcutils.warcreader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+/**
+ * @author paepcke
+ *
+ * Zstandard-compressed WARC files (.warc.zst), usually with one
+ * zstd frame per record. Files may start with a dictionary, stored
+ * in a skippable frame with magic number 0x184D2A5D. The dictionary
+ * itself may be zstd-compressed. Since the dictionary frame is always
+ * at the start of the file, reading from a later offset still finds it.
+ */
+public class ZstdCodec implements WarcCodec {
+
+	// Magic numbers as they appear in the file (little endian):
+	private static final int ZSTD_FRAME_MAGIC = 0xFD2FB528;
+	private static final int DICTIONARY_FRAME_MAGIC = 0x184D2A5D;
+
+	public ZstdCodec() {
+		// Fail early, rather than on the first zstd file, if
+		// the native library cannot be loaded:
+		com.github.luben.zstd.util.Native.load();
+	}
+
+	public String getName() {
+		return "zstd";
+	}
+
+	public boolean recognizes(byte[] magic, int length) {
+		if (length < 4)
+			return false;
+		int magicNum = littleEndianInt(magic, 0);
+		return (magicNum == ZSTD_FRAME_MAGIC) || (magicNum == DICTIONARY_FRAME_MAGIC);
+	}
+
+	public InputStream open(File warcFile, InputStream in, long offset, int inputBufferSize) throws IOException {
+		byte[] dictionary = null;
+		long dictionaryFrameLength = 0L;
+		RandomAccessFile raf = new RandomAccessFile(warcFile, "r");
+		try {
+			byte[] frameHeader = new byte[8];
+			if (raf.length() >= frameHeader.length) {
+				raf.readFully(frameHeader);
+				if (littleEndianInt(frameHeader, 0) == DICTIONARY_FRAME_MAGIC) {
+					int frameSize = littleEndianInt(frameHeader, 4);
+					if (frameSize < 0 || frameSize > raf.length() - frameHeader.length)
+						throw new IOException("Malformed zstd dictionary frame in " + warcFile.getAbsolutePath() + ".");
+					dictionary = new byte[frameSize];
+					raf.readFully(dictionary);
+					dictionaryFrameLength = frameHeader.length + frameSize;
+				}
+			}
+		} finally {
+			raf.close();
+		}
+		if (dictionary != null && dictionary.length >= 4 && littleEndianInt(dictionary, 0) == ZSTD_FRAME_MAGIC)
+			dictionary = decompress(dictionary);
+		if (offset < dictionaryFrameLength)
+			// The zstd library would skip the dictionary frame as any
+			// skippable frame; skip it ourselves to not read it twice:
+			skipFully(in, dictionaryFrameLength - offset);
+		// The zstd stream reads its input in chunks of the library's
+		// recommended size, so inputBufferSize is not needed:
+		ZstdInputStream zstdIn = new ZstdInputStream(in);
+		if (dictionary != null)
+			zstdIn.setDict(dictionary);
+		return zstdIn;
+	}
+
+	private static byte[] decompress(byte[] compressed) throws IOException {
+		ZstdInputStream in = new ZstdInputStream(new ByteArrayInputStream(compressed));
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(4 * compressed.length);
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) > 0)
+				out.write(buf, 0, n);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void skipFully(InputStream in, long numBytes) throws IOException {
+		while (numBytes > 0) {
+			long n = in.skip(numBytes);
+			if (n <= 0) {
+				if (in.read() < 0)
+					throw new EOFException("Hit end of file while skipping the zstd dictionary frame.");
+				n = 1;
+			}
+			numBytes -= n;
+		}
+	}
+
+	private static int littleEndianInt(byte[] buf, int start) {
+		return (buf[start] & 0xff) |
+			   ((buf[start + 1] & 0xff) << 8) |
+			   ((buf[start + 2] & 0xff) << 16) |
+			   ((buf[start + 3] & 0xff) << 24);
+	}
+}
@@ -0,0 +1,155 @@
+package edu.stanford.warcutils.warcfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+import edu.stanford.warcutils.warcreader.WarcRecord;
+import edu.stanford.warcutils.warcreader.WarcRecordReader;
+
+public class DfaPatternTest {
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final String[] PATTERNS = {
+		"", "a", "abc", "a*", "a+b?", "(ab|a)*b", "a{2,4}", "a{3}", "(?:ab){2,}", "x{0,2}y",
+		".*", "(?s).*", ".", "..", "(?s)..", "(?d).*", "[^a]*", "[^\\n]+", "[a-c\\d]+", "\\w+\\s?\\W*",
+		"(\\w+\\s?)*", "(?i)ab[c-e]", "(?i:A)b", "a(?i)b|c", "[ä-ü]+", "é.", "[^é]", "\\x{1F600}|\\u00e9",
+		"\\uD83D\\uDE00.", "\\Q.*\\E", "^ab$", "\\Aa|b\\z", "(?s).*b.*", "(?s).*<title>[^<]*news.*",
+		"[\\h\\v]*", "\\H\\V", "(?<word>a+)b", "\\t\\x41\\0101\\cA", "[-a]*", "[a-]*", "(?m)^a$", "a??b+?",
+		"(a|b|)*", "()", "(?s).{3}", ".{2,5}", "\\ufffd", "(?s)[^a]{2}", "[\\x80-\\x{10FFFF}]+",
+		"(?s)(.*,){3}x", "(\\W*[ä-ü]\\S?){2,3}",
+	};
+
+	static final String[] UNSUPPORTED = {
+		"(a)\\1", "a(?=b)", "(?<=a)b", "a*+", "\\bfoo", "\\p{Alpha}", "[a[b]]", "[a-z&&[^m]]", "a^b",
+		"(?x)a b", "(?u)a", "a{1001}", "(?>a)", "\\R", "a\\Gb",
+	};
+
+	@Test
+	public void testAgainstJavaRegex() {
+		Random random = new Random(11);
+		String alphabet = "abcABC xy\n\r\téüü \u0085<>titlenews0_😀�";
+		for (String regex : PATTERNS) {
+			DfaPattern dfa = DfaPattern.compile(regex);
+			Pattern javaPattern = Pattern.compile(regex);
+			for (int i=0; i<400; i++) {
+				String input;
+				byte[] bytes;
+				if (i % 2 == 0) {
+					StringBuilder str = new StringBuilder();
+					int len = random.nextInt(7);
+					for (int j=0; j<len; j++)
+						str.appendCodePoint(alphabet.codePointAt(alphabet.offsetByCodePoints(0, random.nextInt(alphabet.codePointCount(0, alphabet.length())))));
+					input = str.toString();
+					bytes = input.getBytes(UTF8);
+				} else {
+					// Any bytes, including malformed UTF-8:
+					bytes = new byte[random.nextInt(7)];
+					for (int j=0; j<bytes.length; j++) {
+						int kind = random.nextInt(4);
+						bytes[j] = (byte) (kind == 0 ? 'a' + random.nextInt(3) :
+										   kind == 1 ? 0x80 + random.nextInt(0x40) :
+										   kind == 2 ? 0xC0 + random.nextInt(0x40) : random.nextInt(256));
+					}
+					input = new String(bytes, UTF8);
+				}
+				boolean expected = javaPattern.matcher(input).matches();
+				assertEquals(regex + " on " + hex(bytes), expected, dfa.matches(bytes, 0, bytes.length));
+				ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+				direct.put(bytes);
+				direct.flip();
+				assertEquals(regex + " on " + hex(bytes), expected, dfa.matches(direct));
+				assertEquals(regex + " on " + input, javaPattern.matcher(input).matches(), dfa.matches(input));
+			}
+		}
+	}
+
+	@Test
+	public void testUnsupported() {
+		for (String regex : UNSUPPORTED) {
+			try {
+				DfaPattern.compile(regex);
+				fail("Accepted unsupported pattern " + regex);
+			} catch (DfaPattern.UnsupportedPatternException e) {
+				// expected
+			}
+		}
+		try {
+			DfaPattern.compile("(a");
+			fail("Accepted malformed pattern");
+		} catch (PatternSyntaxException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testLinearTime() {
+		// Backtracks exponentially in java.util.regex before Java 9:
+		DfaPattern dfa = DfaPattern.compile("(\\w+\\s?)*");
+		StringBuilder words = new StringBuilder();
+		for (int i=0; i<100000; i++)
+			words.append("abc ");
+		assertTrue(dfa.matches(words));
+		words.append('!');
+		assertFalse(dfa.matches(words));
+		// Backtracks in time that grows with the 12th power of the input length:
+		dfa = DfaPattern.compile("(?s)(.*,){12}x");
+		StringBuilder commas = new StringBuilder();
+		for (int i=0; i<100000; i++)
+			commas.append(',');
+		assertFalse(dfa.matches(commas));
+		assertTrue(dfa.matches(commas.append('x')));
+
+		// More DFA states than fit in the cache:
+		dfa = DfaPattern.compile("(?s).*a.{12}");
+		Random random = new Random(3);
+		byte[] bytes = new byte[50000];
+		for (int i=0; i<bytes.length; i++)
+			bytes[i] = (byte) (random.nextBoolean() ? 'a' : 'b');
+		String input = new String(bytes, UTF8);
+		assertEquals(Pattern.matches("(?s).*a.{12}", input), dfa.matches(bytes, 0, bytes.length));
+		bytes[bytes.length - 13] = 'a';
+		assertTrue(dfa.matches(bytes, 0, bytes.length));
+		bytes[bytes.length - 13] = 'b';
+		assertFalse(dfa.matches(bytes, 0, bytes.length));
+	}
+
+	@Test
+	public void testWarcFilter() throws Exception {
+		ArrayList<WarcRecord> records = new ArrayList<WarcRecord>();
+		WarcRecordReader reader = new WarcRecordReader(new File("src/test/resources/tinyWarc1_0.warc"));
+		while (reader.nextKeyValue())
+			records.add(reader.getCurrentValue());
+		reader.close();
+		String[][] filters = {{"(?s).*stanford.*", "content"}, {"(?s).*<title>[^<]*</title>.*", "content"},
+							  {"(?i)RESP.*", "warc-type"}, {".*\\.html", "warc-target-uri"}};
+		for (String[] filterSpec : filters) {
+			WarcFilter javaFilter = new WarcFilter(filterSpec[0], filterSpec[1]);
+			WarcFilter dfaFilter = new WarcFilter(filterSpec[0], filterSpec[1], true);
+			assertFalse(javaFilter.isLinearTime());
+			assertTrue(dfaFilter.isLinearTime());
+			for (WarcRecord rec : records)
+				assertEquals(javaFilter.matches(rec), dfaFilter.matches(rec));
+		}
+		assertFalse(new WarcFilter("(a)\\1", "warc-type", true).isLinearTime());
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder res = new StringBuilder();
+		for (byte b : bytes)
+			res.append(String.format("%02x ", b & 0xff));
+		return res.toString();
+	}
+}
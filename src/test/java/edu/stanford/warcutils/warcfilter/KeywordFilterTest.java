@@ -0,0 +1,128 @@
+package edu.stanford.warcutils.warcfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.stanford.warcutils.warcreader.WarcRecord;
+import edu.stanford.warcutils.warcreader.WarcRecordReader;
+
+public class KeywordFilterTest {
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	ArrayList<WarcRecord> records;
+
+	@Before
+	public void setUp() throws Exception {
+		records = new ArrayList<WarcRecord>();
+		WarcRecordReader reader = new WarcRecordReader(new File("src/test/resources/tinyWarc1_0.warc"));
+		while (reader.nextKeyValue())
+			records.add(reader.getCurrentValue());
+		reader.close();
+	}
+
+	@Test
+	public void testOverlappingKeywords() throws IOException {
+		KeywordFilter filter = new KeywordFilter(Arrays.asList("he", "she", "his", "hers", "she"), false);
+		assertEquals(Arrays.asList("he", "she", "hers"), find(filter, "ushers"));
+		assertEquals(Arrays.asList("he", "she", "his"), find(filter, "ahishe"));
+		assertEquals(Collections.<String>emptyList(), find(filter, "hi sh"));
+		assertEquals(Collections.<String>emptyList(), find(filter, "USHERS"));
+		assertTrue(filter.matches(bytes("xxhis")));
+		assertFalse(filter.matches(bytes("")));
+		assertEquals(Arrays.asList("his"),
+				filter.findKeywords(new ByteArrayInputStream(bytes("s-sh-hi-his-").array())));
+
+		filter = new KeywordFilter(Arrays.asList("he", "Straße", "ÄRGER"), true);
+		assertEquals(Arrays.asList("he", "Straße"), find(filter, "THE STRAßE"));
+		// Only ASCII letters are folded:
+		assertEquals(Collections.<String>emptyList(), find(filter, "STRASSE ärger"));
+		assertEquals(Arrays.asList("ÄRGER"), find(filter, "Ärger"));
+
+		try {
+			new KeywordFilter(Arrays.asList("a", ""), false);
+			fail("Accepted empty keyword");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testAgainstRegex() {
+		WarcFilter stanford = new WarcFilter("(?s).*stanford.*", WarcRecord.CONTENT);
+		WarcFilter google = new WarcFilter("(?s).*google.*", WarcRecord.CONTENT);
+		KeywordFilter filter = new KeywordFilter(Arrays.asList("google", "stanford"), false);
+		KeywordFilter upperCase = new KeywordFilter(Arrays.asList("GOOGLE", "STANFORD"), false);
+		KeywordFilter anyCase = new KeywordFilter(Arrays.asList("GOOGLE", "STANFORD"), true);
+		int numMatches = 0;
+		for (WarcRecord rec : records) {
+			ArrayList<String> expected = new ArrayList<String>();
+			if (google.matches(rec))
+				expected.add("google");
+			if (stanford.matches(rec))
+				expected.add("stanford");
+			assertEquals(expected, filter.findKeywords(rec));
+			assertEquals(!expected.isEmpty(), filter.matches(rec));
+			assertEquals(expected.size(), anyCase.findKeywords(rec).size());
+			assertEquals(!expected.isEmpty(), anyCase.matches(rec));
+			assertFalse(upperCase.matches(rec));
+			if (!expected.isEmpty())
+				numMatches++;
+		}
+		assertTrue(numMatches > 0);
+		assertEquals(WarcFilter.Result.NEEDS_CONTENT, filter.evaluateHeader(records.get(0)));
+	}
+
+	@Test
+	public void testLargeKeywordFile() throws IOException {
+		Random random = new Random(7);
+		ArrayList<String> lines = new ArrayList<String>();
+		for (int i=0; i<20000; i++) {
+			StringBuilder word = new StringBuilder("zq");
+			int len = 4 + random.nextInt(12);
+			for (int j=0; j<len; j++)
+				word.append((char) ('a' + random.nextInt(26)));
+			lines.add((i % 2 == 0) ? word.toString() : "  " + word + " phrase\t");
+		}
+		lines.add("");
+		lines.add("stanford");
+		File keywordFile = File.createTempFile("keywords", ".txt");
+		keywordFile.deleteOnExit();
+		FileUtils.writeLines(keywordFile, "UTF-8", lines);
+
+		List<String> keywords = KeywordFilter.readKeywords(keywordFile);
+		assertEquals(20001, keywords.size());
+		assertEquals(lines.get(1).trim(), keywords.get(1));
+		KeywordFilter filter = new KeywordFilter(keywordFile, false);
+		WarcFilter stanford = new WarcFilter("(?s).*stanford.*", WarcRecord.CONTENT);
+		for (WarcRecord rec : records)
+			assertEquals(stanford.matches(rec), filter.matches(rec));
+		String text = "Nothing here but " + keywords.get(12345) + " and " + keywords.get(2) + ".";
+		assertEquals(Arrays.asList(keywords.get(2), keywords.get(12345)), find(filter, text));
+	}
+
+	private static List<String> find(KeywordFilter filter, String text) {
+		return filter.findKeywords(bytes(text));
+	}
+
+	private static ByteBuffer bytes(String text) {
+		return ByteBuffer.wrap(text.getBytes(UTF8));
+	}
+}
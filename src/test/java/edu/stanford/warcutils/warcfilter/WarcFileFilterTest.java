@@ -8,6 +8,7 @@ import static org.junit.Assert.assertEquals;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 
 import org.apache.commons.io.FileUtils;
@@ -142,6 +143,36 @@ public class WarcFileFilterTest {
 		File filteredFile = new File("/tmp/filteredTest_tinyWarc0_18.warc");
 		assertEquals(6, WarcCounter.count(filteredFile));
 	}	
+
+	@Test
+	public void testRerunSkipsOutputs() throws IOException {
+		File inDir = new File(tmpDirPath, "warcFileFilterRerun");
+		FileUtils.deleteDirectory(inDir);
+		FileUtils.copyFile(new File("src/test/resources/tinyWarc1_0.warc"), new File(inDir, "tinyWarc1_0.warc"));
+		File outDir = new File(inDir, "out");
+		outDir.mkdir();
+		try {
+			// Outputs in a directory below the input:
+			for (int run=0; run<2; run++)
+				new WarcFileFilter(inDir, "content", "(?s).*small_crawls.*", FilterSense.DISCARD_IF_MATCHES,
+								   outDir.getPath(), "", WarcHeaderRetention.RETAIN_WARC_HEADERS);
+			// Outputs are appended to:
+			assertEquals(Arrays.asList("tinyWarc1_0.warc"), Arrays.asList(outDir.list()));
+			assertEquals(2 * 44, WarcCounter.count(new File(outDir, "tinyWarc1_0.warc")));
+			FileUtils.deleteDirectory(outDir);
+
+			// Outputs next to the inputs:
+			for (int run=0; run<2; run++)
+				new WarcFileFilter(inDir, "content", "(?s).*small_crawls.*", FilterSense.DISCARD_IF_MATCHES,
+								   null, "filteredTest_", WarcHeaderRetention.RETAIN_WARC_HEADERS);
+			String[] names = inDir.list();
+			Arrays.sort(names);
+			assertEquals(Arrays.asList("filteredTest_tinyWarc1_0.warc", "tinyWarc1_0.warc"), Arrays.asList(names));
+			assertEquals(2 * 44, WarcCounter.count(new File(inDir, "filteredTest_tinyWarc1_0.warc")));
+		} finally {
+			FileUtils.deleteDirectory(inDir);
+		}
+	}
 	
 	
 }
@@ -0,0 +1,140 @@
+package edu.stanford.warcutils.warcfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.stanford.warcutils.warcfilter.WarcFilter.Result;
+import edu.stanford.warcutils.warcreader.WarcRecord;
+import edu.stanford.warcutils.warcreader.WarcRecordReader;
+
+public class WarcFilterExpressionTest {
+
+	ArrayList<WarcRecord> records;
+
+	@Before
+	public void setUp() throws Exception {
+		records = new ArrayList<WarcRecord>();
+		WarcRecordReader reader = new WarcRecordReader(new File("src/test/resources/tinyWarc1_0.warc"));
+		while (reader.nextKeyValue())
+			records.add(reader.getCurrentValue());
+		reader.close();
+	}
+
+	@Test
+	public void testAgainstSingleFilters() {
+		WarcFilter isResponse = new WarcFilter("response", "warc-type");
+		WarcFilter isDns = new WarcFilter("text/dns", "content-type");
+		WarcFilter hasNews = new WarcFilter("(?s).*stanford.*", "content");
+		WarcFilterExpression expr = new WarcFilterExpression(
+				"content ~ '(?s).*stanford.*' and (warc-type = response OR NOT content-type=\"text/dns\")");
+		int numMatches = 0;
+		for (WarcRecord rec : records) {
+			boolean expected = hasNews.matches(rec) && (isResponse.matches(rec) || !isDns.matches(rec));
+			assertEquals(expected, expr.matches(rec));
+			if (expected)
+				numMatches++;
+		}
+		assertTrue(numMatches > 0);
+		assertEquals(30, countMatches("WARC-Type = response"));
+		assertEquals(records.size() - 30, countMatches("NOT warc-type == response"));
+		assertEquals(30 + 7, countMatches("warc-type = response || warc-type = request"));
+	}
+
+	@Test
+	public void testNumbersAndDates() {
+		int numLong = 0;
+		for (WarcRecord rec : records) {
+			if (Long.parseLong(rec.get("content-length")) > 1000)
+				numLong++;
+		}
+		assertEquals(numLong, countMatches("content-length > 1000"));
+		assertEquals(records.size() - numLong, countMatches("content-length <= 1000.0"));
+		assertEquals(18, countMatches("warc-date = 2012-12-07T18:55:03Z"));
+		assertEquals(18, countMatches("warc-date = 2012-12-07T10:55:03-08:00"));
+		assertEquals(18, countMatches("warc-date = 2012-12-07T10:55:03-0800"));
+		assertEquals(15, countMatches("warc-date > 2012-12-07T18:55:04"));
+		assertEquals(records.size(), countMatches("warc-date >= 2012-12-07 and warc-date < 2012-12-08"));
+		// String comparison when quoted:
+		assertEquals(15, countMatches("warc-date > '2012-12-07T18:55:04Z'"));
+		// Missing fields, and values that are no numbers, are false:
+		assertEquals(0, countMatches("warc-no-such-field ~ '.*'"));
+		assertEquals(records.size(), countMatches("not warc-no-such-field = x"));
+		assertEquals(0, countMatches("warc-type > 5"));
+
+		assertEquals(Long.valueOf(0L), WarcFilterExpression.parseDate("1970-01-01T00:00:00Z"));
+		assertEquals(Long.valueOf(1500L), WarcFilterExpression.parseDate("1970-01-01T01:00:01.500+01:00"));
+		assertNull(WarcFilterExpression.parseDate("2009-04-119T12:48:17-0400"));
+	}
+
+	@Test
+	public void testHeaderFirst() {
+		WarcFilterExpression expr = new WarcFilterExpression("content ~ '(?s).*stanford.*' AND warc-type = response");
+		assertEquals("(warc-type = response AND content ~ '(?s).*stanford.*')", expr.toString());
+		assertTrue(expr.needsContent());
+		for (WarcRecord rec : records) {
+			Result res = expr.evaluateHeader(rec);
+			if (rec.get("warc-type").equals("response"))
+				assertEquals(Result.NEEDS_CONTENT, res);
+			else {
+				assertEquals(Result.NO_MATCH, res);
+				assertFalse(expr.matches(rec));
+			}
+		}
+		expr = new WarcFilterExpression("warc-type = response OR content ~ '.*' OR content-length > 0");
+		assertEquals(Result.MATCH, expr.evaluateHeader(records.get(0)));
+		expr = new WarcFilterExpression("NOT (warc-type = response AND content-length < 0)");
+		assertFalse(expr.needsContent());
+		assertEquals(Result.MATCH, expr.evaluateHeader(records.get(0)));
+	}
+
+	@Test
+	public void testHeaderOnlyRecords() throws IOException {
+		WarcFilterExpression expr = new WarcFilterExpression("warc-type = response and content-type ~ 'text/dns'");
+		WarcRecordReader reader = new WarcRecordReader(new File("src/test/resources/tinyWarc1_0.warc"));
+		int numMatches = 0;
+		while (reader.nextKeyValue(false)) {
+			if (expr.evaluateHeader(reader.getCurrentValue()) == Result.MATCH)
+				numMatches++;
+		}
+		reader.close();
+		assertEquals(countMatches("warc-type = response and content-type ~ 'text/dns'"), numMatches);
+		assertTrue(numMatches > 0);
+	}
+
+	@Test
+	public void testSyntaxErrors() {
+		String[] bad = {"", "warc-type", "warc-type =", "warc-type = response AND", "(warc-type = response",
+						"warc-type = response)", "warc-type & x", "warc-type = 'open", "warc-date < 2012-13-45",
+						"content ~ '(unbalanced'", "= response"};
+		for (String expression : bad) {
+			try {
+				new WarcFilterExpression(expression);
+				fail("Accepted malformed expression: " + expression);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		// Escapes in quoted strings:
+		assertEquals("(a = 'it\\'s' OR b ~ '\\\\d+')", new WarcFilterExpression("a = 'it\\'s' or b ~ \"\\d+\"").toString());
+	}
+
+	private int countMatches(String expression) {
+		WarcFilterExpression expr = new WarcFilterExpression(expression);
+		int res = 0;
+		for (WarcRecord rec : records) {
+			if (expr.matches(rec))
+				res++;
+		}
+		return res;
+	}
+}
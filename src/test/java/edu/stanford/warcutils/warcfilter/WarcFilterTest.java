@@ -1,11 +1,25 @@
 package edu.stanford.warcutils.warcfilter;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -51,4 +65,113 @@ public class WarcFilterTest {
 		assertNotEquals(strIndex, -1);
 		assertNull(filter.contentsIf(notMatchingRec));
 	}
+
+	@Test
+	public void testHeaderFilter() throws IOException {
+		WarcFilter dated = new WarcFilter(".*-0400", "warc-date");
+		WarcFilter undated = dated.negate();
+		WarcFilter onContent = new WarcFilter(".*", WarcRecord.CONTENT);
+		int numDated = 0;
+		while (warcReader0_18GZipped.nextKeyValue(false)) {
+			WarcRecord rec = warcReader0_18GZipped.getCurrentRecord();
+			boolean matches = dated.matches(rec);
+			assertEquals(matches ? WarcFilter.Result.MATCH : WarcFilter.Result.NO_MATCH, dated.evaluateHeader(rec));
+			assertEquals(!matches, dated.rejectsHeader(rec));
+			assertEquals(!matches, undated.matches(rec));
+			assertEquals(matches, undated.rejectsHeader(rec));
+			assertEquals(WarcFilter.Result.NEEDS_CONTENT, onContent.evaluateHeader(rec));
+			assertEquals(WarcFilter.Result.NEEDS_CONTENT, onContent.negate().evaluateHeader(rec));
+			if (matches)
+				numDated++;
+		}
+		assertSame(dated, undated.negate());
+
+		// Filters pushed into the reader:
+		WarcRecordReader reader = new WarcRecordReader(testWarcFile);
+		reader.setHeaderFilter(dated);
+		int numRead = 0;
+		while (reader.nextKeyValue()) {
+			assertNotNull(dated.contentsIf(reader.getCurrentRecord()));
+			numRead++;
+		}
+		reader.close();
+		assertEquals(numDated, numRead);
+		assertEquals(numDated, reader.getStats().getRecordsEmitted());
+		assertEquals(6 - numDated, reader.getStats().getRecordsRejected());
+	}
+
+	@Test
+	public void testFind() throws IOException {
+		String[][] filters = {{"stanford", "(?s).*stanford.*", "content"}, {"<title>", "(?s).*<title>.*", "content"},
+							  {"^HTTP/1\\.[01] 200", "(?s)HTTP/1\\.[01] 200.*", "content"}, {"\\.html", ".*\\.html.*", "warc-target-uri"}};
+		WarcRecordReader reader = new WarcRecordReader(new File("src/test/resources/tinyWarc1_0.warc"));
+		int numFound = 0;
+		while (reader.nextKeyValue()) {
+			WarcRecord rec = reader.getCurrentValue();
+			for (String[] filterSpec : filters) {
+				boolean expected = new WarcFilter(filterSpec[1], filterSpec[2]).matches(rec);
+				boolean expectedWhole = new WarcFilter(filterSpec[0], filterSpec[2]).matches(rec);
+				for (boolean linearTime : new boolean[] {false, true}) {
+					WarcFilter filter = new WarcFilter(filterSpec[0], filterSpec[2], linearTime);
+					filter.setFind(true);
+					assertEquals(filterSpec[0], expected, filter.matches(rec));
+					filter.setFind(false);
+					assertEquals(filterSpec[0], expectedWhole, filter.matches(rec));
+				}
+				if (expected)
+					numFound++;
+			}
+		}
+		reader.close();
+		assertNotEquals(0, numFound);
+		WarcFilter filter = new WarcFilter("stanford", WarcRecord.CONTENT, true);
+		filter.setFind(true);
+		assertTrue(filter.isFind());
+		assertTrue(filter.isLinearTime());
+		// Anchors inside the pattern are left to java.util.regex:
+		filter = new WarcFilter("^HTTP", WarcRecord.CONTENT, true);
+		filter.setFind(true);
+		assertFalse(filter.isLinearTime());
+	}
+
+	@Test
+	public void testFlightRecorderEvents() throws IOException {
+		String[] eventNames = {"edu.stanford.warcutils.FileOpen", "edu.stanford.warcutils.FileRead",
+							   "edu.stanford.warcutils.RecordParse", "edu.stanford.warcutils.Filter",
+							   "edu.stanford.warcutils.HTMLStrip"};
+		Recording recording = new Recording();
+		for (String eventName : eventNames)
+			recording.enable(eventName).withThreshold(Duration.ZERO);
+		recording.start();
+		WarcFilter filter = new WarcFilter(".*-0400", "warc-date");
+		while (warcReader0_18GZipped.nextKeyValue(true)) {
+			if (filter.matches(warcReader0_18GZipped.getCurrentRecord()))
+				HTMLStripper.extractText(warcReader0_18GZipped.getCurrentRecord());
+		}
+		warcReader0_18GZipped.close();
+		recording.stop();
+		Path dump = Files.createTempFile("warcEvents", ".jfr");
+		recording.dump(dump);
+		recording.close();
+		List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+		Files.delete(dump);
+
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (RecordedEvent event : events) {
+			String eventName = event.getEventType().getName();
+			Integer count = counts.get(eventName);
+			counts.put(eventName, (count == null) ? 1 : count + 1);
+			if (eventName.equals("edu.stanford.warcutils.RecordParse"))
+				assertNotNull(event.getString("recordId"));
+			if (eventName.equals("edu.stanford.warcutils.FileRead")) {
+				assertEquals(6L, event.getLong("records"));
+				assertEquals(testWarcFile.getAbsolutePath(), event.getString("path"));
+			}
+		}
+		assertEquals(Integer.valueOf(1), counts.get("edu.stanford.warcutils.FileOpen"));
+		assertEquals(Integer.valueOf(1), counts.get("edu.stanford.warcutils.FileRead"));
+		assertEquals(Integer.valueOf(6), counts.get("edu.stanford.warcutils.RecordParse"));
+		assertEquals(Integer.valueOf(6), counts.get("edu.stanford.warcutils.Filter"));
+		assertEquals(Integer.valueOf(1), counts.get("edu.stanford.warcutils.HTMLStrip"));
+	}
 }
@@ -0,0 +1,103 @@
+package edu.stanford.warcutils.warcgen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.warcutils.warcreader.WarcCodecs;
+import edu.stanford.warcutils.warcreader.WarcRecord;
+import edu.stanford.warcutils.warcreader.WarcRecordReader;
+
+public class WarcGeneratorTest {
+
+	@Test
+	public void testSizeDistribution() {
+		assertEquals(3L * 1024 * 1024, SizeDistribution.parseSize("3M"));
+		Random random = new Random(1);
+		SizeDistribution dist = new SizeDistribution("1*fixed:0,3*uniform:1k:2k");
+		int numEmpty = 0;
+		for (int i=0; i<1000; i++) {
+			long size = dist.next(random);
+			if (size == 0)
+				numEmpty++;
+			else
+				assertTrue(size >= 1024 && size <= 2048);
+		}
+		assertTrue(numEmpty > 180 && numEmpty < 320);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadSizeDistribution() {
+		new SizeDistribution("lognormal:16k");
+	}
+
+	@Test
+	public void testGenerateAllFormats() throws IOException {
+		WarcGenerator generator = new WarcGenerator();
+		generator.setNumRecords(200);
+		generator.setSizeDistribution(new SizeDistribution("0.8*lognormal:4k:1.0,0.1*fixed:0,0.1*uniform:100k:300k"));
+		generator.setTypeMix("response=5,request=3,resource=1,metadata=1,revisit=1");
+
+		List<String> plainIds = null;
+		for (WarcGenerator.Compression compression : WarcGenerator.Compression.values()) {
+			generator.setCompression(compression);
+			File outFile = File.createTempFile("generated", ".warc");
+			outFile.deleteOnExit();
+			assertEquals(201L, generator.generate(outFile));
+			List<String> ids = new ArrayList<String>();
+			WarcRecordReader reader = new WarcRecordReader(outFile);
+			int numMembers = 0;
+			while (reader.nextKeyValue()) {
+				WarcRecord rec = reader.getCurrentValue();
+				ids.add(rec.get(WarcRecord.WARC_RECORD_ID));
+				assertEquals(Long.parseLong(rec.get(WarcRecord.CONTENT_LENGTH)), rec.getContentBuffer().remaining());
+				if (reader.getCurrentFileOffset() >= 0)
+					numMembers++;
+			}
+			reader.close();
+			assertEquals(201, ids.size());
+			if (compression == WarcGenerator.Compression.GZIP_PER_RECORD) {
+				assertEquals(201, numMembers);
+				assertEquals(WarcCodecs.GZIP, WarcCodecs.forFile(outFile, 0L));
+			} else if (compression == WarcGenerator.Compression.GZIP_STREAM)
+				assertEquals(1, numMembers);
+			// Same seed, same records:
+			if (plainIds == null)
+				plainIds = ids;
+			else
+				assertEquals(plainIds, ids);
+		}
+	}
+
+	@Test
+	public void testWarc0_18AndTargetSize() throws IOException {
+		WarcGenerator generator = new WarcGenerator();
+		generator.setWarcVersion(WarcGenerator.WARC_0_18);
+		generator.setTargetSize(1024 * 1024);
+		generator.setHtmlFraction(0.0);
+		File outFile = File.createTempFile("generated", ".warc");
+		outFile.deleteOnExit();
+		long numRecords = generator.generate(outFile);
+		assertTrue(outFile.length() >= 1024 * 1024);
+		WarcRecordReader reader = new WarcRecordReader(outFile);
+		long numRead = 0;
+		while (reader.nextKeyValue(false)) {
+			assertTrue(reader.getCurrentValue().toString().startsWith("WARC/0.18"));
+			numRead++;
+		}
+		reader.close();
+		assertEquals(numRecords, numRead);
+	}
+
+	@Test
+	public void testNumberedFile() {
+		assertEquals("crawl-00003.warc.gz", WarcGenerator.numberedFile(new File("/tmp/crawl.warc.gz"), 3).getName());
+	}
+}
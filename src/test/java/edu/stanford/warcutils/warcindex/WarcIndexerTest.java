@@ -0,0 +1,130 @@
+package edu.stanford.warcutils.warcindex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.stanford.warcutils.warcreader.WarcRecord;
+import edu.stanford.warcutils.warcreader.WarcRecordReader;
+
+public class WarcIndexerTest {
+
+	File testWarcFile1_0 = new File("src/test/resources/tinyWarc1_0.warc");
+	File testWarcFile0_18GZipped = new File("src/test/resources/tinyWarc0_18.warc.gz");
+	File perRecordGzFile;
+	File indexFile;
+	ArrayList<String> ids = new ArrayList<String>();
+
+	@Before
+	public void setUp() throws Exception {
+		// Per-record gzipped copy of tinyWarc1_0.warc:
+		byte[] fileBytes = FileUtils.readFileToByteArray(testWarcFile1_0);
+		ArrayList<Long> keys = new ArrayList<Long>();
+		WarcRecordReader reader = new WarcRecordReader(testWarcFile1_0);
+		while (reader.nextKeyValue(false)) {
+			keys.add(reader.getCurrentKey());
+			ids.add(reader.getCurrentValue().get(WarcRecord.WARC_RECORD_ID));
+		}
+		reader.close();
+		keys.add((long) fileBytes.length);
+		perRecordGzFile = File.createTempFile("perRecord", ".warc.gz");
+		perRecordGzFile.deleteOnExit();
+		FileOutputStream gzOut = new FileOutputStream(perRecordGzFile);
+		for (int i=0; i<keys.size()-1; i++) {
+			ByteArrayOutputStream member = new ByteArrayOutputStream();
+			GZIPOutputStream gzMember = new GZIPOutputStream(member);
+			gzMember.write(fileBytes, (int) (long) keys.get(i), (int) (keys.get(i+1) - keys.get(i)));
+			gzMember.close();
+			gzOut.write(member.toByteArray());
+		}
+		gzOut.close();
+		
+		indexFile = File.createTempFile("warcIndexTest", ".idx");
+		indexFile.deleteOnExit();
+		new File(indexFile.getPath() + WarcIndexer.RECORD_ID_INDEX_SUFFIX).deleteOnExit();
+	}
+
+	@Test
+	public void testSurt() {
+		assertEquals("com,example)/a/b?x=1", Surt.canonicalize("http://www.Example.com:80/a/b?x=1#top"));
+		assertEquals("org,dmoz)/health", Surt.canonicalize("http://www.dmoz.org/Health"));
+		assertEquals("com,example:8080)/", Surt.canonicalize("https://example.com:8080"));
+		assertEquals("dns:www.example.com", Surt.canonicalize("dns:www.example.com"));
+		// IP addresses are not reversed:
+		assertEquals("192.168.1.20:8080)/a", Surt.canonicalize("http://192.168.1.20:8080/a"));
+		assertEquals("[::1])/", Surt.canonicalize("http://[::1]"));
+		assertEquals("[2001:db8::7]:8080)/a?x=1", Surt.canonicalize("http://user@[2001:DB8::7]:8080/a?x=1"));
+		assertEquals("[2001:db8::7])/", Surt.canonicalize("https://[2001:db8::7]:443/"));
+	}
+
+	@Test
+	public void testIndexAndLookup() throws IOException {
+		LinkedList<File> warcFiles = new LinkedList<File>();
+		warcFiles.add(testWarcFile1_0);
+		warcFiles.add(perRecordGzFile);
+		// Gzipped as a single stream; must be left out:
+		warcFiles.add(testWarcFile0_18GZipped);
+		assertEquals(2 * ids.size(), WarcIndexer.index(warcFiles, indexFile));
+		
+		WarcIndex index = new WarcIndex(indexFile);
+		for (String id : ids) {
+			WarcIndexEntry entry = index.lookupRecordId(id);
+			assertEquals(id, entry.getRecordId());
+			WarcRecord rec = index.fetch(entry);
+			assertEquals(id, rec.get(WarcRecord.WARC_RECORD_ID));
+			assertTrue(entry.getLength() > 0);
+		}
+		assertNull(index.lookupRecordId("<urn:uuid:no-such-record>"));
+		
+		// Three captures in each of the two copies:
+		List<WarcIndexEntry> captures = index.lookupUri("http://www.dmoz.org/Health");
+		assertEquals(6, captures.size());
+		for (WarcIndexEntry entry : captures) {
+			WarcRecord rec = index.fetch(entry);
+			assertEquals("http://www.dmoz.org/Health", rec.get(WarcRecord.WARC_TARGET_URI));
+		}
+		assertEquals(0, index.lookupUri("http://www.dmoz.org/NoSuchPage").size());
+		index.close();
+	}
+
+	@Test
+	public void testKeyOrder() throws IOException {
+		// A key with a tab, whose line sorts before the line of its prefix:
+		File warcFile = File.createTempFile("keyOrder", ".warc");
+		warcFile.deleteOnExit();
+		StringBuilder warc = new StringBuilder();
+		String[] uris = {"http://example.com/x\ty", "http://example.com/x"};
+		for (int i=0; i<uris.length; i++)
+			warc.append("WARC/1.0\r\n")
+				.append("WARC-Type: response\r\n")
+				.append("WARC-Target-URI: ").append(uris[i]).append("\r\n")
+				.append("WARC-Date: 2013-03-14T00:00:0").append(i).append("Z\r\n")
+				.append("WARC-Record-ID: <urn:uuid:keyOrder").append(i).append(">\r\n")
+				.append("Content-Length: 2\r\n")
+				.append("\r\n")
+				.append("ok\r\n\r\n");
+		FileUtils.writeStringToFile(warcFile, warc.toString(), "UTF-8");
+		assertEquals(2, WarcIndexer.index(Collections.singletonList(warcFile), indexFile));
+		WarcIndex index = new WarcIndex(indexFile);
+		for (int i=0; i<uris.length; i++) {
+			List<WarcIndexEntry> captures = index.lookupUri(uris[i]);
+			assertEquals(1, captures.size());
+			assertEquals("<urn:uuid:keyOrder" + i + ">", captures.get(0).getRecordId());
+		}
+		index.close();
+	}
+}
@@ -0,0 +1,93 @@
+package edu.stanford.warcutils.warcreader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GzipMemberSplitterTest {
+
+	File testWarcFile1_0;
+	File perRecordGzFile;
+	ArrayList<String> ids;
+
+	@Before
+	public void setUp() throws Exception {
+		testWarcFile1_0 = new File("src/test/resources/tinyWarc1_0.warc");
+		perRecordGzFile = writePerRecordGzip(testWarcFile1_0);
+		ids = new ArrayList<String>();
+		WarcRecordReader reader = new WarcRecordReader(testWarcFile1_0);
+		while (reader.nextKeyValue(false))
+			ids.add(reader.getCurrentValue().get(WarcRecord.WARC_RECORD_ID));
+		reader.close();
+	}
+
+	@Test
+	public void testSplitsCoverAllRecords() throws IOException {
+		for (int numSplits=1; numSplits<=12; numSplits++) {
+			List<WarcFileSplit> splits = GzipMemberSplitter.split(perRecordGzFile, numSplits);
+			assertTrue(splits.size() <= numSplits);
+			long expectedStart = 0L;
+			ArrayList<String> splitIds = new ArrayList<String>();
+			for (WarcFileSplit split : splits) {
+				assertEquals(expectedStart, split.getStart());
+				expectedStart = split.getEnd();
+				WarcRecordReader reader = new WarcRecordReader(split);
+				while (reader.nextKeyValue(false)) {
+					long offset = reader.getCurrentFileOffset();
+					assertTrue(offset >= split.getStart() && offset < split.getEnd());
+					splitIds.add(reader.getCurrentValue().get(WarcRecord.WARC_RECORD_ID));
+				}
+				reader.close();
+			}
+			assertEquals(perRecordGzFile.length(), expectedStart);
+			assertEquals(ids, splitIds);
+		}
+	}
+
+	@Test
+	public void testUnsplittableFiles() throws IOException {
+		// Clear file, and file gzipped as one stream:
+		assertEquals(1, GzipMemberSplitter.split(testWarcFile1_0, 4).size());
+		assertEquals(1, GzipMemberSplitter.split(new File("src/test/resources/tinyWarc0_18.warc.gz"), 4).size());
+		// A stretch without a member start ends the search:
+		List<WarcFileSplit> splits = GzipMemberSplitter.split(perRecordGzFile, (int) perRecordGzFile.length());
+		assertEquals(1, splits.size());
+		assertEquals(perRecordGzFile.length(), splits.get(0).getLength());
+	}
+
+	/**
+	 * Write a temporary .warc.gz holding one gzip member per record of the given clear WARC file.
+	 */
+	static File writePerRecordGzip(File warcFile) throws IOException {
+		byte[] fileBytes = FileUtils.readFileToByteArray(warcFile);
+		ArrayList<Long> keys = new ArrayList<Long>();
+		WarcRecordReader reader = new WarcRecordReader(warcFile);
+		while (reader.nextKeyValue(false))
+			keys.add(reader.getCurrentKey());
+		reader.close();
+		keys.add((long) fileBytes.length);
+		File gzFile = File.createTempFile("perRecord", ".warc.gz");
+		gzFile.deleteOnExit();
+		FileOutputStream gzOut = new FileOutputStream(gzFile);
+		for (int i=0; i<keys.size()-1; i++) {
+			ByteArrayOutputStream member = new ByteArrayOutputStream();
+			GZIPOutputStream gzMember = new GZIPOutputStream(member);
+			gzMember.write(fileBytes, (int) (long) keys.get(i), (int) (keys.get(i+1) - keys.get(i)));
+			gzMember.close();
+			gzOut.write(member.toByteArray());
+		}
+		gzOut.close();
+		return gzFile;
+	}
+}
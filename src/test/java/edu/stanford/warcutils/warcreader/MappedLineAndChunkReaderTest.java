@@ -0,0 +1,60 @@
+package edu.stanford.warcutils.warcreader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+public class MappedLineAndChunkReaderTest {
+
+	File testWarcFile0_18 = new File("src/test/resources/tinyWarc0_18.warc");
+	File testWarcFile1_0 = new File("src/test/resources/tinyWarc1_0.warc");
+
+	@Test
+	public void testSameRecordsAsStream() throws IOException {
+		compareWithStream(testWarcFile0_18, 256L * 1024 * 1024);
+		compareWithStream(testWarcFile1_0, 256L * 1024 * 1024);
+	}
+
+	@Test
+	public void testTinyWindows() throws IOException {
+		// Windows smaller than lines and contents force
+		// re-mapping in the middle of both:
+		compareWithStream(testWarcFile0_18, 100);
+		compareWithStream(testWarcFile1_0, 7);
+	}
+
+	@Test
+	public void testContentIsNotCopied() throws IOException {
+		LineAndChunkReader mappedReader = new MappedLineAndChunkReader(new RandomAccessFile(testWarcFile1_0, "r").getChannel());
+		WarcRecord rec = WarcRecord.readNextWarcRecord(mappedReader, true);
+		assertFalse(rec.getContentBuffer().hasArray());
+		assertEquals(406, rec.getContentBuffer().remaining());
+		mappedReader.close();
+		// Slices survive the closing of the reader:
+		assertEquals(406, rec.getContentUTF8().length());
+	}
+
+	private void compareWithStream(File warcFile, long windowSize) throws IOException {
+		LineAndChunkReader streamReader = new LineAndChunkReader(new FileInputStream(warcFile));
+		LineAndChunkReader mappedReader = new MappedLineAndChunkReader(new RandomAccessFile(warcFile, "r").getChannel(), windowSize);
+		WarcRecord streamRec;
+		int numRecs = 0;
+		while ((streamRec = WarcRecord.readNextWarcRecord(streamReader, true)) != null) {
+			WarcRecord mappedRec = WarcRecord.readNextWarcRecord(mappedReader, true);
+			assertEquals(streamRec.toString(WarcRecord.INCLUDE_CONTENT), mappedRec.toString(WarcRecord.INCLUDE_CONTENT));
+			assertEquals(streamRec.getTotalRecordLength(), mappedRec.getTotalRecordLength());
+			numRecs++;
+		}
+		assertNull(WarcRecord.readNextWarcRecord(mappedReader, true));
+		assertFalse(numRecs == 0);
+		streamReader.close();
+		mappedReader.close();
+	}
+}
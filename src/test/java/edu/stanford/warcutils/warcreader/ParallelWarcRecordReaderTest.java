@@ -0,0 +1,164 @@
+package edu.stanford.warcutils.warcreader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelWarcRecordReaderTest {
+
+	List<File> testFiles;
+	ArrayList<String> filesFinished = new ArrayList<String>();
+
+	@Before
+	public void setUp() throws Exception {
+		testFiles = Arrays.asList(new File("src/test/resources/tinyWarc1_0.warc"),
+								  new File("src/test/resources/tinyWarc0_18.warc"),
+								  new File("src/test/resources/tinyWarc0_18.warc.gz"),
+								  new File("src/test/resources/warcdir/tinyWarc1_1.warc"),
+								  new File("src/test/resources/tinyWarc1_0.warc"));
+	}
+
+	@Test
+	public void testOrdered() throws IOException {
+		ParallelWarcRecordReader reader = new ParallelWarcRecordReader(testFiles, 4);
+		reader.setDelivery(ParallelWarcRecordReader.Delivery.ORDERED);
+		reader.setQueueCapacity(8);
+		reader.setCallback(this, "oneFileDone");
+		List<String> parallel = new ArrayList<String>();
+		while (reader.nextKeyValue())
+			parallel.add(describeRecord(reader.getCurrentFilePath(), reader.getCurrentKey(), reader.getCurrentValue()));
+		reader.close();
+		assertEquals(sequentialRecords(), parallel);
+		assertEquals(testFiles.size(), filesFinished.size());
+		assertFalse(reader.nextKeyValue());
+	}
+
+	@Test
+	public void testUnordered() throws IOException {
+		ParallelWarcRecordReader reader = new ParallelWarcRecordReader(testFiles, 3);
+		reader.setQueueCapacity(2);
+		reader.setReadContents(false);
+		List<String> parallel = new ArrayList<String>();
+		while (reader.nextKeyValue())
+			parallel.add(describeRecord(reader.getCurrentFilePath(), reader.getCurrentKey(), reader.getCurrentValue()));
+		reader.close();
+		List<String> sequential = sequentialRecords();
+		Collections.sort(sequential);
+		Collections.sort(parallel);
+		assertEquals(sequential, parallel);
+	}
+
+	@Test
+	public void testSplitFiles() throws IOException {
+		File gzFile = GzipMemberSplitterTest.writePerRecordGzip(new File("src/test/resources/tinyWarc1_0.warc"));
+		// Files that cannot be cut, clear and gzipped as one stream, are read whole:
+		List<File> gzFiles = Arrays.asList(gzFile, new File("src/test/resources/tinyWarc0_18.warc"), gzFile,
+										   new File("src/test/resources/tinyWarc0_18.warc.gz"));
+		ParallelWarcRecordReader reader = new ParallelWarcRecordReader(gzFiles, 4);
+		reader.setDelivery(ParallelWarcRecordReader.Delivery.ORDERED);
+		reader.setSplitSize(gzFile.length() / 5);
+		reader.setCallback(this, "oneFileDone");
+		List<String> parallel = new ArrayList<String>();
+		while (reader.nextKeyValue())
+			parallel.add(reader.getCurrentFilePath() + ":" + reader.getCurrentValue().get(WarcRecord.WARC_RECORD_ID));
+		reader.close();
+		List<String> sequential = new ArrayList<String>();
+		for (File warcFile : gzFiles) {
+			WarcRecordReader seqReader = new WarcRecordReader(warcFile);
+			while (seqReader.nextKeyValue())
+				sequential.add(seqReader.getCurrentFilePath() + ":" + seqReader.getCurrentValue().get(WarcRecord.WARC_RECORD_ID));
+			seqReader.close();
+		}
+		assertEquals(sequential, parallel);
+		// One callback per file, after its last split:
+		assertEquals(gzFiles.size(), filesFinished.size());
+	}
+
+	@Test(timeout = 20000)
+	public void testWorkerFailure() throws IOException {
+		FailingCodec failingCodec = new FailingCodec();
+		WarcCodecs.register(failingCodec);
+		try {
+			File badFile = File.createTempFile("failing", ".warc");
+			badFile.deleteOnExit();
+			FileUtils.writeStringToFile(badFile, FailingCodec.MAGIC + " rest of the file", "US-ASCII");
+			for (ParallelWarcRecordReader.Delivery delivery : ParallelWarcRecordReader.Delivery.values()) {
+				List<File> files = new ArrayList<File>(testFiles);
+				files.add(1, badFile);
+				ParallelWarcRecordReader reader = new ParallelWarcRecordReader(files, 2);
+				reader.setDelivery(delivery);
+				reader.setQueueCapacity(4);
+				try {
+					while (reader.nextKeyValue())
+						;
+					fail("Worker failure went unreported");
+				} catch (IOException e) {
+					assertTrue(e.getCause() instanceof IllegalStateException);
+					assertTrue(e.getMessage().contains(badFile.getAbsolutePath()));
+				}
+				assertFalse(reader.nextKeyValue());
+			}
+		} finally {
+			WarcCodecs.unregister(failingCodec);
+		}
+	}
+
+	/**
+	 * Claims files that start with its magic, and fails on them with
+	 * an unchecked exception, as a buggy decoder might.
+	 */
+	static class FailingCodec implements WarcCodec {
+		static final String MAGIC = "FAILWARC";
+
+		public String getName() {
+			return "failing";
+		}
+
+		public boolean recognizes(byte[] magic, int length) {
+			return length == MAGIC.length() && new String(magic, 0, length, Charset.forName("US-ASCII")).equals(MAGIC);
+		}
+
+		public InputStream open(File warcFile, InputStream in, long offset, int inputBufferSize) {
+			return new InputStream() {
+				@Override
+				public int read() {
+					throw new IllegalStateException("Corrupt block");
+				}
+			};
+		}
+	}
+
+	public void oneFileDone(String filePath) {
+		filesFinished.add(filePath);
+	}
+
+	private List<String> sequentialRecords() throws IOException {
+		ArrayList<String> res = new ArrayList<String>();
+		for (File warcFile : testFiles) {
+			WarcRecordReader reader = new WarcRecordReader(warcFile);
+			while (reader.nextKeyValue())
+				res.add(describeRecord(reader.getCurrentFilePath(), reader.getCurrentKey(), reader.getCurrentValue()));
+			reader.close();
+		}
+		return res;
+	}
+
+	private String describeRecord(String filePath, long key, WarcRecord rec) {
+		return filePath + "@" + key + ":" + rec.get(WarcRecord.WARC_RECORD_ID);
+	}
+}
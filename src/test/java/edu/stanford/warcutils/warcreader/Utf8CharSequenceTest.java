@@ -0,0 +1,113 @@
+package edu.stanford.warcutils.warcreader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class Utf8CharSequenceTest {
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testAgainstStringDecoding() {
+		Random random = new Random(5);
+		String alphabet = "ab \nüé€😀�";
+		for (int i=0; i<3000; i++) {
+			byte[] bytes;
+			if (i % 2 == 0) {
+				StringBuilder str = new StringBuilder();
+				int len = random.nextInt(3000);
+				for (int j=0; j<len; j++)
+					str.appendCodePoint(alphabet.codePointAt(alphabet.offsetByCodePoints(0, random.nextInt(alphabet.codePointCount(0, alphabet.length())))));
+				bytes = str.toString().getBytes(UTF8);
+			} else {
+				// Any bytes, including malformed UTF-8:
+				bytes = new byte[random.nextInt(12)];
+				for (int j=0; j<bytes.length; j++) {
+					int kind = random.nextInt(4);
+					bytes[j] = (byte) (kind == 0 ? 'a' :
+									   kind == 1 ? 0x80 + random.nextInt(0x40) :
+									   kind == 2 ? 0xC0 + random.nextInt(0x40) : random.nextInt(256));
+				}
+			}
+			String expected = new String(bytes, UTF8);
+			Utf8CharSequence chars = new Utf8CharSequence(bytes, 0, bytes.length);
+			// Read from the back first, then all of it in order:
+			if (expected.length() > 0)
+				assertEquals(expected.charAt(expected.length() - 1), chars.charAt(expected.length() - 1));
+			assertEquals(expected, chars.toString());
+			assertEquals(expected.length(), chars.length());
+			assertEquals(Arrays.equals(bytes, expected.getBytes(UTF8)), chars.isWellFormed());
+
+			ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 2);
+			direct.put((byte) 'x');
+			direct.put(bytes);
+			direct.flip();
+			direct.position(1);
+			chars = new Utf8CharSequence(direct);
+			assertEquals(expected.length(), chars.length());
+			for (int j=0; j<expected.length(); j++)
+				assertEquals(expected.charAt(j), chars.charAt(j));
+			assertEquals(1, direct.position());
+		}
+	}
+
+	@Test
+	public void testCharSequence() {
+		byte[] bytes = "abc für 😀 x".getBytes(UTF8);
+		Utf8CharSequence chars = new Utf8CharSequence(bytes, 0, bytes.length);
+		assertFalse(chars.isAscii());
+		assertEquals("für 😀", chars.subSequence(4, 10).toString());
+		assertEquals("", chars.subSequence(3, 3).toString());
+		try {
+			chars.charAt(chars.length());
+			fail("Read past the end");
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+		try {
+			chars.subSequence(2, 1);
+			fail("Accepted bad subsequence");
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+		assertTrue(new Utf8CharSequence(new byte[0], 0, 0).isAscii());
+		assertEquals("", new Utf8CharSequence(new byte[0], 0, 0).toString());
+	}
+
+	@Test
+	public void testRecordContent() throws Exception {
+		WarcRecordReader reader = new WarcRecordReader(new File("src/test/resources/tinyWarc1_0.warc"));
+		Pattern pattern = Pattern.compile("<title>[^<]*</title>", Pattern.CASE_INSENSITIVE);
+		int numFound = 0;
+		while (reader.nextKeyValue()) {
+			WarcRecord rec = reader.getCurrentValue();
+			CharSequence chars = rec.getContentChars();
+			assertTrue(chars instanceof Utf8CharSequence);
+			assertTrue(chars == rec.getContentChars());
+			Matcher lazy = pattern.matcher(chars);
+			Matcher decoded = pattern.matcher(rec.getContentUTF8());
+			boolean found = decoded.find();
+			assertEquals(found, lazy.find());
+			if (found) {
+				assertEquals(decoded.group(), lazy.group());
+				numFound++;
+			}
+			// Once the content is decoded anyway, it is what is scanned:
+			assertTrue(rec.getContentChars() == rec.getContentUTF8());
+		}
+		reader.close();
+		assertTrue(numFound > 0);
+	}
+}
@@ -0,0 +1,107 @@
+package edu.stanford.warcutils.warcreader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdOutputStream;
+
+public class WarcCodecsTest {
+
+	File testWarcFile1_0;
+	List<String> expectedRecords;
+
+	@Before
+	public void setUp() throws Exception {
+		testWarcFile1_0 = new File("src/test/resources/tinyWarc1_0.warc");
+		expectedRecords = readAll(testWarcFile1_0);
+	}
+
+	@Test
+	public void testDetection() throws IOException {
+		assertSame(WarcCodecs.PLAIN, WarcCodecs.forFile(testWarcFile1_0, 0L));
+		assertSame(WarcCodecs.GZIP, WarcCodecs.forFile(new File("src/test/resources/tinyWarc0_18.warc.gz"), 0L));
+		assertSame(WarcCodecs.PLAIN, WarcCodecs.forFile(new File("src/test/resources/warcdir/tinyWarc1_1.warc"), 0L));
+		assertEquals("zstd", WarcCodecs.forFile(writeZstd(null, false), 0L).getName());
+	}
+
+	@Test
+	public void testZstd() throws IOException {
+		assertEquals(expectedRecords, readAll(writeZstd(null, false)));
+	}
+
+	@Test
+	public void testZstdWithDictionary() throws IOException {
+		// Any bytes can serve as a raw-content dictionary:
+		byte[] dictionary = FileUtils.readFileToByteArray(testWarcFile1_0);
+		assertEquals(expectedRecords, readAll(writeZstd(dictionary, false)));
+		assertEquals(expectedRecords, readAll(writeZstd(dictionary, true)));
+	}
+
+	@Test
+	public void testInputBufferSize() throws IOException {
+		WarcRecordReader reader = new WarcRecordReader(new File("src/test/resources/tinyWarc0_18.warc.gz"));
+		reader.setInputBufferSize(17);
+		int numRecords = 0;
+		while (reader.nextKeyValue())
+			numRecords++;
+		assertSame(WarcCodecs.GZIP, reader.getCurrentCodec());
+		assertEquals(6, numRecords);
+	}
+
+	private List<String> readAll(File warcFile) throws IOException {
+		ArrayList<String> res = new ArrayList<String>();
+		WarcRecordReader reader = new WarcRecordReader(warcFile);
+		while (reader.nextKeyValue())
+			res.add(reader.getCurrentKey() + "\n" + reader.getCurrentValue().toString(WarcRecord.INCLUDE_CONTENT));
+		reader.close();
+		return res;
+	}
+
+	/**
+	 * Write tinyWarc1_0 as a .warc.zst with one frame per record, optionally
+	 * preceded by a dictionary frame.
+	 */
+	private File writeZstd(byte[] dictionary, boolean compressDictionary) throws IOException {
+		byte[] fileBytes = FileUtils.readFileToByteArray(testWarcFile1_0);
+		ArrayList<Long> keys = new ArrayList<Long>();
+		WarcRecordReader reader = new WarcRecordReader(testWarcFile1_0);
+		while (reader.nextKeyValue(false))
+			keys.add(reader.getCurrentKey());
+		reader.close();
+		keys.add((long) fileBytes.length);
+
+		File zstFile = File.createTempFile("perRecord", ".warc.zst");
+		zstFile.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(zstFile);
+		if (dictionary != null) {
+			byte[] dictFrame = compressDictionary ? Zstd.compress(dictionary) : dictionary;
+			out.write(new byte[] {0x5D, 0x2A, 0x4D, 0x18});
+			int len = dictFrame.length;
+			out.write(new byte[] {(byte) len, (byte) (len >> 8), (byte) (len >> 16), (byte) (len >> 24)});
+			out.write(dictFrame);
+		}
+		for (int i=0; i<keys.size()-1; i++) {
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			ZstdOutputStream zstdOut = new ZstdOutputStream(frame);
+			if (dictionary != null)
+				zstdOut.setDict(dictionary);
+			zstdOut.write(fileBytes, (int) (long) keys.get(i), (int) (keys.get(i+1) - keys.get(i)));
+			zstdOut.close();
+			out.write(frame.toByteArray());
+		}
+		out.close();
+		return zstFile;
+	}
+}
@@ -0,0 +1,109 @@
+package edu.stanford.warcutils.warcreader;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WarcInputPlannerTest {
+
+	File root;
+
+	@Before
+	public void setUp() throws Exception {
+		root = File.createTempFile("plannerTest", "");
+		root.delete();
+		root.mkdir();
+		writeFile("small.warc", 10);
+		writeFile("large.warc.gz", 1000);
+		writeFile("notes.txt", 5000);
+		writeFile("sub/medium.warc", 100);
+		writeFile("sub/deeper/huge.warc.zst", 10000);
+		writeFile("sub/deeper/crawl-metadata.warc", 50);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(root);
+	}
+
+	@Test
+	public void testDefaultPlan() {
+		WarcInputPlanner planner = new WarcInputPlanner();
+		assertEquals(Arrays.asList("huge.warc.zst", "large.warc.gz", "medium.warc", "crawl-metadata.warc", "small.warc"),
+					 names(planner.plan(root)));
+		planner.setRecursive(false);
+		assertEquals(Arrays.asList("large.warc.gz", "small.warc"), names(planner.plan(root)));
+	}
+
+	@Test
+	public void testGlobs() {
+		WarcInputPlanner planner = new WarcInputPlanner();
+		planner.setOrder(WarcInputPlanner.Order.BY_PATH);
+		planner.addExclude("*-metadata*");
+		planner.addExclude("sub/deeper/*.zst");
+		assertEquals(Arrays.asList("large.warc.gz", "small.warc", "medium.warc"), names(planner.plan(root)));
+
+		planner = new WarcInputPlanner();
+		planner.addInclude("*.txt");
+		// Explicitly named files are taken regardless of the globs:
+		assertEquals(Arrays.asList("notes.txt", "small.warc"),
+					 names(planner.plan(Arrays.asList(root, new File(root, "small.warc")))));
+	}
+
+	@Test
+	public void testExcludedPaths() {
+		WarcInputPlanner planner = new WarcInputPlanner();
+		planner.addExcludedPath(new File(root, "sub/deeper"));
+		planner.addExcludedPath(new File(root, "small.warc"));
+		assertEquals(Arrays.asList("large.warc.gz", "medium.warc"), names(planner.plan(root)));
+		// Paths given explicitly are still taken:
+		assertEquals(Arrays.asList("huge.warc.zst", "crawl-metadata.warc"), names(planner.plan(new File(root, "sub/deeper"))));
+		assertEquals(Arrays.asList("small.warc"), names(planner.plan(new File(root, "small.warc"))));
+	}
+
+	@Test
+	public void testBalance() {
+		List<File> files = new WarcInputPlanner().plan(root);
+		List<List<File>> perWorker = WarcInputPlanner.balance(files, 2);
+		assertEquals(Arrays.asList("huge.warc.zst"), names(perWorker.get(0)));
+		assertEquals(Arrays.asList("large.warc.gz", "medium.warc", "crawl-metadata.warc", "small.warc"), names(perWorker.get(1)));
+		assertEquals(3, WarcInputPlanner.balance(files, 3).size());
+	}
+
+	@Test
+	public void testReaderSkipsStrayFiles() throws IOException {
+		FileUtils.copyFile(new File("src/test/resources/tinyWarc1_0.warc"), new File(root, "sub/tinyWarc1_0.warc"));
+		FileUtils.copyFile(new File("src/test/resources/tinyWarc0_18.warc.gz"), new File(root, "tinyWarc0_18.warc.gz"));
+		WarcInputPlanner planner = new WarcInputPlanner();
+		planner.addInclude("tinyWarc*");
+		List<File> files = planner.plan(root);
+		// The directory constructor reads the largest file first:
+		WarcRecordReader reader = new WarcRecordReader(new File(root, "sub"));
+		assertEquals(true, reader.nextKeyValue());
+		assertEquals(new File(root, "sub/tinyWarc1_0.warc").getAbsolutePath(), reader.getCurrentFilePath());
+		reader.close();
+		assertEquals(Arrays.asList("tinyWarc1_0.warc", "tinyWarc0_18.warc.gz"), names(files));
+	}
+
+	private void writeFile(String relativePath, int numBytes) throws IOException {
+		File file = new File(root, relativePath);
+		file.getParentFile().mkdirs();
+		FileUtils.writeByteArrayToFile(file, new byte[numBytes]);
+	}
+
+	private static List<String> names(List<File> files) {
+		ArrayList<String> res = new ArrayList<String>();
+		for (File file : files)
+			res.add(file.getName());
+		return res;
+	}
+}
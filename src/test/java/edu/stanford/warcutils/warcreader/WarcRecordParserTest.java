@@ -0,0 +1,127 @@
+package edu.stanford.warcutils.warcreader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class WarcRecordParserTest {
+
+	private static final int NUM_THREADS = 8;
+	private static final int PASSES_PER_THREAD = 10;
+
+	File testWarcDir = new File("src/test/resources/warcdir");
+
+	@Test
+	public void testConcurrentReaders() throws Exception {
+		final List<String> expected = readAll(testWarcDir);
+		ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+		try {
+			ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int i=0; i<NUM_THREADS; i++) {
+				results.add(pool.submit(new Callable<Boolean>() {
+					public Boolean call() throws Exception {
+						for (int pass=0; pass<PASSES_PER_THREAD; pass++)
+							assertEquals(expected, readAll(testWarcDir));
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results)
+				// Rethrows assertion failures of the workers:
+				result.get();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testParserReuse() throws IOException {
+		WarcRecordParser parser = new WarcRecordParser();
+		LineAndChunkReader lineReader = new LineAndChunkReader(new FileInputStream("src/test/resources/tinyWarc1_0.warc"));
+		WarcRecord first = parser.readNextWarcRecord(lineReader, true);
+		WarcRecord second = parser.readNextWarcRecord(lineReader, true);
+		// Parsing the second record must leave the first one alone:
+		assertEquals("<urn:uuid:155c7215-756f-4609-b10d-104b7ce86a69>", first.get(WarcRecord.WARC_RECORD_ID));
+		assertEquals("<urn:uuid:c1f78b79-d21f-49fd-80c6-b723b05b323b>", second.get(WarcRecord.WARC_RECORD_ID));
+		lineReader.close();
+	}
+
+	@Test
+	public void testRejectedRecordsKept() throws IOException {
+		WarcRecordParser parser = new WarcRecordParser();
+		parser.setHeaderFilter(new WarcHeaderFilter() {
+			@Override
+			public boolean rejectsHeader(WarcRecord header) {
+				return true;
+			}
+		});
+		LineAndChunkReader lineReader = new LineAndChunkReader(new FileInputStream("src/test/resources/tinyWarc1_0.warc"));
+		WarcRecord first = parser.readNextWarcRecord(lineReader, true);
+		assertTrue(parser.isRejected());
+		WarcRecord second = parser.readNextWarcRecord(lineReader, true);
+		// Callers of the public methods may keep rejected records:
+		assertNotSame(first, second);
+		assertEquals("<urn:uuid:155c7215-756f-4609-b10d-104b7ce86a69>", first.get(WarcRecord.WARC_RECORD_ID));
+		assertEquals("<urn:uuid:c1f78b79-d21f-49fd-80c6-b723b05b323b>", second.get(WarcRecord.WARC_RECORD_ID));
+		lineReader.close();
+	}
+
+	@Test
+	public void testHeaderFields() throws IOException {
+		String recStr = "WARC/1.0\r\n" +
+						"warc-TYPE:response\r\n" +
+						"WARC-Record-ID:   <urn:uuid:1234>  \r\n" +
+						"X-Crawler-Note: a: b\r\n" +
+						"no colon here\r\n" +
+						"WARC-Concurrent-To: <urn:uuid:5678>\r\n" +
+						"CONTENT-LENGTH: 5\r\n" +
+						"\r\n" +
+						"Hello\r\n\r\n";
+		LineAndChunkReader lineReader = new LineAndChunkReader(new ByteArrayInputStream(recStr.getBytes("UTF-8")));
+		WarcRecord rec = new WarcRecordParser().readNextWarcRecord(lineReader, true);
+		assertEquals("response", rec.get(WarcRecord.WARC_TYPE));
+		assertEquals("<urn:uuid:1234>", rec.get("Warc-Record-Id"));
+		assertEquals("a: b", rec.get("x-crawler-note"));
+		assertEquals("<urn:uuid:5678>", rec.get(WarcRecord.WARC_CONCURRENT_TO));
+		assertEquals("5", rec.get(WarcRecord.CONTENT_LENGTH));
+		assertEquals("Hello", rec.get(WarcRecord.CONTENT));
+		assertNull(rec.get("no colon here"));
+		// Known field names come back as the constants themselves:
+		assertSame(WarcRecord.WARC_TYPE, rec.keySetHeader().iterator().next());
+		assertTrue(rec.optionalKeysHeader().contains("x-crawler-note"));
+		// Others are not interned:
+		byte[] unknownName = "X-Crawler-Note".getBytes("UTF-8");
+		assertEquals("x-crawler-note", WarcRecordParser.fieldName(unknownName, 0, unknownName.length));
+		assertNotSame("x-crawler-note", WarcRecordParser.fieldName(unknownName, 0, unknownName.length));
+		assertTrue(rec.keySet().contains(WarcRecord.CONTENT));
+		assertTrue(rec.toString().contains("x-crawler-note: a: b"));
+		assertTrue(rec.toString().contains("WARC-Concurrent-To: <urn:uuid:5678>"));
+		lineReader.close();
+	}
+
+	private static List<String> readAll(File warcPath) throws IOException {
+		ArrayList<String> res = new ArrayList<String>();
+		WarcRecordReader reader = new WarcRecordReader(warcPath);
+		while (reader.nextKeyValue())
+			res.add(reader.getCurrentFilePath() + "@" + reader.getCurrentKey() + "\n" +
+					reader.getCurrentValue().toString(WarcRecord.INCLUDE_CONTENT));
+		reader.close();
+		return res;
+	}
+}
@@ -2,11 +2,26 @@ package edu.stanford.warcutils.warcreader;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.io.FileUtils;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -145,6 +160,384 @@ public class WarcRecordReaderTest {
 		assertFalse(warcReaderDir.nextKeyValue());
 	}
 	
+	@Test
+	public void testMemoryMapped() throws IOException {
+		WarcRecordReader mappedReader = new WarcRecordReader(testWarcDir);
+		mappedReader.setMemoryMapped(true);
+		for (int i=0; i<51; i++) {
+			assertTrue(warcReaderDir.nextKeyValue());
+			assertTrue(mappedReader.nextKeyValue());
+			assertEquals(warcReaderDir.getCurrentKey(), mappedReader.getCurrentKey());
+			assertEquals(warcReaderDir.getCurrentValue().toString(WarcRecord.INCLUDE_CONTENT), 
+						 mappedReader.getCurrentValue().toString(WarcRecord.INCLUDE_CONTENT));
+		}
+		assertFalse(mappedReader.nextKeyValue());
+		mappedReader.close();
+	}
+	
+	@Test
+	public void testContentStreaming() throws IOException {
+		for (File warcFile : new File[] {testWarcFile1_0, testWarcFile0_18GZipped}) {
+			WarcRecordReader inMemory = new WarcRecordReader(warcFile);
+			WarcRecordReader streaming = new WarcRecordReader(warcFile);
+			streaming.setContentStreaming(true);
+			int recNum = 0;
+			while (inMemory.nextKeyValue()) {
+				assertTrue(streaming.nextKeyValue());
+				assertEquals(inMemory.getCurrentKey(), streaming.getCurrentKey());
+				WarcRecord rec = streaming.getCurrentValue();
+				assertTrue(rec.isContentStreamed());
+				// Consume every other record's content, partly or fully:
+				if (recNum % 2 == 0) {
+					InputStream contentIn = rec.getContentStream();
+					ByteArrayOutputStream content = new ByteArrayOutputStream();
+					byte[] buf = new byte[7];
+					int n;
+					while ((n = contentIn.read(buf)) > 0)
+						content.write(buf, 0, n);
+					byte[] expected = new byte[inMemory.getCurrentValue().getContentBuffer().remaining()];
+					inMemory.getCurrentValue().getContentBuffer().get(expected);
+					assertTrue(Arrays.equals(expected, content.toByteArray()));
+				} else if (recNum % 4 == 1)
+					rec.getContentStream().read(new byte[3]);
+				recNum++;
+			}
+			assertFalse(streaming.nextKeyValue());
+			inMemory.close();
+			streaming.close();
+		}
+	}
+
+	@Test
+	public void testReuseRecords() throws IOException {
+		for (boolean readContents : new boolean[] {true, false}) {
+			WarcRecordReader fresh = new WarcRecordReader(testWarcDir);
+			WarcRecordReader reusing = new WarcRecordReader(testWarcDir);
+			reusing.setReuseRecords(true);
+			WarcRecord firstRec = null;
+			ArrayList<WarcRecord> copies = new ArrayList<WarcRecord>();
+			ArrayList<String> expected = new ArrayList<String>();
+			while (fresh.nextKeyValue(readContents)) {
+				assertTrue(reusing.nextKeyValue(readContents));
+				WarcRecord rec = reusing.getCurrentValue();
+				if (firstRec == null)
+					firstRec = rec;
+				assertSame(firstRec, rec);
+				String expectedStr = fresh.getCurrentValue().toString(readContents);
+				assertEquals(expectedStr, rec.toString(readContents));
+				assertEquals(fresh.getCurrentKey(), reusing.getCurrentKey());
+				copies.add(rec.copy());
+				expected.add(expectedStr);
+			}
+			assertFalse(reusing.nextKeyValue(readContents));
+			// Copies are unaffected by later refills:
+			for (int i=0; i<copies.size(); i++)
+				assertEquals(expected.get(i), copies.get(i).toString(readContents));
+		}
+	}
+
+	@Test
+	public void testHeaderOnly() throws IOException {
+		// Skipping contents must land on the same records
+		// as reading them:
+		WarcRecordReader headerOnlyReader = new WarcRecordReader(testWarcDir);
+		for (int i=0; i<51; i++) {
+			assertTrue(warcReaderDir.nextKeyValue(true));
+			assertTrue(headerOnlyReader.nextKeyValue(false));
+			assertEquals(warcReaderDir.getCurrentKey(), headerOnlyReader.getCurrentKey());
+			assertEquals(warcReaderDir.getCurrentValue().get(WarcRecord.WARC_RECORD_ID),
+						 headerOnlyReader.getCurrentValue().get(WarcRecord.WARC_RECORD_ID));
+		}
+		assertFalse(headerOnlyReader.nextKeyValue(false));
+		headerOnlyReader.close();
+	}
+	
+	@Test
+	public void testHeaderFilter() throws IOException {
+		WarcHeaderFilter responsesOnly = new WarcHeaderFilter() {
+			public boolean rejectsHeader(WarcRecord header) {
+				return !"response".equals(header.get(WarcRecord.WARC_TYPE));
+			}
+		};
+		ArrayList<Long> keys = new ArrayList<Long>();
+		ArrayList<String> contents = new ArrayList<String>();
+		while (warcReader1_0.nextKeyValue()) {
+			if (warcReader1_0.getCurrentValue().get(WarcRecord.WARC_TYPE).equals("response")) {
+				keys.add(warcReader1_0.getCurrentKey());
+				contents.add(warcReader1_0.getCurrentValue().getContentUTF8());
+			}
+		}
+		assertEquals(30, keys.size());
+		File gzFile = GzipMemberSplitterTest.writePerRecordGzip(testWarcFile1_0);
+		for (File warcFile : new File[] {testWarcFile1_0, gzFile}) {
+			for (boolean reuse : new boolean[] {false, true}) {
+				WarcRecordReader filtered = new WarcRecordReader(warcFile);
+				filtered.setHeaderFilter(responsesOnly);
+				filtered.setReuseRecords(reuse);
+				for (int i=0; i<keys.size(); i++) {
+					assertTrue(filtered.nextKeyValue());
+					if (warcFile == testWarcFile1_0)
+						assertEquals(keys.get(i).longValue(), filtered.getCurrentKey());
+					assertEquals(contents.get(i), filtered.getCurrentValue().getContentUTF8());
+				}
+				assertFalse(filtered.nextKeyValue());
+				assertEquals(30, filtered.getStats().getRecordsEmitted());
+				assertEquals(15, filtered.getStats().getRecordsRejected());
+				filtered.close();
+			}
+		}
+	}
+
+	@Test
+	public void testSeekClear() throws IOException {
+		ArrayList<Long> keys = new ArrayList<Long>();
+		ArrayList<String> ids = new ArrayList<String>();
+		while (warcReader1_0.nextKeyValue(false)) {
+			keys.add(warcReader1_0.getCurrentKey());
+			ids.add(warcReader1_0.getCurrentValue().get(WarcRecord.WARC_RECORD_ID));
+		}
+		// Keys point right at the version lines:
+		byte[] fileBytes = FileUtils.readFileToByteArray(testWarcFile1_0);
+		for (long key : keys)
+			assertEquals("WARC/1.0", new String(fileBytes, (int) key, 8));
+		// Fetch in reverse, so nothing is read sequentially:
+		for (int i=keys.size()-1; i>=0; i--) {
+			WarcRecord rec = WarcRecordReader.readRecordAt(testWarcFile1_0, keys.get(i));
+			assertEquals(ids.get(i), rec.get(WarcRecord.WARC_RECORD_ID));
+		}
+		// Seeking continues sequentially from the offset:
+		WarcRecordReader reader = new WarcRecordReader(testWarcFile1_0);
+		reader.setMemoryMapped(true);
+		reader.seek(testWarcFile1_0, keys.get(40));
+		for (int i=40; i<keys.size(); i++) {
+			assertTrue(reader.nextKeyValue());
+			assertEquals((long) keys.get(i), reader.getCurrentKey());
+			assertEquals(ids.get(i), reader.getCurrentValue().get(WarcRecord.WARC_RECORD_ID));
+		}
+		assertFalse(reader.nextKeyValue());
+	}
+
+	@Test
+	public void testSeekReplacesCurrentFile() throws IOException {
+		ArrayList<Long> keys = new ArrayList<Long>();
+		while (warcReader1_0.nextKeyValue(false))
+			keys.add(warcReader1_0.getCurrentKey());
+		// Files are read last to first, so the copy in warcdir is current:
+		File otherFile = new File("src/test/resources/warcdir/tinyWarc1_0.warc");
+		WarcRecordReader reader = new WarcRecordReader(Arrays.asList(testWarcFile0_18, otherFile));
+		assertTrue(reader.nextKeyValue());
+		assertEquals(otherFile.getAbsolutePath(), reader.getCurrentFilePath());
+		reader.seek(testWarcFile1_0, keys.get(40));
+		ArrayList<String> paths = new ArrayList<String>();
+		while (reader.nextKeyValue(false))
+			paths.add(reader.getCurrentFilePath());
+		// The rest of the copy is given up; the queued file follows:
+		assertEquals(5 + 6, paths.size());
+		assertEquals(testWarcFile1_0.getAbsolutePath(), paths.get(0));
+		assertEquals(testWarcFile0_18.getAbsolutePath(), paths.get(paths.size() - 1));
+
+		// Split readers stay within their split:
+		WarcRecordReader splitReader = new WarcRecordReader(new WarcFileSplit(testWarcFile1_0, keys.get(10), keys.get(20) - keys.get(10)));
+		splitReader.seek(testWarcFile1_0, keys.get(15));
+		int numRecords = 0;
+		while (splitReader.nextKeyValue(false)) {
+			assertEquals((long) keys.get(15 + numRecords), splitReader.getCurrentKey());
+			numRecords++;
+		}
+		assertEquals(5, numRecords);
+		for (long outside : new long[] {keys.get(5), keys.get(30)}) {
+			try {
+				splitReader.seek(testWarcFile1_0, outside);
+				fail("Seeked outside of the split");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+		try {
+			splitReader.seek(testWarcFile0_18, 0L);
+			fail("Seeked into another file");
+		} catch (IOException e) {
+			// expected
+		}
+		splitReader.close();
+	}
+
+	@Test
+	public void testSeekGzipMembers() throws IOException {
+		// Build a .warc.gz with one gzip member per record:
+		byte[] fileBytes = FileUtils.readFileToByteArray(testWarcFile1_0);
+		ArrayList<Long> keys = new ArrayList<Long>();
+		ArrayList<String> ids = new ArrayList<String>();
+		while (warcReader1_0.nextKeyValue(false)) {
+			keys.add(warcReader1_0.getCurrentKey());
+			ids.add(warcReader1_0.getCurrentValue().get(WarcRecord.WARC_RECORD_ID));
+		}
+		keys.add((long) fileBytes.length);
+		File gzFile = File.createTempFile("perRecord", ".warc.gz");
+		gzFile.deleteOnExit();
+		FileOutputStream gzOut = new FileOutputStream(gzFile);
+		ArrayList<Long> memberOffsets = new ArrayList<Long>();
+		long compressedPos = 0;
+		for (int i=0; i<keys.size()-1; i++) {
+			ByteArrayOutputStream member = new ByteArrayOutputStream();
+			GZIPOutputStream gzMember = new GZIPOutputStream(member);
+			gzMember.write(fileBytes, (int) (long) keys.get(i), (int) (keys.get(i+1) - keys.get(i)));
+			gzMember.close();
+			memberOffsets.add(compressedPos);
+			gzOut.write(member.toByteArray());
+			compressedPos += member.size();
+		}
+		gzOut.close();
+		
+		for (int i=memberOffsets.size()-1; i>=0; i -= 7) {
+			WarcRecord rec = WarcRecordReader.readRecordAt(gzFile, memberOffsets.get(i));
+			assertEquals(ids.get(i), rec.get(WarcRecord.WARC_RECORD_ID));
+		}
+		// Whole file still reads sequentially across members:
+		assertEquals(ids.size(), WarcCounter.count(Collections.singletonList(gzFile)));
+	}
+	
+	@Test
+	public void testReadAhead() throws IOException {
+		File gzFile = GzipMemberSplitterTest.writePerRecordGzip(testWarcFile1_0);
+		ArrayList<String> expected = new ArrayList<String>();
+		WarcRecordReader reader = new WarcRecordReader(gzFile);
+		while (reader.nextKeyValue())
+			expected.add(reader.getCurrentKey() + " " + reader.getCurrentFileOffset() + " " + 
+						 reader.getCurrentValue().toString(WarcRecord.INCLUDE_CONTENT));
+		reader.close();
+
+		// Small buffers, so that the ring wraps around many times:
+		reader = new WarcRecordReader(gzFile);
+		reader.setReadAheadDepth(3);
+		reader.setReadAheadBufferSize(100);
+		ArrayList<String> readAhead = new ArrayList<String>();
+		while (reader.nextKeyValue())
+			readAhead.add(reader.getCurrentKey() + " " + reader.getCurrentFileOffset() + " " + 
+						  reader.getCurrentValue().toString(WarcRecord.INCLUDE_CONTENT));
+		reader.close();
+		assertEquals(expected, readAhead);
+
+		// Closing in mid-file stops the read-ahead:
+		reader = new WarcRecordReader(testWarcFile0_18GZipped);
+		reader.setReadAheadDepth(2);
+		assertTrue(reader.nextKeyValue());
+		reader.close();
+	}
+
+	@Test(timeout = 20000)
+	public void testReadAheadFailure() throws IOException {
+		// A source that fails like a decoder on corrupt data, after some good bytes:
+		InputStream failing = new InputStream() {
+			int numRead = 0;
+			@Override
+			public int read() {
+				if (numRead++ < 250)
+					return 'x';
+				throw new IllegalStateException("Corrupt block");
+			}
+		};
+		ReadAheadInputStream in = new ReadAheadInputStream(failing, 2, 100);
+		try {
+			while (in.read() >= 0)
+				;
+			fail("Source failure went unreported");
+		} catch (IOException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		in.close();
+	}
+
+	@Test
+	public void testPrefetchNextFile() throws IOException {
+		File gzFile = GzipMemberSplitterTest.writePerRecordGzip(testWarcFile1_0);
+		ArrayList<File> files = new ArrayList<File>(Arrays.asList(testWarcFile1_0, testWarcFile0_18GZipped, gzFile,
+																   new File("src/test/resources/warcdir/tinyWarc1_1.warc"), testWarcFile0_18, gzFile));
+		ArrayList<String> expected = readAllDescribed(new WarcRecordReader(files));
+		WarcRecordReader reader = new WarcRecordReader(files);
+		reader.setPrefetchNextFile(true);
+		assertEquals(expected, readAllDescribed(reader));
+		reader = new WarcRecordReader(files);
+		reader.setPrefetchNextFile(true);
+		reader.setMemoryMapped(true);
+		assertEquals(expected, readAllDescribed(reader));
+
+		// Headers only: content of prefetched clear files is still skipped by seeking:
+		ArrayList<String> expectedIds = new ArrayList<String>();
+		reader = new WarcRecordReader(files);
+		while (reader.nextKeyValue(false))
+			expectedIds.add(reader.getCurrentFileOffset() + " " + reader.getCurrentValue().get(WarcRecord.WARC_RECORD_ID));
+		reader.close();
+		ArrayList<String> ids = new ArrayList<String>();
+		reader = new WarcRecordReader(files);
+		reader.setPrefetchNextFile(true);
+		while (reader.nextKeyValue(false)) {
+			ids.add(reader.getCurrentFileOffset() + " " + reader.getCurrentValue().get(WarcRecord.WARC_RECORD_ID));
+			if (reader.getCurrentCodec() == WarcCodecs.PLAIN)
+				assertTrue(reader.getCurrentFilePath(), reader.getLineReader().seeksOnSkip());
+		}
+		reader.close();
+		assertEquals(expectedIds, ids);
+	}
+
+	@Test
+	public void testStats() throws IOException, JMException {
+		// Clear file: compressed and decompressed bytes are the same:
+		WarcRecordReader reader = new WarcRecordReader(testWarcFile1_0);
+		assertEquals(0.0f, reader.getProgress(), 0.0f);
+		while (reader.nextKeyValue(false)) {}
+		ReaderStats stats = reader.getStats();
+		assertEquals(45, stats.getRecordsEmitted());
+		assertEquals(1, stats.getFilesOpened());
+		assertEquals(stats.getDecompressedBytesRead(), stats.getCompressedBytesRead());
+		assertTrue(stats.getDecompressedBytesRead() <= testWarcFile1_0.length());
+		assertTrue(reader.getProgress() > 0.9f);
+		assertEquals(0L, stats.getHeaderParseNanos());
+		reader.close();
+
+		// Gzipped, timed, with read-ahead, and watched through JMX:
+		File gzFile = GzipMemberSplitterTest.writePerRecordGzip(testWarcFile1_0);
+		reader = new WarcRecordReader(Arrays.asList(gzFile, testWarcFile0_18));
+		reader.setReadAheadDepth(2);
+		stats = reader.getStats();
+		stats.setTimed(true);
+		ObjectName name = stats.registerMBean("testStats");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ReaderStats snapshot = null;
+		while (reader.nextKeyValue()) {
+			if (snapshot == null && reader.getCurrentFilePath().equals(gzFile.getAbsolutePath()))
+				snapshot = stats.snapshot();
+		}
+		assertEquals(45L + 6L, server.getAttribute(name, "RecordsEmitted"));
+		assertEquals(2L, stats.getFilesOpened());
+		assertEquals(6L, snapshot.getRecordsEmitted() - 1L);
+		assertEquals(snapshot.getRecordsEmitted(), snapshot.snapshot().getRecordsEmitted());
+		ReaderStats.FileStats[] recent = stats.getRecentFileStats();
+		assertEquals(1, recent.length);
+		assertEquals(testWarcFile0_18.getAbsolutePath(), recent[0].getPath());
+		ReaderStats.FileStats gzStats = stats.getCurrentFile();
+		assertEquals("gzip", gzStats.getCodec());
+		assertEquals(45, gzStats.getRecordsEmitted());
+		assertEquals(gzFile.length(), gzStats.getCompressedBytesRead());
+		assertTrue(gzStats.getDecompressedBytesRead() > gzStats.getCompressedBytesRead());
+		assertEquals(1.0f, reader.getProgress(), 0.0f);
+		assertTrue(stats.getHeaderParseNanos() > 0L);
+		assertTrue(stats.getInflateNanos() > 0L);
+		reader.close();
+		assertFalse(server.isRegistered(name));
+		assertTrue(gzStats.isFinished());
+		assertEquals(45, gzStats.getRecordsEmitted());
+	}
+
+	private ArrayList<String> readAllDescribed(WarcRecordReader reader) throws IOException {
+		ArrayList<String> res = new ArrayList<String>();
+		while (reader.nextKeyValue())
+			res.add(reader.getCurrentFilePath() + " " + reader.getCurrentKey() + " " + reader.getCurrentFileOffset() + " " +
+					reader.getCurrentValue().toString(WarcRecord.INCLUDE_CONTENT));
+		reader.close();
+		return res;
+	}
+
 	public void callbackMethod(String fileNameDone, String fileNameNext) {
 		fileArray.add(fileNameDone);
 	}
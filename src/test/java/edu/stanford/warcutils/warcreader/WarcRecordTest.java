@@ -1,8 +1,15 @@
 package edu.stanford.warcutils.warcreader;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
 
 import org.junit.Before;
@@ -47,4 +54,90 @@ public class WarcRecordTest {
 		assertTrue(str.endsWith("[Record content suppressed. Use toString(INCLUDE_CONTENT) to see the content string.]\n"));
 	}
 
+
+	@Test
+	public void testContentCache() {
+		String content = record.get(WarcRecord.CONTENT);
+		assertTrue(content.startsWith("software: Heritrix"));
+		// Decoded once only:
+		assertSame(content, record.get(WarcRecord.CONTENT));
+		assertSame(content, record.getContentChars());
+		assertEquals(394, record.getContentBuffer().remaining());
+		// Replacing the content invalidates the cache:
+		assertSame(content, record.put(WarcRecord.CONTENT, "new content"));
+		assertEquals("new content", record.get(WarcRecord.CONTENT));
+		assertEquals(11, record.getContentBuffer().remaining());
+		String newContent = record.get(WarcRecord.CONTENT);
+		assertNotSame(content, newContent);
+		record.remove(WarcRecord.CONTENT);
+		assertEquals("", record.get(WarcRecord.CONTENT));
+	}
+
+	@Test
+	public void testHugeContentLength() throws IOException {
+		String hugeRecord = 
+				"WARC/1.0\n" +
+				"WARC-Type: resource\n" +
+				"WARC-Record-ID: <urn:uuid:00000000-0000-0000-0000-000000000001>\n" +
+				"Content-Length: 3000000000\n" +
+				"\n" +
+				"only the start of a huge payload";
+		WarcRecord rec = new WarcRecordParser().readNextWarcRecordStreaming(
+				new LineAndChunkReader(new ByteArrayInputStream(hugeRecord.getBytes())));
+		assertEquals("3000000000", rec.get(WarcRecord.CONTENT_LENGTH));
+		assertTrue(rec.getTotalRecordLength() > 3000000000L);
+		InputStream contentIn = rec.getContentStream();
+		byte[] buf = new byte[1024];
+		assertEquals(32, contentIn.read(buf));
+		try {
+			contentIn.read(buf);
+			assertTrue("Truncated content not detected", false);
+		} catch (EOFException e) {
+			// expected
+		}
+		try {
+			WarcRecord.readNextWarcRecord(new LineAndChunkReader(new ByteArrayInputStream(hugeRecord.getBytes())), true);
+			assertTrue("Oversized in-memory content not refused", false);
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("too large"));
+		}
+	}
+
+	@Test
+	public void testContentLengthOfText() throws IOException {
+		// Well-formed non-ASCII content keeps its byte count; malformed
+		// content is counted as encoded after U+FFFD replacement:
+		byte[][] contents = {"f\u00fcr \u20ac".getBytes("UTF-8"), {'a', (byte) 0xff, 'b', (byte) 0xe2, (byte) 0x82}};
+		int[] expectedLengths = {contents[0].length, "a\ufffdb\ufffd".getBytes("UTF-8").length};
+		for (int i=0; i<contents.length; i++) {
+			ByteArrayOutputStream warc = new ByteArrayOutputStream();
+			warc.write(("WARC/1.0\r\nWARC-Type: resource\r\nContent-Length: " + contents[i].length + "\r\n\r\n").getBytes("UTF-8"));
+			warc.write(contents[i]);
+			warc.write("\r\n\r\n".getBytes("UTF-8"));
+			LineAndChunkReader lineReader = new LineAndChunkReader(new ByteArrayInputStream(warc.toByteArray()));
+			WarcRecord rec = WarcRecord.readNextWarcRecord(lineReader, WarcRecord.INCLUDE_CONTENT);
+			assertTrue(rec.toString(WarcRecord.INCLUDE_CONTENT).contains("Content-Length: " + expectedLengths[i] + "\n"));
+		}
+	}
+
+	@Test
+	public void testSkipContentWithWarcLines() throws IOException {
+		// Payload that contains what looks like a WARC version line:
+		String payload = "line one\nWARC/1.0\nWARC-Type: response\nContent-Length: 0\n\n";
+		String warcWithTrickyPayload = 
+				"WARC/1.0\r\n" +
+				"WARC-Type: resource\r\n" +
+				"WARC-Record-ID: <urn:uuid:00000000-0000-0000-0000-000000000001>\r\n" +
+				"Content-Length: " + payload.length() + "\r\n" +
+				"\r\n" +
+				payload +
+				"\r\n\r\n";
+		LineAndChunkReader lineReader = new LineAndChunkReader(new ByteArrayInputStream(warcWithTrickyPayload.getBytes()));
+		WarcRecord rec = WarcRecord.readNextWarcRecord(lineReader, WarcRecord.DONT_INCLUDE_CONTENT);
+		assertEquals("resource", rec.get(WarcRecord.WARC_TYPE));
+		assertEquals(0, rec.getContentBuffer().remaining());
+		// Header, plus the skipped content:
+		assertEquals(warcWithTrickyPayload.length() - 4, rec.getTotalRecordLength().longValue());
+		assertNull(WarcRecord.readNextWarcRecord(lineReader, WarcRecord.DONT_INCLUDE_CONTENT));
+	}
 }
@@ -0,0 +1,104 @@
+package edu.stanford.warcutils.warcreader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class WarcRecordsTest {
+
+	File testWarcFile1_0;
+	File perRecordGzFile;
+	List<File> files;
+	List<String> expectedIds;
+
+	@Before
+	public void setUp() throws Exception {
+		testWarcFile1_0 = new File("src/test/resources/tinyWarc1_0.warc");
+		perRecordGzFile = GzipMemberSplitterTest.writePerRecordGzip(testWarcFile1_0);
+		files = Arrays.asList(perRecordGzFile,
+							  new File("src/test/resources/tinyWarc0_18.warc.gz"),
+							  testWarcFile1_0,
+							  new File("src/test/resources/warcdir/tinyWarc1_1.warc"),
+							  perRecordGzFile);
+		expectedIds = new ArrayList<String>();
+		for (File warcFile : files) {
+			WarcRecordReader reader = new WarcRecordReader(warcFile);
+			while (reader.nextKeyValue(false))
+				expectedIds.add(reader.getCurrentValue().get(WarcRecord.WARC_RECORD_ID));
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testSequentialStream() {
+		Stream<WarcRecord> records = WarcRecords.stream(files);
+		assertEquals(expectedIds, records.map(rec -> rec.get(WarcRecord.WARC_RECORD_ID)).collect(Collectors.toList()));
+		records.close();
+		assertEquals(51L, WarcRecords.stream(Paths.get("src/test/resources/warcdir")).count());
+		// Files given explicitly are read in the order given:
+		records = WarcRecords.stream(files.stream().map(File::toPath).toArray(Path[]::new));
+		assertEquals(expectedIds, records.map(rec -> rec.get(WarcRecord.WARC_RECORD_ID)).collect(Collectors.toList()));
+		records.close();
+	}
+
+	@Test
+	public void testParallelStreamKeepsOrder() {
+		WarcRecordSpliterator spliterator = new WarcRecordSpliterator(files);
+		spliterator.setMinSplitSize(100);
+		Stream<WarcRecord> records = StreamSupport.stream(spliterator, true);
+		assertEquals(expectedIds, records.map(rec -> rec.get(WarcRecord.WARC_RECORD_ID)).collect(Collectors.toList()));
+		spliterator.close();
+	}
+
+	@Test
+	public void testSplitWithinGzipFile() {
+		WarcRecordSpliterator spliterator = new WarcRecordSpliterator(Arrays.asList(perRecordGzFile));
+		spliterator.setMinSplitSize(100);
+		ArrayList<Spliterator<WarcRecord>> parts = new ArrayList<Spliterator<WarcRecord>>();
+		Spliterator<WarcRecord> prefix;
+		while ((prefix = spliterator.trySplit()) != null) {
+			assertNotNull(prefix);
+			parts.add(prefix);
+		}
+		parts.add(spliterator);
+		// Each split is cut in two, keeping the second half:
+		assertEquals(true, parts.size() > 2);
+		ArrayList<String> ids = new ArrayList<String>();
+		for (Spliterator<WarcRecord> part : parts)
+			part.forEachRemaining(rec -> ids.add(rec.get(WarcRecord.WARC_RECORD_ID)));
+		assertEquals(expectedIds.subList(0, ids.size()), ids);
+	}
+
+	@Test
+	public void testReaderStream() throws IOException {
+		ArrayList<String> readerIds = new ArrayList<String>();
+		WarcRecordReader reader = new WarcRecordReader(files);
+		while (reader.nextKeyValue(false))
+			readerIds.add(reader.getCurrentValue().get(WarcRecord.WARC_RECORD_ID));
+		reader.close();
+
+		// The stream continues where nextKeyValue() left off, in the reader's order of files:
+		reader = new WarcRecordReader(files);
+		for (int i=0; i<3; i++)
+			reader.nextKeyValue();
+		List<String> rest = reader.stream().parallel().map(rec -> rec.get(WarcRecord.WARC_RECORD_ID)).collect(Collectors.toList());
+		assertEquals(readerIds.subList(3, readerIds.size()), rest);
+
+		reader = new WarcRecordReader(files);
+		assertEquals(readerIds, reader.stream().map(rec -> rec.get(WarcRecord.WARC_RECORD_ID)).collect(Collectors.toList()));
+	}
+}